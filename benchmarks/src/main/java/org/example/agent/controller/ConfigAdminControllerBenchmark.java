@@ -0,0 +1,44 @@
+package org.example.agent.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.agent.factory.TelecomToolFactory;
+import org.example.llm.dto.tool.ToolDefinition;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 管理页工具列表 (GET /api/config/tools) 中逐个工具生成参数概括的耗时。
+ * <p>
+ * 运行: java -jar benchmarks/target/benchmarks.jar ConfigAdminControllerBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigAdminControllerBenchmark {
+
+    private ConfigAdminController controller;
+    private List<ToolDefinition> tools;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        controller = new ConfigAdminController(null, new ObjectMapper(), null, null, null);
+        tools = TelecomToolFactory.getAllToolDefinitions(Collections.emptyMap());
+    }
+
+    /**
+     * 一次请求的全部工具。
+     */
+    @Benchmark
+    public void getParameterSummary(Blackhole bh) {
+        for (ToolDefinition tool : tools) {
+            bh.consume(controller.getParameterSummary(tool));
+        }
+    }
+}
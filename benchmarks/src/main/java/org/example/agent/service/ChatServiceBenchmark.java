@@ -0,0 +1,72 @@
+package org.example.agent.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.agent.component.ProcessManager;
+import org.example.agent.component.WorkflowGraph;
+import org.example.benchmarks.BenchmarkData;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ChatService 每轮对话都会走的纯 CPU 路径：人设拼装、流程依赖编译、可办理流程计算、JSON 回复清洗。
+ * <p>
+ * 与 ChatService 同包以调用包级可见方法；ConfigService 用内存 Map 替代数据库，其余依赖传 null (这些方法不会用到)。
+ * 运行: java -jar benchmarks/target/benchmarks.jar ChatServiceBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatServiceBenchmark {
+
+    private ChatService chatService;
+    private List<String> processes;
+    private String dependencies;
+    private String routerReply;
+    private ProcessManager processManager;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, String> settings = BenchmarkData.globalSettings();
+        ConfigService configService = new ConfigService(null, null, new ObjectMapper()) {
+            @Override
+            public String getGlobalSetting(String key, String defaultValue) {
+                return settings.getOrDefault(key, defaultValue);
+            }
+        };
+        processManager = new ProcessManager();
+        processManager.updateProcesses(configService.getWorkflowGraph());
+        processes = configService.getProcessList();
+        // 完成前三个流程，让依赖判断有真实的命中 / 未命中
+        processes.stream().limit(3).forEach(processManager::completeProcess);
+
+        chatService = new ChatService(null, null, configService, null, null, null, null, null, null, null);
+        dependencies = configService.getDependencies();
+        routerReply = BenchmarkData.fencedRouterReply();
+    }
+
+    @Benchmark
+    public String buildDynamicPersona() {
+        return chatService.buildDynamicPersona(processManager, "1", "请先安抚用户情绪。", "查询天气", true);
+    }
+
+    @Benchmark
+    public List<String> getAvailableProcesses() {
+        return chatService.getAvailableProcesses(processManager);
+    }
+
+    @Benchmark
+    public WorkflowGraph compileWorkflow() {
+        return WorkflowGraph.compile(processes, dependencies);
+    }
+
+    @Benchmark
+    public String cleanLlmResponse() {
+        return chatService.cleanLlmResponse(routerReply);
+    }
+}
@@ -0,0 +1,126 @@
+package org.example.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 将一次 JMH 运行结果 (-rf json) 与已提交的基线对比，耗时或每次调用分配字节数 (gc.alloc.rate.norm)
+ * 超过容差即以非 0 退出码结束，可直接用于 CI。
+ * <ul>
+ *     <li>耗时：超过基线 (1 + 容差) 倍，且本次的置信区间下界高于基线的置信区间上界 (排除噪声) 才算退化；</li>
+ *     <li>基准集合必须与基线一致：本次有而基线没有 (新增 / 改名)，或基线有而本次没有 (已删除)，都视为失败，
+ *         需要重新生成基线，避免基线悄悄过期。</li>
+ * </ul>
+ * <p>
+ * 运行: java -cp benchmarks/target/benchmarks.jar org.example.benchmarks.BaselineCheck
+ *       benchmarks/baseline/hot-paths.json target/hot-paths.json [容差, 默认 0.25]
+ */
+public final class BaselineCheck {
+
+    private static final String ALLOC_NORM = "gc.alloc.rate.norm";
+
+    /**
+     * JMH 1.36 及更早版本的指标名带前缀 "·"。
+     */
+    private static final String LEGACY_ALLOC_NORM = "·gc.alloc.rate.norm";
+
+    /**
+     * 分配字节数的绝对容差，避免极小分配量 (几十字节) 的抖动被判为退化。
+     */
+    private static final double ALLOC_SLACK_BYTES = 64;
+
+    private BaselineCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("用法: BaselineCheck <baseline.json> <current.json> [tolerance]");
+            System.exit(2);
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.25;
+        ObjectMapper objectMapper = new ObjectMapper();
+        Map<String, JsonNode> baseline = index(objectMapper.readTree(new File(args[0])));
+        Map<String, JsonNode> current = index(objectMapper.readTree(new File(args[1])));
+
+        int regressions = 0;
+        Set<String> unmatched = new TreeSet<>();
+        System.out.printf("%-70s %12s %12s %12s %12s%n", "benchmark", "base", "current", "base B/op", "cur B/op");
+        for (Map.Entry<String, JsonNode> entry : current.entrySet()) {
+            JsonNode base = baseline.get(entry.getKey());
+            if (base == null) {
+                System.out.printf("%-70s %12s (无基线)%n", entry.getKey(), "-");
+                unmatched.add(entry.getKey() + " (基线中没有)");
+                continue;
+            }
+            JsonNode basePrimary = base.path("primaryMetric");
+            JsonNode curPrimary = entry.getValue().path("primaryMetric");
+            double baseScore = basePrimary.path("score").asDouble();
+            double curScore = curPrimary.path("score").asDouble();
+            double baseAlloc = allocNorm(base);
+            double curAlloc = allocNorm(entry.getValue());
+
+            boolean slower = curScore > baseScore * (1 + tolerance)
+                    && confidenceBound(curPrimary, 0, curScore) > confidenceBound(basePrimary, 1, baseScore);
+            boolean moreAlloc = baseAlloc >= 0 && curAlloc > baseAlloc * (1 + tolerance) + ALLOC_SLACK_BYTES;
+            System.out.printf("%-70s %12.3f %12.3f %12.0f %12.0f%s%n", entry.getKey(), baseScore, curScore,
+                    baseAlloc, curAlloc, slower || moreAlloc ? "  <-- 退化" : "");
+            if (slower || moreAlloc) {
+                regressions++;
+            }
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                unmatched.add(key + " (本次未运行)");
+            }
+        }
+        if (!unmatched.isEmpty()) {
+            System.err.println("基准集合与基线不一致，请按 benchmarks/baseline/README.md 重新生成基线:");
+            unmatched.forEach(key -> System.err.println("  " + key));
+        }
+        if (regressions > 0) {
+            System.err.printf("%d 项基准超过基线容差 %.0f%%%n", regressions, tolerance * 100);
+        }
+        if (regressions > 0 || !unmatched.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 置信区间的下界 (index 0) 或上界 (index 1)；没有置信区间 (单次迭代) 时退回到得分本身。
+     */
+    private static double confidenceBound(JsonNode primaryMetric, int index, double fallback) {
+        JsonNode bound = primaryMetric.path("scoreConfidence").path(index);
+        return bound.isNumber() && !Double.isNaN(bound.asDouble()) ? bound.asDouble() : fallback;
+    }
+
+    /**
+     * key = benchmark 全名 + 参数，同一个基准的不同 @Param 组合分开比较。
+     */
+    private static Map<String, JsonNode> index(JsonNode results) {
+        Map<String, JsonNode> byKey = new LinkedHashMap<>();
+        for (JsonNode result : results) {
+            StringBuilder key = new StringBuilder(result.path("benchmark").asText());
+            Iterator<Map.Entry<String, JsonNode>> params = result.path("params").fields();
+            while (params.hasNext()) {
+                Map.Entry<String, JsonNode> param = params.next();
+                key.append(' ').append(param.getKey()).append('=').append(param.getValue().asText());
+            }
+            byKey.put(key.toString(), result);
+        }
+        return byKey;
+    }
+
+    private static double allocNorm(JsonNode result) {
+        JsonNode metrics = result.path("secondaryMetrics");
+        JsonNode metric = metrics.has(ALLOC_NORM) ? metrics.path(ALLOC_NORM) : metrics.path(LEGACY_ALLOC_NORM);
+        return metric.isMissingNode() ? -1 : metric.path("score").asDouble();
+    }
+}
@@ -0,0 +1,117 @@
+package org.example.benchmarks;
+
+import org.example.llm.dto.llm.LlmMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基准测试共用的样本数据，尽量贴近线上真实负载 (长人设的 TOOL 消息、webSearch 结果等)。
+ */
+public final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * 近似 DirectLlmService 工具链路中注入的人设文本 (约 3KB 中文)。
+     */
+    public static String persona() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 12; i++) {
+            sb.append("角色：天天，具备语言理解、语境识别和情绪回应能力的虚拟智能语音助手。")
+                    .append("当执行任何设备控制指令时，必须立即调用MCP时间服务获取当前准确时间戳。")
+                    .append("尾缀格式：（我已完成[动作]，[参数]，[时间]）。\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 近似 webSearch 返回的搜索结果 JSON (约 4KB)。
+     */
+    public static String webSearchPayload() {
+        StringBuilder sb = new StringBuilder("{\"pages\":[");
+        for (int i = 0; i < 10; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"title\":\"广州今日天气晴转多云，气温 22~29 度 ").append(i).append("\",")
+                    .append("\"url\":\"https://news.example.com/article/").append(10000 + i).append("\",")
+                    .append("\"snippet\":\"据气象台消息，今天白天到夜间晴转多云，东南风 2 到 3 级，")
+                    .append("相对湿度 60% 到 85%，空气质量良，适宜户外活动。\"}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * 构造包含若干轮 "用户 -> 工具调用 -> 工具结果 -> 回复" 的上下文历史。
+     */
+    public static List<LlmMessage> directChatHistory(int turns) {
+        List<LlmMessage> history = new ArrayList<>();
+        String persona = persona();
+        String toolResult = webSearchPayload();
+        for (int i = 0; i < turns; i++) {
+            history.add(LlmMessage.builder().role(LlmMessage.Role.USER).content("帮我查一下广州今天的天气怎么样？").build());
+            history.add(LlmMessage.builder().role(LlmMessage.Role.ASSISTANT)
+                    .content("[{\"id\":\"call_" + i + "\",\"type\":\"function\",\"function\":{\"name\":\"getWeather\",\"arguments\":\"{\\\"city\\\":\\\"广州\\\"}\"}}]")
+                    .build());
+            history.add(LlmMessage.builder().role(LlmMessage.Role.TOOL)
+                    .content("【重要指令】" + persona + "\n\n【工具结果】\n" + toolResult)
+                    .toolCallId("call_" + i)
+                    .build());
+            history.add(LlmMessage.builder().role(LlmMessage.Role.ASSISTANT)
+                    .content("广州今天晴转多云，22到29度，挺舒服的呢。")
+                    .build());
+        }
+        return history;
+    }
+
+    /**
+     * 近似线上 global_settings 表：人设模板、12 个业务流程及其依赖、沟通禁忌。
+     */
+    public static Map<String, String> globalSettings() {
+        StringBuilder processes = new StringBuilder();
+        StringBuilder dependencies = new StringBuilder();
+        for (int i = 1; i <= 12; i++) {
+            if (i > 1) {
+                processes.append('\n');
+            }
+            processes.append(i).append(". 业务流程").append(i).append(i % 4 == 0 ? "*" : "");
+            // 第 1 个流程没有前置 (自依赖会被 WorkflowGraph 视为配置错误)
+            if (i > 1) {
+                dependencies.append(i).append(" -> ").append(i - 1).append(", ").append(Math.max(1, i - 2)).append('\n');
+            }
+        }
+        Map<String, String> settings = new HashMap<>();
+        settings.put("persona_template", "你是电信客服天天，当前状态码 {code}。\n可办理任务：{tasks}\n完整流程：{workflow}\n" + persona());
+        settings.put("processes", processes.toString());
+        settings.put("dependencies", dependencies.toString());
+        settings.put("safety_redlines", "不得承诺资费优惠；不得泄露用户隐私；不得评价竞争对手。");
+        settings.put("enable_workflow", "true");
+        return settings;
+    }
+
+    /**
+     * 路由 / 预处理模型常见的带 markdown 代码块的 JSON 回复。
+     */
+    public static String fencedRouterReply() {
+        return "好的，分析结果如下：\n```json\n{\"intent\":\"查询天气\",\"emotion\":\"平静\",\"toolName\":\"getWeather\","
+                + "\"toolArgs\":{\"city\":\"广州\"},\"reason\":\"用户询问天气\"}\n```\n以上。";
+    }
+
+    /**
+     * DashScope 流式返回的一段 SSE 行 (已按行拆分)，含 id / event / data 行及结尾 usage。
+     */
+    public static List<String> qwenSseLines(int chunks) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            lines.add("id:" + (i + 1));
+            lines.add("event:result");
+            lines.add(":HTTP_STATUS/200");
+            lines.add("data:{\"output\":{\"choices\":[{\"message\":{\"content\":\"广州今天晴转多云，\",\"role\":\"assistant\"},"
+                    + "\"finish_reason\":\"null\"}]},\"usage\":{\"total_tokens\":" + (120 + i * 6) + ",\"output_tokens\":" + (i * 6 + 6)
+                    + ",\"input_tokens\":114},\"request_id\":\"5b4c2a1e-0f7d-9d3c-8a8e-2f0a6c1d7e3b\"}");
+        }
+        return lines;
+    }
+}
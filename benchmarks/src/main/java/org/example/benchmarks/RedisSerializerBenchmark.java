@@ -0,0 +1,82 @@
+package org.example.benchmarks;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.example.agent.config.CompactRedisSerializer;
+import org.example.llm.dto.llm.LlmMessage;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比 Redis 上下文历史在各编码下的字节数与编解码耗时。
+ * 字节数在 Setup 阶段打印 ([size] 开头的行)，耗时由 JMH 统计。
+ * <p>
+ * 运行: java -jar benchmarks/target/benchmarks.jar RedisSerializerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedisSerializerBenchmark {
+
+    /**
+     * legacy = 旧版 Jackson2JsonRedisSerializer；其余为 CompactRedisSerializer 的 格式/是否LZ4 组合
+     */
+    @Param({"legacy", "json", "json+lz4", "smile", "smile+lz4", "cbor", "cbor+lz4"})
+    public String codec;
+
+    private RedisSerializer<List<LlmMessage>> serializer;
+    private List<LlmMessage> history;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
+        objectMapper.registerModule(new JavaTimeModule());
+        JavaType type = objectMapper.getTypeFactory().constructCollectionType(List.class, LlmMessage.class);
+
+        if ("legacy".equals(codec)) {
+            serializer = new Jackson2JsonRedisSerializer<>(objectMapper, type);
+        } else {
+            String[] parts = codec.split("\\+");
+            boolean lz4 = parts.length > 1;
+            serializer = new CompactRedisSerializer<>(objectMapper, type,
+                    CompactRedisSerializer.Format.of(parts[0]), lz4, 1024);
+        }
+
+        history = BenchmarkData.directChatHistory(6);
+        encoded = serializer.serialize(history);
+        System.out.printf("%n[size] codec=%s bytes=%d%n", codec, encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return serializer.serialize(history);
+    }
+
+    @Benchmark
+    public List<LlmMessage> decode() {
+        return serializer.deserialize(encoded);
+    }
+
+    /**
+     * 仅打印各编码的字节数，不跑 JMH。
+     */
+    public static void main(String[] args) {
+        for (String c : new String[]{"legacy", "json", "json+lz4", "smile", "smile+lz4", "cbor", "cbor+lz4"}) {
+            RedisSerializerBenchmark b = new RedisSerializerBenchmark();
+            b.codec = c;
+            b.setUp();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.benchmarks;
+
+import org.example.llm.tokenizer.BpeTokenizer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 用厂商分词器的参考结果校验本地 BPE 计数 (一致率低于阈值即以非 0 退出码结束，可直接用于 CI)。
+ * <p>
+ * 参考文件每行 "文本&lt;TAB&gt;Token 数"，文本中的换行 / 制表符写作 \n / \t，可用官方分词器生成，例如：
+ * <pre>
+ * python -c "from transformers import AutoTokenizer as A; t=A.from_pretrained('Qwen/Qwen2.5-7B-Instruct'); ..."
+ * </pre>
+ * 运行: java -cp benchmarks/target/benchmarks.jar org.example.benchmarks.TokenizerParityCheck
+ *       qwen.tiktoken qwen-reference.tsv [最低一致率, 默认 1.0]
+ */
+public final class TokenizerParityCheck {
+
+    private TokenizerParityCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("用法: TokenizerParityCheck <qwen.tiktoken|merges.txt> <reference.tsv> [minRatio]");
+            System.exit(2);
+        }
+        double minRatio = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+        BpeTokenizer tokenizer;
+        try (InputStream in = Files.newInputStream(Path.of(args[0]))) {
+            tokenizer = args[0].endsWith(".tiktoken")
+                    ? BpeTokenizer.fromTiktoken(in, BpeTokenizer.QWEN_PATTERN)
+                    : BpeTokenizer.fromMerges(in, BpeTokenizer.QWEN_PATTERN);
+        }
+
+        int total = 0;
+        int matched = 0;
+        try (BufferedReader reader = Files.newBufferedReader(Path.of(args[1]), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                if (line.isBlank() || tab < 0) {
+                    continue;
+                }
+                String text = unescape(line.substring(0, tab));
+                int expected = Integer.parseInt(line.substring(tab + 1).trim());
+                int actual = tokenizer.count(text);
+                total++;
+                if (actual == expected) {
+                    matched++;
+                } else {
+                    System.out.printf("[mismatch] expected=%d actual=%d text=%s%n", expected, actual, abbreviate(text));
+                }
+            }
+        }
+        double ratio = total == 0 ? 0 : (double) matched / total;
+        System.out.printf("词表 %d 条，样本 %d 条，一致 %d 条 (%.2f%%)%n", tokenizer.vocabularySize(), total, matched, ratio * 100);
+        if (total == 0 || ratio < minRatio) {
+            System.exit(1);
+        }
+    }
+
+    private static String unescape(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                switch (next) {
+                    case 'n' -> sb.append('\n');
+                    case 't' -> sb.append('\t');
+                    case 'r' -> sb.append('\r');
+                    default -> sb.append(next);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String abbreviate(String text) {
+        String flat = text.replace("\n", "\\n");
+        return flat.length() > 60 ? flat.substring(0, 60) + "..." : flat;
+    }
+}
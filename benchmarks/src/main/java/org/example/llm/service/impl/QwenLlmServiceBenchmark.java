@@ -0,0 +1,74 @@
+package org.example.llm.service.impl;
+
+import org.example.agent.factory.TelecomToolFactory;
+import org.example.benchmarks.BenchmarkData;
+import org.example.llm.dto.api.qwen.QwenApiReq;
+import org.example.llm.dto.llm.LlmMessage;
+import org.example.llm.dto.tool.ToolDefinition;
+import org.example.llm.service.StreamContext;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 通义千问调用前后的 CPU 开销：请求体构建 (含消息转换) 与流式 SSE 行解析。
+ * <p>
+ * 与 QwenLlmServiceImpl 同包以调用包级可见方法；Feign 客户端传 null (这些方法不发请求)。
+ * 运行: java -jar benchmarks/target/benchmarks.jar QwenLlmServiceBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QwenLlmServiceBenchmark {
+
+    private QwenLlmServiceImpl service;
+    private List<LlmMessage> messages;
+    private List<ToolDefinition> tools;
+    private Map<String, Object> parameters;
+    private List<String> sseLines;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        service = new QwenLlmServiceImpl(null, WebClient.builder(), null, null, null, "", "", "", "");
+        messages = new ArrayList<>();
+        messages.add(LlmMessage.builder().role(LlmMessage.Role.SYSTEM).content(BenchmarkData.persona()).build());
+        messages.addAll(BenchmarkData.directChatHistory(6));
+        tools = TelecomToolFactory.getAllToolDefinitions(Collections.emptyMap());
+        parameters = Map.of("temperature", 0.7, "top_p", 0.8, "max_tokens", 1024);
+        sseLines = BenchmarkData.qwenSseLines(40);
+    }
+
+    @Benchmark
+    public QwenApiReq buildQwenRequest() {
+        return service.buildQwenRequest("qwen-plus", parameters, messages, tools);
+    }
+
+    @Benchmark
+    public void convertMessages(Blackhole bh) {
+        for (LlmMessage message : messages) {
+            bh.consume(service.convertLlmMessageToQwenMessage(message));
+        }
+    }
+
+    /**
+     * 一次流式回复 (40 个增量帧) 的逐行解析。
+     */
+    @Benchmark
+    public void parseSseLines(Blackhole bh) {
+        StreamContext ctx = new StreamContext();
+        AtomicInteger tokenCount = new AtomicInteger();
+        for (String line : sseLines) {
+            bh.consume(service.extractStreamText(line, ctx, tokenCount));
+        }
+    }
+}
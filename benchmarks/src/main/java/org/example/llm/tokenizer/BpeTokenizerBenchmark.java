@@ -0,0 +1,134 @@
+package org.example.llm.tokenizer;
+
+import org.example.benchmarks.BenchmarkData;
+import org.example.llm.dto.llm.LlmMessage;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 本地 BPE 计数的耗时与分配 (开启 -prof gc 查看 gc.alloc.rate.norm，热路径应接近 0 B/op)。
+ * <p>
+ * 真实词表不随代码发布，Setup 阶段在样本文本上训练一个小型 merge 表 (llm.tokenizer.benchmark.merges 条，默认 300，片段大多需要多轮合并)，
+ * 合并过程与真实词表相同，只是 rank 表更小。
+ * <p>
+ * 运行: java -jar benchmarks/target/benchmarks.jar BpeTokenizerBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BpeTokenizerBenchmark {
+
+    private BpeTokenizer tokenizer;
+    private String persona;
+    private List<LlmMessage> history;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        persona = BenchmarkData.persona();
+        history = BenchmarkData.directChatHistory(6);
+        String corpus = persona + BenchmarkData.webSearchPayload() + BenchmarkData.fencedRouterReply();
+        tokenizer = BpeTokenizer.fromRanks(train(corpus, Integer.getInteger("llm.tokenizer.benchmark.merges", 300)),
+                BpeTokenizer.QWEN_PATTERN);
+        System.out.printf("%n[tokens] vocab=%d persona=%d history=%d heuristic persona=%d%n",
+                tokenizer.vocabularySize(), tokenizer.count(persona), tokenizer.countMessages(history),
+                HeuristicTokenCounter.INSTANCE.count(persona));
+    }
+
+    @Benchmark
+    public int countPersona() {
+        return tokenizer.count(persona);
+    }
+
+    @Benchmark
+    public int countHistory() {
+        return tokenizer.countMessages(history);
+    }
+
+    @Benchmark
+    public int heuristicHistory() {
+        return HeuristicTokenCounter.INSTANCE.countMessages(history);
+    }
+
+    /**
+     * 朴素 BPE 训练：按预分词片段统计相邻对频次，每轮合并出现最多的一对，返回按 rank 排列的 Token 字节。
+     */
+    static List<byte[]> train(String corpus, int merges) {
+        List<byte[]> vocab = new ArrayList<>();
+        for (int b = 0; b < 256; b++) {
+            vocab.add(new byte[]{(byte) b});
+        }
+        List<int[]> words = new ArrayList<>();
+        Matcher matcher = Pattern.compile(BpeTokenizer.QWEN_PATTERN, Pattern.UNICODE_CHARACTER_CLASS).matcher(corpus);
+        while (matcher.find()) {
+            byte[] bytes = matcher.group().getBytes(StandardCharsets.UTF_8);
+            int[] ids = new int[bytes.length];
+            for (int i = 0; i < bytes.length; i++) {
+                ids[i] = bytes[i] & 0xFF;
+            }
+            words.add(ids);
+        }
+        for (int m = 0; m < merges; m++) {
+            Map<Long, Integer> pairs = new HashMap<>();
+            for (int[] ids : words) {
+                for (int i = 0; i + 1 < ids.length; i++) {
+                    pairs.merge(((long) ids[i] << 32) | ids[i + 1], 1, Integer::sum);
+                }
+            }
+            long best = -1;
+            int bestCount = 0;
+            for (Map.Entry<Long, Integer> e : pairs.entrySet()) {
+                if (e.getValue() > bestCount) {
+                    bestCount = e.getValue();
+                    best = e.getKey();
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            int left = (int) (best >>> 32);
+            int right = (int) best;
+            byte[] a = vocab.get(left);
+            byte[] b = vocab.get(right);
+            byte[] merged = new byte[a.length + b.length];
+            System.arraycopy(a, 0, merged, 0, a.length);
+            System.arraycopy(b, 0, merged, a.length, b.length);
+            int id = vocab.size();
+            vocab.add(merged);
+            for (int w = 0; w < words.size(); w++) {
+                int[] ids = words.get(w);
+                int n = 0;
+                for (int i = 0; i < ids.length; i++) {
+                    if (i + 1 < ids.length && ids[i] == left && ids[i + 1] == right) {
+                        ids[n++] = id;
+                        i++;
+                    } else {
+                        ids[n++] = ids[i];
+                    }
+                }
+                if (n < ids.length) {
+                    words.set(w, Arrays.copyOf(ids, n));
+                }
+            }
+        }
+        return vocab;
+    }
+
+    /**
+     * 仅打印词表大小与 Token 数，不跑 JMH。
+     */
+    public static void main(String[] args) {
+        new BpeTokenizerBenchmark().setUp();
+    }
+}
@@ -0,0 +1,166 @@
+package org.example.agent.component;
+
+import org.example.agent.dto.ActionMarker;
+import org.example.llm.service.StreamTokenFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 【新增】动作标记的增量解析器，逐片处理流式输出，标记一闭合就回调，不必等整段回复结束。
+ * <p>
+ * 识别两种标记 (语法见 {@link ActionMarker})：括号包裹的 "（我已完成...）" 与不带括号的 "我已完成流程[...]"。
+ * 可能是标记开头的文本会被暂时扣留，确认不是标记 (或超过 {@link #MAX_MARKER_LENGTH}) 后原样吐出；
+ * strip 为 true 时标记本身不再出现在投递给客户端的文本中。
+ * <p>
+ * 每轮流式回复使用一个新实例，非线程安全的状态由 synchronized 保护。
+ */
+public class ActionMarkerParser implements StreamTokenFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(ActionMarkerParser.class);
+
+    private static final String KEYWORD = "我已完成";
+    private static final String WORKFLOW_PREFIX = "流程[";
+    private static final int MAX_MARKER_LENGTH = 256;
+
+    private enum Match { NONE, PREFIX, COMPLETE }
+
+    private final boolean strip;
+    private final Consumer<ActionMarker> listener;
+    private final StringBuilder pending = new StringBuilder();
+
+    public ActionMarkerParser(boolean strip, Consumer<ActionMarker> listener) {
+        this.strip = strip;
+        this.listener = listener;
+    }
+
+    /**
+     * 解析一段完整文本 (非流式回复)，返回其中的全部标记。
+     */
+    public static List<ActionMarker> parseAll(String text) {
+        List<ActionMarker> markers = new ArrayList<>();
+        if (text != null && !text.isEmpty()) {
+            ActionMarkerParser parser = new ActionMarkerParser(false, markers::add);
+            parser.onToken(text);
+            parser.finish();
+        }
+        return markers;
+    }
+
+    @Override
+    public synchronized String onToken(String token) {
+        StringBuilder out = new StringBuilder(token.length());
+        for (int i = 0; i < token.length(); i++) {
+            feed(token.charAt(i), out);
+        }
+        return out.toString();
+    }
+
+    @Override
+    public synchronized String finish() {
+        // 未闭合的标记不触发动作，按普通文本吐出
+        String rest = pending.toString();
+        pending.setLength(0);
+        return rest;
+    }
+
+    private void feed(char c, StringBuilder out) {
+        if (pending.length() == 0) {
+            if (isOpen(c) || c == KEYWORD.charAt(0)) {
+                pending.append(c);
+            } else {
+                out.append(c);
+            }
+            return;
+        }
+        pending.append(c);
+        Match match = match();
+        if (match == Match.PREFIX) {
+            return;
+        }
+        if (match == Match.COMPLETE) {
+            ActionMarker marker = toMarker(pending.toString());
+            if (marker != null) {
+                if (!strip) {
+                    out.append(pending);
+                }
+                pending.setLength(0);
+                fire(marker);
+                return;
+            }
+        }
+        // 不是标记：吐出第一个字符，剩余部分重新扫描 (其中可能还有标记的开头)
+        String rest = pending.substring(1);
+        out.append(pending.charAt(0));
+        pending.setLength(0);
+        for (int i = 0; i < rest.length(); i++) {
+            feed(rest.charAt(i), out);
+        }
+    }
+
+    private Match match() {
+        if (pending.length() > MAX_MARKER_LENGTH) {
+            return Match.NONE;
+        }
+        boolean opened = isOpen(pending.charAt(0));
+        String body = pending.substring(opened ? 1 : 0);
+        if (body.length() <= KEYWORD.length()) {
+            return KEYWORD.startsWith(body) ? Match.PREFIX : Match.NONE;
+        }
+        if (!body.startsWith(KEYWORD)) {
+            return Match.NONE;
+        }
+        char last = body.charAt(body.length() - 1);
+        if (opened) {
+            return isClose(last) ? Match.COMPLETE : Match.PREFIX;
+        }
+        String after = body.substring(KEYWORD.length());
+        if (after.length() <= WORKFLOW_PREFIX.length()) {
+            return WORKFLOW_PREFIX.startsWith(after) ? Match.PREFIX : Match.NONE;
+        }
+        if (!after.startsWith(WORKFLOW_PREFIX)) {
+            return Match.NONE;
+        }
+        return last == ']' ? Match.COMPLETE : Match.PREFIX;
+    }
+
+    private static ActionMarker toMarker(String raw) {
+        boolean opened = isOpen(raw.charAt(0));
+        String content = opened ? raw.substring(1, raw.length() - 1) : raw;
+        String after = content.substring(KEYWORD.length()).trim();
+        if (after.startsWith(WORKFLOW_PREFIX) && after.indexOf(']') > 0) {
+            String name = after.substring(WORKFLOW_PREFIX.length(), after.lastIndexOf(']'));
+            // 与旧的正则一致：模型有时输出整条路径 "A → B"，只取最后一段
+            int separator = Math.max(name.lastIndexOf('—'), Math.max(name.lastIndexOf('→'), name.lastIndexOf('>')));
+            name = name.substring(separator + 1).trim();
+            return name.isEmpty() ? null : new ActionMarker(ActionMarker.Type.WORKFLOW, name, List.of(), raw);
+        }
+        List<String> fields = Arrays.stream(after.split("[，,]"))
+                .map(String::trim).filter(f -> !f.isEmpty()).toList();
+        if (fields.isEmpty()) {
+            return null;
+        }
+        return new ActionMarker(ActionMarker.Type.DEVICE, fields.get(0), fields.subList(1, fields.size()), raw);
+    }
+
+    private void fire(ActionMarker marker) {
+        try {
+            listener.accept(marker);
+        } catch (RuntimeException e) {
+            // 回调失败不能中断流式输出
+            log.error("处理动作标记失败: {}", marker.raw(), e);
+        }
+    }
+
+    private static boolean isOpen(char c) {
+        return c == '（' || c == '(';
+    }
+
+    private static boolean isClose(char c) {
+        return c == '）' || c == ')';
+    }
+}
@@ -0,0 +1,116 @@
+package org.example.agent.component;
+
+import org.example.llm.dto.llm.LlmMessage;
+import org.example.llm.history.ConversationStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 【新增】把旧版 DirectLlmService 的上下文 (值键 llm:direct:session:{会话 ID}，整段 List&lt;LlmMessage&gt;)
+ * 一次性迁移到 ConversationStore 的 List 布局 (llm:history:{厂商}:{会话 ID})。
+ * <p>
+ * 迁移是惰性的：某个会话的新历史为空时，才用 MULTI(GET + DEL) 原子地取走旧键，
+ * 追加到新历史的开头后再读一次。旧键被取走后不会再被读到，多个节点同时读取也只有一个能拿到。
+ * 旧键全部过期或迁移完成后可关闭 llm.history.legacy-migration.enabled，省掉空历史时多出的一次 Redis 往返。
+ */
+public class LegacyHistoryMigration implements ConversationStore {
+
+    private static final Logger log = LoggerFactory.getLogger(LegacyHistoryMigration.class);
+
+    public static final String LEGACY_PREFIX = "llm:direct:session:";
+
+    private final ConversationStore delegate;
+    private final RedisTemplate<String, List<LlmMessage>> legacyTemplate;
+
+    public LegacyHistoryMigration(ConversationStore delegate, RedisTemplate<String, List<LlmMessage>> legacyTemplate) {
+        this.delegate = delegate;
+        this.legacyTemplate = legacyTemplate;
+    }
+
+    @Override
+    public void append(String conversationId, List<LlmMessage> messages) {
+        delegate.append(conversationId, messages);
+    }
+
+    @Override
+    public List<LlmMessage> window(String conversationId) {
+        List<LlmMessage> messages = delegate.window(conversationId);
+        return messages.isEmpty() && migrate(conversationId) ? delegate.window(conversationId) : messages;
+    }
+
+    @Override
+    public List<LlmMessage> snapshot(String conversationId) {
+        List<LlmMessage> messages = delegate.snapshot(conversationId);
+        return messages.isEmpty() && migrate(conversationId) ? delegate.snapshot(conversationId) : messages;
+    }
+
+    @Override
+    public List<LlmMessage> remove(String conversationId) {
+        List<LlmMessage> messages = delegate.remove(conversationId);
+        if (messages == null && migrate(conversationId)) {
+            messages = delegate.remove(conversationId);
+        }
+        return messages;
+    }
+
+    @Override
+    public void replace(String conversationId, List<LlmMessage> messages) {
+        delegate.replace(conversationId, messages);
+    }
+
+    /**
+     * 取走旧键并放到新历史的开头；没有旧键时返回 false
+     */
+    private boolean migrate(String conversationId) {
+        String sessionId = sessionIdOf(conversationId);
+        List<LlmMessage> legacy;
+        try {
+            legacy = takeLegacy(sessionId);
+        } catch (RuntimeException e) {
+            // 旧值读不出来 (编码不兼容等) 时放弃迁移，不影响新会话
+            log.warn("会话 {} 的旧版上下文迁移失败，按空历史处理: {}", sessionId, e.getMessage());
+            return false;
+        }
+        if (legacy == null || legacy.isEmpty()) {
+            return false;
+        }
+        // 读取与取走旧键之间可能已有新消息写入，保留在旧历史之后
+        List<LlmMessage> merged = new ArrayList<>(legacy);
+        merged.addAll(delegate.snapshot(conversationId));
+        delegate.replace(conversationId, merged);
+        log.info("会话 {} 的旧版上下文已迁移到 {} ({} 条消息)", sessionId, conversationId, legacy.size());
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<LlmMessage> takeLegacy(String sessionId) {
+        String key = LEGACY_PREFIX + sessionId;
+        List<Object> results = legacyTemplate.execute(new SessionCallback<>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> List<Object> execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, List<LlmMessage>> ops = (RedisOperations<String, List<LlmMessage>>) operations;
+                ops.multi();
+                ops.opsForValue().get(key);
+                ops.delete(key);
+                return ops.exec();
+            }
+        });
+        return results == null || results.isEmpty() ? null : (List<LlmMessage>) results.get(0);
+    }
+
+    /**
+     * 会话历史 ID 的格式是 {厂商}:{会话 ID}，旧键只按会话 ID 存放
+     */
+    private static String sessionIdOf(String conversationId) {
+        int separator = conversationId.indexOf(':');
+        return separator < 0 ? conversationId : conversationId.substring(separator + 1);
+    }
+}
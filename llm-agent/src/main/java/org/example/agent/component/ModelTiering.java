@@ -0,0 +1,231 @@
+package org.example.agent.component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.example.agent.dto.ModelParameters;
+import org.example.agent.dto.ModelTierPolicy;
+import org.example.llm.service.LlmServiceManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 【新增】按轮次难度选择主模型 (策略见 {@link ModelTierPolicy}，存放在全局配置 model_tier_policy 中)。
+ * <p>
+ * 用于调阈值的指标：
+ * <ul>
+ *     <li>{@code llm.tier.decision} (tier / reason)：各档位的命中原因分布；</li>
+ *     <li>{@code llm.tier.latency} (tier / model / stage = llm | turn)：主模型调用与整轮耗时；</li>
+ *     <li>{@code llm.tier.quality} (tier / signal)：质量信号，empty_reply 为空回复，tool_error 为工具调用失败，
+ *         followup_negative 为下一轮用户表示没听懂 / 答非所问 (计在上一轮的档位上)。</li>
+ * </ul>
+ */
+@Component
+public class ModelTiering {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelTiering.class);
+
+    public static final String TIER_FAST = "fast";
+    public static final String TIER_LARGE = "large";
+
+    public static final String REASON_DISABLED = "disabled";
+    public static final String REASON_BUDGET = "budget";
+    public static final String REASON_INTENT = "intent";
+    public static final String REASON_EMOTION = "emotion";
+    public static final String REASON_KEYWORD = "keyword";
+    public static final String REASON_MULTI_QUESTION = "multi_question";
+    public static final String REASON_SHORT = "short";
+    public static final String REASON_DEFAULT = "default";
+
+    public static final String SIGNAL_EMPTY_REPLY = "empty_reply";
+    public static final String SIGNAL_TOOL_ERROR = "tool_error";
+    public static final String SIGNAL_FOLLOWUP_NEGATIVE = "followup_negative";
+
+    // 用户对上一轮回答不满意的说法
+    private static final Pattern NEGATIVE_FOLLOWUP = Pattern.compile(
+            "没听懂|听不懂|不明白|什么意思|啥意思|答非所问|不是这个|不对|说错了|没回答|你在说什么|再说一遍");
+
+    /**
+     * 本轮的分级结果。
+     *
+     * @param tier       fast / large
+     * @param reason     命中原因
+     * @param modelName  本轮主模型
+     * @param parameters 本轮主模型参数
+     */
+    public record TierDecision(String tier, String reason, String modelName, ModelParameters parameters) {
+        /**
+         * 分级是否生效 (策略未启用或配置无效时为 false，不记录任何指标)。
+         */
+        public boolean isActive() {
+            return !REASON_DISABLED.equals(reason);
+        }
+    }
+
+    private final LlmServiceManager llmServiceManager;
+    private final MeterRegistry meterRegistry;
+    // 已告警过的跨厂商 fastModel，避免每轮重复告警
+    private final Set<String> warnedModels = ConcurrentHashMap.newKeySet();
+
+    public ModelTiering(LlmServiceManager llmServiceManager, MeterRegistry meterRegistry) {
+        this.llmServiceManager = llmServiceManager;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * @param mainParams 主模型参数 (main_model_params)
+     * @param budget     本轮的预算决定；已因用量降级时不再分级
+     * @param intent     策略预处理识别的意图，策略未启用时为 null
+     * @param emotion    策略预处理识别的情绪，策略未启用时为 null
+     */
+    public TierDecision decide(ModelTierPolicy policy, ModelParameters mainParams, TokenAccounting.BudgetDecision budget,
+                               String userMessage, String intent, String emotion) {
+        TierDecision large = new TierDecision(TIER_LARGE, REASON_DISABLED, budget.modelName(), mainParams);
+        if (policy == null || !policy.isEnabled() || policy.getFastModel() == null || !sameProvider(policy, mainParams)) {
+            return large;
+        }
+        TierDecision decision;
+        if (budget.downgraded()) {
+            decision = withReason(large, REASON_BUDGET);
+        } else {
+            decision = classify(policy, mainParams, userMessage == null ? "" : userMessage.trim(), intent, emotion);
+        }
+        Counter.builder("llm.tier.decision").description("主模型分级结果")
+                .tag("tier", decision.tier())
+                .tag("reason", decision.reason())
+                .register(meterRegistry)
+                .increment();
+        return decision;
+    }
+
+    private TierDecision classify(ModelTierPolicy policy, ModelParameters mainParams, String message,
+                                  String intent, String emotion) {
+        TierDecision large = new TierDecision(TIER_LARGE, REASON_DEFAULT, mainParams.getModelName(), mainParams);
+        ModelParameters fastParams = policy.getFastModel();
+        if (contains(policy.getComplexIntents(), intent)) {
+            return withReason(large, REASON_INTENT);
+        }
+        if (contains(policy.getComplexEmotions(), emotion)) {
+            return withReason(large, REASON_EMOTION);
+        }
+        if (policy.getComplexKeywords() != null) {
+            for (String keyword : policy.getComplexKeywords()) {
+                if (keyword != null && !keyword.isBlank() && message.contains(keyword.trim())) {
+                    return withReason(large, REASON_KEYWORD);
+                }
+            }
+        }
+        if (questionCount(message) >= 2) {
+            return withReason(large, REASON_MULTI_QUESTION);
+        }
+        int length = message.codePointCount(0, message.length());
+        if (contains(policy.getSimpleIntents(), intent) && length <= policy.getMaxIntentChars()) {
+            return new TierDecision(TIER_FAST, REASON_INTENT, fastParams.getModelName(), fastParams);
+        }
+        if (length <= policy.getMaxSimpleChars()) {
+            return new TierDecision(TIER_FAST, REASON_SHORT, fastParams.getModelName(), fastParams);
+        }
+        return large;
+    }
+
+    private static TierDecision withReason(TierDecision decision, String reason) {
+        return new TierDecision(decision.tier(), reason, decision.modelName(), decision.parameters());
+    }
+
+    /**
+     * 会话历史按厂商保存，跨厂商切换会丢失上下文，这种配置不分级 (每个模型只告警一次)。
+     */
+    private boolean sameProvider(ModelTierPolicy policy, ModelParameters mainParams) {
+        String fastModel = policy.getFastModel().getModelName();
+        if (fastModel == null || fastModel.isBlank() || mainParams.getModelName() == null) {
+            return false;
+        }
+        try {
+            if (llmServiceManager.getProvider(fastModel) == llmServiceManager.getProvider(mainParams.getModelName())) {
+                return true;
+            }
+        } catch (IllegalArgumentException e) {
+            // 不支持的模型名，按跨厂商处理
+        }
+        if (warnedModels.add(fastModel)) {
+            log.warn("分级策略的 fastModel [{}] 与主模型 [{}] 不属于同一厂商，不分级", fastModel, mainParams.getModelName());
+        }
+        return false;
+    }
+
+    private static boolean contains(List<String> values, String value) {
+        if (values == null || value == null || value.isBlank()) {
+            return false;
+        }
+        String trimmed = value.trim();
+        for (String v : values) {
+            if (v != null && v.trim().equals(trimmed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int questionCount(String message) {
+        int count = 0;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c == '?' || c == '？') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 记录常规路径一轮的结果：主模型耗时 (含工具结果后的第二次调用)、整轮耗时，以及空回复 / 工具失败信号。
+     *
+     * @param toolOutcome 工具调用结果，未调用工具时为 null
+     */
+    public void recordOutcome(TierDecision decision, long llmMs, long turnMs, String reply, String toolOutcome) {
+        if (!decision.isActive()) {
+            return;
+        }
+        latencyTimer(decision, "llm").record(llmMs, TimeUnit.MILLISECONDS);
+        latencyTimer(decision, "turn").record(turnMs, TimeUnit.MILLISECONDS);
+        if (reply == null || reply.isBlank()) {
+            recordQuality(decision.tier(), SIGNAL_EMPTY_REPLY);
+        }
+        if (PipelineMetrics.OUTCOME_ERROR.equals(toolOutcome)) {
+            recordQuality(decision.tier(), SIGNAL_TOOL_ERROR);
+        }
+    }
+
+    private Timer latencyTimer(TierDecision decision, String stage) {
+        return Timer.builder("llm.tier.latency").description("各档位主模型与整轮耗时")
+                .tag("tier", decision.tier())
+                .tag("model", decision.modelName() == null ? PipelineMetrics.NONE : decision.modelName())
+                .tag("stage", stage)
+                .register(meterRegistry);
+    }
+
+    public void recordQuality(String tier, String signal) {
+        Counter.builder("llm.tier.quality").description("各档位的质量信号")
+                .tag("tier", tier)
+                .tag("signal", signal)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * 用户本轮是否在表达对上一轮回答的不满 (情绪在 complexEmotions 中也算)。
+     */
+    public boolean isNegativeFollowUp(ModelTierPolicy policy, String userMessage, String emotion) {
+        if (userMessage != null && NEGATIVE_FOLLOWUP.matcher(userMessage).find()) {
+            return true;
+        }
+        return policy != null && contains(policy.getComplexEmotions(), emotion);
+    }
+}
@@ -0,0 +1,199 @@
+package org.example.agent.component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 对话流水线各阶段耗时统计 (Micrometer Observation：同时产出 Timer 与链路 Span)。
+ * <p>
+ * 所有阶段共用一个指标名 {@code llm.pipeline.stage}，标签固定为 stage / model / tool / path / outcome / error
+ * (Prometheus 要求同名指标标签键一致，未知的值统一填 {@link #NONE})；百分位直方图在 application.properties 中配置。
+ * {@link #start} 创建的阶段会打开 Observation Scope，期间发起的 Feign / WebClient / Redis 调用自动成为其子 Span；
+ * 首字延迟这类"时间点"用 {@link #marker} 记录，只计时并在当前 Span 上打事件，不产生 Span。
+ * {@link Stage#stop} 返回本次耗时，页面上的 time-badge 直接使用该值，保证与监控数据同源。
+ */
+@Component
+public class PipelineMetrics {
+
+    public static final String METRIC_NAME = "llm.pipeline.stage";
+
+    // --- stage ---
+    public static final String STAGE_TURN = "turn";
+    public static final String STAGE_TURN_FIRST_TOKEN = "turn_first_token";
+    public static final String STAGE_STRATEGY = "strategy";
+    public static final String STAGE_ROUTER = "router";
+    public static final String STAGE_TOOL = "tool";
+    public static final String STAGE_LLM = "llm";
+    public static final String STAGE_LLM_FIRST_TOKEN = "llm_first_token";
+    public static final String STAGE_HISTORY_READ = "history_read";
+    public static final String STAGE_HISTORY_WRITE = "history_write";
+    public static final String STAGE_SESSION_READ = "session_read";
+    public static final String STAGE_SESSION_WRITE = "session_write";
+
+    // --- path ---
+    public static final String PATH_FAST_TRACK = "fast_track";
+    public static final String PATH_REGULAR = "regular";
+    public static final String PATH_MANUAL = "manual";
+    public static final String PATH_SENSITIVE = "sensitive";
+    public static final String PATH_ANSWER_CACHE = "answer_cache";
+    public static final String PATH_DIRECT = "direct";
+    public static final String PATH_DIRECT_STREAM = "direct_stream";
+
+    // --- outcome ---
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_ERROR = "error";
+    public static final String OUTCOME_FALLBACK = "fallback";
+    public static final String OUTCOME_CANCELLED = "cancelled";
+
+    public static final String NONE = "none";
+
+    private final MeterRegistry meterRegistry;
+    private final ObservationRegistry observationRegistry;
+
+    public PipelineMetrics(MeterRegistry meterRegistry, ObservationRegistry observationRegistry) {
+        this.meterRegistry = meterRegistry;
+        this.observationRegistry = observationRegistry;
+    }
+
+    /**
+     * 开始一个阶段：计时并创建 Span，Span 在当前线程上成为"当前 Observation"直到 stop。
+     * 必须在同一线程上 stop，且按后开先停的顺序结束。
+     */
+    public Stage start(String stage) {
+        return new Stage(stage, true);
+    }
+
+    /**
+     * 开始一个时间点计时 (如首字延迟)：只记录 Timer，stop 时在当前 Span 上打一个事件。
+     * 可以在任意线程上 stop。
+     */
+    public Stage marker(String stage) {
+        return new Stage(stage, false);
+    }
+
+    private Timer markerTimer(String stage, String model, String tool, String path, String outcome) {
+        // 与 Observation 生成的 Timer 同名同标签键 (含 error)，直方图参数同样来自配置
+        return Timer.builder(METRIC_NAME)
+                .description("对话流水线各阶段耗时")
+                .tag("stage", stage)
+                .tag("model", model)
+                .tag("tool", tool)
+                .tag("path", path)
+                .tag("outcome", outcome)
+                .tag("error", NONE)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 一次阶段计时。stop 只生效一次，之后 elapsedMs 返回记录下来的耗时。
+     */
+    public final class Stage {
+
+        private final String stage;
+        private final long startNanos = System.nanoTime();
+        private final Observation observation;
+        private final Observation.Scope scope;
+        private final Thread owner = Thread.currentThread();
+        private String model = NONE;
+        private String tool = NONE;
+        private String path = NONE;
+        private volatile long durationNanos = -1;
+
+        private Stage(String stage, boolean traced) {
+            this.stage = stage;
+            if (traced) {
+                this.observation = Observation.createNotStarted(METRIC_NAME, observationRegistry)
+                        .contextualName("pipeline " + stage)
+                        .lowCardinalityKeyValue("stage", stage)
+                        .start();
+                this.scope = observation.openScope();
+            } else {
+                this.observation = null;
+                this.scope = null;
+            }
+        }
+
+        public Stage model(String model) {
+            this.model = (model == null || model.isEmpty()) ? NONE : model;
+            return this;
+        }
+
+        public Stage tool(String tool) {
+            this.tool = (tool == null || tool.isEmpty()) ? NONE : tool;
+            return this;
+        }
+
+        public Stage path(String path) {
+            this.path = (path == null || path.isEmpty()) ? NONE : path;
+            return this;
+        }
+
+        public boolean isStopped() {
+            return durationNanos >= 0;
+        }
+
+        /**
+         * 结束计时并记录。重复调用不会重复记录。
+         *
+         * @return 本阶段耗时 (毫秒)
+         */
+        public synchronized long stop(String outcome) {
+            if (durationNanos < 0) {
+                durationNanos = System.nanoTime() - startNanos;
+                if (observation == null) {
+                    markerTimer(stage, model, tool, path, outcome).record(durationNanos, TimeUnit.NANOSECONDS);
+                    Observation current = observationRegistry.getCurrentObservation();
+                    if (current != null) {
+                        current.event(Observation.Event.of(stage));
+                    }
+                } else {
+                    observation.lowCardinalityKeyValue("model", model)
+                            .lowCardinalityKeyValue("tool", tool)
+                            .lowCardinalityKeyValue("path", path)
+                            .lowCardinalityKeyValue("outcome", outcome);
+                    if (Thread.currentThread() == owner) {
+                        scope.close();
+                    }
+                    observation.stop();
+                }
+            }
+            return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        }
+
+        public long success() {
+            return stop(OUTCOME_SUCCESS);
+        }
+
+        public long failure() {
+            return stop(OUTCOME_ERROR);
+        }
+
+        /**
+         * 执行调用并计时：正常返回记为 success，抛出异常记为 error 后原样抛出。
+         */
+        public <T> T record(Supplier<T> call) {
+            try {
+                T result = call.get();
+                success();
+                return result;
+            } catch (RuntimeException e) {
+                failure();
+                throw e;
+            }
+        }
+
+        /**
+         * 已结束则返回记录的耗时，否则返回到目前为止的耗时。
+         */
+        public long elapsedMs() {
+            long recorded = durationNanos;
+            return TimeUnit.NANOSECONDS.toMillis(recorded >= 0 ? recorded : System.nanoTime() - startNanos);
+        }
+    }
+}
@@ -1,70 +1,140 @@
 package org.example.agent.component;
 
-import jakarta.annotation.PostConstruct;
-import org.springframework.stereotype.Component;
-import org.springframework.web.context.annotation.SessionScope;
-import java.util.ArrayList; // <-- 【新增】
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 /**
  * 【V3.0 重构版】
  * 1. 移除了对 WorkflowStateService 的所有依赖。
  * 2. 这是一个纯粹的会话状态管理器，由 ChatService 在启动时注入流程。
+ * 3. 【修改】流程与依赖改为共享的 {@link WorkflowGraph}，会话只保存完成状态的 BitSet；
+ *    可办理流程在状态变化时重算一次并缓存，之后每次查询都是 O(1)。
+ * 4. 【修改】不再是会话作用域的 Bean：ChatService 每轮按会话状态 (Redis 中的位图) 新建一个实例，
+ *    结束时把 {@link #completedBits()} 写回，任意节点都能继续同一会话。
  */
-@SessionScope
-@Component
 public class ProcessManager {
 
     public enum Status {
         PENDING, COMPLETED
     }
 
-    private final Map<String, Status> processStatus = new ConcurrentHashMap<>();
-
-    // 【修改】删除 WorkflowStateService
-    // private final WorkflowStateService workflowStateService;
+    private WorkflowGraph graph = WorkflowGraph.EMPTY;
+    private final BitSet completed = new BitSet();
+    private BitSet availableBits = new BitSet();
+    private List<String> available = List.of();
+    private List<String> availableDisplayNames = List.of();
 
     // 【修改】构造函数变为空
     public ProcessManager() {
     }
 
-    // 【修改】删除 @PostConstruct init()
-    // 它现在由 ChatService 在构造时调用 updateProcesses
-    // @PostConstruct
-    // public void init() { ... }
+    /**
+     * 由 ChatService 在会话开始 / 重置时调用，注入 ConfigService 编译好的流程图，所有流程回到 PENDING
+     */
+    public synchronized void updateProcesses(WorkflowGraph newGraph) {
+        graph = newGraph == null ? WorkflowGraph.EMPTY : newGraph;
+        completed.clear();
+        refreshAvailable();
+    }
 
     /**
-     * 由 ChatService 在会话开始时调用，用于注入从 ConfigService 获取的流程
+     * 【新增】从会话状态恢复：completedBits 为 {@link #completedBits()} 的结果 (为 null 时所有流程 PENDING)
      */
-    public void updateProcesses(List<String> newProcesses) {
-        processStatus.clear();
-        if (newProcesses != null) {
-            newProcesses.forEach(p -> processStatus.put(p, Status.PENDING));
+    public synchronized void restore(WorkflowGraph newGraph, long[] completedBits) {
+        graph = newGraph == null ? WorkflowGraph.EMPTY : newGraph;
+        completed.clear();
+        if (completedBits != null) {
+            completed.or(BitSet.valueOf(completedBits));
+            // 超出流程数的位没有意义
+            completed.clear(graph.size(), Math.max(graph.size(), completed.length()));
         }
+        refreshAvailable();
+    }
+
+    /**
+     * 【新增】完成状态位图，用于写回会话状态
+     */
+    public synchronized long[] completedBits() {
+        return completed.toLongArray();
+    }
+
+    public synchronized WorkflowGraph getGraph() {
+        return graph;
     }
 
-    public void completeProcess(String processName) {
-        if (processStatus.containsKey(processName)) {
-            processStatus.put(processName, Status.COMPLETED);
+    public synchronized void completeProcess(String processName) {
+        int index = graph.indexOf(processName);
+        if (index >= 0 && !completed.get(index)) {
+            completed.set(index);
+            refreshAvailable();
         }
     }
 
-    public List<String> getUnfinishedProcesses() {
-        return processStatus.entrySet().stream()
-                .filter(entry -> entry.getValue() == Status.PENDING)
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
+    /**
+     * 【新增】按展示名 (去编号与 *) 完成一个当前可办理的流程，返回是否命中
+     */
+    public synchronized boolean completeAvailableByDisplayName(String displayName) {
+        int index = graph.indexOfDisplayName(displayName);
+        if (index < 0 || !availableBits.get(index)) {
+            return false;
+        }
+        if (!completed.get(index)) {
+            completed.set(index);
+            refreshAvailable();
+        }
+        return true;
+    }
+
+    public synchronized void completeAll() {
+        completed.set(0, graph.size());
+        refreshAvailable();
     }
 
     /**
-     * 【修改】
-     * 此方法现在只返回当前会话中已知的流程
+     * 【新增】当前可办理的流程 (按配置顺序)，返回不可变的缓存列表
+     */
+    public synchronized List<String> getAvailableProcesses() {
+        return available;
+    }
+
+    /**
+     * 【新增】当前可办理流程的展示名 (去编号与 *)，用于人设中的 {tasks}
      */
-    public List<String> getAllProcesses() {
-        return new ArrayList<>(processStatus.keySet());
+    public synchronized List<String> getAvailableDisplayNames() {
+        return availableDisplayNames;
+    }
+
+    public synchronized List<String> getUnfinishedProcesses() {
+        List<String> result = new ArrayList<>();
+        for (int i = completed.nextClearBit(0); i < graph.size(); i = completed.nextClearBit(i + 1)) {
+            result.add(graph.getProcesses().get(i));
+        }
+        return result;
+    }
+
+    public synchronized boolean isAllCompleted() {
+        return graph.size() > 0 && completed.cardinality() == graph.size();
+    }
+
+    /**
+     * 此方法只返回当前会话中已知的流程 (按配置顺序)
+     */
+    public synchronized List<String> getAllProcesses() {
+        return graph.getProcesses();
+    }
+
+    /**
+     * 【新增】流程 → 状态 (按配置顺序)，供前端流程面板展示
+     */
+    public synchronized Map<String, Status> getStatuses() {
+        Map<String, Status> statuses = new LinkedHashMap<>();
+        for (int i = 0; i < graph.size(); i++) {
+            statuses.put(graph.getProcesses().get(i), completed.get(i) ? Status.COMPLETED : Status.PENDING);
+        }
+        return statuses;
     }
 
     /**
@@ -73,7 +143,19 @@ public class ProcessManager {
      * 真正的重置逻辑在 ChatService::resetProcessesAndSaveHistory 中
      * (它会调用 updateProcesses)
      */
-    public void reset() {
-        processStatus.clear();
+    public synchronized void reset() {
+        updateProcesses(WorkflowGraph.EMPTY);
+    }
+
+    private void refreshAvailable() {
+        availableBits = graph.available(completed);
+        List<String> names = new ArrayList<>(availableBits.cardinality());
+        List<String> displayNames = new ArrayList<>(availableBits.cardinality());
+        for (int i = availableBits.nextSetBit(0); i >= 0; i = availableBits.nextSetBit(i + 1)) {
+            names.add(graph.getProcesses().get(i));
+            displayNames.add(graph.getDisplayName(i));
+        }
+        available = List.copyOf(names);
+        availableDisplayNames = List.copyOf(displayNames);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,54 @@
+package org.example.agent.component;
+
+import org.example.llm.dto.llm.LlmMessage;
+import org.example.llm.history.ConversationStore;
+
+import java.util.List;
+
+/**
+ * 【新增】为会话历史的读写计时 (history_read / history_write 阶段)，具体存储由 RedisConfig 按配置选择。
+ */
+public class TimedConversationStore implements ConversationStore {
+
+    private final ConversationStore delegate;
+    private final PipelineMetrics pipelineMetrics;
+
+    public TimedConversationStore(ConversationStore delegate, PipelineMetrics pipelineMetrics) {
+        this.delegate = delegate;
+        this.pipelineMetrics = pipelineMetrics;
+    }
+
+    @Override
+    public void append(String conversationId, List<LlmMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        pipelineMetrics.start(PipelineMetrics.STAGE_HISTORY_WRITE).record(() -> {
+            delegate.append(conversationId, messages);
+            return null;
+        });
+    }
+
+    @Override
+    public List<LlmMessage> window(String conversationId) {
+        return pipelineMetrics.start(PipelineMetrics.STAGE_HISTORY_READ).record(() -> delegate.window(conversationId));
+    }
+
+    @Override
+    public List<LlmMessage> snapshot(String conversationId) {
+        return pipelineMetrics.start(PipelineMetrics.STAGE_HISTORY_READ).record(() -> delegate.snapshot(conversationId));
+    }
+
+    @Override
+    public List<LlmMessage> remove(String conversationId) {
+        return pipelineMetrics.start(PipelineMetrics.STAGE_HISTORY_WRITE).record(() -> delegate.remove(conversationId));
+    }
+
+    @Override
+    public void replace(String conversationId, List<LlmMessage> messages) {
+        pipelineMetrics.start(PipelineMetrics.STAGE_HISTORY_WRITE).record(() -> {
+            delegate.replace(conversationId, messages);
+            return null;
+        });
+    }
+}
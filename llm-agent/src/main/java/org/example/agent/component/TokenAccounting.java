@@ -0,0 +1,215 @@
+package org.example.agent.component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.llm.dto.llm.LlmMessage;
+import org.example.llm.dto.llm.LlmUsage;
+import org.example.llm.dto.tool.ToolDefinition;
+import org.example.llm.service.LlmServiceManager;
+import org.example.llm.tokenizer.TokenCounter;
+import org.example.llm.tokenizer.TokenizerRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 【新增】Token 用量与提示词体积统计，以及按会话的用量预算。
+ * <ul>
+ *     <li>用量：厂商响应中的 usage (含流式最后一帧) 记入 {@code llm.tokens} 计数器，标签 model / stage / type (prompt / completion)；</li>
+ *     <li>体积：主模型请求按片段 (人设、策略指令、历史、工具 Schema、工具结果、用户输入) 用本地分词器统计 Token 数，
+ *         记入 {@code llm.prompt.segment} 分布，用于判断提示词主要花在哪里 (【修改】原为字符数，
+ *         词表未配置的模型按 {@link org.example.llm.tokenizer.HeuristicTokenCounter} 估算)；</li>
+ *     <li>预算：会话累计用量超过 llm.budget.session-tokens 时主模型降级为 llm.budget.downgrade-model；
+ *         上一次主模型请求的 prompt_tokens 超过 llm.budget.prompt-tokens 时压缩历史，只保留最近若干条消息。</li>
+ * </ul>
+ * 阈值为 0 表示不启用对应的预算。
+ */
+@Component
+public class TokenAccounting {
+
+    public static final String SEGMENT_PERSONA = "persona";
+    public static final String SEGMENT_STRATEGY = "strategy";
+    public static final String SEGMENT_HISTORY = "history";
+    public static final String SEGMENT_TOOL_SCHEMA = "tool_schema";
+    public static final String SEGMENT_TOOL_RESULT = "tool_result";
+    public static final String SEGMENT_USER = "user";
+
+    public static final String ACTION_DOWNGRADE = "downgrade";
+    public static final String ACTION_COMPACT_HISTORY = "compact_history";
+
+    /**
+     * 本轮的预算决定。
+     *
+     * @param modelName      本轮主模型 (降级时为降级模型)
+     * @param downgraded     是否因会话用量超出预算而降级
+     * @param compactHistory 是否在调用前压缩历史
+     */
+    public record BudgetDecision(String modelName, boolean downgraded, boolean compactHistory) {
+        /**
+         * 触发的预算动作 (逗号分隔)，没有时为 null。
+         */
+        public String action() {
+            List<String> actions = new ArrayList<>(2);
+            if (downgraded) actions.add(ACTION_DOWNGRADE);
+            if (compactHistory) actions.add(ACTION_COMPACT_HISTORY);
+            return actions.isEmpty() ? null : String.join(",", actions);
+        }
+    }
+
+    // 最近一次计数的工具列表、分词器及其 Token 数 (工具定义只在修改配置时变化)
+    private record SchemaSize(List<ToolDefinition> tools, TokenCounter counter, int tokens) {}
+
+    private static final Logger log = LoggerFactory.getLogger(TokenAccounting.class);
+
+    private final MeterRegistry meterRegistry;
+    private final TokenizerRegistry tokenizerRegistry;
+    private final LlmServiceManager llmServiceManager;
+    private final Set<String> warnedModels = ConcurrentHashMap.newKeySet();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private volatile SchemaSize lastSchemaSize = new SchemaSize(List.of(), null, 0);
+
+    private final long sessionTokenBudget;
+    private final String downgradeModel;
+    private final int promptTokenBudget;
+    private final int historyKeepMessages;
+
+    public TokenAccounting(MeterRegistry meterRegistry, TokenizerRegistry tokenizerRegistry,
+                           LlmServiceManager llmServiceManager,
+                           @Value("${llm.budget.session-tokens:0}") long sessionTokenBudget,
+                           @Value("${llm.budget.downgrade-model:}") String downgradeModel,
+                           @Value("${llm.budget.prompt-tokens:0}") int promptTokenBudget,
+                           @Value("${llm.budget.history-keep-messages:12}") int historyKeepMessages) {
+        this.meterRegistry = meterRegistry;
+        this.tokenizerRegistry = tokenizerRegistry;
+        this.llmServiceManager = llmServiceManager;
+        this.sessionTokenBudget = sessionTokenBudget;
+        this.downgradeModel = downgradeModel == null ? "" : downgradeModel.trim();
+        this.promptTokenBudget = promptTokenBudget;
+        this.historyKeepMessages = Math.max(2, historyKeepMessages);
+    }
+
+    /**
+     * 记录一次模型调用的用量，usage 为 null (厂商未返回) 时忽略。
+     */
+    public void recordUsage(String model, String stage, LlmUsage usage) {
+        if (usage == null) {
+            return;
+        }
+        tokenCounter(model, stage, "prompt").increment(usage.getPromptTokens());
+        tokenCounter(model, stage, "completion").increment(usage.getCompletionTokens());
+    }
+
+    private Counter tokenCounter(String model, String stage, String type) {
+        return Counter.builder("llm.tokens").description("厂商返回的 Token 用量")
+                .tag("model", model == null || model.isEmpty() ? PipelineMetrics.NONE : model)
+                .tag("stage", stage)
+                .tag("type", type)
+                .register(meterRegistry);
+    }
+
+    /**
+     * 统计主模型请求各片段的 Token 数并记入指标，返回有序的 片段 → Token 数。
+     * persona 中包含策略指令，人设片段只计剩余部分；历史含每条消息的模板开销。
+     */
+    public Map<String, Integer> measurePrompt(String modelName, String persona, String strategyPrompt,
+                                              List<LlmMessage> history, List<ToolDefinition> tools, String userMessage) {
+        TokenCounter counter = tokenizerRegistry.forModel(modelName);
+        int strategyTokens = count(counter, strategyPrompt);
+        Map<String, Integer> segments = new LinkedHashMap<>();
+        segments.put(SEGMENT_PERSONA, Math.max(0, count(counter, persona) - strategyTokens));
+        segments.put(SEGMENT_STRATEGY, strategyTokens);
+        segments.put(SEGMENT_HISTORY, counter.countMessages(history));
+        segments.put(SEGMENT_TOOL_SCHEMA, toolSchemaTokens(counter, tools));
+        segments.put(SEGMENT_USER, count(counter, userMessage));
+        segments.forEach(this::recordSegment);
+        return segments;
+    }
+
+    /**
+     * 按模型对应的分词器统计文本的 Token 数 (不记指标)。
+     */
+    public int countTokens(String modelName, String text) {
+        return count(tokenizerRegistry.forModel(modelName), text);
+    }
+
+    public void recordSegment(String segment, int tokens) {
+        DistributionSummary.builder("llm.prompt.segment").description("主模型请求各片段的 Token 数 (本地分词)")
+                .baseUnit("tokens")
+                .tag("segment", segment)
+                .register(meterRegistry)
+                .record(tokens);
+    }
+
+    int toolSchemaTokens(TokenCounter counter, List<ToolDefinition> tools) {
+        if (tools == null || tools.isEmpty()) {
+            return 0;
+        }
+        SchemaSize cached = lastSchemaSize;
+        if (cached.counter() == counter && cached.tools().equals(tools)) {
+            return cached.tokens();
+        }
+        try {
+            int tokens = counter.count(objectMapper.writeValueAsString(tools));
+            lastSchemaSize = new SchemaSize(List.copyOf(tools), counter, tokens);
+            return tokens;
+        } catch (JsonProcessingException e) {
+            return 0;
+        }
+    }
+
+    private static int count(TokenCounter counter, String text) {
+        return text == null ? 0 : counter.count(text);
+    }
+
+    /**
+     * 按会话累计用量与上一次主模型请求的 prompt_tokens 决定本轮的主模型及是否压缩历史。
+     * 【修改】降级模型与主模型不属于同一厂商时不降级 (会话历史按厂商保存，跨厂商会丢失上下文)，与 ModelTiering 一致。
+     */
+    public BudgetDecision checkBudget(String mainModel, long sessionTokens, int lastPromptTokens) {
+        boolean downgrade = sessionTokenBudget > 0 && sessionTokens >= sessionTokenBudget
+                && !downgradeModel.isEmpty() && !downgradeModel.equals(mainModel)
+                && sameProvider(downgradeModel, mainModel);
+        boolean compact = promptTokenBudget > 0 && lastPromptTokens >= promptTokenBudget;
+        return new BudgetDecision(downgrade ? downgradeModel : mainModel, downgrade, compact);
+    }
+
+    private boolean sameProvider(String model, String mainModel) {
+        try {
+            if (mainModel != null && llmServiceManager.getProvider(model) == llmServiceManager.getProvider(mainModel)) {
+                return true;
+            }
+        } catch (IllegalArgumentException e) {
+            // 不支持的模型名，按跨厂商处理
+        }
+        if (warnedModels.add(model + "|" + mainModel)) {
+            log.warn("llm.budget.downgrade-model [{}] 与主模型 [{}] 不属于同一厂商，不降级", model, mainModel);
+        }
+        return false;
+    }
+
+    /**
+     * 历史压缩后保留的部分：最近 llm.budget.history-keep-messages 条，且从一条用户消息开始
+     * (不留下缺少 tool_calls 的工具结果或缺少提问的回答)。
+     */
+    public List<LlmMessage> recentTurns(List<LlmMessage> history) {
+        if (history == null || history.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int start = Math.max(0, history.size() - historyKeepMessages);
+        while (start < history.size() && !LlmMessage.Role.USER.equals(history.get(start).getRole())) {
+            start++;
+        }
+        return new ArrayList<>(history.subList(start, history.size()));
+    }
+}
@@ -0,0 +1,437 @@
+package org.example.agent.component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.example.agent.utils.HttpUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 外部工具后端 (云市场 APPCODE 接口、DashScope MCP SSE) 的熔断、配额与兜底。
+ * <p>
+ * <ul>
+ *     <li>熔断：每个工具单独统计最近 window-size 次调用，失败率超过阈值后打开 open-ms，期间不再请求上游；
+ *     到期后放行一次试探，成功则关闭，失败则重新打开。</li>
+ *     <li>配额：按工具在 Redis 中累计分钟 / 自然日调用次数 (多实例共享同一个 APPCODE 额度)，超限不再请求上游。
+ *     Redis 不可用时放行，不因计数失败影响对话。</li>
+ *     <li>兜底：每次成功的结果按 (工具, 参数) 存为"最近一次可用结果"；熔断、超配额或上游失败时返回它，
+ *     并标注 stale 与获取时间，让模型如实告诉用户数据可能不是最新的。</li>
+ * </ul>
+ * 工具方法本身沿用返回 {"error": ...} 字符串的约定，这里以顶层是否有 "error" 字段判断成败 (@Cacheable 的 unless 同样调用 {@link #isError})。
+ */
+@Component
+public class ToolGuard {
+
+    private static final Logger log = LoggerFactory.getLogger(ToolGuard.class);
+
+    /**
+     * 受保护的外部工具 (compareTwoPlans / comparePlans / queryMcpFaq 走本地服务，不在其列)。
+     */
+    public static final Set<String> GUARDED_TOOLS = Set.of(
+            "getWeather", "getOilPrice", "getGoldPrice", "getNews", "getExchangeRate",
+            "getFundInfo", "getCurrentTimeByCity", "getStockInfo", "webSearch", "getWeatherMcp");
+
+    public static final String STATE_CLOSED = "CLOSED";
+    public static final String STATE_OPEN = "OPEN";
+    public static final String STATE_HALF_OPEN = "HALF_OPEN";
+
+    private static final String QUOTA_KEY_PREFIX = "tool:quota:";
+    private static final String LKG_KEY_PREFIX = "tool:lkg:";
+    private static final DateTimeFormatter MINUTE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmm");
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter AS_OF_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final StringRedisTemplate redisTemplate;
+    private final Environment environment;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> fallbacksServed = new ConcurrentHashMap<>();
+
+    private final int windowSize;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long openMs;
+    private final Duration lkgTtl;
+    private final ZoneId quotaZone;
+    private final long callTimeoutMs;
+    private final HttpUtils.Timeouts httpTimeouts;
+
+    public ToolGuard(StringRedisTemplate redisTemplate, Environment environment,
+                     @Value("${tool.breaker.window-size:20}") int windowSize,
+                     @Value("${tool.breaker.min-calls:5}") int minCalls,
+                     @Value("${tool.breaker.failure-rate-threshold:0.5}") double failureRateThreshold,
+                     @Value("${tool.breaker.open-ms:30000}") long openMs,
+                     @Value("${tool.lkg.ttl-hours:72}") long lkgTtlHours,
+                     @Value("${tool.quota.zone:Asia/Shanghai}") String quotaZone,
+                     @Value("${tool.http.connect-timeout-ms:3000}") int connectTimeoutMs,
+                     @Value("${tool.http.call-timeout-ms:10000}") int callTimeoutMs) {
+        this.redisTemplate = redisTemplate;
+        this.environment = environment;
+        this.windowSize = Math.max(1, windowSize);
+        this.minCalls = Math.max(1, minCalls);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMs = openMs;
+        this.lkgTtl = Duration.ofHours(lkgTtlHours);
+        this.quotaZone = ZoneId.of(quotaZone);
+        this.callTimeoutMs = callTimeoutMs;
+        this.httpTimeouts = new HttpUtils.Timeouts(connectTimeoutMs, callTimeoutMs);
+    }
+
+    /**
+     * 云市场接口 (HttpUtils) 每次请求的连接 / 读取超时。原先没有任何超时，一次上游挂起就会拖住整轮对话。
+     */
+    public HttpUtils.Timeouts httpTimeouts() {
+        return httpTimeouts;
+    }
+
+    /**
+     * MCP SSE 等 WebClient 调用的整体超时。
+     */
+    public Duration callTimeout() {
+        return Duration.ofMillis(callTimeoutMs);
+    }
+
+    /**
+     * 在熔断与配额保护下调用上游工具。
+     *
+     * @param tool    工具名 (熔断 / 配额 / 兜底的统计维度)
+     * @param argsKey 参数摘要，用作"最近一次可用结果"的键
+     * @param call    实际调用，失败时按约定返回 {"error": ...} 字符串
+     */
+    public String call(String tool, String argsKey, Supplier<String> call) {
+        Breaker breaker = breaker(tool);
+        if (!breaker.tryAcquire()) {
+            log.warn("工具 {} 熔断中，跳过上游调用", tool);
+            return fallback(tool, argsKey, "上游服务暂时不可用 (熔断)",
+                    "{\"error\": \"工具 " + tool + " 暂时不可用\", \"details\": \"circuit breaker open\"}");
+        }
+        String quotaExceeded = consumeQuota(tool);
+        if (quotaExceeded != null) {
+            breaker.release();
+            log.warn("工具 {} 已达{}调用配额，跳过上游调用", tool, quotaExceeded);
+            return fallback(tool, argsKey, "已达" + quotaExceeded + "调用配额",
+                    "{\"error\": \"工具 " + tool + " 已达" + quotaExceeded + "调用配额\", \"details\": \"quota exceeded\"}");
+        }
+
+        String result;
+        try {
+            result = call.get();
+        } catch (RuntimeException e) {
+            log.error("工具 {} 调用异常", tool, e);
+            result = "{\"error\": \"调用 " + tool + " 失败\", \"details\": \"" + String.valueOf(e.getMessage()).replace("\"", "'") + "\"}";
+        }
+
+        if (isError(result)) {
+            breaker.onFailure();
+            return fallback(tool, argsKey, "上游调用失败", result);
+        }
+        breaker.onSuccess();
+        saveLastKnownGood(tool, argsKey, result);
+        return result;
+    }
+
+    /**
+     * 顶层 JSON 对象带 "error" 字段即为失败；数据里嵌套的 error 字段或正文中出现的 "error" 字样不算。
+     * 拼接异常信息时可能生成不合法的 JSON，解析失败时按是否以 {"error" 开头判断。
+     */
+    public static boolean isError(String result) {
+        if (result == null) {
+            return true;
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(result)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return false;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                if ("error".equals(parser.getCurrentName())) {
+                    return true;
+                }
+                parser.nextToken();
+                parser.skipChildren();
+            }
+            return false;
+        } catch (IOException e) {
+            return result.stripLeading().startsWith("{\"error\"");
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // 配额
+    // ------------------------------------------------------------------
+
+    /**
+     * @return 超出的配额类型 ("每分钟" / "当日")；未超出或未配置时返回 null
+     */
+    private String consumeQuota(String tool) {
+        long perMinute = quotaLimit(tool, "per-minute");
+        long perDay = quotaLimit(tool, "per-day");
+        if (perMinute <= 0 && perDay <= 0) {
+            return null;
+        }
+        LocalDateTime now = LocalDateTime.now(quotaZone);
+        try {
+            if (perMinute > 0 && increment(minuteKey(tool, now), Duration.ofMinutes(2)) > perMinute) {
+                return "每分钟";
+            }
+            if (perDay > 0 && increment(dayKey(tool, now), Duration.ofDays(2)) > perDay) {
+                return "当日";
+            }
+        } catch (Exception e) {
+            log.warn("工具 {} 配额计数失败，本次放行: {}", tool, e.getMessage());
+        }
+        return null;
+    }
+
+    private long increment(String key, Duration ttl) {
+        Long value = redisTemplate.opsForValue().increment(key);
+        if (value != null && value == 1L) {
+            redisTemplate.expire(key, ttl);
+        }
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * tool.quota.&lt;tool&gt;.per-minute / per-day，未配置时取 tool.quota.default.*；0 表示不限。
+     */
+    private long quotaLimit(String tool, String period) {
+        Long specific = environment.getProperty("tool.quota." + tool + "." + period, Long.class);
+        return specific != null ? specific : environment.getProperty("tool.quota.default." + period, Long.class, 0L);
+    }
+
+    private static String minuteKey(String tool, LocalDateTime now) {
+        return QUOTA_KEY_PREFIX + tool + ":m:" + now.format(MINUTE_FORMAT);
+    }
+
+    private static String dayKey(String tool, LocalDateTime now) {
+        return QUOTA_KEY_PREFIX + tool + ":d:" + now.format(DAY_FORMAT);
+    }
+
+    // ------------------------------------------------------------------
+    // 最近一次可用结果
+    // ------------------------------------------------------------------
+
+    private void saveLastKnownGood(String tool, String argsKey, String result) {
+        try {
+            redisTemplate.opsForValue().set(lkgKey(tool, argsKey), System.currentTimeMillis() + "\n" + result, lkgTtl);
+        } catch (Exception e) {
+            log.warn("保存工具 {} 最近可用结果失败: {}", tool, e.getMessage());
+        }
+    }
+
+    /**
+     * 有最近一次可用结果时包装为 stale 数据返回，否则返回原始错误。
+     */
+    private String fallback(String tool, String argsKey, String reason, String error) {
+        String stored;
+        try {
+            stored = redisTemplate.opsForValue().get(lkgKey(tool, argsKey));
+        } catch (Exception e) {
+            log.warn("读取工具 {} 最近可用结果失败: {}", tool, e.getMessage());
+            return error;
+        }
+        int newline = stored == null ? -1 : stored.indexOf('\n');
+        if (newline < 0) {
+            return error;
+        }
+        try {
+            long fetchedAt = Long.parseLong(stored.substring(0, newline));
+            String data = stored.substring(newline + 1);
+            ObjectNode wrapper = mapper.createObjectNode();
+            wrapper.put("stale", true);
+            wrapper.put("as_of", LocalDateTime.ofInstant(Instant.ofEpochMilli(fetchedAt), quotaZone).format(AS_OF_FORMAT));
+            wrapper.put("note", reason + "，以下为最近一次成功获取的数据，可能不是最新的");
+            wrapper.set("data", parseOrText(data));
+            fallbacksServed.computeIfAbsent(tool, k -> new AtomicLong()).incrementAndGet();
+            log.info("工具 {} 返回最近可用结果 (获取于 {})", tool, wrapper.get("as_of").asText());
+            return mapper.writeValueAsString(wrapper);
+        } catch (Exception e) {
+            log.warn("解析工具 {} 最近可用结果失败: {}", tool, e.getMessage());
+            return error;
+        }
+    }
+
+    private JsonNode parseOrText(String data) {
+        String trimmed = data.trim();
+        if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
+            try {
+                return mapper.readTree(trimmed);
+            } catch (Exception ignored) {
+                // 不是合法 JSON，按文本返回
+            }
+        }
+        return TextNode.valueOf(data);
+    }
+
+    private static String lkgKey(String tool, String argsKey) {
+        return LKG_KEY_PREFIX + tool + ":" + (argsKey == null ? "" : argsKey);
+    }
+
+    // ------------------------------------------------------------------
+    // 状态 (管理后台工具列表)
+    // ------------------------------------------------------------------
+
+    public record Status(String circuitState, double failureRate, long openRemainingMs,
+                         long minuteCalls, long minuteLimit, long dayCalls, long dayLimit, long fallbacksServed) {}
+
+    public Status status(String tool) {
+        Breaker breaker = breaker(tool);
+        LocalDateTime now = LocalDateTime.now(quotaZone);
+        long fallbacks = fallbacksServed.getOrDefault(tool, new AtomicLong()).get();
+        long minuteLimit = quotaLimit(tool, "per-minute");
+        long dayLimit = quotaLimit(tool, "per-day");
+        // 未配置配额的工具不计数 (见 consumeQuota)，无需读取 Redis
+        long minuteCalls = minuteLimit > 0 ? readCounter(minuteKey(tool, now)) : 0;
+        long dayCalls = dayLimit > 0 ? readCounter(dayKey(tool, now)) : 0;
+        synchronized (breaker) {
+            return new Status(breaker.currentState(), breaker.failureRate(), breaker.openRemainingMs(),
+                    minuteCalls, minuteLimit, dayCalls, dayLimit, fallbacks);
+        }
+    }
+
+    private long readCounter(String key) {
+        try {
+            String value = redisTemplate.opsForValue().get(key);
+            return value == null ? 0 : Long.parseLong(value);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private Breaker breaker(String tool) {
+        return breakers.computeIfAbsent(tool, Breaker::new);
+    }
+
+    /**
+     * 基于最近 N 次调用结果的计数窗口熔断器。
+     */
+    private final class Breaker {
+
+        private final String tool;
+        private final boolean[] outcomes = new boolean[windowSize];
+        private int size;
+        private int next;
+        private int failures;
+        private String state = STATE_CLOSED;
+        private long openedAtNanos;
+        private boolean trialInFlight;
+
+        private Breaker(String tool) {
+            this.tool = tool;
+        }
+
+        synchronized boolean tryAcquire() {
+            if (STATE_OPEN.equals(state)) {
+                if (System.nanoTime() - openedAtNanos < TimeUnit.MILLISECONDS.toNanos(openMs)) {
+                    return false;
+                }
+                state = STATE_HALF_OPEN;
+            }
+            if (STATE_HALF_OPEN.equals(state)) {
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+            }
+            return true;
+        }
+
+        /**
+         * 获得许可后未实际调用 (如超配额)：归还试探名额，不计入统计。
+         */
+        synchronized void release() {
+            trialInFlight = false;
+        }
+
+        synchronized void onSuccess() {
+            if (STATE_HALF_OPEN.equals(state)) {
+                log.info("工具 {} 熔断器试探成功，恢复关闭", tool);
+                reset();
+                return;
+            }
+            record(false);
+        }
+
+        synchronized void onFailure() {
+            if (STATE_HALF_OPEN.equals(state)) {
+                open();
+                return;
+            }
+            record(true);
+            if (size >= minCalls && failureRate() >= failureRateThreshold) {
+                open();
+            }
+        }
+
+        private void record(boolean failed) {
+            if (size == outcomes.length) {
+                if (outcomes[next]) {
+                    failures--;
+                }
+            } else {
+                size++;
+            }
+            outcomes[next] = failed;
+            if (failed) {
+                failures++;
+            }
+            next = (next + 1) % outcomes.length;
+        }
+
+        private void open() {
+            log.warn("工具 {} 熔断器打开 {}ms (最近 {} 次失败率 {})", tool, openMs, size, String.format("%.2f", failureRate()));
+            state = STATE_OPEN;
+            openedAtNanos = System.nanoTime();
+            trialInFlight = false;
+        }
+
+        private void reset() {
+            state = STATE_CLOSED;
+            size = 0;
+            next = 0;
+            failures = 0;
+            trialInFlight = false;
+        }
+
+        String currentState() {
+            if (STATE_OPEN.equals(state) && openRemainingMs() == 0) {
+                return STATE_HALF_OPEN;
+            }
+            return state;
+        }
+
+        double failureRate() {
+            return size == 0 ? 0 : (double) failures / size;
+        }
+
+        long openRemainingMs() {
+            if (!STATE_OPEN.equals(state)) {
+                return 0;
+            }
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - openedAtNanos);
+            return Math.max(0, openMs - elapsed);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package org.example.agent.component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 【新增】流程 + 依赖的编译结果 (不可变 DAG)。
+ * <p>
+ * 由 ConfigService 按 processes / dependencies 配置文本编译一次并缓存，配置不变时所有会话共用同一个实例；
+ * 会话内的完成状态由 {@link ProcessManager} 以 BitSet 保存，按下标与本图对应。
+ * <ul>
+ *     <li>流程名解析 (全名 / 编号 / 去编号名) 只在编译时做一次，运行时不再逐个编译正则；</li>
+ *     <li>每个流程的前置条件编译为 BitSet，可办理判断为位运算；</li>
+ *     <li>无法解析的依赖行、未知流程名、自依赖与环都会记录在 {@link #getErrors()} 中，保存配置时据此拒绝。</li>
+ * </ul>
+ */
+public final class WorkflowGraph {
+
+    public static final WorkflowGraph EMPTY = compile(List.of(), "");
+
+    private static final Pattern LEADING_NUMBER = Pattern.compile("^\\d+\\.?\\s*");
+
+    private final List<String> processes;
+    private final List<String> displayNames;
+    private final Map<String, Integer> indexByName;
+    private final Map<String, Integer> indexByDisplayName;
+    private final BitSet[] prerequisites;
+    private final BitSet repeatable;
+    private final List<String> errors;
+    private final long fingerprint;
+
+    private WorkflowGraph(List<String> processes, List<String> displayNames, BitSet[] prerequisites,
+                          BitSet repeatable, List<String> errors) {
+        this.processes = Collections.unmodifiableList(processes);
+        this.displayNames = Collections.unmodifiableList(displayNames);
+        this.prerequisites = prerequisites;
+        this.repeatable = repeatable;
+        this.errors = Collections.unmodifiableList(errors);
+        Map<String, Integer> byName = new HashMap<>();
+        Map<String, Integer> byDisplayName = new HashMap<>();
+        for (int i = 0; i < processes.size(); i++) {
+            byName.putIfAbsent(processes.get(i), i);
+            byDisplayName.putIfAbsent(displayNames.get(i), i);
+        }
+        this.indexByName = byName;
+        this.indexByDisplayName = byDisplayName;
+        this.fingerprint = contentHash(this.processes);
+    }
+
+    /**
+     * 编译流程列表与依赖文本 (每行 "流程 -> 前置1, 前置2")。出错的行会被跳过并记入 errors，不抛异常。
+     */
+    public static WorkflowGraph compile(List<String> processList, String dependencies) {
+        List<String> processes = new ArrayList<>();
+        for (String p : processList) {
+            // 重复或空白的流程行没有意义，保留首次出现的顺序
+            if (!p.isBlank() && !processes.contains(p)) {
+                processes.add(p);
+            }
+        }
+        List<String> displayNames = new ArrayList<>(processes.size());
+        BitSet repeatable = new BitSet(processes.size());
+        for (int i = 0; i < processes.size(); i++) {
+            String name = processes.get(i).trim();
+            if (name.endsWith("*")) {
+                repeatable.set(i);
+                name = name.substring(0, name.length() - 1);
+            }
+            displayNames.add(LEADING_NUMBER.matcher(name).replaceFirst("").trim());
+        }
+
+        BitSet[] prerequisites = new BitSet[processes.size()];
+        for (int i = 0; i < prerequisites.length; i++) {
+            prerequisites[i] = new BitSet(processes.size());
+        }
+        List<String> errors = new ArrayList<>();
+        if (dependencies != null && !dependencies.isBlank()) {
+            String[] lines = dependencies.split("\\r?\\n");
+            for (int lineNo = 1; lineNo <= lines.length; lineNo++) {
+                parseLine(lines[lineNo - 1], lineNo, processes, prerequisites, errors);
+            }
+        }
+        detectCycles(processes, prerequisites, errors);
+        return new WorkflowGraph(processes, displayNames, prerequisites, repeatable, errors);
+    }
+
+    private static void parseLine(String line, int lineNo, List<String> processes, BitSet[] prerequisites, List<String> errors) {
+        if (line.isBlank()) {
+            return;
+        }
+        String[] parts = line.split("->");
+        if (parts.length != 2 || parts[1].isBlank()) {
+            errors.add(String.format("第 %d 行格式应为 \"流程 -> 前置流程1, 前置流程2\": %s", lineNo, line.trim()));
+            return;
+        }
+        int process = findProcess(processes, parts[0].trim());
+        if (process < 0) {
+            errors.add(String.format("第 %d 行: 未知流程 '%s'", lineNo, parts[0].trim()));
+            return;
+        }
+        for (String raw : parts[1].split(",")) {
+            String name = raw.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            int prerequisite = findProcess(processes, name);
+            if (prerequisite < 0) {
+                errors.add(String.format("第 %d 行: 未知前置流程 '%s'", lineNo, name));
+            } else if (prerequisite == process) {
+                errors.add(String.format("第 %d 行: 流程 '%s' 不能依赖自身", lineNo, name));
+            } else {
+                prerequisites[process].set(prerequisite);
+            }
+        }
+    }
+
+    /**
+     * 与旧版 ChatService.findProcessByName 的匹配顺序一致：全名 → 编号前缀 ("1" 匹配 "1. xxx") → 去掉编号与 * 后的名称。
+     */
+    private static int findProcess(List<String> processes, String nameOrId) {
+        for (int i = 0; i < processes.size(); i++) {
+            if (processes.get(i).trim().equalsIgnoreCase(nameOrId)) return i;
+        }
+        for (int i = 0; i < processes.size(); i++) {
+            String p = processes.get(i).trim();
+            if (p.length() > nameOrId.length() && p.startsWith(nameOrId)) {
+                char next = p.charAt(nameOrId.length());
+                if (next == '.' || Character.isWhitespace(next)) return i;
+            }
+        }
+        for (int i = 0; i < processes.size(); i++) {
+            String sanitized = LEADING_NUMBER.matcher(processes.get(i)).replaceFirst("").replace("*", "").trim();
+            if (sanitized.equalsIgnoreCase(nameOrId)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Kahn 拓扑排序：排不出去的节点都在环上 (或依赖环上的节点)，逐个报出环上的流程。
+     */
+    private static void detectCycles(List<String> processes, BitSet[] prerequisites, List<String> errors) {
+        int n = processes.size();
+        int[] pending = new int[n];
+        ArrayDeque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            pending[i] = prerequisites[i].cardinality();
+            if (pending[i] == 0) ready.add(i);
+        }
+        int sorted = 0;
+        while (!ready.isEmpty()) {
+            int done = ready.poll();
+            sorted++;
+            for (int i = 0; i < n; i++) {
+                if (prerequisites[i].get(done) && --pending[i] == 0) ready.add(i);
+            }
+        }
+        if (sorted == n) {
+            return;
+        }
+        List<String> stuck = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (pending[i] > 0) stuck.add(processes.get(i).trim());
+        }
+        errors.add("依赖存在环，以下流程永远无法办理: " + String.join(", ", stuck));
+    }
+
+    public int size() {
+        return processes.size();
+    }
+
+    public List<String> getProcesses() {
+        return processes;
+    }
+
+    /**
+     * 去掉编号与 * 后的展示名 (人设中的 {tasks} / {workflow} 与完成标记均使用此名)。
+     */
+    public List<String> getDisplayNames() {
+        return displayNames;
+    }
+
+    public String getDisplayName(int index) {
+        return displayNames.get(index);
+    }
+
+    public int indexOf(String process) {
+        return indexByName.getOrDefault(process, -1);
+    }
+
+    public int indexOfDisplayName(String displayName) {
+        return indexByDisplayName.getOrDefault(displayName, -1);
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * 【修改】流程列表的指纹 (与 JVM 无关)，会话状态中的完成位图按下标对应流程列表，指纹不同即不可复用。
+     * 只有依赖变化时下标不变，已完成的状态仍然有效。取 SHA-256 的前 64 位，不同列表碰撞的概率可以忽略。
+     */
+    public long fingerprint() {
+        return fingerprint;
+    }
+
+    private static long contentHash(List<String> processes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String process : processes) {
+                byte[] bytes = process.getBytes(StandardCharsets.UTF_8);
+                // 带长度前缀，避免 ["ab", "c"] 与 ["a", "bc"] 得到相同的摘要
+                digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+                digest.update(bytes);
+            }
+            return ByteBuffer.wrap(digest.digest()).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    /**
+     * 计算可办理的流程下标：未完成且前置均已完成，或已完成但可重复办理 (以 * 结尾)。
+     */
+    BitSet available(BitSet completed) {
+        BitSet result = new BitSet(processes.size());
+        for (int i = 0; i < processes.size(); i++) {
+            boolean done = completed.get(i);
+            if (done ? repeatable.get(i) : isSubset(prerequisites[i], completed)) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isSubset(BitSet required, BitSet completed) {
+        for (int i = required.nextSetBit(0); i >= 0; i = required.nextSetBit(i + 1)) {
+            if (!completed.get(i)) return false;
+        }
+        return true;
+    }
+}
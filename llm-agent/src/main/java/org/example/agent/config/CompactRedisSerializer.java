@@ -0,0 +1,159 @@
+package org.example.agent.config;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 紧凑型 Redis 序列化器 (上下文历史 / 工具缓存共用)。
+ * <p>
+ * 写入格式：[0xC5 魔数][编码: 1=SMILE 2=CBOR 3=JSON][标志位: bit0=LZ4][LZ4 时为 4 字节原始长度][载荷]。
+ * 读取时兼容所有编码；首字节不是魔数的值按旧版纯文本 JSON 解析，因此切换前写入的数据仍可读。
+ * 格式为 JSON 且未触发压缩时直接输出纯 JSON (不带头)，方便随时回退到旧版本。
+ */
+public class CompactRedisSerializer<T> implements RedisSerializer<T> {
+
+    public enum Format {
+        JSON((byte) 3), SMILE((byte) 1), CBOR((byte) 2);
+
+        private final byte code;
+
+        Format(byte code) {
+            this.code = code;
+        }
+
+        public static Format of(String name) {
+            return Format.valueOf(name.trim().toUpperCase());
+        }
+    }
+
+    private static final byte MAGIC = (byte) 0xC5;
+    private static final int FLAG_LZ4 = 0x01;
+    private static final int HEADER_SIZE = 3;
+
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+
+    private final JavaType javaType;
+    private final Format format;
+    private final boolean lz4Enabled;
+    private final int compressThreshold;
+
+    private final ObjectMapper jsonMapper;
+    private final ObjectMapper smileMapper;
+    private final ObjectMapper cborMapper;
+    private final LZ4Compressor compressor = LZ4.fastCompressor();
+    private final LZ4FastDecompressor decompressor = LZ4.fastDecompressor();
+
+    /**
+     * @param baseMapper        已配置好可见性/模块的 JSON ObjectMapper，SMILE/CBOR 会复制其配置
+     * @param javaType          值类型
+     * @param format            写入时使用的编码
+     * @param lz4Enabled        是否对大值启用 LZ4 压缩
+     * @param compressThreshold 编码后超过此字节数才压缩
+     */
+    public CompactRedisSerializer(ObjectMapper baseMapper, JavaType javaType, Format format,
+                                  boolean lz4Enabled, int compressThreshold) {
+        this.javaType = javaType;
+        this.format = format;
+        this.lz4Enabled = lz4Enabled;
+        this.compressThreshold = compressThreshold;
+        this.jsonMapper = baseMapper;
+        this.smileMapper = baseMapper.copyWith(new SmileFactory());
+        this.cborMapper = baseMapper.copyWith(new CBORFactory());
+    }
+
+    @Override
+    public byte[] serialize(T value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        if (!javaType.getRawClass().isInstance(value)) {
+            // 编码不带类型信息，写入声明类型以外的值将无法按原类型读回
+            throw new SerializationException("值类型 " + value.getClass().getName() + " 与声明的 " + javaType + " 不符");
+        }
+        try {
+            byte[] payload = mapperFor(format).writeValueAsBytes(value);
+            boolean compress = lz4Enabled && payload.length > compressThreshold;
+
+            if (!compress && format == Format.JSON) {
+                return payload;
+            }
+
+            if (!compress) {
+                byte[] out = new byte[HEADER_SIZE + payload.length];
+                out[0] = MAGIC;
+                out[1] = format.code;
+                out[2] = 0;
+                System.arraycopy(payload, 0, out, HEADER_SIZE, payload.length);
+                return out;
+            }
+
+            int maxLen = compressor.maxCompressedLength(payload.length);
+            byte[] buffer = new byte[HEADER_SIZE + 4 + maxLen];
+            buffer[0] = MAGIC;
+            buffer[1] = format.code;
+            buffer[2] = FLAG_LZ4;
+            ByteBuffer.wrap(buffer, HEADER_SIZE, 4).putInt(payload.length);
+            int compressedLen = compressor.compress(payload, 0, payload.length, buffer, HEADER_SIZE + 4, maxLen);
+
+            int totalLen = HEADER_SIZE + 4 + compressedLen;
+            byte[] out = new byte[totalLen];
+            System.arraycopy(buffer, 0, out, 0, totalLen);
+            return out;
+        } catch (Exception e) {
+            throw new SerializationException("Redis 值序列化失败 (format=" + format + ")", e);
+        }
+    }
+
+    @Override
+    public T deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            if (bytes[0] != MAGIC) {
+                // 旧版 Jackson2JsonRedisSerializer / GenericJackson2JsonRedisSerializer 写入的纯 JSON
+                return jsonMapper.readValue(bytes, javaType);
+            }
+
+            Format storedFormat = formatOf(bytes[1]);
+            boolean compressed = (bytes[2] & FLAG_LZ4) != 0;
+
+            if (!compressed) {
+                return mapperFor(storedFormat).readValue(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE, javaType);
+            }
+
+            int originalLen = ByteBuffer.wrap(bytes, HEADER_SIZE, 4).getInt();
+            byte[] payload = new byte[originalLen];
+            decompressor.decompress(bytes, HEADER_SIZE + 4, payload, 0, originalLen);
+            return mapperFor(storedFormat).readValue(payload, javaType);
+        } catch (Exception e) {
+            throw new SerializationException("Redis 值反序列化失败", e);
+        }
+    }
+
+    private ObjectMapper mapperFor(Format f) {
+        return switch (f) {
+            case SMILE -> smileMapper;
+            case CBOR -> cborMapper;
+            case JSON -> jsonMapper;
+        };
+    }
+
+    private static Format formatOf(byte code) {
+        for (Format f : Format.values()) {
+            if (f.code == code) {
+                return f;
+            }
+        }
+        throw new IllegalStateException("未知的 Redis 值编码: " + code);
+    }
+}
@@ -1,6 +1,5 @@
 package org.example.agent.config;
 
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import jakarta.annotation.PostConstruct;
 import org.example.agent.db.entity.GlobalSetting;
 import org.example.agent.db.mapper.GlobalSettingMapper;
@@ -14,10 +13,14 @@ import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Configuration
 public class DataInitializer {
@@ -33,9 +36,11 @@ public class DataInitializer {
     @Transactional
     public void init() {
         log.info("正在检查数据库配置完整性...");
+        // 【修改】先收集全部默认值，最后一次查询已有 Key、一次批量插入缺失项 (原来每项一次 selectOne + insert)
+        Map<String, String> defaults = new LinkedHashMap<>();
 
         // 1. 初始化开场白
-        initSetting(ConfigService.KEY_OPENING_MONOLOGUE, "您好，我是您的智能业务助理，请问有什么可以帮您？");
+        defaults.put(ConfigService.KEY_OPENING_MONOLOGUE, "您好，我是您的智能业务助理，请问有什么可以帮您？");
 
         // 2. 初始化主人设
         String defaultPersona = """
@@ -50,7 +55,7 @@ public class DataInitializer {
                 当前待办任务：{tasks}
                 状态码说明：{code}
                 """;
-        initSetting(ConfigService.KEY_PERSONA_TEMPLATE, defaultPersona);
+        defaults.put(ConfigService.KEY_PERSONA_TEMPLATE, defaultPersona);
 
         // 3. 初始化安全红线
         String defaultRedlines = """
@@ -59,7 +64,7 @@ public class DataInitializer {
                 3. 涉及政治、暴力、色情话题直接拒绝。
                 4. 遇到无法回答的问题，请引导客户转人工。
                 """;
-        initSetting(ConfigService.KEY_SAFETY_REDLINES, defaultRedlines);
+        defaults.put(ConfigService.KEY_SAFETY_REDLINES, defaultRedlines);
 
         // 4. 初始化流程 SOP
         String defaultProcess = """
@@ -69,8 +74,8 @@ public class DataInitializer {
                 4. 询问是否还需要其他帮助
                 5. 礼貌结束对话
                 """;
-        initSetting(ConfigService.KEY_PROCESSES, defaultProcess);
-        initSetting(ConfigService.KEY_DEPENDENCIES, ""); // 初始化流程依赖
+        defaults.put(ConfigService.KEY_PROCESSES, defaultProcess);
+        defaults.put(ConfigService.KEY_DEPENDENCIES, ""); // 初始化流程依赖
 
         // 5. 初始化【策略/意图分析小模型】 Prompt (KEY_PRE_PROMPT)
         String defaultPrePrompt = """
@@ -86,7 +91,7 @@ public class DataInitializer {
                 
                 请分析下面的输入：
                 """;
-        initSetting(ConfigService.KEY_PRE_PROMPT, defaultPrePrompt);
+        defaults.put(ConfigService.KEY_PRE_PROMPT, defaultPrePrompt);
 
         // 处理 工具描述、参数等
         StringBuilder stringBuilder = handleAllToolsDesc();
@@ -108,28 +113,41 @@ public class DataInitializer {
 //                【支持的高速工具】: getWeather, getOilPrice, getGoldPrice, getExchangeRate, getCurrentTimeByCity, getStockInfo。
                 +"""
                 【绝对禁止】(必须留空 tool_name，交给主模型):
-                - ❌ compareTwoPlans, queryMcpFaq, webSearch -> 留空！
+                - ❌ compareTwoPlans, comparePlans, queryMcpFaq, webSearch -> 留空！
                 
                 请分析下面的输入：
                 """;
-        initSetting(ConfigService.KEY_ROUTER_PROMPT, defaultRouterPrompt);
+        defaults.put(ConfigService.KEY_ROUTER_PROMPT, defaultRouterPrompt);
 
 
         // 7. 初始化模型参数
-        initSetting(ConfigService.KEY_MAIN_MODEL, "{\"modelName\":\"qwen3-next-80b-a3b-instruct\",\"temperature\":0.7,\"topP\":0.8,\"maxTokens\":2048}");
-        initSetting(ConfigService.KEY_PRE_MODEL, "{\"modelName\":\"qwen-turbo\",\"temperature\":0.1,\"topP\":0.7,\"maxTokens\":512}");
-        initSetting(ConfigService.KEY_ROUTER_MODEL, "{\"modelName\":\"qwen-turbo\",\"temperature\":0.1,\"topP\":0.7,\"maxTokens\":512}");
+        defaults.put(ConfigService.KEY_MAIN_MODEL, "{\"modelName\":\"qwen3-next-80b-a3b-instruct\",\"temperature\":0.7,\"topP\":0.8,\"maxTokens\":2048}");
+        defaults.put(ConfigService.KEY_PRE_MODEL, "{\"modelName\":\"qwen-turbo\",\"temperature\":0.1,\"topP\":0.7,\"maxTokens\":512}");
+        defaults.put(ConfigService.KEY_ROUTER_MODEL, "{\"modelName\":\"qwen-turbo\",\"temperature\":0.1,\"topP\":0.7,\"maxTokens\":512}");
 
         // 8. 初始化工具开关和描述 (新增描述初始化逻辑)
         Map<String, String> defaultDescriptions = TelecomToolFactory.getHardcodedToolDescriptions();
         for (Map.Entry<String, String> entry : defaultDescriptions.entrySet()) {
             String toolName = entry.getKey();
             // 初始化开关
-            initSetting("enable_tool_" + toolName, "true");
+            defaults.put("enable_tool_" + toolName, "true");
             // 初始化描述
-            initSetting(ConfigService.getToolDescriptionKey(toolName), entry.getValue());
+            defaults.put(ConfigService.getToolDescriptionKey(toolName), entry.getValue());
         }
 
+        // 9. 【新增】可使用整轮答案缓存的意图 (回答只取决于问题本身的 FAQ / 套餐类问题)
+        defaults.put(ConfigService.KEY_ANSWER_CACHE_INTENTS, "查询FAQ,比较套餐");
+
+        // 10. 【新增】主模型分级策略 (默认关闭；意图 / 情绪取值与策略预处理 Prompt 一致，fastModel 与主模型同为通义千问以共用会话历史)
+        defaults.put(ConfigService.KEY_MODEL_TIER_POLICY, "{\"enabled\":false,"
+                + "\"fastModel\":{\"modelName\":\"qwen-turbo\",\"temperature\":0.7,\"topP\":0.8,\"maxTokens\":512},"
+                + "\"simpleIntents\":[\"闲聊\"],"
+                + "\"complexIntents\":[\"投诉\",\"比较套餐\",\"联网搜索\"],"
+                + "\"complexEmotions\":[\"生气\",\"困惑\"],"
+                + "\"complexKeywords\":[\"为什么\",\"怎么办\",\"区别\",\"对比\",\"投诉\",\"退订\",\"扣费\"],"
+                + "\"maxIntentChars\":40,\"maxSimpleChars\":12}");
+
+        seedMissing(defaults);
         log.info("数据库配置检查完成。");
     }
 
@@ -174,17 +192,20 @@ public class DataInitializer {
         return sb;
     }
 
-    private void initSetting(String key, String defaultValue) {
-        QueryWrapper<GlobalSetting> queryWrapper = new QueryWrapper<>();
-        queryWrapper.eq("setting_key", key);
-        GlobalSetting setting = globalSettingMapper.selectOne(queryWrapper);
-
-        if (setting == null) {
-            setting = new GlobalSetting();
-            setting.setSettingKey(key);
-            setting.setSettingValue(defaultValue);
-            globalSettingMapper.insert(setting);
-            log.info("初始化配置项: {}", key);
+    private void seedMissing(Map<String, String> defaults) {
+        Set<String> existing = new HashSet<>(globalSettingMapper.selectAllKeys());
+        List<GlobalSetting> missing = new ArrayList<>();
+        for (Map.Entry<String, String> entry : defaults.entrySet()) {
+            if (!existing.contains(entry.getKey())) {
+                GlobalSetting setting = new GlobalSetting();
+                setting.setSettingKey(entry.getKey());
+                setting.setSettingValue(entry.getValue());
+                missing.add(setting);
+            }
+        }
+        if (!missing.isEmpty()) {
+            globalSettingMapper.insertMissing(missing);
+            log.info("初始化配置项 {} 个: {}", missing.size(), missing.stream().map(GlobalSetting::getSettingKey).toList());
         }
     }
-}
\ No newline at end of file
+}
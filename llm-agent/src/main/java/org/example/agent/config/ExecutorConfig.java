@@ -3,7 +3,10 @@ package org.example.agent.config;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.support.ContextPropagatingTaskDecorator;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 @Configuration
 public class ExecutorConfig {
@@ -15,7 +18,37 @@ public class ExecutorConfig {
         executor.setMaxPoolSize(20);
         executor.setQueueCapacity(100);
         executor.setThreadNamePrefix("LLM-Task-");
+        // 【新增】提交任务时捕获 Observation / MDC 等线程上下文，在工作线程上恢复，执行完还原
+        executor.setTaskDecorator(new ContextPropagatingTaskDecorator());
         executor.initialize();
         return executor;
     }
-}
\ No newline at end of file
+
+    /**
+     * 【新增】WebSocket 出站通道使用：合并窗口冲刷、心跳与空闲连接回收。
+     */
+    @Bean(name = "wsOutboundScheduler")
+    public TaskScheduler wsOutboundScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(2);
+        scheduler.setThreadNamePrefix("WS-Outbound-");
+        scheduler.setRemoveOnCancelPolicy(true);
+        scheduler.initialize();
+        return scheduler;
+    }
+
+    /**
+     * 【新增】WebSocket 帧的实际写出：每个连接一个串行发送队列，排空任务在这里执行，
+     * 慢客户端最多阻塞一个线程 send-time-limit 时长，不影响调度线程上的冲刷与心跳。
+     */
+    @Bean(name = "wsSendExecutor")
+    public TaskExecutor wsSendExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(8);
+        executor.setMaxPoolSize(32);
+        executor.setQueueCapacity(1000);
+        executor.setThreadNamePrefix("WS-Send-");
+        executor.initialize();
+        return executor;
+    }
+}
@@ -4,15 +4,22 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.example.agent.component.LegacyHistoryMigration;
+import org.example.agent.component.PipelineMetrics;
+import org.example.agent.component.TimedConversationStore;
+import org.example.agent.dto.ChatSessionState;
+import org.example.agent.service.AnswerCacheService;
 import org.example.llm.dto.llm.LlmMessage;
+import org.example.llm.history.ConversationStore;
+import org.example.llm.history.InMemoryConversationStore;
+import org.example.llm.history.RedisConversationStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.cache.RedisCacheManagerBuilderCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
-import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
@@ -22,70 +29,176 @@ import java.util.List;
 @Configuration
 public class RedisConfig {
 
+    // 值编码: json / smile / cbor (读取时始终兼容旧的纯 JSON 值)
+    @Value("${llm.redis.serializer.format:smile}")
+    private String serializerFormat;
+
+    // 编码后超过阈值 (字节) 的值使用 LZ4 压缩
+    @Value("${llm.redis.serializer.lz4-enabled:true}")
+    private boolean lz4Enabled;
+
+    @Value("${llm.redis.serializer.lz4-threshold:1024}")
+    private int lz4Threshold;
+
+    // 【新增】整轮答案缓存的过期时间 (分钟)
+    @Value("${answer-cache.ttl-minutes:30}")
+    private long answerCacheTtlMinutes;
+
+    // 【新增】会话历史存储: redis (多节点共享) | memory (单节点)
+    @Value("${llm.history.store:redis}")
+    private String historyStore;
+
+    // 【新增】会话历史的过期时间 (分钟，随每次追加顺延)
+    @Value("${llm.history.ttl-minutes:1440}")
+    private long historyTtlMinutes;
+
+    // 【新增】请求模型时带上的最近消息条数 (0 = 全部)
+    @Value("${llm.history.window-messages:0}")
+    private int historyWindowMessages;
+
+    // 【新增】读取空历史时把旧版 llm:direct:session:{会话 ID} 值键迁移过来 (旧键全部过期后可关闭)
+    @Value("${llm.history.legacy-migration.enabled:true}")
+    private boolean legacyMigrationEnabled;
+
     /**
-     * 配置用于序列化 List<LlmMessage> 的 RedisTemplate (上下文历史)
+     * 与旧版序列化器保持一致的 ObjectMapper 配置 (字段可见 + JSR310)
      */
-    @Bean
-    public RedisTemplate<String, List<LlmMessage>> llmMessageRedisTemplate(RedisConnectionFactory redisConnectionFactory) {
-        RedisTemplate<String, List<LlmMessage>> template = new RedisTemplate<>();
-        template.setConnectionFactory(redisConnectionFactory);
-        StringRedisSerializer stringSerializer = new StringRedisSerializer();
-        template.setKeySerializer(stringSerializer);
-        template.setHashKeySerializer(stringSerializer);
+    private static ObjectMapper baseObjectMapper() {
         ObjectMapper objectMapper = new ObjectMapper();
         objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
         objectMapper.registerModule(new JavaTimeModule());
-        Jackson2JsonRedisSerializer<List<LlmMessage>> jsonSerializer = new Jackson2JsonRedisSerializer<>(
-                objectMapper.getTypeFactory().constructCollectionType(List.class, LlmMessage.class)
-        );
-        template.setValueSerializer(jsonSerializer);
-        template.setHashValueSerializer(jsonSerializer);
+        return objectMapper;
+    }
+
+    /**
+     * 【修改】上下文历史按消息逐条存放在 Redis List 中 (RedisConversationStore)，每个元素是一条 LlmMessage
+     */
+    @Bean
+    public RedisTemplate<String, LlmMessage> llmMessageRedisTemplate(RedisConnectionFactory redisConnectionFactory) {
+        RedisTemplate<String, LlmMessage> template = new RedisTemplate<>();
+        template.setConnectionFactory(redisConnectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        ObjectMapper objectMapper = baseObjectMapper();
+        template.setValueSerializer(new CompactRedisSerializer<>(
+                objectMapper,
+                objectMapper.getTypeFactory().constructType(LlmMessage.class),
+                CompactRedisSerializer.Format.of(serializerFormat), lz4Enabled, lz4Threshold
+        ));
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    /**
+     * 【新增】所有厂商实现共用的会话历史存储 (键 llm:history:{厂商}:{会话 ID})
+     */
+    @Bean
+    public ConversationStore conversationStore(RedisTemplate<String, LlmMessage> llmMessageRedisTemplate,
+                                               PipelineMetrics pipelineMetrics) {
+        ConversationStore store;
+        if ("memory".equalsIgnoreCase(historyStore)) {
+            store = new InMemoryConversationStore(historyWindowMessages);
+        } else {
+            store = new RedisConversationStore(llmMessageRedisTemplate, "llm:history:",
+                    Duration.ofMinutes(historyTtlMinutes), historyWindowMessages);
+            if (legacyMigrationEnabled) {
+                store = new LegacyHistoryMigration(store,
+                        legacyHistoryRedisTemplate(llmMessageRedisTemplate.getConnectionFactory()));
+            }
+        }
+        return new TimedConversationStore(store, pipelineMetrics);
+    }
+
+    /**
+     * 【新增】旧版 DirectLlmService 的值键 (整段 List&lt;LlmMessage&gt;)，只供 LegacyHistoryMigration 读取，不注册为 Bean
+     */
+    private RedisTemplate<String, List<LlmMessage>> legacyHistoryRedisTemplate(RedisConnectionFactory redisConnectionFactory) {
+        RedisTemplate<String, List<LlmMessage>> template = new RedisTemplate<>();
+        template.setConnectionFactory(redisConnectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        ObjectMapper objectMapper = baseObjectMapper();
+        template.setValueSerializer(new CompactRedisSerializer<>(
+                objectMapper,
+                objectMapper.getTypeFactory().constructCollectionType(List.class, LlmMessage.class),
+                CompactRedisSerializer.Format.of(serializerFormat), lz4Enabled, lz4Threshold
+        ));
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    /**
+     * 【新增】工作流对话的会话状态 (ChatSessionStore)，与上下文历史使用相同的紧凑编码
+     */
+    @Bean
+    public RedisTemplate<String, ChatSessionState> chatSessionRedisTemplate(RedisConnectionFactory redisConnectionFactory) {
+        RedisTemplate<String, ChatSessionState> template = new RedisTemplate<>();
+        template.setConnectionFactory(redisConnectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        ObjectMapper objectMapper = baseObjectMapper();
+        template.setValueSerializer(new CompactRedisSerializer<>(
+                objectMapper,
+                objectMapper.getTypeFactory().constructType(ChatSessionState.class),
+                CompactRedisSerializer.Format.of(serializerFormat), lz4Enabled, lz4Threshold
+        ));
         template.afterPropertiesSet();
         return template;
     }
 
     /**
      * 【全面配置】针对 ToolService 中所有的缓存项设置过期时间
+     * 【修改】值序列化器按缓存声明具体类型 (工具结果与整轮答案都是 String)，不再以 Object 反序列化：
+     * 编码中不带类型信息，Object 读回来只会是 LinkedHashMap / 基本类型，也不接受任意类型的值写入。
+     * 新增其他类型的缓存时，用 {@link #typedCacheConfig} 为它单独声明类型。
      */
     @Bean
     public RedisCacheManagerBuilderCustomizer redisCacheManagerBuilderCustomizer() {
-        // 1. 定义通用的 JSON 序列化器
-        ObjectMapper objectMapper = new ObjectMapper();
-        objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.ANY);
-        objectMapper.registerModule(new JavaTimeModule());
-        GenericJackson2JsonRedisSerializer genericSerializer = new GenericJackson2JsonRedisSerializer(objectMapper);
-
-        // 2. 定义【默认】配置 (兜底策略：1小时过期)
+        // 1. 定义【默认】配置 (兜底策略：1小时过期，值为 String；webSearch 等大结果会被 LZ4 压缩)
         // 如果以后你加了新的 @Cacheable 但忘了在这里配，它也会在 1 小时后自动清除，不会永久占用。
-        RedisCacheConfiguration defaultCacheConfig = RedisCacheConfiguration.defaultCacheConfig()
-                .serializeKeysWith(RedisSerializationContext.SerializationPair.fromSerializer(new StringRedisSerializer()))
-                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(genericSerializer))
-                .entryTtl(Duration.ofHours(1))
-                .disableCachingNullValues();
+        RedisCacheConfiguration defaultCacheConfig = typedCacheConfig(String.class, Duration.ofHours(1));
 
         return (builder) -> builder
                 .cacheDefaults(defaultCacheConfig) // 应用默认配置
 
-                // --- 3. 针对不同业务设置具体过期时间 ---
+                // --- 2. 针对不同业务设置具体过期时间 ---
 
                 // 【天气】：30分钟 (变化频率中等)
                 .withCacheConfiguration("weatherCache",
-                        defaultCacheConfig.entryTtl(Duration.ofMinutes(30)))
+                        typedCacheConfig(String.class, Duration.ofMinutes(30)))
 
                 // 【油价】：1小时 (通常每天变动，1小时足够安全)
                 .withCacheConfiguration("oilPriceCache",
-                        defaultCacheConfig.entryTtl(Duration.ofHours(1)))
+                        typedCacheConfig(String.class, Duration.ofHours(1)))
 
                 // 【金价】：5分钟 (金融数据，波动较快)
                 .withCacheConfiguration("goldPriceCache",
-                        defaultCacheConfig.entryTtl(Duration.ofMinutes(5)))
+                        typedCacheConfig(String.class, Duration.ofMinutes(5)))
 
                 // 【汇率】：5分钟 (金融数据，波动较快)
                 .withCacheConfiguration("exchangeRateCache",
-                        defaultCacheConfig.entryTtl(Duration.ofMinutes(5)))
+                        typedCacheConfig(String.class, Duration.ofMinutes(5)))
 
                 // 【基金】：10分钟 (通常盘后更新，但为了防呆设置 10 分钟)
                 .withCacheConfiguration("fundInfoCache",
-                        defaultCacheConfig.entryTtl(Duration.ofMinutes(10)));
+                        typedCacheConfig(String.class, Duration.ofMinutes(10)))
+
+                // 【新增】【整轮答案】：默认 30 分钟 (FAQ / 套餐数据直接改库时，可通过管理接口立即清空)
+                .withCacheConfiguration(AnswerCacheService.CACHE_NAME,
+                        typedCacheConfig(String.class, Duration.ofMinutes(answerCacheTtlMinutes)));
+    }
+
+    /**
+     * 【新增】值类型为 type 的缓存配置 (紧凑编码 + 可选 LZ4，键为字符串，不缓存 null)
+     */
+    private RedisCacheConfiguration typedCacheConfig(Class<?> type, Duration ttl) {
+        ObjectMapper objectMapper = baseObjectMapper();
+        CompactRedisSerializer<?> valueSerializer = new CompactRedisSerializer<>(
+                objectMapper,
+                objectMapper.getTypeFactory().constructType(type),
+                CompactRedisSerializer.Format.of(serializerFormat), lz4Enabled, lz4Threshold
+        );
+        return RedisCacheConfiguration.defaultCacheConfig()
+                .serializeKeysWith(RedisSerializationContext.SerializationPair.fromSerializer(new StringRedisSerializer()))
+                .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(valueSerializer))
+                .entryTtl(ttl)
+                .disableCachingNullValues();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+package org.example.agent.config;
+
+import org.example.llm.tokenizer.TokenizerRegistry;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 【新增】本地分词器就绪检查 (health 组件名 tokenizer，已加入 readiness 组)。
+ * <p>
+ * llm.tokenizer.required 中的厂商没有可用词表时返回 DOWN，/actuator/health/readiness 随之不就绪，
+ * 避免 Token 预算与提示词分段指标在估算值上静默运行。
+ */
+@Component("tokenizer")
+public class TokenizerHealthIndicator implements HealthIndicator {
+
+    private final TokenizerRegistry tokenizerRegistry;
+
+    public TokenizerHealthIndicator(TokenizerRegistry tokenizerRegistry) {
+        this.tokenizerRegistry = tokenizerRegistry;
+    }
+
+    @Override
+    public Health health() {
+        List<String> missing = tokenizerRegistry.missingRequired();
+        if (missing.isEmpty()) {
+            return Health.up().build();
+        }
+        return Health.down().withDetail("missingVocabulary", missing).build();
+    }
+}
@@ -0,0 +1,80 @@
+package org.example.agent.config;
+
+import io.lettuce.core.tracing.MicrometerTracing;
+import io.micrometer.context.ContextRegistry;
+import io.micrometer.context.integration.Slf4jThreadLocalAccessor;
+import io.micrometer.observation.ObservationRegistry;
+import io.opentelemetry.exporter.logging.otlp.OtlpJsonLoggingSpanExporter;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.example.agent.utils.HttpUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.ClientResourcesBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * 【新增】链路追踪配置 (Micrometer Tracing + OpenTelemetry)。
+ * <p>
+ * Span 来源：PipelineMetrics 的各阶段、Feign (feign-micrometer)、WebClient、Lettuce、HttpUtils 工具调用。
+ * 导出：默认发往本地 OTLP Collector (management.otlp.tracing.endpoint)，
+ * 开启 llm.tracing.file-export.enabled 后同时以 OTLP JSON 每行一个写入本地文件，无需任何外部服务。
+ */
+@Configuration
+public class TracingConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(TracingConfig.class);
+
+    /**
+     * 随线程池任务一起传递的 MDC 键 (traceId / spanId 由 Tracing 自身维护，这里只需要业务键)。
+     */
+    public static final String MDC_SESSION_ID = "sessionId";
+
+    public TracingConfig(ObservationRegistry observationRegistry) {
+        HttpUtils.setObservationRegistry(observationRegistry);
+        // ContextPropagatingTaskDecorator 通过 ContextRegistry 捕获线程上下文，这里把 MDC 中的 sessionId 也登记进去
+        ContextRegistry.getInstance().registerThreadLocalAccessor(new Slf4jThreadLocalAccessor(MDC_SESSION_ID));
+    }
+
+    /**
+     * Redis 命令 Span：Lettuce 以当前 Observation 作为父节点。
+     */
+    @Bean
+    public ClientResourcesBuilderCustomizer lettuceTracingCustomizer(ObservationRegistry observationRegistry) {
+        return builder -> builder.tracing(new MicrometerTracing(observationRegistry, "llm-agent-redis"));
+    }
+
+    /**
+     * 本地文件导出：OtlpJsonLoggingSpanExporter 通过 JUL 输出，这里把它的 Logger 单独接到文件上。
+     */
+    @Bean
+    @ConditionalOnProperty(name = "llm.tracing.file-export.enabled", havingValue = "true")
+    public SpanExporter fileSpanExporter(@Value("${llm.tracing.file-export.path:log/traces.jsonl}") String path) throws IOException {
+        Path file = Paths.get(path).toAbsolutePath();
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        FileHandler handler = new FileHandler(file.toString(), true);
+        handler.setFormatter(new Formatter() {
+            @Override
+            public String format(LogRecord record) {
+                return formatMessage(record) + System.lineSeparator();
+            }
+        });
+        java.util.logging.Logger exporterLogger = java.util.logging.Logger.getLogger(OtlpJsonLoggingSpanExporter.class.getName());
+        exporterLogger.setUseParentHandlers(false);
+        exporterLogger.addHandler(handler);
+        log.info("链路追踪 Span 将写入本地文件: {}", file);
+        return OtlpJsonLoggingSpanExporter.create();
+    }
+}
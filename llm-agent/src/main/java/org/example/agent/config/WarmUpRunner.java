@@ -0,0 +1,238 @@
+package org.example.agent.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.hc.client5.http.classic.methods.HttpHead;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.example.agent.component.ActionMarkerParser;
+import org.example.agent.factory.TelecomToolFactory;
+import org.example.agent.service.ConfigService;
+import org.example.agent.service.RuleEngineService;
+import org.example.agent.service.ToolService;
+import org.example.llm.client.EndpointPool;
+import org.example.llm.client.EndpointPoolFactory;
+import org.example.llm.dto.tool.ToolDefinition;
+import org.example.llm.service.LlmServiceManager;
+import org.example.llm.tokenizer.TokenizerRegistry;
+import org.example.mcp.service.FaqService;
+import org.example.mcp.service.PlanService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 【新增】启动预热。
+ * <p>
+ * Spring Boot 在所有 ApplicationRunner 执行完之后才把 ReadinessState 置为 ACCEPTING_TRAFFIC，
+ * 因此在这里同步执行预热即可推迟 /actuator/health/readiness 变为 UP，探针就绪前不会被分配流量：
+ * <ol>
+ *     <li>preload：读取全局配置、编译流程图、加载策略 / 规则 / 工具描述，刷新套餐目录与 FAQ 索引，加载本地分词器词表；</li>
+ *     <li>connections：对各 LLM 端点 (EndpointPool 中的地址) 分别经 Feign 的 HttpClient5 连接池与
+ *         WebClient (流式) 连接池发一次 HEAD，提前完成 DNS / TLS 握手并把连接留在池中；</li>
+ *     <li>hot-paths：以合成数据循环执行请求序列化、响应 / SSE 解析、动作标记解析、FAQ 检索，触发 JIT 编译；</li>
+ *     <li>tool-cache：按 warmup.tool-cache-keys 预先调用可缓存的工具 (已有缓存时不会重复请求)。</li>
+ * </ol>
+ * 每一步失败只记录日志，不阻止启动；总耗时超过 warmup.max-duration-ms 时跳过剩余步骤。
+ * 各步骤耗时记录在 app.warmup 计时器 (step 标签) 中，并在结束时汇总打印。
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE)
+public class WarmUpRunner implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(WarmUpRunner.class);
+
+    private static final String SAMPLE_REPLY = "好的，已为您核实身份。我已完成流程[确认客户身份信息]您当前套餐月租 128 元。（我已完成[发送短信]，[套餐详情]，[10:00]）请问还有其他问题吗？";
+
+    private final ConfigService configService;
+    private final RuleEngineService ruleEngineService;
+    private final PlanService planService;
+    private final FaqService faqService;
+    private final ToolService toolService;
+    private final LlmServiceManager llmServiceManager;
+    private final TokenizerRegistry tokenizerRegistry;
+    private final EndpointPoolFactory endpointPoolFactory;
+    private final ObjectMapper wireMapper;
+    private final WebClient webClient;
+    private final ObjectProvider<CloseableHttpClient> feignHttpClient;
+    private final MeterRegistry meterRegistry;
+
+    private final boolean enabled;
+    private final int iterations;
+    private final long connectTimeoutMs;
+    private final long maxDurationMs;
+    private final String toolCacheKeys;
+
+    public WarmUpRunner(ConfigService configService, RuleEngineService ruleEngineService,
+                        PlanService planService, FaqService faqService, ToolService toolService,
+                        LlmServiceManager llmServiceManager, TokenizerRegistry tokenizerRegistry,
+                        EndpointPoolFactory endpointPoolFactory,
+                        ObjectMapper wireMapper, WebClient.Builder webClientBuilder,
+                        ObjectProvider<CloseableHttpClient> feignHttpClient, MeterRegistry meterRegistry,
+                        @Value("${warmup.enabled:true}") boolean enabled,
+                        @Value("${warmup.iterations:200}") int iterations,
+                        @Value("${warmup.connect-timeout-ms:3000}") long connectTimeoutMs,
+                        @Value("${warmup.max-duration-ms:20000}") long maxDurationMs,
+                        @Value("${warmup.tool-cache-keys:}") String toolCacheKeys) {
+        this.configService = configService;
+        this.ruleEngineService = ruleEngineService;
+        this.planService = planService;
+        this.faqService = faqService;
+        this.toolService = toolService;
+        this.llmServiceManager = llmServiceManager;
+        this.tokenizerRegistry = tokenizerRegistry;
+        this.endpointPoolFactory = endpointPoolFactory;
+        this.wireMapper = wireMapper;
+        this.webClient = webClientBuilder.build();
+        this.feignHttpClient = feignHttpClient;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.iterations = iterations;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.maxDurationMs = maxDurationMs;
+        this.toolCacheKeys = toolCacheKeys;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            log.info("启动预热已关闭 (warmup.enabled=false)");
+            return;
+        }
+        long start = System.nanoTime();
+        Map<String, Long> durations = new LinkedHashMap<>();
+        List<ToolDefinition> tools = step("preload", start, durations, this::preload);
+        step("connections", start, durations, () -> { warmConnections(); return null; });
+        step("hot-paths", start, durations, () -> { warmHotPaths(tools); return null; });
+        step("tool-cache", start, durations, () -> { prefillToolCache(); return null; });
+
+        long totalMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Timer.builder("app.warmup").description("启动预热各步骤耗时").tag("step", "total")
+                .register(meterRegistry).record(totalMs, TimeUnit.MILLISECONDS);
+        log.info("启动预热完成，总耗时 {} ms，各步骤: {}", totalMs, durations);
+    }
+
+    private <T> T step(String name, long start, Map<String, Long> durations, Supplier<T> body) {
+        if (TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) > maxDurationMs) {
+            log.warn("启动预热已超过 {} ms，跳过步骤: {}", maxDurationMs, name);
+            durations.put(name, -1L);
+            return null;
+        }
+        long stepStart = System.nanoTime();
+        T result = null;
+        try {
+            result = body.get();
+        } catch (RuntimeException e) {
+            log.warn("启动预热步骤 {} 失败: {}", name, e.toString());
+        }
+        long elapsed = System.nanoTime() - stepStart;
+        durations.put(name, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        Timer.builder("app.warmup").description("启动预热各步骤耗时").tag("step", name)
+                .register(meterRegistry).record(elapsed, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    /**
+     * 加载配置、规则与内存目录，返回实际挂载的工具定义供后续合成请求使用。
+     */
+    private List<ToolDefinition> preload() {
+        configService.getAllGlobalSettings();
+        configService.getWorkflowGraph();
+        configService.getAllStrategies();
+        ruleEngineService.selectBestStrategy("闲聊", "中性");
+        planService.refreshCatalog();
+        faqService.refreshIndex();
+        tokenizerRegistry.preload();
+        return TelecomToolFactory.getAllToolDefinitions(configService.getAllToolDescriptions());
+    }
+
+    private void warmConnections() {
+        Set<URI> origins = new LinkedHashSet<>();
+        for (EndpointPool pool : endpointPoolFactory.getPools()) {
+            for (EndpointPool.Endpoint endpoint : pool.getEndpoints()) {
+                URI base = endpoint.getBaseUri();
+                origins.add(URI.create(base.getScheme() + "://" + base.getAuthority() + "/"));
+            }
+        }
+        CloseableHttpClient httpClient = feignHttpClient.getIfAvailable();
+        for (URI origin : origins) {
+            long t0 = System.nanoTime();
+            if (httpClient != null) {
+                try {
+                    httpClient.execute(new HttpHead(origin), response -> {
+                        EntityUtils.consume(response.getEntity());
+                        return response.getCode();
+                    });
+                } catch (Exception e) {
+                    log.warn("预热 Feign 连接失败: {} ({})", origin, e.toString());
+                }
+            }
+            try {
+                webClient.head().uri(origin).exchangeToMono(response -> response.releaseBody())
+                        .timeout(Duration.ofMillis(connectTimeoutMs))
+                        .block();
+            } catch (RuntimeException e) {
+                log.warn("预热 WebClient 连接失败: {} ({})", origin, e.toString());
+            }
+            log.info("已预热连接: {} ({} ms)", origin, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+        }
+    }
+
+    private void warmHotPaths(List<ToolDefinition> tools) {
+        List<ToolDefinition> definitions = tools == null ? List.of() : tools;
+        for (int i = 0; i < iterations; i++) {
+            llmServiceManager.warmUp(wireMapper, definitions);
+            ActionMarkerParser.parseAll(SAMPLE_REPLY);
+            faqService.search("我的套餐月租多少钱", 3);
+        }
+    }
+
+    /**
+     * warmup.tool-cache-keys 格式: "getGoldPrice,getExchangeRate:USD,getOilPrice:广东"，
+     * 只支持带 @Cacheable 的单参数 / 无参数工具 (经代理调用，缓存已存在时不会请求外部接口)。
+     */
+    private void prefillToolCache() {
+        if (toolCacheKeys == null || toolCacheKeys.isBlank()) {
+            return;
+        }
+        for (String entry : toolCacheKeys.split(",")) {
+            String spec = entry.trim();
+            if (spec.isEmpty()) {
+                continue;
+            }
+            int colon = spec.indexOf(':');
+            String tool = colon < 0 ? spec : spec.substring(0, colon).trim();
+            String arg = colon < 0 ? "" : spec.substring(colon + 1).trim();
+            switch (tool) {
+                case "getGoldPrice" -> toolService.getGoldPrice();
+                case "getWeather" -> toolService.getWeather(arg);
+                case "getOilPrice" -> toolService.getOilPrice(arg);
+                case "getExchangeRate" -> toolService.getExchangeRate(arg);
+                case "getFundInfo" -> toolService.getFundInfo(arg);
+                default -> {
+                    log.warn("预热不支持的工具缓存: {}", spec);
+                    continue;
+                }
+            }
+            log.info("已预热工具缓存: {}", spec);
+        }
+    }
+}
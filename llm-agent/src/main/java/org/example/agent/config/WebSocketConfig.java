@@ -1,17 +1,31 @@
 package org.example.agent.config;
 
 import org.example.agent.controller.DirectChatWebSocketHandler;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.web.socket.WebSocketExtension;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
+
+import java.util.List;
 
 @Configuration
 @EnableWebSocket // 【关键修改】启用 MVC WebSocket 支持
 public class WebSocketConfig implements WebSocketConfigurer {
 
+    private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
     private final DirectChatWebSocketHandler chatHandler;
 
+    /**
+     * 【新增】是否允许协商 permessage-deflate。句子帧很短时压缩收益有限，CPU 紧张时可关闭。
+     */
+    @Value("${llm.ws.permessage-deflate.enabled:true}")
+    private boolean permessageDeflateEnabled;
+
     public WebSocketConfig(DirectChatWebSocketHandler chatHandler) {
         this.chatHandler = chatHandler;
     }
@@ -20,6 +34,32 @@ public class WebSocketConfig implements WebSocketConfigurer {
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         // 【关键修改】使用 MVC 方式注册 Handler，Tomcat 可以识别
         registry.addHandler(chatHandler, "/ws/directChat")
+                .setHandshakeHandler(new ExtensionFilteringHandshakeHandler(permessageDeflateEnabled))
                 .setAllowedOrigins("*"); // 允许所有来源进行连接
     }
-}
\ No newline at end of file
+
+    /**
+     * 握手时按配置过滤 permessage-deflate 扩展，其余扩展照常协商。
+     */
+    private static class ExtensionFilteringHandshakeHandler extends DefaultHandshakeHandler {
+
+        private final boolean deflateEnabled;
+
+        ExtensionFilteringHandshakeHandler(boolean deflateEnabled) {
+            this.deflateEnabled = deflateEnabled;
+        }
+
+        @Override
+        protected List<WebSocketExtension> filterRequestedExtensions(ServerHttpRequest request,
+                                                                     List<WebSocketExtension> requestedExtensions,
+                                                                     List<WebSocketExtension> supportedExtensions) {
+            List<WebSocketExtension> accepted = super.filterRequestedExtensions(request, requestedExtensions, supportedExtensions);
+            if (deflateEnabled) {
+                return accepted;
+            }
+            return accepted.stream()
+                    .filter(extension -> !PERMESSAGE_DEFLATE.equalsIgnoreCase(extension.getName()))
+                    .toList();
+        }
+    }
+}
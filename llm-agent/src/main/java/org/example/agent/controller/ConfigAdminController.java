@@ -1,11 +1,13 @@
 package org.example.agent.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.agent.component.ToolGuard;
 import org.example.agent.db.entity.DecisionRule;
 import org.example.agent.db.entity.Strategy;
 import org.example.agent.db.mapper.DecisionRuleMapper;
 import org.example.agent.dto.ModelParameters;
 import org.example.agent.factory.TelecomToolFactory;
+import org.example.agent.service.AnswerCacheService;
 import org.example.agent.service.ConfigService;
 import org.example.llm.dto.tool.ParameterProperty;
 import org.example.llm.dto.tool.ParameterSchema;
@@ -30,10 +32,13 @@ public class ConfigAdminController {
     private final ConfigService configService;
     private final ObjectMapper objectMapper;
     private final DecisionRuleMapper decisionRuleMapper;
+    private final ToolGuard toolGuard;
+    private final AnswerCacheService answerCacheService;
 
     // 【修复编译错误】使用 Map.ofEntries 解决参数数量超过 10 对的限制
     private static final Map<String, String> TOOL_LOCALIZATION = Map.ofEntries(
             Map.entry("compareTwoPlans", "比较套餐"),
+            Map.entry("comparePlans", "多套餐差异对比"),
             Map.entry("queryMcpFaq", "查询套餐FAQ"),
             Map.entry("getWeather", "查询天气"),
             Map.entry("getOilPrice", "查询油价"),
@@ -46,13 +51,17 @@ public class ConfigAdminController {
             Map.entry("webSearch", "联网搜索")
     );
 
-    // 【修改】新增 chineseName 和 parameters 字段
-    public record ToolStatus(String name, String chineseName, String description, String parameters, boolean isActive) {}
+    // 【修改】新增 chineseName 和 parameters 字段；【新增】guard 为外部工具的熔断 / 配额状态 (本地工具为 null)
+    public record ToolStatus(String name, String chineseName, String description, String parameters, boolean isActive,
+                             ToolGuard.Status guard) {}
 
-    public ConfigAdminController(ConfigService configService, ObjectMapper objectMapper, DecisionRuleMapper decisionRuleMapper) {
+    public ConfigAdminController(ConfigService configService, ObjectMapper objectMapper, DecisionRuleMapper decisionRuleMapper,
+                                 ToolGuard toolGuard, AnswerCacheService answerCacheService) {
         this.configService = configService;
         this.objectMapper = objectMapper;
         this.decisionRuleMapper = decisionRuleMapper;
+        this.toolGuard = toolGuard;
+        this.answerCacheService = answerCacheService;
     }
 
     @GetMapping("/global-settings")
@@ -65,8 +74,20 @@ public class ConfigAdminController {
 
     @PutMapping("/global-settings")
     @Transactional
-    public ResponseEntity<Void> saveGlobalSettings(@RequestBody Map<String, String> settings) {
+    public ResponseEntity<?> saveGlobalSettings(@RequestBody Map<String, String> settings) {
         log.info("收到保存配置请求: {}", settings.keySet());
+        // 【新增】流程 / 依赖在保存前编译校验，存在无法解析的行或环时拒绝保存
+        List<String> workflowErrors = configService.validateWorkflow(settings);
+        if (!workflowErrors.isEmpty()) {
+            log.warn("流程依赖校验失败: {}", workflowErrors);
+            return ResponseEntity.badRequest().body(Map.of("error", "流程依赖配置有误", "details", workflowErrors));
+        }
+        // 【新增】分级策略 JSON 校验
+        List<String> tierErrors = configService.validateModelTierPolicy(settings);
+        if (!tierErrors.isEmpty()) {
+            log.warn("主模型分级策略校验失败: {}", tierErrors);
+            return ResponseEntity.badRequest().body(Map.of("error", "主模型分级策略配置有误", "details", tierErrors));
+        }
         configService.saveGlobalSettings(settings);
         return ResponseEntity.ok().build();
     }
@@ -87,13 +108,21 @@ public class ConfigAdminController {
         return ResponseEntity.ok().build();
     }
 
+    // 【新增】清空整轮答案缓存 (FAQ / 套餐数据直接改库或规则调整后使用)
+    @DeleteMapping("/answer-cache")
+    public ResponseEntity<Void> purgeAnswerCache() {
+        log.info("收到清空整轮答案缓存请求");
+        answerCacheService.purge();
+        return ResponseEntity.ok().build();
+    }
+
     // 【新增】获取中文工具名称
     private String getChineseToolName(String toolName) {
         return TOOL_LOCALIZATION.getOrDefault(toolName, toolName);
     }
 
-    // 【新增】获取参数概括（包含描述）
-    private String getParameterSummary(ToolDefinition tool) {
+    // 【新增】获取参数概括（包含描述）；包级可见，供 JMH 基准调用
+    String getParameterSummary(ToolDefinition tool) {
         ParameterSchema schema = tool.getFunction().getParameters();
         if (schema == null || schema.getProperties() == null || schema.getProperties().isEmpty()) {
             return "无参数";
@@ -159,8 +188,10 @@ public class ConfigAdminController {
                     String currentDescription = def.getFunction().getDescription();
                     String parameterSummary = getParameterSummary(def);
 
+                    ToolGuard.Status guard = ToolGuard.GUARDED_TOOLS.contains(toolName) ? toolGuard.status(toolName) : null;
+
                     // 返回原始 toolName 在 'name' 字段，确保前端 JS 绑定 key 正常
-                    return new ToolStatus(toolName, chineseName, currentDescription, parameterSummary, isActive);
+                    return new ToolStatus(toolName, chineseName, currentDescription, parameterSummary, isActive, guard);
                 })
                 .collect(Collectors.toList());
 
@@ -0,0 +1,334 @@
+package org.example.agent.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.example.agent.dto.DirectChatResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单个 WebSocket 连接的出站通道。
+ * <p>
+ * 1. 基于 {@link ConcurrentWebSocketSessionDecorator}：多线程并发发送安全，慢客户端受发送时长 / 缓冲区上限保护，
+ *    LLM 线程不会被无限期阻塞；
+ * 2. 句子块在 coalesce 窗口内合并为一帧 ({@code replies} 字段)，控制帧 (END/ERROR/CANCELLED) 发送前先冲刷合并缓冲，保证顺序；
+ * 3. 【修改】帧在锁内按顺序入队，由每个连接各自的串行发送队列在 sendExecutor 上写出：
+ *    写 socket 不持有合并锁，也不占用共享的调度线程；队列超过 buffer-size-limit 时按溢出策略处理，
+ *    DROP 只丢弃最旧的句子帧，控制帧 (END/ACTION 等) 永不丢弃；心跳 Ping 也经同一队列发出，不在调度线程上写 socket；
+ *    发送线程池拒绝任务时由调用线程直接排空队列；
+ * 4. 记录发送耗时、丢弃帧数和慢客户端次数。
+ */
+class DirectChatOutboundChannel {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectChatOutboundChannel.class);
+
+    /**
+     * 通道参数 (由 DirectChatWebSocketHandler 从配置中读取)。
+     */
+    record Settings(int sendTimeLimitMs, int bufferSizeLimit,
+                    ConcurrentWebSocketSessionDecorator.OverflowStrategy overflowStrategy,
+                    long coalesceWindowMs) {}
+
+    private record Frame(WebSocketMessage<?> message, boolean control, long enqueuedAt) {}
+
+    private final ConcurrentWebSocketSessionDecorator session;
+    private final Settings settings;
+    private final TaskScheduler scheduler;
+    private final Executor sendExecutor;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Timer sendTimer;
+    private final Counter droppedFrames;
+
+    private final Object pendingLock = new Object();
+    private final List<String> pendingReplies = new ArrayList<>();
+    private String pendingSessionId;
+    private ScheduledFuture<?> pendingFlush;
+
+    // 串行发送队列：同一连接同一时刻最多一个线程在写
+    private final Object outboundLock = new Object();
+    private final Deque<Frame> outbound = new ArrayDeque<>();
+    private long outboundBytes;
+    private boolean draining;
+    private volatile long writeStartedAt;
+
+    private volatile long lastActivityAt = System.currentTimeMillis();
+    private volatile long lastPongAt = System.currentTimeMillis();
+
+    DirectChatOutboundChannel(WebSocketSession rawSession, Settings settings, TaskScheduler scheduler,
+                              Executor sendExecutor, ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.session = new ConcurrentWebSocketSessionDecorator(rawSession, settings.sendTimeLimitMs(),
+                settings.bufferSizeLimit(), settings.overflowStrategy());
+        this.settings = settings;
+        this.scheduler = scheduler;
+        this.sendExecutor = sendExecutor;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.sendTimer = Timer.builder("llm.ws.send.latency")
+                .description("WebSocket 帧发送耗时 (含排队)")
+                .register(meterRegistry);
+        this.droppedFrames = Counter.builder("llm.ws.dropped.frames")
+                .description("缓冲区溢出被丢弃的 WebSocket 句子帧数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 发送一个句子块。窗口内到达的句子会合并为一帧。
+     */
+    void sendChunk(String sessionId, String reply) {
+        if (settings.coalesceWindowMs() <= 0) {
+            send(new DirectChatResponse(reply, sessionId, null), false);
+            return;
+        }
+        synchronized (pendingLock) {
+            pendingReplies.add(reply);
+            pendingSessionId = sessionId;
+            if (pendingFlush == null) {
+                pendingFlush = scheduler.schedule(this::flush,
+                        Instant.now().plusMillis(settings.coalesceWindowMs()));
+            }
+        }
+    }
+
+    /**
+     * 发送控制帧 (END / ERROR / CANCELLED 等)，发送前先冲刷已合并的句子，保证顺序。
+     */
+    void sendControl(DirectChatResponse response) {
+        synchronized (pendingLock) {
+            flush();
+            send(response, true);
+        }
+    }
+
+    /**
+     * 丢弃尚未发出的句子块 (上一轮回复被取消时使用)，已排队的控制帧仍会发出。
+     */
+    void discardPending() {
+        synchronized (pendingLock) {
+            pendingReplies.clear();
+            cancelPendingFlush();
+        }
+        synchronized (outboundLock) {
+            outbound.removeIf(frame -> {
+                if (frame.control()) {
+                    return false;
+                }
+                outboundBytes -= frame.message().getPayloadLength();
+                return true;
+            });
+        }
+    }
+
+    /**
+     * 冲刷合并缓冲。在锁内入队以保证与控制帧的顺序，实际写出由串行发送队列完成。
+     */
+    void flush() {
+        synchronized (pendingLock) {
+            cancelPendingFlush();
+            if (pendingReplies.isEmpty()) {
+                return;
+            }
+            DirectChatResponse merged = new DirectChatResponse(String.join("", pendingReplies), pendingSessionId, null);
+            if (pendingReplies.size() > 1) {
+                merged.setReplies(new ArrayList<>(pendingReplies));
+            }
+            pendingReplies.clear();
+            send(merged, false);
+        }
+    }
+
+    /**
+     * 发送 Ping (与其他帧一样进入串行发送队列，不占用心跳调度线程)；返回 false 表示上一次 Ping 之后一直没有收到 Pong。
+     */
+    boolean ping(long pongTimeoutMs) {
+        if (System.currentTimeMillis() - lastPongAt > pongTimeoutMs) {
+            return false;
+        }
+        if (session.isOpen()) {
+            enqueue(new PingMessage(), true);
+        }
+        return true;
+    }
+
+    void onPong() {
+        lastPongAt = System.currentTimeMillis();
+    }
+
+    void onInbound() {
+        lastActivityAt = System.currentTimeMillis();
+    }
+
+    long idleMillis() {
+        return System.currentTimeMillis() - lastActivityAt;
+    }
+
+    boolean isOpen() {
+        return session.isOpen();
+    }
+
+    void close(CloseStatus status) {
+        discardPending();
+        try {
+            session.close(status);
+        } catch (Exception e) {
+            log.debug("关闭 WebSocket 连接失败: {}", e.getMessage());
+        }
+    }
+
+    private void cancelPendingFlush() {
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+    }
+
+    /**
+     * 【修改】序列化后入队。
+     */
+    private void send(DirectChatResponse response, boolean control) {
+        if (!session.isOpen()) {
+            return;
+        }
+        TextMessage message;
+        try {
+            message = new TextMessage(objectMapper.writeValueAsString(response));
+        } catch (Exception e) {
+            log.error("序列化流式消息失败", e);
+            return;
+        }
+        enqueue(message, control);
+    }
+
+    /**
+     * 入队；队列空闲时向 sendExecutor 提交一次排空任务，线程池已满时在调用线程上排空，
+     * 不让帧停留在队列里等下一次发送 (一轮回复的 END 之后可能再也没有帧)。
+     */
+    private void enqueue(WebSocketMessage<?> message, boolean control) {
+        long started = writeStartedAt;
+        if (started > 0 && System.currentTimeMillis() - started > settings.sendTimeLimitMs()) {
+            terminateSlowClient("单次发送超过 " + settings.sendTimeLimitMs() + " ms");
+            return;
+        }
+        boolean startDrain;
+        synchronized (outboundLock) {
+            int length = message.getPayloadLength();
+            if (outboundBytes + length > settings.bufferSizeLimit()) {
+                if (settings.overflowStrategy() == ConcurrentWebSocketSessionDecorator.OverflowStrategy.TERMINATE) {
+                    outbound.clear();
+                    outboundBytes = 0;
+                    message = null;
+                } else {
+                    dropOldestChunks(length);
+                }
+            }
+            if (message == null) {
+                startDrain = false;
+            } else {
+                outbound.addLast(new Frame(message, control, System.nanoTime()));
+                outboundBytes += length;
+                startDrain = !draining;
+                draining = true;
+            }
+        }
+        if (message == null) {
+            terminateSlowClient("发送缓冲超过 " + settings.bufferSizeLimit() + " 字节");
+        } else if (startDrain) {
+            try {
+                sendExecutor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                log.warn("WebSocket 发送线程池已满，在调用线程上发送");
+                drain();
+            }
+        }
+    }
+
+    /**
+     * DROP 策略：从最旧的开始丢弃句子帧，直到放得下新帧；控制帧保留 (调用方持有 outboundLock)。
+     */
+    private void dropOldestChunks(int incomingLength) {
+        Iterator<Frame> it = outbound.iterator();
+        while (outboundBytes + incomingLength > settings.bufferSizeLimit() && it.hasNext()) {
+            Frame frame = it.next();
+            if (!frame.control()) {
+                it.remove();
+                outboundBytes -= frame.message().getPayloadLength();
+                droppedFrames.increment();
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Frame frame;
+            synchronized (outboundLock) {
+                frame = outbound.pollFirst();
+                if (frame == null) {
+                    draining = false;
+                    return;
+                }
+                outboundBytes -= frame.message().getPayloadLength();
+            }
+            write(frame);
+        }
+    }
+
+    private void write(Frame frame) {
+        if (!session.isOpen()) {
+            return;
+        }
+        writeStartedAt = System.currentTimeMillis();
+        try {
+            session.sendMessage(frame.message());
+            lastActivityAt = System.currentTimeMillis();
+        } catch (SessionLimitExceededException e) {
+            // 超过发送时长或缓冲区上限，装饰器已关闭连接
+            slowClientCounter(e.getStatus()).increment();
+            log.warn("WebSocket 客户端过慢，连接已关闭: {}", e.getMessage());
+        } catch (Exception e) {
+            log.error("发送流式消息失败", e);
+        } finally {
+            writeStartedAt = 0;
+            if (!(frame.message() instanceof PingMessage)) {
+                sendTimer.record(System.nanoTime() - frame.enqueuedAt(), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void terminateSlowClient(String reason) {
+        slowClientCounter(CloseStatus.SESSION_NOT_RELIABLE).increment();
+        log.warn("WebSocket 客户端过慢 ({})，关闭连接", reason);
+        synchronized (outboundLock) {
+            outbound.clear();
+            outboundBytes = 0;
+        }
+        close(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    private Counter slowClientCounter(CloseStatus status) {
+        return Counter.builder("llm.ws.slow.clients")
+                .description("因发送超时 / 缓冲区超限被断开的慢客户端次数")
+                .tag("status", String.valueOf(status.getCode()))
+                .register(meterRegistry);
+    }
+}
@@ -1,19 +1,36 @@
 package org.example.agent.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.example.agent.component.ActionMarkerParser;
+import org.example.agent.config.TracingConfig;
+import org.example.agent.dto.ActionMarker;
 import org.example.agent.dto.ChatRequest;
 import org.example.agent.dto.DirectChatResponse;
 import org.example.agent.service.DirectLlmService;
+import org.example.llm.service.StreamContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.core.task.TaskExecutor; // 【新增导入】
 
-import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer; // 【新增导入】
 
 @Component
@@ -23,15 +40,88 @@ public class DirectChatWebSocketHandler extends TextWebSocketHandler {
     private final DirectLlmService directLlmService;
     private final ObjectMapper objectMapper;
     private final TaskExecutor llmTaskExecutor;
+    private final TaskScheduler wsScheduler;
+    private final TaskExecutor wsSendExecutor;
+    private final MeterRegistry meterRegistry;
     final String STREAM_END_SENTINEL = "__END_OF_STREAM__";
+    private static final String INTERRUPT_KEYWORD = "打断";
+
+    /**
+     * 【新增】每个 WebSocket 连接当前正在进行的一轮流式回复 (key: WebSocketSession.getId())。
+     * 新消息 / "打断" / 连接关闭都会取消这一轮。
+     */
+    private final Map<String, StreamContext> inFlightTurns = new ConcurrentHashMap<>();
+
+    /**
+     * 【新增】每个 WebSocket 连接的出站通道 (key: WebSocketSession.getId())。
+     */
+    private final Map<String, DirectChatOutboundChannel> channels = new ConcurrentHashMap<>();
+
+    private final DirectChatOutboundChannel.Settings channelSettings;
+
+    @Value("${llm.ws.heartbeat-interval-ms:20000}")
+    private long heartbeatIntervalMs;
+
+    @Value("${llm.ws.idle-timeout-ms:300000}")
+    private long idleTimeoutMs;
+
+    // 【新增】动作标记 (设备控制 / 流程完成) 是否从下发的文本中去掉；无论是否去掉都会单独下发 ACTION 帧
+    @Value("${llm.ws.strip-action-markers:false}")
+    private boolean stripActionMarkers;
 
     // 注入 llmTaskExecutor (确保 ExecutorConfig.java 已创建)
     public DirectChatWebSocketHandler(DirectLlmService directLlmService,
                                       ObjectMapper objectMapper,
-                                      @Qualifier("llmTaskExecutor") TaskExecutor llmTaskExecutor) {
+                                      @Qualifier("llmTaskExecutor") TaskExecutor llmTaskExecutor,
+                                      @Qualifier("wsOutboundScheduler") TaskScheduler wsScheduler,
+                                      @Qualifier("wsSendExecutor") TaskExecutor wsSendExecutor,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${llm.ws.send-time-limit-ms:5000}") int sendTimeLimitMs,
+                                      @Value("${llm.ws.buffer-size-limit:65536}") int bufferSizeLimit,
+                                      @Value("${llm.ws.overflow-strategy:TERMINATE}") ConcurrentWebSocketSessionDecorator.OverflowStrategy overflowStrategy,
+                                      @Value("${llm.ws.coalesce-window-ms:5}") long coalesceWindowMs) {
         this.directLlmService = directLlmService;
         this.objectMapper = objectMapper;
         this.llmTaskExecutor = llmTaskExecutor;
+        this.wsScheduler = wsScheduler;
+        this.wsSendExecutor = wsSendExecutor;
+        this.meterRegistry = meterRegistry;
+        this.channelSettings = new DirectChatOutboundChannel.Settings(sendTimeLimitMs, bufferSizeLimit, overflowStrategy, coalesceWindowMs);
+    }
+
+    @PostConstruct
+    public void startHeartbeat() {
+        Gauge.builder("llm.ws.sessions.active", channels, Map::size)
+                .description("当前打开的 WebSocket 连接数")
+                .register(meterRegistry);
+        if (heartbeatIntervalMs > 0) {
+            wsScheduler.scheduleAtFixedRate(this::heartbeatAndReap, Duration.ofMillis(heartbeatIntervalMs));
+        }
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) {
+        channels.put(session.getId(), new DirectChatOutboundChannel(session, channelSettings, wsScheduler, wsSendExecutor, objectMapper, meterRegistry));
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        DirectChatOutboundChannel channel = channels.remove(session.getId());
+        if (channel != null) {
+            channel.discardPending();
+        }
+        StreamContext turn = inFlightTurns.remove(session.getId());
+        if (turn != null && turn.cancel("disconnect")) {
+            log.info("WebSocket 连接关闭 ({})，已取消进行中的流式回复。", status);
+        }
+    }
+
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        DirectChatOutboundChannel channel = channels.get(session.getId());
+        if (channel != null) {
+            channel.onPong();
+        }
     }
 
     @Override
@@ -39,6 +129,9 @@ public class DirectChatWebSocketHandler extends TextWebSocketHandler {
         ChatRequest chatRequest = null;
         String sessionId = null;
         final String payload = message.getPayload();
+        final DirectChatOutboundChannel channel = channels.computeIfAbsent(session.getId(),
+                id -> new DirectChatOutboundChannel(session, channelSettings, wsScheduler, wsSendExecutor, objectMapper, meterRegistry));
+        channel.onInbound();
 
         try {
             // 1. 同步解析请求，快速释放当前线程
@@ -47,8 +140,7 @@ public class DirectChatWebSocketHandler extends TextWebSocketHandler {
             String userMessage = chatRequest.getMessage();
 
             if (userMessage == null || userMessage.trim().isEmpty()) {
-                DirectChatResponse errorDto = new DirectChatResponse("输入消息不能为空", sessionId);
-                session.sendMessage(new TextMessage(objectMapper.writeValueAsString(errorDto)));
+                channel.sendControl(new DirectChatResponse("输入消息不能为空", sessionId));
                 return;
             }
 
@@ -57,56 +149,139 @@ public class DirectChatWebSocketHandler extends TextWebSocketHandler {
                     java.util.UUID.randomUUID().toString() : sessionId;
             final String finalUserMessage = userMessage;
 
-            // Sender function: 接收并发送流式文本块 (句子)
-            Consumer<String> sender = (chunk) -> {
-                try {
-                    DirectChatResponse chunkResponse;
-
-                    if (chunk.equals(STREAM_END_SENTINEL)) {
-                        // 【关键拦截】收到流结束信标，发送 CLEAN END DTO
-                        chunkResponse = new DirectChatResponse(null, finalSessionId, "END");
-                    } else if (chunk.equals("关闭")) {
-                        // 收到业务退出信号
-                        chunkResponse = new DirectChatResponse("退出", null, null); // 退出时 streamStatus 也是 END
-                    } else if (chunk.startsWith("{\"error\":")) {
-                        // 错误 JSON
-                        chunkResponse = new DirectChatResponse(chunk, finalSessionId, "ERROR");
-                    } else {
-                        // 正常句子块
-                        chunkResponse = new DirectChatResponse(chunk, finalSessionId, null);
-                    }
+            // 【新增】用户插话：取消上一轮仍在输出的回复。含"打断"的消息先回一个 CANCELLED 帧，
+            // 随后仍与原来一样作为本轮消息交给模型回复并写入历史
+            boolean isInterrupt = userMessage.contains(INTERRUPT_KEYWORD);
+            StreamContext previousTurn = inFlightTurns.remove(session.getId());
+            if (previousTurn != null && previousTurn.cancel(isInterrupt ? "interrupt" : "superseded")) {
+                channel.discardPending();
+                log.info("会话 {} 收到新消息，已取消上一轮流式回复。", finalSessionId);
+            }
+            if (isInterrupt) {
+                channel.sendControl(new DirectChatResponse(null, finalSessionId, "CANCELLED"));
+            }
 
-                    if (session.isOpen()) {
-                        session.sendMessage(new TextMessage(objectMapper.writeValueAsString(chunkResponse)));
-                    }
+            final StreamContext turn = new StreamContext();
+            // 【新增】流式输出中的动作标记一闭合就下发 ACTION 帧，设备控制无需等整段回复结束
+            turn.withTokenFilter(new ActionMarkerParser(stripActionMarkers, marker -> {
+                if (!turn.isCancelled()) {
+                    sendAction(channel, finalSessionId, marker);
+                }
+            }));
+            inFlightTurns.put(session.getId(), turn);
 
-                } catch (IOException e) {
-                    log.error("发送流式消息失败", e);
+            // Sender function: 接收流式文本块 (句子)，交给出站通道合并 / 发送，不直接写 Socket
+            Consumer<String> sender = (chunk) -> {
+                if (turn.isCancelled()) {
+                    // 已取消的一轮不再向客户端输出，避免与新一轮回复交错
+                    return;
+                }
+                if (chunk.equals(STREAM_END_SENTINEL)) {
+                    // 【关键拦截】收到流结束信标，发送 CLEAN END DTO
+                    channel.sendControl(new DirectChatResponse(null, finalSessionId, "END"));
+                } else if (chunk.equals("关闭")) {
+                    // 收到业务退出信号
+                    channel.sendControl(new DirectChatResponse("退出", null, null)); // 退出时 streamStatus 也是 END
+                } else if (chunk.startsWith("{\"error\":")) {
+                    // 错误 JSON
+                    channel.sendControl(new DirectChatResponse(chunk, finalSessionId, "ERROR"));
+                } else {
+                    // 正常句子块
+                    channel.sendChunk(finalSessionId, chunk);
                 }
             };
 
 
             // 3. 将 LLM 任务提交到线程池 (关键的异步执行)
-            llmTaskExecutor.execute(() -> {
-                try {
-                    // 4. 调用流式服务
-                    directLlmService.getLlmReplyStream(finalSessionId, finalUserMessage, sender);
-
-                } catch (Exception e) {
-                    log.error("LLM流式任务执行失败", e);
-                    // 异步任务失败时，通过 sender 发送错误信息
-                    sender.accept("{\"error\": \"大模型流式处理失败，请重试。\", \"sessionId\": \"" + finalSessionId + "\"}");
-                }
-            });
+            // 【新增】sessionId 放入 MDC，由线程池的 ContextPropagatingTaskDecorator 带到工作线程
+            try (MDC.MDCCloseable ignored = MDC.putCloseable(TracingConfig.MDC_SESSION_ID, finalSessionId)) {
+                llmTaskExecutor.execute(() -> {
+                    try {
+                        if (turn.isCancelled()) {
+                            // 排队期间已被取消，直接释放线程
+                            return;
+                        }
+                        // 4. 调用流式服务
+                        directLlmService.getLlmReplyStream(finalSessionId, finalUserMessage, sender, turn);
+
+                    } catch (Exception e) {
+                        log.error("LLM流式任务执行失败", e);
+                        // 异步任务失败时，通过 sender 发送错误信息
+                        sender.accept("{\"error\": \"大模型流式处理失败，请重试。\", \"sessionId\": \"" + finalSessionId + "\"}");
+                    } finally {
+                        inFlightTurns.remove(session.getId(), turn);
+                        if (turn.isCancelled()) {
+                            recordCancellation(turn);
+                        }
+                    }
+                });
+            }
 
 
         } catch (Exception e) {
             log.error("WebSocket消息解析失败", e);
             // 同步解析错误，快速返回
-            try {
-                DirectChatResponse errorDto = new DirectChatResponse("请求 JSON 格式错误。", sessionId);
-                session.sendMessage(new TextMessage(objectMapper.writeValueAsString(errorDto)));
-            } catch (IOException ignored) {}
+            channel.sendControl(new DirectChatResponse("请求 JSON 格式错误。", sessionId));
         }
     }
-}
\ No newline at end of file
+
+    private void sendAction(DirectChatOutboundChannel channel, String sessionId, ActionMarker marker) {
+        log.info("会话 {} 动作标记: {} {} {}", sessionId, marker.type(), marker.name(), marker.args());
+        Counter.builder("llm.stream.action.markers")
+                .description("流式回复中解析出的动作标记数")
+                .tag("type", marker.type().name().toLowerCase())
+                .register(meterRegistry)
+                .increment();
+        DirectChatResponse response = new DirectChatResponse(null, sessionId, "ACTION");
+        response.setAction(marker);
+        channel.sendControl(response);
+    }
+
+    /**
+     * 【新增】心跳与空闲回收：定期 Ping，长时间收不到 Pong 或长时间无收发 (且没有进行中的回复) 的连接直接关闭。
+     */
+    private void heartbeatAndReap() {
+        channels.forEach((wsSessionId, channel) -> {
+            if (!channel.isOpen()) {
+                channels.remove(wsSessionId, channel);
+                return;
+            }
+            if (!channel.ping(heartbeatIntervalMs * 3)) {
+                reap(wsSessionId, channel, "heartbeat", CloseStatus.SESSION_NOT_RELIABLE);
+            } else if (idleTimeoutMs > 0 && channel.idleMillis() > idleTimeoutMs && !inFlightTurns.containsKey(wsSessionId)) {
+                reap(wsSessionId, channel, "idle", CloseStatus.GOING_AWAY.withReason("idle timeout"));
+            }
+        });
+    }
+
+    private void reap(String wsSessionId, DirectChatOutboundChannel channel, String reason, CloseStatus status) {
+        log.info("回收 WebSocket 连接 {} (原因: {})", wsSessionId, reason);
+        Counter.builder("llm.ws.reaped.sessions")
+                .description("因心跳超时 / 空闲被服务端关闭的连接数")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+        channel.close(status);
+    }
+
+    /**
+     * 【新增】取消指标：次数按原因计数，浪费的 Token 按 StreamContext 的估算值记录。
+     */
+    private void recordCancellation(StreamContext turn) {
+        String reason = turn.getCancelReason();
+        int wastedTokens = turn.estimateWastedTokens();
+        Counter.builder("llm.stream.cancellations")
+                .description("被取消的流式回复次数")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+        DistributionSummary.builder("llm.stream.cancelled.wasted.tokens")
+                .description("取消时已生成但未投递给客户端的 Token 估算值")
+                .baseUnit("tokens")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .record(wastedTokens);
+        log.info("流式回复已取消 ({})，已投递 {}/{} 字符，估算浪费 {} Token。",
+                reason, turn.getDeliveredChars(), turn.getReceivedChars(), wastedTokens);
+    }
+}
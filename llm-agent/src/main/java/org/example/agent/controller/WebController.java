@@ -7,8 +7,14 @@ import org.example.agent.dto.UiState;
 import org.example.agent.service.ChatService;
 import org.example.agent.service.ChatService.ChatCompletion;
 import org.example.agent.service.DirectLlmService;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -25,41 +31,54 @@ import java.util.UUID;
 @Controller
 public class WebController {
     private static final Logger log = LoggerFactory.getLogger(WebController.class);
+
+    // 【新增】工作流对话的会话 ID (不再依赖 HttpSession，任意节点都能按此 ID 从 Redis 取回会话状态)
+    static final String SESSION_COOKIE = "CHAT_SESSION";
+
     private final ChatService chatService;
     private final DirectLlmService directLlmService;
-    public WebController(ChatService chatService, DirectLlmService directLlmService) {
+    private final boolean sessionCookieSecure;
+    private final String sessionCookieSameSite;
+
+    public WebController(ChatService chatService, DirectLlmService directLlmService,
+                         @Value("${chat.session.cookie-secure:true}") boolean sessionCookieSecure,
+                         @Value("${chat.session.cookie-same-site:Lax}") String sessionCookieSameSite) {
         this.chatService = chatService;
         this.directLlmService = directLlmService;
+        this.sessionCookieSecure = sessionCookieSecure;
+        this.sessionCookieSameSite = sessionCookieSameSite;
     }
 
     @GetMapping("/")
-    public String index(Model model) {
+    public String index(Model model, HttpServletRequest request, HttpServletResponse response) {
         // 【修改】获取初始的会话状态 (流程, 开场白, 预览人设)
         // 真正的配置将在 index.html 的 javascript 中通过 /api/config/* 异步加载
-        UiState initialState = chatService.getInitialUiState();
+        UiState initialState = chatService.getInitialUiState(resolveSessionId(request, response));
         model.addAttribute("initialState", initialState);
         return "index";
     }
 
     @PostMapping("/api/chat")
     @ResponseBody
-    public ResponseEntity<?> handleChat(@RequestBody ChatRequest chatRequest) {
+    public ResponseEntity<?> handleChat(@RequestBody ChatRequest chatRequest,
+                                        HttpServletRequest request, HttpServletResponse response) {
+        String sessionId = resolveSessionId(request, response);
         try {
-            ChatCompletion completion = chatService.processUserMessage(chatRequest.getMessage());
+            ChatCompletion completion = chatService.processUserMessage(sessionId, chatRequest.getMessage());
 
             // 【修改】只获取会话相关的UI状态 (左侧栏)
-            UiState updatedState = chatService.getCurrentUiState(completion.personaUsed());
+            UiState updatedState = chatService.getCurrentUiState(sessionId, completion.personaUsed());
 
-            ChatResponse response = new ChatResponse(
+            ChatResponse chatResponse = new ChatResponse(
                     completion.reply(),
                     updatedState,
                     completion.toolCallInfo(),
                     completion.decisionProcessInfo()
             );
-            return ResponseEntity.ok(response);
+            return ResponseEntity.ok(chatResponse);
         } catch (Exception e) {
             log.error("处理聊天请求时出错", e);
-            UiState errorState = chatService.getCurrentUiState("错误");
+            UiState errorState = chatService.getCurrentUiState(sessionId, "错误");
             ChatResponse errorResponse = new ChatResponse(
                     "处理您的请求时出错: " + e.getMessage(),
                     errorState,
@@ -73,20 +92,44 @@ public class WebController {
 
     @PostMapping("/api/reset")
     @ResponseBody
-    public ResponseEntity<UiState> resetState() {
-        chatService.resetProcessesAndSaveHistory();
+    public ResponseEntity<UiState> resetState(HttpServletRequest request, HttpServletResponse response) {
+        String sessionId = resolveSessionId(request, response);
+        chatService.resetProcessesAndSaveHistory(sessionId);
         // 【修改】重置后，只返回会话状态
-        return ResponseEntity.ok(chatService.getInitialUiState());
+        return ResponseEntity.ok(chatService.getInitialUiState(sessionId));
     }
 
     // 【删除】/api/configure 接口
 
     @PostMapping("/api/save-on-exit")
-    public ResponseEntity<Void> saveOnExit() {
-        chatService.saveHistoryOnExit();
+    public ResponseEntity<Void> saveOnExit(HttpServletRequest request, HttpServletResponse response) {
+        chatService.saveHistoryOnExit(resolveSessionId(request, response));
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * 【新增】从 Cookie 取会话 ID，没有时生成一个并写回 (HttpOnly + Secure + SameSite，浏览器关闭前有效)
+     */
+    private String resolveSessionId(HttpServletRequest request, HttpServletResponse response) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (SESSION_COOKIE.equals(cookie.getName()) && cookie.getValue() != null && !cookie.getValue().isBlank()) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        String sessionId = UUID.randomUUID().toString();
+        ResponseCookie cookie = ResponseCookie.from(SESSION_COOKIE, sessionId)
+                .path("/")
+                .httpOnly(true)
+                .secure(sessionCookieSecure)
+                .sameSite(sessionCookieSameSite)
+                .build();
+        response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+        return sessionId;
+    }
+
 
     @PostMapping("/api/directChat")
     @ResponseBody
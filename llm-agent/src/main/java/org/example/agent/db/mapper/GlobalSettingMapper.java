@@ -1,15 +1,45 @@
 package org.example.agent.db.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
 import org.example.agent.db.entity.GlobalSetting;
 // import org.springframework.stereotype.Repository; // <-- 【关键】删除此行
 
+import java.util.List;
+
 /**
  * 全局配置 (GlobalSetting) 的 Mapper 接口
  * 继承 BaseMapper，自动拥有对 GlobalSetting 实体的 CRUD 能力
  * 【修改】移除了 @Repository 注解，交由 @MapperScan 统一管理
+ * 【新增】批量写入：以下语句依赖 setting_key 上的 UNIQUE 索引
  */
 // @Repository // <-- 【关键】删除此注解
 public interface GlobalSettingMapper extends BaseMapper<GlobalSetting> {
-    // 自动拥有 CRUD
-}
\ No newline at end of file
+
+    /**
+     * 【新增】多行 UPSERT，并在同一条语句内将 config_version 加一 (单条语句即原子，无需额外事务)。
+     */
+    @Insert({"<script>",
+            "INSERT INTO global_settings (setting_key, setting_value) VALUES ",
+            "<foreach collection='settings' item='s' separator=','>(#{s.settingKey}, #{s.settingValue})</foreach>",
+            ", (#{versionKey}, '1') ",
+            "ON DUPLICATE KEY UPDATE setting_value = IF(setting_key = #{versionKey}, ",
+            "CAST(setting_value AS UNSIGNED) + 1, VALUES(setting_value))",
+            "</script>"})
+    int upsertBatch(@Param("settings") List<GlobalSetting> settings, @Param("versionKey") String versionKey);
+
+    /**
+     * 【新增】多行插入，已存在的 Key 保持原值 (多实例同时启动时也不会互相覆盖或报唯一键冲突)。
+     */
+    @Insert({"<script>",
+            "INSERT INTO global_settings (setting_key, setting_value) VALUES ",
+            "<foreach collection='settings' item='s' separator=','>(#{s.settingKey}, #{s.settingValue})</foreach>",
+            " ON DUPLICATE KEY UPDATE setting_value = setting_value",
+            "</script>"})
+    int insertMissing(@Param("settings") List<GlobalSetting> settings);
+
+    @Select("SELECT setting_key FROM global_settings")
+    List<String> selectAllKeys();
+}
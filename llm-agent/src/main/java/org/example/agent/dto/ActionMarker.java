@@ -0,0 +1,19 @@
+package org.example.agent.dto;
+
+import java.util.List;
+
+/**
+ * 【新增】从模型回复中解析出的动作标记。
+ * <ul>
+ *     <li>WORKFLOW: "我已完成流程[流程名]"，name 为流程展示名；</li>
+ *     <li>DEVICE: "（我已完成[动作]，[参数]，[时间]）"，name 为动作，args 为其后的各字段。</li>
+ * </ul>
+ *
+ * @param raw 标记在回复中的原文
+ */
+public record ActionMarker(Type type, String name, List<String> args, String raw) {
+
+    public enum Type {
+        WORKFLOW, DEVICE
+    }
+}
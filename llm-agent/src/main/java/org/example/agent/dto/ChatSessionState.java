@@ -0,0 +1,43 @@
+package org.example.agent.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * 【新增 DTO】工作流对话的会话状态，按会话 ID 存放在 Redis 中 (见 ChatSessionStore)，任意节点都能处理下一轮。
+ * 只保存无法从配置重建的部分：流程完成状态以位图 (long[]) 保存，按下标对应流程列表，
+ * workflowFingerprint 与当前流程列表不一致时视为配置已变更，流程从头开始。
+ * version 每次写回加一，用于并发请求之间的乐观锁 (见 ChatSessionStore#save)。
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChatSessionState {
+
+    private long version;
+    private long workflowFingerprint;
+    private long[] completed;
+    private int silentCount;
+    private long sessionTokens;
+    private int lastPromptTokens;
+    private String lastTier;
+    // 会话历史所在的模型 (历史按厂商保存，用于重置 / 退出时取出历史)
+    private String historyModel;
+    private DecisionProcessInfo lastDecision;
+
+    public long getVersion() { return version; }
+    public void setVersion(long version) { this.version = version; }
+    public long getWorkflowFingerprint() { return workflowFingerprint; }
+    public void setWorkflowFingerprint(long workflowFingerprint) { this.workflowFingerprint = workflowFingerprint; }
+    public long[] getCompleted() { return completed; }
+    public void setCompleted(long[] completed) { this.completed = completed; }
+    public int getSilentCount() { return silentCount; }
+    public void setSilentCount(int silentCount) { this.silentCount = silentCount; }
+    public long getSessionTokens() { return sessionTokens; }
+    public void setSessionTokens(long sessionTokens) { this.sessionTokens = sessionTokens; }
+    public int getLastPromptTokens() { return lastPromptTokens; }
+    public void setLastPromptTokens(int lastPromptTokens) { this.lastPromptTokens = lastPromptTokens; }
+    public String getLastTier() { return lastTier; }
+    public void setLastTier(String lastTier) { this.lastTier = lastTier; }
+    public String getHistoryModel() { return historyModel; }
+    public void setHistoryModel(String historyModel) { this.historyModel = historyModel; }
+    public DecisionProcessInfo getLastDecision() { return lastDecision; }
+    public void setLastDecision(DecisionProcessInfo lastDecision) { this.lastDecision = lastDecision; }
+}
@@ -2,6 +2,8 @@ package org.example.agent.dto;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 
+import java.util.Map;
+
 /**
  * 【新增 DTO】
  * 承载预处理（“小模型”）的决策过程和“思考链”，用于在前端展示。
@@ -15,6 +17,17 @@ public class DecisionProcessInfo {
     private Boolean isSensitive;
     private String selectedStrategy; // 最终合并后注入到Prompt的策略
     private Long preProcessingTimeMs;
+    // 【新增】本轮所有模型调用的 Token 用量 (厂商返回值之和) 与会话累计用量
+    private Integer promptTokens;
+    private Integer completionTokens;
+    private Long sessionTokens;
+    // 【新增】主模型请求各片段的 Token 数 (本地分词) (persona / strategy / history / tool_schema / tool_result / user)
+    private Map<String, Integer> promptSegments;
+    // 【新增】本轮触发的预算动作 (downgrade / compact_history)
+    private String budgetAction;
+    // 【新增】主模型分级结果 (fast / large) 及原因，未启用分级时为空
+    private String modelTier;
+    private String tierReason;
 
     // Getters and Setters
     public String getPreProcessingModel() { return preProcessingModel; }
@@ -29,4 +42,18 @@ public class DecisionProcessInfo {
     public void setSelectedStrategy(String selectedStrategy) { this.selectedStrategy = selectedStrategy; }
     public Long getPreProcessingTimeMs() { return preProcessingTimeMs; }
     public void setPreProcessingTimeMs(Long preProcessingTimeMs) { this.preProcessingTimeMs = preProcessingTimeMs; }
+    public Integer getPromptTokens() { return promptTokens; }
+    public void setPromptTokens(Integer promptTokens) { this.promptTokens = promptTokens; }
+    public Integer getCompletionTokens() { return completionTokens; }
+    public void setCompletionTokens(Integer completionTokens) { this.completionTokens = completionTokens; }
+    public Long getSessionTokens() { return sessionTokens; }
+    public void setSessionTokens(Long sessionTokens) { this.sessionTokens = sessionTokens; }
+    public Map<String, Integer> getPromptSegments() { return promptSegments; }
+    public void setPromptSegments(Map<String, Integer> promptSegments) { this.promptSegments = promptSegments; }
+    public String getBudgetAction() { return budgetAction; }
+    public void setBudgetAction(String budgetAction) { this.budgetAction = budgetAction; }
+    public String getModelTier() { return modelTier; }
+    public void setModelTier(String modelTier) { this.modelTier = modelTier; }
+    public String getTierReason() { return tierReason; }
+    public void setTierReason(String tierReason) { this.tierReason = tierReason; }
 }
\ No newline at end of file
@@ -3,6 +3,8 @@ package org.example.agent.dto;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 
+import java.util.List;
+
 /**
  * 专用于无状态、硬编码 LLM 接口的简单返回 DTO。
  */
@@ -12,6 +14,8 @@ public class DirectChatResponse {
     private final String reply;
     private String sessionId;
     private String streamStatus; // 【新增】用于标记流状态
+    private List<String> replies; // 【新增】合并发送时的多个句子 (reply 为它们的拼接，旧客户端只读 reply 即可)
+    private ActionMarker action; // 【新增】streamStatus 为 ACTION 时携带的动作标记 (标记闭合时立即下发)
 
     public DirectChatResponse(String reply, String sessionId) {
         this(reply, sessionId, null); // 兼容旧构造函数
@@ -27,7 +31,11 @@ public class DirectChatResponse {
     public String getReply() { return reply; }
     public String getSessionId() { return sessionId; }
     public String getStreamStatus() { return streamStatus; } // 【新增 Getter】
+    public List<String> getReplies() { return replies; }
+    public ActionMarker getAction() { return action; }
 
     public void setSessionId(String sessionId) { this.sessionId = sessionId; }
     public void setStreamStatus(String streamStatus) { this.streamStatus = streamStatus; } // 【新增 Setter】
+    public void setReplies(List<String> replies) { this.replies = replies; }
+    public void setAction(ActionMarker action) { this.action = action; }
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+package org.example.agent.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 【新增 DTO】主模型分级策略 (全局配置 model_tier_policy，JSON)。
+ * 常规路径上，简单轮次 (寒暄、致谢、简短确认) 交给 fastModel，其余仍使用 main_model_params。
+ * <p>
+ * 判定顺序：复杂意图 / 情绪 / 关键词 / 多个问句 → 大模型；简单意图且不超过 maxIntentChars → 小模型；
+ * 不超过 maxSimpleChars → 小模型；其余 → 大模型。
+ * fastModel 需与主模型同一厂商 (会话历史按厂商保存)，否则不分级。
+ */
+@Data
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ModelTierPolicy {
+
+    private boolean enabled;
+    private ModelParameters fastModel;
+
+    private List<String> simpleIntents = new ArrayList<>();
+    private List<String> complexIntents = new ArrayList<>();
+    private List<String> complexEmotions = new ArrayList<>();
+    private List<String> complexKeywords = new ArrayList<>();
+
+    // 命中简单意图时允许的最大长度 (字符)
+    private int maxIntentChars = 40;
+    // 未命中任何意图时，短于等于该长度的消息视为简单
+    private int maxSimpleChars = 12;
+}
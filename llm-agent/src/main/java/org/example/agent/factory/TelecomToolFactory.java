@@ -48,6 +48,26 @@ public class TelecomToolFactory {
         return createBaseTool("compareTwoPlans", defaultDesc, parameters);
     }
 
+    // 【新增】N 个套餐对比，服务端只返回差异字段
+    public static ToolDefinition createComparePlansTool() {
+        ParameterSchema parameters = ParameterSchema.builder()
+                .type("object")
+                .properties(Map.of(
+                        "planNames", ParameterProperty.builder().type("array").description("需要对比的套餐名称列表 (2~6 个)")
+                                .items(ParameterProperty.builder().type("string").build()).build()
+                ))
+                .required(List.of("planNames"))
+                .build();
+
+        String defaultDesc = "当客户想要对比两个或多个套餐的差异时调用此工具，一次传入所有需要对比的套餐名称。" +
+                "重要规则：当用户用 '我现在的套餐'、'我的套餐' 或 '原套餐' 等词语指代他们当前的套餐时，你必须使用 '用户原套餐' 这个标准名称。" +
+                "工具只返回各套餐取值不同的字段 (differences 中的数组与 plans 顺序一致，'-' 表示该套餐没有此项)，" +
+                "identical 为取值相同的字段名，resolved 为名称纠正，unresolved 为未找到的套餐 (需向用户确认)。" +
+                "请基于差异用口语化的方式为用户简洁回答。";
+
+        return createBaseTool("comparePlans", defaultDesc, parameters);
+    }
+
     public static ToolDefinition createQueryMcpFaqTool() {
         ParameterSchema parameters = ParameterSchema.builder()
                 .type("object")
@@ -175,6 +195,7 @@ public class TelecomToolFactory {
     public static Map<String, String> getHardcodedToolDescriptions() {
         Map<String, String> descriptions = new HashMap<>();
         descriptions.put("compareTwoPlans", createCompareTwoPlansTool().getFunction().getDescription());
+        descriptions.put("comparePlans", createComparePlansTool().getFunction().getDescription());
         descriptions.put("queryMcpFaq", createQueryMcpFaqTool().getFunction().getDescription());
         descriptions.put("getWeather", createGetWeatherTool().getFunction().getDescription());
         descriptions.put("getOilPrice", createGetOilPriceTool().getFunction().getDescription());
@@ -199,6 +220,7 @@ public class TelecomToolFactory {
         // 1. Get the base definitions with hardcoded default descriptions
         List<ToolDefinition> definitions = List.of(
                 createCompareTwoPlansTool(),
+                createComparePlansTool(),
                 createQueryMcpFaqTool(),
                 createGetWeatherTool(),
                 createGetOilPriceTool(),
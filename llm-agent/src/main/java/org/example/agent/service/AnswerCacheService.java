@@ -0,0 +1,182 @@
+package org.example.agent.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.agent.component.ActionMarkerParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 【新增】整轮答案缓存 (默认关闭，answer-cache.enabled=true 开启)。
+ * <p>
+ * 同一个 FAQ / 套餐问题反复出现时，直接返回上一次的最终回复，省掉路由模型与主模型调用：
+ * <ul>
+ *     <li>只对全局配置 answer_cache_intents 中列出的意图生效 (策略预处理识别出的意图)；</li>
+ *     <li>键 = 规范化后的用户问题 + 意图 + 主模型 + 实际使用的人设 (含策略指令与流程状态) 的摘要，
+ *         并以 config_version 为前缀，管理页保存配置后旧条目自然失效；</li>
+ *     <li>问题里出现指代 / 承接上文的词 (这个、刚才、继续……) 或过短时视为依赖会话上下文，不读也不写；</li>
+ *     <li>回复带动作标记、工具报错或为空时不写入。</li>
+ * </ul>
+ * 条目存放在 Redis 缓存 answerCache 中 (TTL 见 answer-cache.ttl-minutes)，可通过管理接口整体清空。
+ */
+@Service
+public class AnswerCacheService {
+
+    private static final Logger log = LoggerFactory.getLogger(AnswerCacheService.class);
+
+    public static final String CACHE_NAME = "answerCache";
+
+    // 指代 / 承接上文的说法：答案取决于之前聊过什么，不能跨会话复用
+    private static final Pattern CONTEXT_DEPENDENT = Pattern.compile(
+            "这个|那个|这款|那款|这种|那种|这些|那些|这两|那两|它|他|她|刚才|刚刚|上面|前面|之前|上一|上个|继续|接着|还有呢|然后呢|再说|同样|一样|为什么");
+
+    private final CacheManager cacheManager;
+    private final ConfigService configService;
+    private final boolean enabled;
+    private final int minLength;
+    private final int maxLength;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter stores;
+
+    public AnswerCacheService(CacheManager cacheManager, ConfigService configService, MeterRegistry meterRegistry,
+                              @Value("${answer-cache.enabled:false}") boolean enabled,
+                              @Value("${answer-cache.min-length:4}") int minLength,
+                              @Value("${answer-cache.max-length:64}") int maxLength) {
+        this.cacheManager = cacheManager;
+        this.configService = configService;
+        this.enabled = enabled;
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+        this.hits = counter(meterRegistry, "hit");
+        this.misses = counter(meterRegistry, "miss");
+        this.stores = counter(meterRegistry, "store");
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("llm.answer.cache").description("整轮答案缓存命中情况")
+                .tag("result", result).register(meterRegistry);
+    }
+
+    /**
+     * 意图是否在 answer_cache_intents 中 (功能关闭时始终为 false)。
+     */
+    public boolean isCacheableIntent(String intent) {
+        if (!enabled || intent == null || intent.isBlank()) {
+            return false;
+        }
+        return cacheableIntents().contains(intent.trim());
+    }
+
+    private Set<String> cacheableIntents() {
+        String spec = configService.getGlobalSetting(ConfigService.KEY_ANSWER_CACHE_INTENTS, "");
+        return Arrays.stream(spec.split("[,，]"))
+                .map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toSet());
+    }
+
+    /**
+     * 生成缓存键；意图不可缓存或问题依赖上下文时返回 null。
+     *
+     * @param persona 本轮实际使用的人设 (同一问题在不同策略 / 流程状态下的回答不同)
+     */
+    public String keyFor(String userMessage, String intent, String modelName, String persona) {
+        if (!isCacheableIntent(intent) || userMessage == null) {
+            return null;
+        }
+        String question = normalize(userMessage);
+        if (question.length() < minLength || question.length() > maxLength
+                || CONTEXT_DEPENDENT.matcher(question).find()) {
+            return null;
+        }
+        return "v" + configService.getConfigVersion() + ":"
+                + sha256(question + "\n" + intent.trim() + "\n" + modelName + "\n" + (persona == null ? "" : persona));
+    }
+
+    /**
+     * 读取缓存的回复 (不含时间标签)，未命中返回 null；Redis 异常按未命中处理。
+     */
+    public String get(String key) {
+        if (key == null) {
+            return null;
+        }
+        try {
+            Cache cache = cacheManager.getCache(CACHE_NAME);
+            String reply = cache == null ? null : cache.get(key, String.class);
+            (reply != null ? hits : misses).increment();
+            return reply;
+        } catch (RuntimeException e) {
+            log.warn("读取答案缓存失败: {}", e.toString());
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * 写入最终回复；带动作标记 (流程完成 / 设备指令) 的回复有副作用，不写入。
+     */
+    public void put(String key, String reply) {
+        if (key == null || reply == null || reply.isBlank() || !ActionMarkerParser.parseAll(reply).isEmpty()) {
+            return;
+        }
+        try {
+            Cache cache = cacheManager.getCache(CACHE_NAME);
+            if (cache != null) {
+                cache.put(key, reply);
+                stores.increment();
+            }
+        } catch (RuntimeException e) {
+            log.warn("写入答案缓存失败: {}", e.toString());
+        }
+    }
+
+    /**
+     * 清空全部缓存的回复 (FAQ / 套餐数据在库中直接修改后使用)。
+     */
+    public void purge() {
+        Cache cache = cacheManager.getCache(CACHE_NAME);
+        if (cache != null) {
+            cache.clear();
+        }
+        log.info("已清空整轮答案缓存");
+    }
+
+    /**
+     * 全角转半角、转小写，去掉空白与标点 ("套餐怎么退订？" 与 "套餐 怎么退订" 视为同一问题)。
+     */
+    static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '！' && c <= '～') {
+                c = (char) (c - 0xFEE0);
+            }
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
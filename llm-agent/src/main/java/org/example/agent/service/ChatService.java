@@ -3,95 +3,198 @@ package org.example.agent.service;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import jakarta.annotation.PostConstruct;
-import jakarta.servlet.http.HttpSession;
+import org.example.agent.component.ActionMarkerParser;
+import org.example.agent.component.ModelTiering;
+import org.example.agent.component.PipelineMetrics;
 import org.example.agent.component.ProcessManager;
+import org.example.agent.component.TokenAccounting;
+import org.example.agent.component.WorkflowGraph;
 import org.example.agent.dto.*;
 import org.example.agent.factory.TelecomToolFactory;
 import org.example.llm.dto.llm.LlmMessage;
 import org.example.llm.dto.llm.LlmResponse;
 import org.example.llm.dto.llm.LlmToolCall;
+import org.example.llm.dto.llm.LlmUsage;
 import org.example.llm.dto.tool.ToolDefinition;
+import org.example.llm.service.LlmCallPriority;
 import org.example.llm.service.LlmService;
 import org.example.llm.service.LlmServiceManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
-import org.springframework.web.context.annotation.SessionScope;
 
 import java.io.IOException;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+/**
+ * 工作流对话 (页面左侧流程面板) 的主流程。
+ * 【修改】由会话作用域改为单例：会话状态 (流程完成位图、沉默计数、Token 用量、上一轮决策信息、历史所在模型)
+ * 每轮开始时从 {@link ChatSessionStore} 读取、结束时写回，任意节点都能处理同一会话的下一轮，不再需要粘性会话。
+ */
 @Service
-@SessionScope
 public class ChatService {
 
     private static final Logger log = LoggerFactory.getLogger(ChatService.class);
 
-    // 流程完成检测正则
-    private static final Pattern PROCESS_COMPLETE_PATTERN =
-            Pattern.compile("我已完成流程\\[(?:.*[—→>]\\s*)?([^\\]]+)\\]");
-
     private final LlmServiceManager llmServiceManager;
-    private final ProcessManager processManager;
+    private final ChatSessionStore chatSessionStore;
     private final ConfigService configService;
     private final HistoryService historyService;
-    private final HttpSession httpSession;
     private final ToolService toolService;
     private final RuleEngineService ruleEngineService;
+    private final PipelineMetrics pipelineMetrics;
+    private final AnswerCacheService answerCacheService;
+    private final TokenAccounting tokenAccounting;
+    private final ModelTiering modelTiering;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     // 【修改】移除了 private List<ToolDefinition> allTools; 字段，改为运行时动态加载
-    private int silentCount = 0;
-    private DecisionProcessInfo lastDecisionProcess;
+
+    /**
+     * 【新增】一轮对话期间的会话状态 (原会话作用域 Bean 的字段)，由 {@link ChatSessionState} 恢复、结束时写回。
+     */
+    private static final class Session {
+        final String id;
+        final ProcessManager workflow = new ProcessManager();
+        int silentCount;
+        DecisionProcessInfo lastDecision;
+        // 会话累计 Token 用量，以及上一次主模型请求的 prompt_tokens (用于预算判断)
+        long sessionTokens;
+        int lastPromptTokens;
+        // 上一轮常规路径的主模型档位 (未分级时为 null)，用于统计下一轮的不满意追问
+        String lastTier;
+        // 会话历史所在的模型
+        String historyModel;
+        // 【新增】读取时的版本与基线 (完成位图、Token 用量)，写回冲突时据此只合并本轮的变化
+        long version;
+        long[] baseCompleted = new long[0];
+        long baseTokens;
+        boolean workflowReset;
+
+        Session(String id) {
+            this.id = id;
+        }
+    }
 
     // 聊天结果 DTO
     public static record ChatCompletion(String reply, ToolCallInfo toolCallInfo, DecisionProcessInfo decisionProcessInfo, String personaUsed) {}
 
     // 构造函数
-    public ChatService(LlmServiceManager llmServiceManager, ProcessManager processManager,
+    public ChatService(LlmServiceManager llmServiceManager, ChatSessionStore chatSessionStore,
                        ConfigService configService,
-                       HistoryService historyService, HttpSession httpSession, ToolService toolService,
-                       RuleEngineService ruleEngineService) {
+                       HistoryService historyService, ToolService toolService,
+                       RuleEngineService ruleEngineService, PipelineMetrics pipelineMetrics,
+                       AnswerCacheService answerCacheService, TokenAccounting tokenAccounting,
+                       ModelTiering modelTiering) {
         this.llmServiceManager = llmServiceManager;
-        this.processManager = processManager;
+        this.chatSessionStore = chatSessionStore;
         this.configService = configService;
         this.historyService = historyService;
-        this.httpSession = httpSession;
         this.toolService = toolService;
         this.ruleEngineService = ruleEngineService;
+        this.pipelineMetrics = pipelineMetrics;
+        this.answerCacheService = answerCacheService;
+        this.tokenAccounting = tokenAccounting;
+        this.modelTiering = modelTiering;
     }
 
     /**
-     * 初始化：加载流程 (不再初始化硬编码工具列表)
+     * 【新增】读取会话状态；流程列表已变化 (指纹不同) 或新会话时，所有流程回到 PENDING
      */
-    @PostConstruct
-    public void init() {
-        this.processManager.updateProcesses(configService.getProcessList());
-        // 【修改】不再初始化 this.allTools，改为运行时加载
+    private Session openSession(String sessionId) {
+        ChatSessionState state = chatSessionStore.load(sessionId);
+        Session session = new Session(sessionId);
+        WorkflowGraph graph = configService.getWorkflowGraph();
+        if (state.getCompleted() != null && state.getWorkflowFingerprint() == graph.fingerprint()) {
+            session.workflow.restore(graph, state.getCompleted());
+            session.baseCompleted = state.getCompleted();
+        } else {
+            session.workflow.updateProcesses(graph);
+        }
+        session.silentCount = state.getSilentCount();
+        session.lastDecision = state.getLastDecision();
+        session.sessionTokens = state.getSessionTokens();
+        session.lastPromptTokens = state.getLastPromptTokens();
+        session.lastTier = state.getLastTier();
+        session.historyModel = state.getHistoryModel();
+        session.version = state.getVersion();
+        session.baseTokens = state.getSessionTokens();
+        return session;
+    }
+
+    private void saveSession(Session session) {
+        ChatSessionState state = sessionState(session);
+        chatSessionStore.save(session.id, session.version, state, latest -> rebase(session, latest));
+    }
+
+    private ChatSessionState sessionState(Session session) {
+        ChatSessionState state = new ChatSessionState();
+        state.setWorkflowFingerprint(session.workflow.getGraph().fingerprint());
+        state.setCompleted(session.workflow.completedBits());
+        state.setSilentCount(session.silentCount);
+        state.setLastDecision(session.lastDecision);
+        state.setSessionTokens(session.sessionTokens);
+        state.setLastPromptTokens(session.lastPromptTokens);
+        state.setLastTier(session.lastTier);
+        state.setHistoryModel(session.historyModel);
+        return state;
     }
 
-    private String getSessionId() {
-        return httpSession.getId();
+    /**
+     * 【新增】同一会话的并发请求已先写回时，把本轮的变化合并到最新状态上：
+     * 本轮新完成的流程与新增的 Token 用量叠加到最新状态，其余字段 (沉默计数、上一轮决策等) 以本轮为准；
+     * 本轮重置了流程或流程列表已变化时，完成状态以本轮为准。
+     */
+    private ChatSessionState rebase(Session session, ChatSessionState latest) {
+        ChatSessionState state = sessionState(session);
+        if (!session.workflowReset && latest.getCompleted() != null
+                && latest.getWorkflowFingerprint() == state.getWorkflowFingerprint()) {
+            BitSet added = BitSet.valueOf(state.getCompleted());
+            added.andNot(BitSet.valueOf(session.baseCompleted));
+            BitSet merged = BitSet.valueOf(latest.getCompleted());
+            merged.or(added);
+            state.setCompleted(merged.toLongArray());
+        }
+        state.setSessionTokens(latest.getSessionTokens() + Math.max(0, session.sessionTokens - session.baseTokens));
+        return state;
     }
 
     private LlmService getLlmService(String modelName) {
         return llmServiceManager.getService(modelName);
     }
 
-    private LlmService getLlmServiceForMainModel() {
-        String modelName = configService.getModelParams(ConfigService.KEY_MAIN_MODEL).getModelName();
+    /**
+     * 【修改】会话历史所在模型的服务 (会话还没有记录时取当前主模型)
+     */
+    private LlmService getHistoryLlmService(Session session) {
+        String modelName = session.historyModel != null ? session.historyModel
+                : configService.getModelParams(ConfigService.KEY_MAIN_MODEL).getModelName();
         return getLlmService(modelName);
     }
 
     /**
      * 处理用户消息的核心方法 (V3.5 - 逻辑解耦 + 动态工具描述)
      */
-    public ChatCompletion processUserMessage(String userMessage) throws IOException {
-        long startTime = System.currentTimeMillis();
+    public ChatCompletion processUserMessage(String sessionId, String userMessage) throws IOException {
+        PipelineMetrics.Stage turnStage = pipelineMetrics.start(PipelineMetrics.STAGE_TURN).path(PipelineMetrics.PATH_REGULAR);
+        Session session = openSession(sessionId);
+        try {
+            ChatCompletion completion = handleUserMessage(session, userMessage, turnStage);
+            turnStage.success();
+            return completion;
+        } catch (IOException | RuntimeException e) {
+            turnStage.failure();
+            throw e;
+        } finally {
+            saveSession(session);
+        }
+    }
+
+    /**
+     * 【修改】原 processUserMessage 主体。turnStage 负责端到端计时，各分支在此标记 path。
+     */
+    private ChatCompletion handleUserMessage(Session session, String userMessage, PipelineMetrics.Stage turnStage) throws IOException {
 
         // 0. 获取功能开关状态
         boolean enableWorkflow = configService.getEnableWorkflow();
@@ -104,28 +207,32 @@ public class ChatService {
 
         String personaForUiUpdate;
 
+        if (isInterrupted || isSpaceMessage) {
+            turnStage.path(PipelineMetrics.PATH_MANUAL);
+        }
+
         if (isInterrupted) {
             log.info("检测到用户输入'打断'，执行手动回复。");
-            personaForUiUpdate = buildDynamicPersona("2", null, null, enableWorkflow);
+            personaForUiUpdate = buildDynamicPersona(session.workflow, "2", null, null, enableWorkflow);
             return new ChatCompletion("您请说，", null, null, personaForUiUpdate);
         }
 
         if (isSpaceMessage) {
             log.info("检测到用户输入'空格'，执行沉默回复逻辑。");
-            personaForUiUpdate = buildDynamicPersona("3", null, null, enableWorkflow);
-            silentCount++;
+            personaForUiUpdate = buildDynamicPersona(session.workflow, "3", null, null, enableWorkflow);
+            session.silentCount++;
             String manualReply;
-            if (silentCount >= 4) {
-                if (enableWorkflow) forceCompleteAllProcesses();
-                silentCount = 0;
+            if (session.silentCount >= 4) {
+                if (enableWorkflow) session.workflow.completeAll();
+                session.silentCount = 0;
                 manualReply = "好的，先不打扰您了，礼貌起见请您先挂机，祝您生活愉快，再见！";
             } else {
                 List<String> cannedResponses = Arrays.asList("喂，您好，能听到说话么？", "我这边是中国移动流量卡渠道商的，能听到说话么？", "喂？您好，这边听不到您的声音，是信号不好吗？");
-                manualReply = cannedResponses.get(Math.min(silentCount - 1, cannedResponses.size() - 1));
+                manualReply = cannedResponses.get(Math.min(session.silentCount - 1, cannedResponses.size() - 1));
             }
             // 手动添加历史记录
             try {
-                getLlmServiceForMainModel().addMessagesToHistory(getSessionId(),
+                getHistoryLlmService(session).addMessagesToHistory(session.id,
                         LlmMessage.builder().role(LlmMessage.Role.USER).content(userMessage).build(),
                         LlmMessage.builder().role(LlmMessage.Role.ASSISTANT).content(manualReply).build());
             } catch (Exception e) {
@@ -133,19 +240,19 @@ public class ChatService {
             }
             return new ChatCompletion(manualReply, null, null, personaForUiUpdate);
         }
-        silentCount = 0;
+        session.silentCount = 0;
 
         // 【流程完成检查修正】只有当流程启用，且总流程列表不为空，且未完成列表为空时，才报告完成。
         if (enableWorkflow) {
-            if (!processManager.getAllProcesses().isEmpty() && processManager.getUnfinishedProcesses().isEmpty()) {
-                String defaultPersona = buildDynamicPersona("1", null, null, true);
+            if (session.workflow.isAllCompleted()) {
+                String defaultPersona = buildDynamicPersona(session.workflow, "1", null, null, true);
                 return new ChatCompletion("🎉 恭喜！所有流程均已完成！", null, null, defaultPersona);
             }
         }
 
         String persona;
         List<ToolDefinition> toolsToUse = Collections.emptyList();
-        this.lastDecisionProcess = new DecisionProcessInfo();
+        session.lastDecision = new DecisionProcessInfo();
         PreProcessingResult strategyResult = new PreProcessingResult();
         PreProcessingResult routerResult = new PreProcessingResult();
 
@@ -154,14 +261,23 @@ public class ChatService {
 
         // 2.1 [策略预处理] (只要策略开启，就分析意图/情绪/敏感词)
         if (enableStrategy) {
-            long preStartTime = System.currentTimeMillis();
-            strategyResult = runStrategyPreProcess(userMessage, this.lastDecisionProcess);
-            this.lastDecisionProcess.setPreProcessingTimeMs(System.currentTimeMillis() - preStartTime);
+            PipelineMetrics.Stage strategyStage = pipelineMetrics.start(PipelineMetrics.STAGE_STRATEGY);
+            strategyResult = runStrategyPreProcess(session, userMessage, strategyStage);
+            session.lastDecision.setPreProcessingTimeMs(strategyStage.elapsedMs());
             log.info("策略预处理结果: Intent={}, Emotion={}, Sensitive={}",
                     strategyResult.getIntent(), strategyResult.getEmotion(), strategyResult.isSensitive());
         } else {
             // 记录策略未启用
-            this.lastDecisionProcess.setDetectedIntent("策略未启用");
+            session.lastDecision.setDetectedIntent("策略未启用");
+        }
+
+        // 2.2 【新增】[分级质量信号] 上一轮由分级选择的模型回答后，本轮用户表示没听懂 / 不满意
+        ModelTierPolicy tierPolicy = configService.getModelTierPolicy();
+        String previousTier = session.lastTier;
+        session.lastTier = null;
+        if (previousTier != null && modelTiering.isNegativeFollowUp(tierPolicy, userMessage,
+                enableStrategy ? strategyResult.getEmotion() : null)) {
+            modelTiering.recordQuality(previousTier, ModelTiering.SIGNAL_FOLLOWUP_NEGATIVE);
         }
 
 
@@ -169,25 +285,70 @@ public class ChatService {
 
         // 3.1 [敏感词拦截] (仅当策略开启且敏感词触发时生效)
         if (enableStrategy && strategyResult.isSensitive()) {
-            this.lastDecisionProcess.setSelectedStrategy("敏感词兜底");
-            long totalTime = System.currentTimeMillis() - startTime;
-            long strategyTime = (this.lastDecisionProcess.getPreProcessingTimeMs() != null) ? this.lastDecisionProcess.getPreProcessingTimeMs() : 0;
+            session.lastDecision.setSelectedStrategy("敏感词兜底");
+            turnStage.path(PipelineMetrics.PATH_SENSITIVE);
+            long totalTime = turnStage.elapsedMs();
+            long strategyTime = (session.lastDecision.getPreProcessingTimeMs() != null) ? session.lastDecision.getPreProcessingTimeMs() : 0;
             String sensitiveReply = configService.getSensitiveResponse() +
                     buildTimeBadges(strategyTime, 0, totalTime);
 
-            return new ChatCompletion(sensitiveReply, null, this.lastDecisionProcess,
-                    buildDynamicPersona("1", null, null, enableWorkflow));
+            return new ChatCompletion(sensitiveReply, null, session.lastDecision,
+                    buildDynamicPersona(session.workflow, "1", null, null, enableWorkflow));
+        }
+
+        // 3.1.1 【新增】[用量预算] 会话累计用量超限时降级主模型；上一次主模型请求的提示词过长时先压缩历史
+        ModelParameters mainParams = configService.getModelParams(ConfigService.KEY_MAIN_MODEL);
+        session.historyModel = mainParams.getModelName();
+        TokenAccounting.BudgetDecision budget = tokenAccounting.checkBudget(mainParams.getModelName(), session.sessionTokens, session.lastPromptTokens);
+        if (budget.compactHistory()) {
+            // 压缩本轮实际调用的服务上的历史 (降级只会落在同一厂商，历史与主模型共用)
+            compactHistory(session, getLlmService(budget.modelName()));
+        }
+        if (budget.action() != null) {
+            log.info("会话用量预算触发: {} (会话累计 {} tokens，上次提示词 {} tokens)", budget.action(), session.sessionTokens, session.lastPromptTokens);
+            session.lastDecision.setBudgetAction(budget.action());
+        }
+
+        // 3.1.2 【新增】[整轮答案缓存] (仅限可缓存意图；键包含本轮实际人设，因此在这里先完成规则匹配)
+        // 键中的模型是本轮实际回答的模型；用量预算降级后不查也不写缓存，避免降级前后的回复互相命中
+        String strategyPrompt = null;
+        String answerCacheKey = null;
+        if (enableStrategy && !budget.downgraded() && answerCacheService.isCacheableIntent(strategyResult.getIntent())) {
+            strategyPrompt = ruleEngineService.selectBestStrategy(strategyResult.getIntent(), strategyResult.getEmotion());
+            String cachePersona = buildDynamicPersona(session.workflow, "1", strategyPrompt, strategyResult.getIntent(), enableWorkflow);
+            String mainModelName = budget.modelName();
+            answerCacheKey = answerCacheService.keyFor(userMessage, strategyResult.getIntent(), mainModelName, cachePersona);
+            String cachedReply = answerCacheService.get(answerCacheKey);
+            if (cachedReply != null) {
+                log.info("整轮答案缓存命中，跳过路由与主模型调用");
+                turnStage.path(PipelineMetrics.PATH_ANSWER_CACHE).model(mainModelName);
+                session.historyModel = mainModelName;
+                session.lastDecision.setSelectedStrategy(strategyPrompt.isEmpty() ? "无匹配规则" : strategyPrompt);
+                // 与正常回复一样写入会话历史，后续追问仍有上下文
+                try {
+                    getLlmService(mainModelName).addMessagesToHistory(session.id,
+                            LlmMessage.builder().role(LlmMessage.Role.USER).content(userMessage).build(),
+                            LlmMessage.builder().role(LlmMessage.Role.ASSISTANT).content(cachedReply).build());
+                } catch (Exception e) {
+                    log.error("缓存命中后添加会话历史失败", e);
+                }
+                long totalTime = turnStage.elapsedMs();
+                long strategyTime = (session.lastDecision.getPreProcessingTimeMs() != null) ? session.lastDecision.getPreProcessingTimeMs() : 0;
+                String finalReply = cachedReply + buildTimeBadges(strategyTime, 0, totalTime) +
+                        " <span style='font-size:10px; color:#4caf50;'>(缓存)</span>";
+                return new ChatCompletion(finalReply, null, session.lastDecision, cachePersona);
+            }
         }
 
         // 3.2 [工具路由预处理] (仅当MCP开启时，运行 Router Model 尝试高速通道)
         if (enableMcp) {
-            long routerStartTime = System.currentTimeMillis();
-            routerResult = runMcpRouterProcess(userMessage, this.lastDecisionProcess);
-            long routerTime = System.currentTimeMillis() - routerStartTime;
+            PipelineMetrics.Stage routerStage = pipelineMetrics.start(PipelineMetrics.STAGE_ROUTER);
+            routerResult = runMcpRouterProcess(session, userMessage, routerStage);
+            long routerTime = routerStage.elapsedMs();
 
             // 累加预处理时间 (如果策略启用了，就加上策略时间)
-            Long currentPreTime = this.lastDecisionProcess.getPreProcessingTimeMs();
-            this.lastDecisionProcess.setPreProcessingTimeMs(
+            Long currentPreTime = session.lastDecision.getPreProcessingTimeMs();
+            session.lastDecision.setPreProcessingTimeMs(
                     currentPreTime != null ? currentPreTime + routerTime : routerTime
             );
 
@@ -197,8 +358,10 @@ public class ChatService {
             // 检查是否触发高速通道
             if (routerResult.hasDirectToolCall()) {
                 log.info("🚀 触发高速通道: 路由模型直接指派工具 [{}]", routerResult.getToolName());
+                turnStage.path(PipelineMetrics.PATH_FAST_TRACK);
 
-                long toolStart = System.currentTimeMillis();
+                PipelineMetrics.Stage toolStage = pipelineMetrics.start(PipelineMetrics.STAGE_TOOL)
+                        .tool(routerResult.getToolName()).path(PipelineMetrics.PATH_FAST_TRACK);
                 JsonNode argsNode;
                 try {
                     // 使用 routerResult 的 toolArgs
@@ -209,7 +372,8 @@ public class ChatService {
                 }
 
                 String toolResultJson = executeTool(routerResult.getToolName(), argsNode);
-                long toolExecTime = System.currentTimeMillis() - toolStart;
+                String fastToolOutcome = toolOutcome(toolResultJson);
+                long toolExecTime = toolStage.stop(fastToolOutcome);
 
                 // 欺骗主模型直接总结 (减少Token，提升速度)
                 String summaryPrompt = "用户意图需要调用工具 '" + routerResult.getToolName() + "'。\n" +
@@ -218,55 +382,66 @@ public class ChatService {
 
                 // 使用 strategyResult 的 intent (如果策略开启)
                 String intentForPersona = enableStrategy ? strategyResult.getIntent() : null;
-                String fastTrackPersona = buildDynamicPersona("1", null, intentForPersona, enableWorkflow) +
-                        "\n\n【关键数据】\n" + summaryPrompt;
-
-                long llmStart = System.currentTimeMillis();
+                String basePersona = buildDynamicPersona(session.workflow, "1", null, intentForPersona, enableWorkflow);
+                String fastTrackPersona = basePersona + "\n\n【关键数据】\n" + summaryPrompt;
 
                 // 调用主模型 (只生成文本，不挂载工具)
-                ModelParameters mainParams = configService.getModelParams(ConfigService.KEY_MAIN_MODEL);
-                LlmResponse finalRes = getLlmService(mainParams.getModelName()).chat(
-                        getSessionId(),
+                String fastModel = budget.modelName();
+                turnStage.model(fastModel);
+                Map<String, Integer> segments = tokenAccounting.measurePrompt(fastModel, basePersona, null,
+                        getLlmService(fastModel).getConversationWindow(session.id), null, userMessage);
+                int toolResultTokens = tokenAccounting.countTokens(fastModel, toolResultJson);
+                segments.put(TokenAccounting.SEGMENT_TOOL_RESULT, toolResultTokens);
+                tokenAccounting.recordSegment(TokenAccounting.SEGMENT_TOOL_RESULT, toolResultTokens);
+                session.lastDecision.setPromptSegments(segments);
+                PipelineMetrics.Stage llmStage = pipelineMetrics.start(PipelineMetrics.STAGE_LLM)
+                        .model(fastModel).path(PipelineMetrics.PATH_FAST_TRACK);
+                LlmResponse finalRes = llmStage.record(() -> getLlmService(fastModel).chat(
+                        session.id,
                         userMessage,
-                        mainParams.getModelName(),
+                        fastModel,
                         fastTrackPersona,
                         null,
                         mainParams.getParametersAsMap(),
                         null  // 不传 tools
-                );
-                long llmTime = System.currentTimeMillis() - llmStart;
+                ));
+                long llmTime = llmStage.elapsedMs();
+                accountUsage(session, fastModel, PipelineMetrics.STAGE_LLM, finalRes.getUsage(), true);
+                // 高速通道的回复直接引用本次工具返回的实时数据，且人设与常规路径不同，不写入答案缓存
 
                 // 构造返回结果
-                long totalTime = System.currentTimeMillis() - startTime;
+                long totalTime = turnStage.elapsedMs();
                 ToolCallInfo fastToolInfo = new ToolCallInfo(routerResult.getToolName(), routerResult.getToolArgs(), toolResultJson, toolExecTime, 0L, llmTime);
 
-                long strategyTime = (this.lastDecisionProcess.getPreProcessingTimeMs() != null) ? this.lastDecisionProcess.getPreProcessingTimeMs() : 0;
+                long strategyTime = (session.lastDecision.getPreProcessingTimeMs() != null) ? session.lastDecision.getPreProcessingTimeMs() : 0;
 
                 // 高速通道特殊标记 + 时间标签
                 String finalReply = finalRes.getContent() +
                         buildTimeBadges(strategyTime, toolExecTime, totalTime) +
                         " <span style='font-size:10px; color:#ff9800;'>(极速模式)</span>";
 
-                return new ChatCompletion(finalReply, fastToolInfo, this.lastDecisionProcess, fastTrackPersona);
+                return new ChatCompletion(finalReply, fastToolInfo, session.lastDecision, fastTrackPersona);
             }
         }
 
 
         // 3.3 [策略规则匹配] (意图/情绪分析结果用于策略匹配，更新人设)
-        String strategyPrompt = "";
         String finalIntent = enableStrategy ? strategyResult.getIntent() : "N/A";
 
         if (enableStrategy) {
-            // 规则引擎匹配 (意图 + 情绪)
-            strategyPrompt = ruleEngineService.selectBestStrategy(finalIntent, strategyResult.getEmotion());
-            this.lastDecisionProcess.setSelectedStrategy(strategyPrompt.isEmpty() ? "无匹配规则" : strategyPrompt);
+            // 规则引擎匹配 (意图 + 情绪)；查询答案缓存时已匹配过的直接复用
+            if (strategyPrompt == null) {
+                strategyPrompt = ruleEngineService.selectBestStrategy(finalIntent, strategyResult.getEmotion());
+            }
+            session.lastDecision.setSelectedStrategy(strategyPrompt.isEmpty() ? "无匹配规则" : strategyPrompt);
         } else {
             // 如果策略没开
-            this.lastDecisionProcess.setSelectedStrategy("策略未启用");
+            strategyPrompt = "";
+            session.lastDecision.setSelectedStrategy("策略未启用");
         }
 
         // 构建最终人设 (包含流程、策略指令)
-        persona = buildDynamicPersona("1", strategyPrompt, finalIntent, enableWorkflow);
+        persona = buildDynamicPersona(session.workflow, "1", strategyPrompt, finalIntent, enableWorkflow);
 
 
         // 4. --- 常规路径准备 ---
@@ -289,40 +464,61 @@ public class ChatService {
             toolsToUse = Collections.emptyList();
         }
 
+        // 4.1 【新增】[主模型分级] 简单轮次 (寒暄、简短确认) 使用分级策略中的小模型
+        ModelTiering.TierDecision tier = modelTiering.decide(tierPolicy, mainParams, budget, userMessage,
+                enableStrategy ? strategyResult.getIntent() : null, enableStrategy ? strategyResult.getEmotion() : null);
+        if (tier.isActive()) {
+            log.info("主模型分级: tier={}, reason={}, model={}", tier.tier(), tier.reason(), tier.modelName());
+            session.lastDecision.setModelTier(tier.tier());
+            session.lastDecision.setTierReason(tier.reason());
+            session.lastTier = tier.tier();
+            // 分级换了回答的模型，与缓存键中的主模型不一致，本轮不写入答案缓存
+            answerCacheKey = null;
+        }
+
         // 5. --- 主模型调用 (常规路径) ---
-        ModelParameters mainParams = configService.getModelParams(ConfigService.KEY_MAIN_MODEL);
-        String modelName = mainParams.getModelName();
-        var parameters = mainParams.getParametersAsMap();
+        String modelName = tier.modelName();
+        var parameters = tier.parameters().getParametersAsMap();
         String openingMonologue = configService.getOpeningMonologue();
-
-        long llm1StartTime = System.currentTimeMillis();
-        LlmResponse result = getLlmService(modelName).chat(getSessionId(), userMessage, modelName, persona, openingMonologue, parameters, toolsToUse);
-        long llmFirstCallTime = System.currentTimeMillis() - llm1StartTime;
+        turnStage.model(modelName);
+
+        final List<ToolDefinition> mountedTools = toolsToUse;
+        session.lastDecision.setPromptSegments(tokenAccounting.measurePrompt(modelName, persona, strategyPrompt,
+                getLlmService(modelName).getConversationWindow(session.id), mountedTools, userMessage));
+        PipelineMetrics.Stage llm1Stage = pipelineMetrics.start(PipelineMetrics.STAGE_LLM)
+                .model(modelName).path(PipelineMetrics.PATH_REGULAR);
+        LlmResponse result = llm1Stage.record(() ->
+                getLlmService(modelName).chat(session.id, userMessage, modelName, persona, openingMonologue, parameters, mountedTools));
+        long llmFirstCallTime = llm1Stage.elapsedMs();
         log.info("【LLM主调用耗时】: {} ms", llmFirstCallTime);
+        accountUsage(session, modelName, PipelineMetrics.STAGE_LLM, result.getUsage(), true);
 
         // 6. --- 处理常规工具调用 (常规慢速路径) ---
         if (result.hasToolCalls()) {
-            return handleToolCalls(result, modelName, parameters, toolsToUse, llmFirstCallTime, this.lastDecisionProcess, persona, startTime, enableWorkflow);
+            return handleToolCalls(session, result, modelName, parameters, toolsToUse, llmFirstCallTime, session.lastDecision, persona, turnStage,
+                    enableWorkflow, answerCacheKey, tier);
         }
 
         // 7. --- 结束 (普通对话) ---
         if (enableWorkflow) {
-            processResponseKeywords(result.getContent());
+            processResponseKeywords(session.workflow, result.getContent());
         }
 
         // 计算总耗时
-        long totalTime = System.currentTimeMillis() - startTime;
-        long strategyTime = (this.lastDecisionProcess.getPreProcessingTimeMs() != null) ? this.lastDecisionProcess.getPreProcessingTimeMs() : 0;
+        long totalTime = turnStage.elapsedMs();
+        long strategyTime = (session.lastDecision.getPreProcessingTimeMs() != null) ? session.lastDecision.getPreProcessingTimeMs() : 0;
         String finalReply = result.getContent() + buildTimeBadges(strategyTime, 0, totalTime);
+        answerCacheService.put(answerCacheKey, result.getContent());
+        modelTiering.recordOutcome(tier, llmFirstCallTime, totalTime, result.getContent(), null);
 
-        return new ChatCompletion(finalReply, null, this.lastDecisionProcess, persona);
+        return new ChatCompletion(finalReply, null, session.lastDecision, persona);
     }
 
     /**
      * 预处理：调用【策略模型】分析意图、情绪、敏感词
      */
-    private PreProcessingResult runStrategyPreProcess(String userMessage, DecisionProcessInfo decisionProcess) {
-        String tempSessionId = getSessionId() + "_strategy";
+    private PreProcessingResult runStrategyPreProcess(Session session, String userMessage, PipelineMetrics.Stage stage) {
+        DecisionProcessInfo decisionProcess = session.lastDecision;
 
         String prompt = configService.getPreProcessingPrompt(); // KEY_PRE_PROMPT
         if (prompt == null || prompt.isEmpty()) {
@@ -343,10 +539,17 @@ public class ChatService {
             llmService = getLlmService(modelName);
         }
         decisionProcess.setPreProcessingModel("Strategy:" + modelName);
+        stage.model(modelName);
 
         try {
-            LlmResponse preResponse = llmService.chat(tempSessionId, userMessage, modelName, prompt, null, preParams.getParametersAsMap(), null);
-            llmService.popConversationHistory(tempSessionId);
+            // 【修改】预处理调用以 BACKGROUND 优先级排队，并发受限时让位于主回复
+            LlmService strategyService = llmService;
+            String strategyModel = modelName;
+            String strategyPrompt = prompt;
+            // 【修改】无状态调用，不再借用临时会话写入再删除历史
+            LlmResponse preResponse = LlmCallPriority.callWith(LlmCallPriority.BACKGROUND, () -> strategyService.complete(
+                    strategyModel, preProcessMessages(strategyPrompt, userMessage), preParams.getParametersAsMap(), null)).getResponse();
+            accountUsage(session, strategyModel, PipelineMetrics.STAGE_STRATEGY, preResponse.getUsage(), false);
 
             String jsonResponse = cleanLlmResponse(preResponse.getContent());
             PreProcessingResult result = objectMapper.readValue(jsonResponse, PreProcessingResult.class);
@@ -359,9 +562,11 @@ public class ChatService {
             decisionProcess.setDetectedIntent(result.getIntent());
             decisionProcess.setIsSensitive(result.isSensitive());
 
+            stage.success();
             return result;
         } catch (Exception e) {
             log.error("策略预处理失败", e);
+            stage.stop(PipelineMetrics.OUTCOME_FALLBACK);
             PreProcessingResult fallback = new PreProcessingResult();
             fallback.setIntent("意图不明");
             fallback.setIsSensitive("false");
@@ -371,11 +576,20 @@ public class ChatService {
         }
     }
 
+    /**
+     * 【新增】预处理 (策略 / 路由) 的请求消息：只有提示词与本轮用户消息，不带会话历史
+     */
+    private static List<LlmMessage> preProcessMessages(String prompt, String userMessage) {
+        return List.of(
+                LlmMessage.builder().role(LlmMessage.Role.SYSTEM).content(prompt).build(),
+                LlmMessage.builder().role(LlmMessage.Role.USER).content(userMessage).build());
+    }
+
     /**
      * 新增方法：调用【路由模型】分析工具调用
      */
-    private PreProcessingResult runMcpRouterProcess(String userMessage, DecisionProcessInfo decisionProcess) {
-        String tempSessionId = getSessionId() + "_router";
+    private PreProcessingResult runMcpRouterProcess(Session session, String userMessage, PipelineMetrics.Stage stage) {
+        DecisionProcessInfo decisionProcess = session.lastDecision;
 
         String prompt = configService.getRouterProcessingPrompt(); // KEY_ROUTER_PROMPT
         if (prompt == null || prompt.isEmpty()) {
@@ -404,10 +618,15 @@ public class ChatService {
             // 如果策略模型运行了，则显示两个模型
             decisionProcess.setPreProcessingModel(currentPreModel + " & Router:" + modelName);
         }
+        stage.model(modelName);
 
         try {
-            LlmResponse routerResponse = llmService.chat(tempSessionId, userMessage, modelName, prompt, null, routerParams.getParametersAsMap(), null);
-            llmService.popConversationHistory(tempSessionId);
+            LlmService routerService = llmService;
+            String routerModel = modelName;
+            String routerPrompt = prompt;
+            LlmResponse routerResponse = LlmCallPriority.callWith(LlmCallPriority.BACKGROUND, () -> routerService.complete(
+                    routerModel, preProcessMessages(routerPrompt, userMessage), routerParams.getParametersAsMap(), null)).getResponse();
+            accountUsage(session, routerModel, PipelineMetrics.STAGE_ROUTER, routerResponse.getUsage(), false);
 
             String jsonResponse = cleanLlmResponse(routerResponse.getContent());
 
@@ -422,9 +641,11 @@ public class ChatService {
                 result.setToolArgs("{}");
             }
 
+            stage.success();
             return result;
         } catch (Exception e) {
             log.error("路由预处理失败", e);
+            stage.stop(PipelineMetrics.OUTCOME_FALLBACK);
             PreProcessingResult fallback = new PreProcessingResult();
             fallback.setToolName(null);
             fallback.setToolArgs("{}");
@@ -433,9 +654,9 @@ public class ChatService {
     }
 
     /**
-     * 辅助方法：清理LLM返回的JSON字符串
+     * 辅助方法：清理LLM返回的JSON字符串 (包级可见，供 JMH 基准调用)
      */
-    private String cleanLlmResponse(String rawResponse) {
+    String cleanLlmResponse(String rawResponse) {
         if (rawResponse == null) return "{}";
         String jsonResponse = rawResponse;
         if (jsonResponse.contains("```json")) {
@@ -451,9 +672,10 @@ public class ChatService {
     /**
      * 处理工具调用 (常规路径)
      */
-    private ChatCompletion handleToolCalls(LlmResponse result, String modelName, Map<String, Object> parameters, List<ToolDefinition> tools,
+    private ChatCompletion handleToolCalls(Session session, LlmResponse result, String modelName, Map<String, Object> parameters, List<ToolDefinition> tools,
                                            long llmFirstCallTime, DecisionProcessInfo decisionProcessInfo, String personaUsedInFirstCall,
-                                           long startTime, boolean enableWorkflow) {
+                                           PipelineMetrics.Stage turnStage, boolean enableWorkflow, String answerCacheKey,
+                                           ModelTiering.TierDecision tier) {
         LlmToolCall toolCall = result.getToolCalls().get(0);
         String toolName = toolCall.getToolName();
         String toolArgsString = toolCall.getArguments();
@@ -466,9 +688,11 @@ public class ChatService {
             return new ChatCompletion("工具参数错误", null, decisionProcessInfo, personaUsedInFirstCall);
         }
 
-        long toolStart = System.currentTimeMillis();
+        PipelineMetrics.Stage toolStage = pipelineMetrics.start(PipelineMetrics.STAGE_TOOL)
+                .tool(toolName).path(PipelineMetrics.PATH_REGULAR);
         String toolResultContent = executeTool(toolName, toolArgs);
-        long toolExecutionTime = System.currentTimeMillis() - toolStart;
+        String outcome = toolOutcome(toolResultContent);
+        long toolExecutionTime = toolStage.stop(outcome);
 
         LlmMessage toolResultMessage = LlmMessage.builder()
                 .role(LlmMessage.Role.TOOL)
@@ -476,27 +700,89 @@ public class ChatService {
                 .toolCallId(toolCall.getId())
                 .build();
 
-        long llm2Start = System.currentTimeMillis();
-        LlmResponse finalResult = getLlmService(modelName).chatWithToolResult(getSessionId(), modelName, parameters, tools, toolResultMessage);
-        long llmSecondCallTime = System.currentTimeMillis() - llm2Start;
+        PipelineMetrics.Stage llm2Stage = pipelineMetrics.start(PipelineMetrics.STAGE_LLM)
+                .model(modelName).tool(toolName).path(PipelineMetrics.PATH_REGULAR);
+        LlmResponse finalResult = llm2Stage.record(() ->
+                getLlmService(modelName).chatWithToolResult(session.id, modelName, parameters, tools, toolResultMessage));
+        long llmSecondCallTime = llm2Stage.elapsedMs();
+        accountUsage(session, modelName, PipelineMetrics.STAGE_LLM, finalResult.getUsage(), true);
+        int toolResultTokens = tokenAccounting.countTokens(modelName, toolResultContent);
+        tokenAccounting.recordSegment(TokenAccounting.SEGMENT_TOOL_RESULT, toolResultTokens);
+        if (decisionProcessInfo != null && decisionProcessInfo.getPromptSegments() != null) {
+            decisionProcessInfo.getPromptSegments().put(TokenAccounting.SEGMENT_TOOL_RESULT, toolResultTokens);
+        }
 
         ToolCallInfo toolCallInfo = new ToolCallInfo(toolName, toolArgsString, toolResultContent, toolExecutionTime, llmFirstCallTime, llmSecondCallTime);
 
         if (enableWorkflow) {
-            processResponseKeywords(finalResult.getContent());
+            processResponseKeywords(session.workflow, finalResult.getContent());
         }
 
-        long totalTime = System.currentTimeMillis() - startTime;
+        long totalTime = turnStage.elapsedMs();
         long strategyTime = (decisionProcessInfo != null && decisionProcessInfo.getPreProcessingTimeMs() != null)
                 ? decisionProcessInfo.getPreProcessingTimeMs() : 0;
 
         String finalReply = finalResult.getContent() + buildTimeBadges(strategyTime, toolExecutionTime, totalTime);
+        modelTiering.recordOutcome(tier, llmFirstCallTime + llmSecondCallTime, totalTime, finalResult.getContent(), outcome);
+        // 工具报错时的回复多为致歉、使用过期数据时的回复带有时效说明，都不缓存
+        if (PipelineMetrics.OUTCOME_SUCCESS.equals(outcome)) {
+            answerCacheService.put(answerCacheKey, finalResult.getContent());
+        }
 
         return new ChatCompletion(finalReply, toolCallInfo, decisionProcessInfo, personaUsedInFirstCall);
     }
 
     /**
-     * 生成纯文字时间标签 (无图标)
+     * 【新增】累计一次模型调用的用量：记入指标、本轮决策信息与会话累计；
+     * 主模型调用同时记下 prompt_tokens，供下一轮判断是否需要压缩历史。
+     */
+    private void accountUsage(Session session, String modelName, String stage, LlmUsage usage, boolean mainCall) {
+        if (usage == null) {
+            return;
+        }
+        tokenAccounting.recordUsage(modelName, stage, usage);
+        session.sessionTokens += usage.getTotalTokens();
+        if (mainCall) {
+            session.lastPromptTokens = usage.getPromptTokens();
+        }
+        DecisionProcessInfo info = session.lastDecision;
+        if (info != null) {
+            info.setPromptTokens((info.getPromptTokens() == null ? 0 : info.getPromptTokens()) + usage.getPromptTokens());
+            info.setCompletionTokens((info.getCompletionTokens() == null ? 0 : info.getCompletionTokens()) + usage.getCompletionTokens());
+            info.setSessionTokens(session.sessionTokens);
+        }
+    }
+
+    /**
+     * 【新增】压缩主模型的会话历史：只保留最近几轮 (从一条用户消息开始)，丢弃更早的内容。
+     */
+    private void compactHistory(Session session, LlmService llmService) {
+        List<LlmMessage> history = llmService.getConversationHistory(session.id);
+        if (history.isEmpty()) {
+            return;
+        }
+        List<LlmMessage> kept = tokenAccounting.recentTurns(history);
+        llmService.replaceConversationHistory(session.id, kept);
+        session.lastPromptTokens = 0;
+        log.info("会话历史已压缩: {} → {} 条消息", history.size(), kept.size());
+    }
+
+    /**
+     * 工具结果以 {"error": 开头视为失败 (executeTool 的约定)；
+     * 【修改】以 {"stale": 开头是 ToolGuard 返回的最近可用结果，记为 fallback (回复不写入答案缓存)
+     */
+    private static String toolOutcome(String toolResult) {
+        if (toolResult == null) {
+            return PipelineMetrics.OUTCOME_SUCCESS;
+        }
+        if (toolResult.startsWith("{\"error\"")) {
+            return PipelineMetrics.OUTCOME_ERROR;
+        }
+        return toolResult.startsWith("{\"stale\"") ? PipelineMetrics.OUTCOME_FALLBACK : PipelineMetrics.OUTCOME_SUCCESS;
+    }
+
+    /**
+     * 生成纯文字时间标签 (无图标)，数值来自 PipelineMetrics 的同一次计时
      */
     private String buildTimeBadges(long strategyTime, long toolTime, long totalTime) {
         StringBuilder sb = new StringBuilder();
@@ -524,6 +810,8 @@ public class ChatService {
             switch (toolName) {
                 case "compareTwoPlans":
                     return toolService.compareTwoPlans(args.path("planName1").asText(), args.path("planName2").asText());
+                case "comparePlans":
+                    return toolService.comparePlans(planNamesArg(args.path("planNames")));
                 case "queryMcpFaq":
                     return toolService.queryMcpFaq(args.path("intent").asText());
                 case "getWeather":
@@ -558,13 +846,30 @@ public class ChatService {
         }
     }
 
-    private String buildDynamicPersona(String codeValue, String strategyPrompt, String finalIntent, boolean enableWorkflow) {
+    /**
+     * 【新增】comparePlans 的 planNames 参数：正常为字符串数组，模型偶尔会给出逗号 / 顿号分隔的字符串，一并兼容。
+     */
+    private static List<String> planNamesArg(JsonNode node) {
+        List<String> names = new ArrayList<>();
+        if (node.isArray()) {
+            node.forEach(n -> names.add(n.asText()));
+        } else if (node.isTextual()) {
+            for (String name : node.asText().split("[,，、]")) {
+                names.add(name.trim());
+            }
+        }
+        return names;
+    }
+
+    // 包级可见：供 benchmarks 模块的 JMH 基准调用 (下同)
+    String buildDynamicPersona(ProcessManager workflow, String codeValue, String strategyPrompt, String finalIntent, boolean enableWorkflow) {
         String personaTemplate = configService.getPersonaTemplate();
         String persona = personaTemplate.replace("{code}", codeValue);
 
         if (enableWorkflow) {
-            String availableTasksStr = sanitizeProcessNames(getAvailableProcesses()).stream().collect(Collectors.joining("→"));
-            String workflowStr = sanitizeProcessNames(configService.getProcessList()).stream().collect(Collectors.joining(" → "));
+            // 【修改】流程名在 WorkflowGraph 编译时已清洗好，这里只做拼接
+            String availableTasksStr = String.join("→", workflow.getAvailableDisplayNames());
+            String workflowStr = String.join(" → ", workflow.getGraph().getDisplayNames());
             persona = persona.replace("{tasks}", availableTasksStr.isEmpty() ? "无" : availableTasksStr)
                     .replace("{workflow}", workflowStr);
         } else {
@@ -587,113 +892,58 @@ public class ChatService {
         return persona;
     }
 
-    private void processResponseKeywords(String llmResponse) {
-        if (llmResponse == null || llmResponse.isEmpty()) return;
-        Matcher matcher = PROCESS_COMPLETE_PATTERN.matcher(llmResponse);
-        if (matcher.find()) {
-            String targetProcessName = matcher.group(1).trim();
-            getAvailableProcesses().stream()
-                    .filter(process -> sanitizeProcessName(process).equals(targetProcessName))
-                    .findFirst()
-                    .ifPresent(processManager::completeProcess);
+    // 【修改】流程完成标记与 DirectLlmService 的设备标记共用 ActionMarkerParser 的语法
+    private void processResponseKeywords(ProcessManager workflow, String llmResponse) {
+        for (ActionMarker marker : ActionMarkerParser.parseAll(llmResponse)) {
+            if (marker.type() == ActionMarker.Type.WORKFLOW) {
+                workflow.completeAvailableByDisplayName(marker.name());
+            }
         }
     }
 
-    private List<String> getAvailableProcesses() {
-        List<String> unfinished = processManager.getUnfinishedProcesses();
-        Map<String, List<String>> rules = parseAndSetDependencies(configService.getDependencies());
-        List<String> allProcesses = processManager.getAllProcesses();
-        List<String> completed = new ArrayList<>(allProcesses);
-        completed.removeAll(unfinished);
-
-        List<String> available = unfinished.stream()
-                .filter(task -> {
-                    List<String> prerequisites = rules.get(task);
-                    return prerequisites == null || completed.containsAll(prerequisites);
-                })
-                .collect(Collectors.toList());
-
-        completed.stream()
-                .filter(task -> task.trim().endsWith("*"))
-                .forEach(available::add);
-
-        return allProcesses.stream().filter(available::contains).collect(Collectors.toList());
-    }
-
-    private void forceCompleteAllProcesses() {
-        configService.getProcessList().forEach(processManager::completeProcess);
+    // 【修改】可办理流程由 ProcessManager 按 BitSet 状态缓存，不再每次重新解析依赖文本
+    List<String> getAvailableProcesses(ProcessManager workflow) {
+        return workflow.getAvailableProcesses();
     }
 
-    public UiState getCurrentUiState(String actualPersonaUsed) {
-        Map<String, String> statuses = processManager.getAllProcesses().stream()
-                .collect(Collectors.toMap(p -> p, p -> processManager.getUnfinishedProcesses().contains(p) ? "PENDING" : "COMPLETED", (v1, v2) -> v1, LinkedHashMap::new));
+    public UiState getCurrentUiState(String sessionId, String actualPersonaUsed) {
+        Map<String, String> statuses = processStatuses(openSession(sessionId).workflow);
         return new UiState(statuses, actualPersonaUsed, null);
     }
 
-    public UiState getInitialUiState() {
+    public UiState getInitialUiState(String sessionId) {
+        Session session = openSession(sessionId);
         String openingMonologue = configService.getOpeningMonologue();
         boolean enableWorkflow = configService.getEnableWorkflow();
-        String persona = buildDynamicPersona("1", null, null, enableWorkflow);
+        String persona = buildDynamicPersona(session.workflow, "1", null, null, enableWorkflow);
 
-        Map<String, String> statuses = processManager.getAllProcesses().stream()
-                .collect(Collectors.toMap(p -> p, p -> processManager.getUnfinishedProcesses().contains(p) ? "PENDING" : "COMPLETED", (v1, v2) -> v1, LinkedHashMap::new));
+        Map<String, String> statuses = processStatuses(session.workflow);
 
         return new UiState(statuses, persona, openingMonologue);
     }
 
-    public void resetProcessesAndSaveHistory() {
-        saveHistory(getLlmServiceForMainModel().popConversationHistory(getSessionId()));
-        processManager.updateProcesses(configService.getProcessList());
-        this.silentCount = 0;
+    public void resetProcessesAndSaveHistory(String sessionId) {
+        Session session = openSession(sessionId);
+        saveHistory(session.id, getHistoryLlmService(session).popConversationHistory(session.id));
+        session.workflow.updateProcesses(configService.getWorkflowGraph());
+        session.workflowReset = true;
+        session.silentCount = 0;
+        saveSession(session);
     }
 
-    public void saveHistoryOnExit() {
-        saveHistory(getLlmServiceForMainModel().getConversationHistory(getSessionId()));
-    }
-
-    private void saveHistory(List<LlmMessage> history) {
-        // historyService.saveConversationToFile("", history);
-    }
-
-    private Map<String, List<String>> parseAndSetDependencies(String dependencies) {
-        Map<String, List<String>> rules = new HashMap<>();
-        if (dependencies == null || dependencies.trim().isEmpty()) return rules;
-
-        for (String line : dependencies.split("\\r?\\n")) {
-            if (!line.contains("->")) continue;
-            String[] parts = line.split("->");
-            if (parts.length < 2) continue;
-            String process = findProcessByName(parts[0].trim());
-            if (process == null) continue;
-            List<String> prerequisites = Arrays.stream(parts[1].split(","))
-                    .map(String::trim).map(this::findProcessByName)
-                    .filter(Objects::nonNull).collect(Collectors.toList());
-            if (!prerequisites.isEmpty()) rules.put(process, prerequisites);
-        }
-        return rules;
-    }
-
-    private String findProcessByName(String nameOrId) {
-        List<String> currentProcesses = configService.getProcessList();
-        for (String p : currentProcesses) {
-            if (p.trim().equalsIgnoreCase(nameOrId)) return p;
-        }
-        for (String p : currentProcesses) {
-            if (p.trim().matches("^" + Pattern.quote(nameOrId) + "[.\\s].*")) return p;
-        }
-        for (String p : currentProcesses) {
-            String sanitizedName = p.replaceAll("^\\d+\\.?\\s*", "").replace("*","").trim();
-            if(sanitizedName.equalsIgnoreCase(nameOrId)) return p;
-        }
-        return null;
+    public void saveHistoryOnExit(String sessionId) {
+        Session session = openSession(sessionId);
+        saveHistory(session.id, getHistoryLlmService(session).getConversationHistory(session.id));
     }
 
-    private String sanitizeProcessName(String processName) {
-        String name = processName.trim();
-        return name.endsWith("*") ? name.substring(0, name.length() - 1).replaceAll("^\\d+\\.?\\s*", "").trim() : name.replaceAll("^\\d+\\.?\\s*", "").trim();
+    private void saveHistory(String sessionId, List<LlmMessage> history) {
+        // 只入队，由 HistoryService 的写线程异步落盘，不增加响应延迟
+        historyService.saveConversationToFile(sessionId, history);
     }
 
-    private List<String> sanitizeProcessNames(List<String> processNames) {
-        return processNames.stream().map(this::sanitizeProcessName).collect(Collectors.toList());
+    private Map<String, String> processStatuses(ProcessManager workflow) {
+        Map<String, String> statuses = new LinkedHashMap<>();
+        workflow.getStatuses().forEach((process, status) -> statuses.put(process, status.name()));
+        return statuses;
     }
-}
\ No newline at end of file
+}
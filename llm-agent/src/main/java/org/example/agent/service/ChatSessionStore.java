@@ -0,0 +1,122 @@
+package org.example.agent.service;
+
+import org.example.agent.component.PipelineMetrics;
+import org.example.agent.dto.ChatSessionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * 【新增】工作流对话的会话状态存储 (Redis，键 chat:session:{会话 ID})。
+ * <p>
+ * ChatService 每轮开始时读取一次、结束时写回一次；状态很小 (位图 + 几个计数 + 上一轮决策信息)，
+ * 经 CompactRedisSerializer 编码后通常只有几百字节。超过 chat.session.ttl-minutes 未活动的会话自动过期。
+ * Redis 不可用时读取返回空状态 (流程从头开始)、写入只记录日志，不影响本轮回复。
+ * <p>
+ * 【修改】同一会话的并发请求 (多标签页、重复提交) 各自读-改-写，写回使用 WATCH/MULTI 按 version 做乐观锁：
+ * 版本已被其他请求推进时，由调用方把本轮的变化合并到最新状态上再重试，不会互相覆盖。
+ */
+@Service
+public class ChatSessionStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatSessionStore.class);
+
+    private static final String KEY_PREFIX = "chat:session:";
+    private static final int MAX_SAVE_ATTEMPTS = 5;
+
+    private record SaveAttempt(boolean written, ChatSessionState current) {}
+
+    private final RedisTemplate<String, ChatSessionState> chatSessionRedisTemplate;
+    private final PipelineMetrics pipelineMetrics;
+    private final Duration ttl;
+
+    public ChatSessionStore(RedisTemplate<String, ChatSessionState> chatSessionRedisTemplate,
+                            PipelineMetrics pipelineMetrics,
+                            @Value("${chat.session.ttl-minutes:720}") long ttlMinutes) {
+        this.chatSessionRedisTemplate = chatSessionRedisTemplate;
+        this.pipelineMetrics = pipelineMetrics;
+        this.ttl = Duration.ofMinutes(ttlMinutes);
+    }
+
+    /**
+     * 读取会话状态，不存在或读取失败时返回新的空状态。
+     */
+    public ChatSessionState load(String sessionId) {
+        try {
+            ChatSessionState state = pipelineMetrics.start(PipelineMetrics.STAGE_SESSION_READ)
+                    .record(() -> chatSessionRedisTemplate.opsForValue().get(KEY_PREFIX + sessionId));
+            return state != null ? state : new ChatSessionState();
+        } catch (RuntimeException e) {
+            log.warn("读取会话状态失败，按新会话处理: {} ({})", sessionId, e.toString());
+            return new ChatSessionState();
+        }
+    }
+
+    /**
+     * 写回会话状态。
+     *
+     * @param expectedVersion 本轮读取时的版本 ({@link ChatSessionState#getVersion()})
+     * @param rebase          版本冲突时，把本轮的变化合并到最新状态上，返回要写入的新状态
+     */
+    public void save(String sessionId, long expectedVersion, ChatSessionState state,
+                     UnaryOperator<ChatSessionState> rebase) {
+        String key = KEY_PREFIX + sessionId;
+        try {
+            pipelineMetrics.start(PipelineMetrics.STAGE_SESSION_WRITE).record(() -> {
+                ChatSessionState toWrite = state;
+                long expected = expectedVersion;
+                for (int attempt = 1; attempt <= MAX_SAVE_ATTEMPTS; attempt++) {
+                    SaveAttempt result = compareAndSet(key, expected, toWrite);
+                    if (result.written()) {
+                        return null;
+                    }
+                    ChatSessionState latest = result.current() != null ? result.current() : new ChatSessionState();
+                    log.debug("会话状态被并发修改，合并后重试: {} (版本 {} → {})", sessionId, expected, latest.getVersion());
+                    expected = latest.getVersion();
+                    toWrite = rebase.apply(latest);
+                }
+                log.warn("会话状态并发修改冲突过多，放弃本轮写回: {}", sessionId);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.warn("保存会话状态失败: {} ({})", sessionId, e.toString());
+        }
+    }
+
+    /**
+     * WATCH 键后核对版本，一致时在 MULTI/EXEC 中写入 version + 1；期间键被修改则 EXEC 放弃。
+     */
+    private SaveAttempt compareAndSet(String key, long expectedVersion, ChatSessionState state) {
+        return chatSessionRedisTemplate.execute(new SessionCallback<>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> SaveAttempt execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, ChatSessionState> ops = (RedisOperations<String, ChatSessionState>) operations;
+                ops.watch(key);
+                ChatSessionState current = ops.opsForValue().get(key);
+                long currentVersion = current == null ? 0 : current.getVersion();
+                if (currentVersion != expectedVersion) {
+                    ops.unwatch();
+                    return new SaveAttempt(false, current);
+                }
+                state.setVersion(expectedVersion + 1);
+                ops.multi();
+                ops.opsForValue().set(key, state, ttl);
+                List<Object> results = ops.exec();
+                if (results == null || results.isEmpty()) {
+                    return new SaveAttempt(false, ops.opsForValue().get(key));
+                }
+                return new SaveAttempt(true, state);
+            }
+        });
+    }
+}
@@ -1,20 +1,23 @@
 package org.example.agent.service;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.agent.component.WorkflowGraph;
 import org.example.agent.db.entity.GlobalSetting;
 import org.example.agent.db.entity.Strategy;
 import org.example.agent.db.mapper.GlobalSettingMapper;
 import org.example.agent.db.mapper.StrategyMapper;
 import org.example.agent.dto.ModelParameters;
+import org.example.agent.dto.ModelTierPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 // import org.springframework.transaction.annotation.Transactional; // <-- 彻底移除此引用
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
 @Service
@@ -43,10 +46,26 @@ public class ConfigService {
     public static final String KEY_ENABLE_WORKFLOW = "enable_workflow";
     public static final String KEY_ENABLE_MCP = "enable_mcp";
 
+    // 【新增】配置版本号：每次批量保存在同一条 UPSERT 语句中加一，不接受外部写入
+    public static final String KEY_CONFIG_VERSION = "config_version";
+
+    // 【新增】允许整轮答案缓存的意图 (逗号分隔，需与策略预处理输出的 intent 一致)
+    public static final String KEY_ANSWER_CACHE_INTENTS = "answer_cache_intents";
+
+    // 【新增】主模型分级策略 (JSON，见 ModelTierPolicy)
+    public static final String KEY_MODEL_TIER_POLICY = "model_tier_policy";
+
     private final GlobalSettingMapper globalSettingMapper;
     private final StrategyMapper strategyMapper;
     private final ObjectMapper objectMapper;
 
+    // 【新增】最近一次编译的流程图及其来源文本；配置文本不变时直接复用 (配置版本即文本本身)
+    private record CompiledWorkflow(String processes, String dependencies, WorkflowGraph graph) {}
+    private volatile CompiledWorkflow compiledWorkflow;
+    // 【新增】最近一次解析的分级策略及其来源文本
+    private record ParsedTierPolicy(String json, ModelTierPolicy policy) {}
+    private volatile ParsedTierPolicy parsedTierPolicy;
+
     public ConfigService(GlobalSettingMapper globalSettingMapper, StrategyMapper strategyMapper, ObjectMapper objectMapper) {
         this.globalSettingMapper = globalSettingMapper;
         this.strategyMapper = strategyMapper;
@@ -85,33 +104,35 @@ public class ConfigService {
 
 
     /**
-     * 【已修改】保证原子 UPSERT 逻辑，依赖底层数据库的自动提交。
+     * 【修改】一次多行 INSERT ... ON DUPLICATE KEY UPDATE 写入全部配置并递增 config_version，
+     * 替代原来逐项 UPDATE + 未命中时 INSERT (保存管理页表单时数十条语句)。单条语句本身是原子的。
      */
     public void saveGlobalSettings(Map<String, String> settings) {
-        log.info(">>> 正在批量保存 {} 项配置...", settings.size());
-
+        List<GlobalSetting> rows = new ArrayList<>(settings.size());
         for (Map.Entry<String, String> entry : settings.entrySet()) {
-            String key = entry.getKey();
-            String val = entry.getValue();
-
-            // 1. 尝试使用 UpdateWrapper 进行更新 (UPDATE global_settings SET setting_value=? WHERE setting_key=?)
-            UpdateWrapper<GlobalSetting> updateWrapper = new UpdateWrapper<>();
-            updateWrapper.eq("setting_key", key);
-            updateWrapper.set("setting_value", val);
-
-            // update(null, updateWrapper) 确保绕过实体缓存并直接执行
-            int rows = globalSettingMapper.update(null, updateWrapper);
-
-            if (rows > 0) {
-                log.info("✅ 更新配置成功: {}", key);
-            } else {
-                // 2. 如果更新影响行数为 0，说明记录不存在，执行插入
-                GlobalSetting newSetting = new GlobalSetting();
-                newSetting.setSettingKey(key);
-                newSetting.setSettingValue(val);
-                globalSettingMapper.insert(newSetting);
-                log.info("✨ 新增配置成功: {}", key);
+            if (KEY_CONFIG_VERSION.equals(entry.getKey())) {
+                continue;
             }
+            GlobalSetting setting = new GlobalSetting();
+            setting.setSettingKey(entry.getKey());
+            setting.setSettingValue(entry.getValue());
+            rows.add(setting);
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        globalSettingMapper.upsertBatch(rows, KEY_CONFIG_VERSION);
+        log.info("✅ 已批量保存 {} 项配置", rows.size());
+    }
+
+    /**
+     * 【新增】当前配置版本 (从未保存过时为 0)。
+     */
+    public long getConfigVersion() {
+        try {
+            return Long.parseLong(getGlobalSetting(KEY_CONFIG_VERSION, "0").trim());
+        } catch (NumberFormatException e) {
+            return 0;
         }
     }
 
@@ -126,6 +147,48 @@ public class ConfigService {
         }
     }
 
+    /**
+     * 【新增】当前的主模型分级策略，文本未变化时复用上次的解析结果；未配置或无法解析时返回未启用的策略。
+     */
+    public ModelTierPolicy getModelTierPolicy() {
+        String json = getGlobalSetting(KEY_MODEL_TIER_POLICY, "");
+        ParsedTierPolicy cached = parsedTierPolicy;
+        if (cached != null && cached.json().equals(json)) {
+            return cached.policy();
+        }
+        ModelTierPolicy policy = new ModelTierPolicy();
+        if (!json.isBlank()) {
+            try {
+                policy = objectMapper.readValue(json, ModelTierPolicy.class);
+            } catch (Exception e) {
+                log.error("解析主模型分级策略失败，本次不分级: {}", e.getMessage());
+            }
+        }
+        parsedTierPolicy = new ParsedTierPolicy(json, policy);
+        return policy;
+    }
+
+    /**
+     * 【新增】保存前校验分级策略，返回错误列表 (为空表示可保存)。
+     */
+    public List<String> validateModelTierPolicy(Map<String, String> pending) {
+        String json = pending.get(KEY_MODEL_TIER_POLICY);
+        if (json == null || json.isBlank()) {
+            return List.of();
+        }
+        List<String> errors = new ArrayList<>();
+        try {
+            ModelTierPolicy policy = objectMapper.readValue(json, ModelTierPolicy.class);
+            if (policy.isEnabled() && (policy.getFastModel() == null || policy.getFastModel().getModelName() == null
+                    || policy.getFastModel().getModelName().isBlank())) {
+                errors.add("启用分级时必须配置 fastModel.modelName");
+            }
+        } catch (Exception e) {
+            errors.add("model_tier_policy 不是合法的 JSON: " + e.getMessage());
+        }
+        return errors;
+    }
+
     // --- Strategy 相关 (全部移除 @Transactional) ---
     public List<Strategy> getAllStrategies() { return strategyMapper.selectList(null); }
     public Map<String, String> getActiveStrategies(String type) {
@@ -142,13 +205,46 @@ public class ConfigService {
 
     // --- 其他 Getters (保持不变) ---
     public List<String> getProcessList() {
-        String val = getGlobalSetting(KEY_PROCESSES, "");
-        if (val.isEmpty()) return List.of();
+        return splitProcesses(getGlobalSetting(KEY_PROCESSES, ""));
+    }
+
+    private static List<String> splitProcesses(String val) {
+        if (val == null || val.isEmpty()) return List.of();
         return List.of(val.split("\\r?\\n"));
     }
 
     public String getDependencies() { return getGlobalSetting(KEY_DEPENDENCIES, ""); }
 
+    /**
+     * 【新增】返回当前流程 + 依赖配置编译出的 {@link WorkflowGraph}，文本未变化时复用上次的编译结果。
+     */
+    public WorkflowGraph getWorkflowGraph() {
+        String processes = getGlobalSetting(KEY_PROCESSES, "");
+        String dependencies = getDependencies();
+        CompiledWorkflow cached = compiledWorkflow;
+        if (cached != null && Objects.equals(cached.processes(), processes) && Objects.equals(cached.dependencies(), dependencies)) {
+            return cached.graph();
+        }
+        WorkflowGraph graph = WorkflowGraph.compile(splitProcesses(processes), dependencies);
+        if (!graph.getErrors().isEmpty()) {
+            log.warn("流程依赖配置存在问题，出错的行已忽略: {}", graph.getErrors());
+        }
+        compiledWorkflow = new CompiledWorkflow(processes, dependencies, graph);
+        return graph;
+    }
+
+    /**
+     * 【新增】保存前校验：把待保存的 processes / dependencies 与库中现值合并后编译，返回错误列表 (为空表示可保存)。
+     */
+    public List<String> validateWorkflow(Map<String, String> pending) {
+        if (!pending.containsKey(KEY_PROCESSES) && !pending.containsKey(KEY_DEPENDENCIES)) {
+            return List.of();
+        }
+        String processes = pending.containsKey(KEY_PROCESSES) ? pending.get(KEY_PROCESSES) : getGlobalSetting(KEY_PROCESSES, "");
+        String dependencies = pending.containsKey(KEY_DEPENDENCIES) ? pending.get(KEY_DEPENDENCIES) : getDependencies();
+        return WorkflowGraph.compile(splitProcesses(processes), dependencies).getErrors();
+    }
+
     public Boolean getEnableStrategy() { return "true".equalsIgnoreCase(getGlobalSetting(KEY_ENABLE_STRATEGY, "false")); }
     public Boolean getEnableEmotionRecognition() { return "true".equalsIgnoreCase(getGlobalSetting(KEY_ENABLE_EMOTION, "false")); }
     public Boolean getEnableWorkflow() { return "true".equalsIgnoreCase(getGlobalSetting(KEY_ENABLE_WORKFLOW, "false")); }
@@ -3,22 +3,25 @@ package org.example.agent.service;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.agent.component.PipelineMetrics;
+import org.example.agent.component.TokenAccounting;
 import org.example.agent.dto.ModelParameters;
 import org.example.agent.factory.TelecomToolFactory;
+import org.example.llm.dto.llm.LlmCompletion;
 import org.example.llm.dto.llm.LlmMessage;
 import org.example.llm.dto.llm.LlmResponse;
 import org.example.llm.dto.llm.LlmToolCall;
 import org.example.llm.dto.tool.ToolDefinition;
 import org.example.llm.service.LlmService;
 import org.example.llm.service.LlmServiceManager;
+import org.example.llm.service.StreamContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 
@@ -26,7 +29,8 @@ import java.util.function.Consumer;
  * 【新增服务】大模型 MCP 直调服务 (Direct LLM Service)。
  * 负责处理无状态的、强制启用所有 MCP 工具的 LLM 调用。
  * **该服务的所有配置（模型、人设、工具列表）均已硬编码，不依赖 ConfigService。**
- * 【注意】此处直接实现了 Redis 上下文逻辑，以满足用户对代码结构的严格要求。
+ * 【修改】上下文由 LlmService 背后的 ConversationStore (Redis) 保存：路由调用是无状态的，
+ * 本轮消息只在分派结果确定后追加一次，不再读出、回滚再写回。
  */
 @Service
 public class DirectLlmService {
@@ -35,12 +39,10 @@ public class DirectLlmService {
 
     private final LlmServiceManager llmServiceManager;
     private final ToolService toolService;
+    private final PipelineMetrics pipelineMetrics;
+    private final TokenAccounting tokenAccounting;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    private final RedisTemplate<String, List<LlmMessage>> llmMessageRedisTemplate;
-    private static final String CONTEXT_PREFIX = "llm:direct:session:";
-    private static final long CONTEXT_TTL_DAYS = 1;
-
     // --- 【硬编码配置】模型参数 1：工具判断模型 ---
     private static final String FIRST_MODEL_NAME = "qwen-turbo";
     private static final ModelParameters FIRST_PARAMS = new ModelParameters(
@@ -178,65 +180,77 @@ public class DirectLlmService {
 
 
     /**
-     * 【修改构造函数】注入 RedisTemplate
+     * 【修改构造函数】上下文改由 LlmService 的 ConversationStore 保存，不再注入 RedisTemplate
      */
     public DirectLlmService(LlmServiceManager llmServiceManager,
                             ToolService toolService,
-                            RedisTemplate<String, List<LlmMessage>> llmMessageRedisTemplate) {
+                            PipelineMetrics pipelineMetrics,
+                            TokenAccounting tokenAccounting) {
         this.llmServiceManager = llmServiceManager;
         this.toolService = toolService;
-        this.llmMessageRedisTemplate = llmMessageRedisTemplate;
-    }
-
-
-    private List<LlmMessage> getHistoryFromRedis(String sessionId) {
-        String key = CONTEXT_PREFIX + sessionId;
-        List<LlmMessage> history = llmMessageRedisTemplate.opsForValue().get(key);
-        return (history != null) ? history : new ArrayList<>();
+        this.pipelineMetrics = pipelineMetrics;
+        this.tokenAccounting = tokenAccounting;
     }
 
-    private void saveHistoryToRedis(String sessionId, List<LlmMessage> history) {
-        String key = CONTEXT_PREFIX + sessionId;
-        if (history != null && !history.isEmpty()) {
-            llmMessageRedisTemplate.opsForValue().set(key, history, CONTEXT_TTL_DAYS, TimeUnit.DAYS);
-            log.debug("上下文已保存到 Redis，Key: {}，TTL: {}天。", key, CONTEXT_TTL_DAYS);
-        } else {
-            llmMessageRedisTemplate.delete(key);
-        }
+    /**
+     * 【新增】路由模型的请求消息：路由人设 + 上下文窗口 + 本轮用户消息 (不写入历史)
+     */
+    private static List<LlmMessage> routerMessages(LlmService routerService, String sessionId, LlmMessage userTurn) {
+        List<LlmMessage> messages = new ArrayList<>();
+        messages.add(LlmMessage.builder().role(LlmMessage.Role.SYSTEM).content(FIRST_PERSONA).build());
+        messages.addAll(routerService.getConversationWindow(sessionId));
+        messages.add(userTurn);
+        return messages;
     }
 
 
     /**
      * 【流式新增】调用大模型流式回答用户问题，启用上下文记忆，并完成单轮工具调用。
      *
-     * @param sender 接收并发送流式文本块的函数。
+     * @param sender        接收并发送流式文本块的函数。
+     * @param streamContext 【新增】取消令牌。路由/工具阶段结束后会检查一次，流式阶段由 LlmService 实时响应。
      */
-    /**
-     * 【流式新增】调用大模型流式回答用户问题，启用上下文记忆，并完成单轮工具调用。
-     *
-     * @param sender 接收并发送流式文本块的函数。
-     */
-    public void getLlmReplyStream(String sessionId, String userMessage, Consumer<String> sender) {
-        // 1. 【性能监控】记录请求进入服务的时间点
-        long startTimestamp = System.currentTimeMillis();
-
-        // 2. 【性能监控】使用原子布尔值确保只记录一次首字时间 (防止多线程或多次回调重复记录)
-        AtomicBoolean isFirstToken = new AtomicBoolean(true);
-
-        // 3. 【性能监控】包装原始 sender，植入计时逻辑
+    public void getLlmReplyStream(String sessionId, String userMessage, Consumer<String> sender, StreamContext streamContext) {
+        // 1. 【性能监控】端到端计时 (请求进入服务 -> 流式结束)
+        PipelineMetrics.Stage turnStage = pipelineMetrics.start(PipelineMetrics.STAGE_TURN)
+                .model(SECOND_MODEL_NAME).path(PipelineMetrics.PATH_DIRECT_STREAM);
+        PipelineMetrics.Stage turnFirstTokenStage = pipelineMetrics.marker(PipelineMetrics.STAGE_TURN_FIRST_TOKEN)
+                .model(SECOND_MODEL_NAME).path(PipelineMetrics.PATH_DIRECT_STREAM);
+        // 流式阶段开始时才创建，用于统计 LLM 自身的首字延迟
+        AtomicReference<PipelineMetrics.Stage> llmFirstTokenStage = new AtomicReference<>();
+        AtomicBoolean errorSent = new AtomicBoolean(false);
+
+        // 2. 【性能监控】包装原始 sender，植入首字计时逻辑 (Stage.stop 只生效一次)
         Consumer<String> timedSender = (content) -> {
             if (content != null
                     && !content.trim().isEmpty()
-                    && !content.equals("__END_OF_STREAM__")
-                    && isFirstToken.compareAndSet(true, false)) {
-
-                long firstTokenLatency = System.currentTimeMillis() - startTimestamp;
-                log.info(">>> [性能监控] 会话: {} | 首字响应延迟: {} ms", sessionId, firstTokenLatency);
+                    && !content.equals("__END_OF_STREAM__")) {
+                if (content.startsWith("{\"error\"")) {
+                    errorSent.set(true);
+                } else if (!turnFirstTokenStage.isStopped()) {
+                    long firstTokenLatency = turnFirstTokenStage.success();
+                    PipelineMetrics.Stage llmStage = llmFirstTokenStage.get();
+                    if (llmStage != null) {
+                        llmStage.success();
+                    }
+                    log.info(">>> [性能监控] 会话: {} | 首字响应延迟: {} ms", sessionId, firstTokenLatency);
+                }
             }
             // 执行原始的发送逻辑
             sender.accept(content);
         };
 
+        try {
+            streamReply(sessionId, userMessage, timedSender, streamContext, turnStage, llmFirstTokenStage);
+        } finally {
+            String outcome = streamContext.isCancelled() ? PipelineMetrics.OUTCOME_CANCELLED
+                    : errorSent.get() ? PipelineMetrics.OUTCOME_ERROR : PipelineMetrics.OUTCOME_SUCCESS;
+            turnStage.stop(outcome);
+        }
+    }
+
+    private void streamReply(String sessionId, String userMessage, Consumer<String> timedSender, StreamContext streamContext,
+                             PipelineMetrics.Stage turnStage, AtomicReference<PipelineMetrics.Stage> llmFirstTokenStage) {
         log.info("调用 DirectLlmService.getLlmReplyStream (MCP 硬编码模式)，会话ID: {}, 用户消息: {}", sessionId, userMessage);
 
         LlmService firstLlmService;
@@ -255,24 +269,28 @@ public class DirectLlmService {
         Map<String, Object> firstParameters = FIRST_PARAMS.getParametersAsMap();
         Map<String, Object> secondParameters = SECOND_PARAMS.getParametersAsMap();
         List<ToolDefinition> toolsToUse = HARDCODED_TOOLS;
-        List<LlmMessage> finalHistorySnapshot = null;
-
-        Consumer<List<LlmMessage>> finalPersister = (historyToSave) -> saveHistoryToRedis(sessionId, historyToSave);
 
         try {
             // --- 阶段一：路由模型（判断是否调用工具）---
             // 注意：路由过程是阻塞的，不会触发 timedSender，时间会累积到下面的 chatStream
-            LlmResponse routerResult = firstLlmService.chat(
-                    sessionId,
-                    userMessage,
-                    FIRST_MODEL_NAME,
-                    FIRST_PERSONA,
-                    null,
-                    firstParameters,
-                    toolsToUse
-            );
-
-            finalHistorySnapshot = getHistoryFromRedis(sessionId);
+            // 【修改】路由调用不读写历史，本轮消息在分派后由对应路径追加
+            LlmMessage userTurn = LlmMessage.builder().role(LlmMessage.Role.USER).content(userMessage).build();
+            LlmCompletion routerCompletion = pipelineMetrics.start(PipelineMetrics.STAGE_ROUTER)
+                    .model(FIRST_MODEL_NAME).path(PipelineMetrics.PATH_DIRECT_STREAM)
+                    .record(() -> firstLlmService.complete(
+                            FIRST_MODEL_NAME,
+                            routerMessages(firstLlmService, sessionId, userTurn),
+                            firstParameters,
+                            toolsToUse
+                    ));
+            LlmResponse routerResult = routerCompletion.getResponse();
+
+            tokenAccounting.recordUsage(FIRST_MODEL_NAME, PipelineMetrics.STAGE_ROUTER, routerResult.getUsage());
+
+            if (streamContext.isCancelled()) {
+                log.info("路由阶段结束时请求已被取消 ({})，不再生成回复。会话: {}", streamContext.getCancelReason(), sessionId);
+                return;
+            }
 
             // --- 阶段二：业务逻辑分派 ---
 
@@ -283,7 +301,7 @@ public class DirectLlmService {
                 LlmToolCall toolCall = routerResult.getToolCalls().get(0);
                 String toolName = toolCall.getToolName();
                 JsonNode toolArgs = objectMapper.readTree(toolCall.getArguments());
-                String toolResultContent = executeTool(toolName, toolArgs);
+                String toolResultContent = executeTool(toolName, toolArgs, PipelineMetrics.PATH_DIRECT_STREAM);
 
                 String toolResultForModel = "【重要指令】" + SECOND_PERSONA + "\n\n【工具结果】\n" + toolResultContent;
                 LlmMessage toolResultMessage = LlmMessage.builder()
@@ -292,10 +310,13 @@ public class DirectLlmService {
                         .toolCallId(toolCall.getId())
                         .build();
 
+                // 用户消息与路由模型的 tool_calls 先写入历史，工具结果与最终回复由流式调用追加
+                firstLlmService.appendToHistory(sessionId, List.of(userTurn, routerCompletion.getAssistantMessage()));
+
                 log.info("LLM 开始流式生成最终回复 (Streaming Step 2/2)。");
 
                 // 【关键修改】这里传入 timedSender 而不是 sender
-                secondLlmService.chatStream(
+                timedStream(toolName, streamContext, llmFirstTokenStage, () -> secondLlmService.chatStream(
                         sessionId,
                         userMessage,
                         SECOND_MODEL_NAME,
@@ -306,29 +327,18 @@ public class DirectLlmService {
                         timedSender,
                         true,
                         toolResultMessage,
-                        finalPersister
-                );
+                        null,
+                        streamContext
+                ));
 
             } else {
                 // 💬 路径 B: 无需工具
                 log.info("LLM 未请求工具调用，进入对话兜底路径，开始流式生成。");
 
-                // ... (回滚历史逻辑保持不变) ...
-                if (finalHistorySnapshot != null && !finalHistorySnapshot.isEmpty()) {
-                    // 省略具体的回滚代码细节...
-                    int lastIndex = finalHistorySnapshot.size() - 1;
-                    if (lastIndex >= 0 && LlmMessage.Role.ASSISTANT.equals(finalHistorySnapshot.get(lastIndex).getRole())) {
-                        finalHistorySnapshot.remove(lastIndex);
-                    }
-                    int secondLastIndex = finalHistorySnapshot.size() - 1;
-                    if (secondLastIndex >= 0 && LlmMessage.Role.USER.equals(finalHistorySnapshot.get(secondLastIndex).getRole())) {
-                        finalHistorySnapshot.remove(secondLastIndex);
-                    }
-                    saveHistoryToRedis(sessionId, finalHistorySnapshot);
-                }
+                // 路由结果没有写入历史，无需回滚；用户消息与回复由流式调用一次追加
 
                 // 【关键修改】这里传入 timedSender 而不是 sender
-                secondLlmService.chatStream(
+                timedStream(null, streamContext, llmFirstTokenStage, () -> secondLlmService.chatStream(
                         sessionId,
                         userMessage,
                         SECOND_MODEL_NAME,
@@ -339,26 +349,57 @@ public class DirectLlmService {
                         timedSender,
                         false,
                         null,
-                        finalPersister
-                );
+                        null,
+                        streamContext
+                ));
             }
 
         } catch (Exception e) {
             log.error("直接调用大模型（含MCP）失败", e);
-            if(finalHistorySnapshot != null) {
-                saveHistoryToRedis(sessionId, finalHistorySnapshot);
-            }
             // 异常信息也通过 timedSender 发送
             timedSender.accept("{\"error\": \"大模型调用失败\", \"details\": \"" + e.getMessage() + "\", \"sessionId\": \"" + sessionId + "\"}");
         }
     }
 
+    /**
+     * 【新增】流式调用计时：llm_first_token 从这里开始计算，llm 记录整段流式输出耗时。
+     */
+    private void timedStream(String toolName, StreamContext streamContext,
+                             AtomicReference<PipelineMetrics.Stage> llmFirstTokenStage, Runnable streamCall) {
+        llmFirstTokenStage.set(pipelineMetrics.marker(PipelineMetrics.STAGE_LLM_FIRST_TOKEN)
+                .model(SECOND_MODEL_NAME).tool(toolName).path(PipelineMetrics.PATH_DIRECT_STREAM));
+        PipelineMetrics.Stage llmStage = pipelineMetrics.start(PipelineMetrics.STAGE_LLM)
+                .model(SECOND_MODEL_NAME).tool(toolName).path(PipelineMetrics.PATH_DIRECT_STREAM);
+        try {
+            streamCall.run();
+        } catch (RuntimeException e) {
+            llmStage.failure();
+            throw e;
+        }
+        // 流式最后一帧携带的用量 (取消时为已生成部分的用量)
+        tokenAccounting.recordUsage(SECOND_MODEL_NAME, PipelineMetrics.STAGE_LLM, streamContext.getUsage());
+        llmStage.stop(streamContext.isCancelled() ? PipelineMetrics.OUTCOME_CANCELLED : PipelineMetrics.OUTCOME_SUCCESS);
+    }
+
 
     /**
      * 调用大模型直接回答用户问题，启用上下文记忆，并完成单轮工具调用。（同步阻塞版本，用于兼容）
      * NOTE: 此方法在流式改造后不应该被 WebSocket 调用，但为了兼容 WebController 暂时保留。
      */
     public String getLlmReply(String sessionId, String userMessage) {
+        PipelineMetrics.Stage turnStage = pipelineMetrics.start(PipelineMetrics.STAGE_TURN)
+                .model(SECOND_MODEL_NAME).path(PipelineMetrics.PATH_DIRECT);
+        String reply = null;
+        try {
+            reply = replySync(sessionId, userMessage);
+            return reply;
+        } finally {
+            turnStage.stop(reply != null && !reply.contains("{\"error\":")
+                    ? PipelineMetrics.OUTCOME_SUCCESS : PipelineMetrics.OUTCOME_ERROR);
+        }
+    }
+
+    private String replySync(String sessionId, String userMessage) {
         log.info("调用 DirectLlmService.getLlmReply (MCP 硬编码模式，启用上下文记忆)，会话ID: {}, 用户消息: {}", sessionId, userMessage);
 
         LlmService firstLlmService;
@@ -376,24 +417,24 @@ public class DirectLlmService {
         Map<String, Object> firstParameters = FIRST_PARAMS.getParametersAsMap();
         Map<String, Object> secondParameters = SECOND_PARAMS.getParametersAsMap();
         List<ToolDefinition> toolsToUse = HARDCODED_TOOLS;
-        List<LlmMessage> finalHistorySnapshot = null; // Correctly initialized to null
 
         try {
             // --- 阶段一：路由模型（判断是否调用工具）---
 
             // 第一次调用：尝试让模型决定是否调用工具 (使用 FIRST_MODEL / FIRST_PERSONA)
-            LlmResponse routerResult = firstLlmService.chat(
-                    sessionId,
-                    userMessage,
-                    FIRST_MODEL_NAME, // 路由模型
-                    FIRST_PERSONA, // 路由人设
-                    null,
-                    firstParameters,
-                    toolsToUse // 强制挂载工具
-            );
+            // 【修改】无状态调用，不写入历史
+            LlmMessage userTurn = LlmMessage.builder().role(LlmMessage.Role.USER).content(userMessage).build();
+            LlmCompletion routerCompletion = pipelineMetrics.start(PipelineMetrics.STAGE_ROUTER)
+                    .model(FIRST_MODEL_NAME).path(PipelineMetrics.PATH_DIRECT)
+                    .record(() -> firstLlmService.complete(
+                            FIRST_MODEL_NAME, // 路由模型
+                            routerMessages(firstLlmService, sessionId, userTurn), // 路由人设
+                            firstParameters,
+                            toolsToUse // 强制挂载工具
+                    ));
+            LlmResponse routerResult = routerCompletion.getResponse();
 
-            // 立即从 Redis 读取包含了 [USER_MSG] 和 [ASSISTANT_ROUTER_JSON] 的历史
-            finalHistorySnapshot = getHistoryFromRedis(sessionId);
+            tokenAccounting.recordUsage(FIRST_MODEL_NAME, PipelineMetrics.STAGE_ROUTER, routerResult.getUsage());
 
 
             // --- 阶段二：业务逻辑分派 ---
@@ -407,7 +448,7 @@ public class DirectLlmService {
                 String toolArgsString = toolCall.getArguments();
 
                 JsonNode toolArgs = objectMapper.readTree(toolArgsString);
-                String toolResultContent = executeTool(toolName, toolArgs);
+                String toolResultContent = executeTool(toolName, toolArgs, PipelineMetrics.PATH_DIRECT);
 
                 // 【人设切换】注入 SECOND_PERSONA 指令给对话模型
                 String toolResultForModel = "【重要指令】" + SECOND_PERSONA + "\n\n【工具结果】\n" + toolResultContent;
@@ -418,15 +459,21 @@ public class DirectLlmService {
                         .toolCallId(toolCall.getId())
                         .build();
 
-                // 第二次调用：让对话模型根据工具结果生成最终回复
-                LlmResponse finalDialogResult = secondLlmService.chatWithToolResult(
-                        sessionId,
-                        SECOND_MODEL_NAME, // 对话模型
-                        secondParameters,
-                        toolsToUse,
-                        toolResultMessage
-                );
+                // 用户消息与路由模型的 tool_calls 先写入历史，工具结果与最终回复由 chatWithToolResult 追加
+                firstLlmService.appendToHistory(sessionId, List.of(userTurn, routerCompletion.getAssistantMessage()));
 
+                // 第二次调用：让对话模型根据工具结果生成最终回复
+                LlmResponse finalDialogResult = pipelineMetrics.start(PipelineMetrics.STAGE_LLM)
+                        .model(SECOND_MODEL_NAME).tool(toolName).path(PipelineMetrics.PATH_DIRECT)
+                        .record(() -> secondLlmService.chatWithToolResult(
+                                sessionId,
+                                SECOND_MODEL_NAME, // 对话模型
+                                secondParameters,
+                                toolsToUse,
+                                toolResultMessage
+                        ));
+
+                tokenAccounting.recordUsage(SECOND_MODEL_NAME, PipelineMetrics.STAGE_LLM, finalDialogResult.getUsage());
                 return finalDialogResult.getContent().replace("[SEP]", ",");
 
             } else {
@@ -434,33 +481,27 @@ public class DirectLlmService {
 
                 log.info("LLM 在 Direct Call 中未请求工具调用，进入对话兜底路径，切换至 {} 模型。", SECOND_MODEL_NAME);
 
-                // **关键的清理步骤：** 移除路由模型返回的 JSON 消息（它会污染后续对话）
-                if (finalHistorySnapshot != null && !finalHistorySnapshot.isEmpty() && LlmMessage.Role.ASSISTANT.equals(finalHistorySnapshot.get(finalHistorySnapshot.size() - 1).getRole())) {
-                    // 移除 ASSISTANT (Router JSON) 消息
-                    finalHistorySnapshot.remove(finalHistorySnapshot.size() - 1);
-                    saveHistoryToRedis(sessionId, finalHistorySnapshot); // 保存清理后的历史
-                }
+                // 路由结果没有写入历史，不会污染后续对话；用户消息与回复由 chat 一次追加
 
                 // 第二次调用：让对话模型直接根据用户原消息生成回复
-                LlmResponse finalChatResult = secondLlmService.chat(
-                        sessionId,
-                        userMessage, // 重新发送用户消息
-                        SECOND_MODEL_NAME,
-                        SECOND_PERSONA, // 【关键切换】注入对话人设 (Tiantian)
-                        null,
-                        secondParameters,
-                        null // 不挂载工具，强制对话模式
-                );
-
+                LlmResponse finalChatResult = pipelineMetrics.start(PipelineMetrics.STAGE_LLM)
+                        .model(SECOND_MODEL_NAME).path(PipelineMetrics.PATH_DIRECT)
+                        .record(() -> secondLlmService.chat(
+                                sessionId,
+                                userMessage, // 重新发送用户消息
+                                SECOND_MODEL_NAME,
+                                SECOND_PERSONA, // 【关键切换】注入对话人设 (Tiantian)
+                                null,
+                                secondParameters,
+                                null // 不挂载工具，强制对话模式
+                        ));
+
+                tokenAccounting.recordUsage(SECOND_MODEL_NAME, PipelineMetrics.STAGE_LLM, finalChatResult.getUsage());
                 return finalChatResult.getContent();
             }
 
         } catch (Exception e) {
             log.error("直接调用大模型（含MCP）失败", e);
-            // 发生异常时，如果历史快照存在，也尝试写回，避免丢失用户消息
-            if(finalHistorySnapshot != null) {
-                saveHistoryToRedis(sessionId, finalHistorySnapshot);
-            }
             return "{\"error\": \"大模型调用失败\", \"details\": \"" + e.getMessage() + "\"}";
         }
     }
@@ -470,7 +511,15 @@ public class DirectLlmService {
      * 辅助方法：根据工具名称和参数，调用对应的 ToolService 逻辑。
      * 只包含: 天气、时间、股票、基金、油价、金价、新闻、汇率。
      */
-    private String executeTool(String toolName, JsonNode args) {
+    private String executeTool(String toolName, JsonNode args, String path) {
+        PipelineMetrics.Stage toolStage = pipelineMetrics.start(PipelineMetrics.STAGE_TOOL).tool(toolName).path(path);
+        String result = invokeTool(toolName, args);
+        toolStage.stop(result != null && result.startsWith("{\"error\"")
+                ? PipelineMetrics.OUTCOME_ERROR : PipelineMetrics.OUTCOME_SUCCESS);
+        return result;
+    }
+
+    private String invokeTool(String toolName, JsonNode args) {
         try {
             // 根据工具名称，调用 ToolService 中对应的业务方法
             switch (toolName) {
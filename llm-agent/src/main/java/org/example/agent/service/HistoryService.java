@@ -1,52 +1,484 @@
 package org.example.agent.service;
 
-import com.alibaba.dashscope.common.Message;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.example.llm.dto.llm.LlmMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 对话记录 (Transcript) 异步落盘服务。
+ * <p>
+ * 调用方只做一次非阻塞入队，由单独的写线程批量追加到分段文件中：
+ * 1. 有界队列，满了以后按 overflow-policy 丢弃 (DROP) 或写入溢出目录 (SPOOL)，绝不阻塞对话线程；
+ * 2. 分段文件按大小和时间滚动，文件名包含进程号和序号，多实例/高并发下不会冲突；
+ * 3. 按 flush 间隔 fsync，应用关闭时排空队列并 fsync 后再退出；
+ * 4. SPOOL 模式下溢出的记录先交给写线程，由写线程追加到本实例独占的溢出文件，空闲时再并回分段文件：
+ *    溢出文件名带实例 ID 并在进程存活期间持有文件锁，多个实例共用 spool-dir 时只会接管已退出实例遗留的文件；
+ *    每次回放前记下目标分段及其原长度，回放中途崩溃时先把分段截回原长度再重放，记录不会重复。
+ */
 @Service
 public class HistoryService {
 
     private static final Logger log = LoggerFactory.getLogger(HistoryService.class);
-    private static final String HISTORY_SAVE_PATH = "log";
 
-    public void saveConversationToFile(String path, List<Message> conversation) {
+    private static final DateTimeFormatter SEGMENT_TS = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss");
+    private static final DateTimeFormatter RECORD_TS = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+    private static final String SPOOL_SUFFIX = ".spool";
+    // 回放标记：记录目标分段路径与回放前的长度，回放完成 (溢出文件清空 / 删除) 后删除
+    private static final String REPLAYING_SUFFIX = ".replaying";
+    // 写线程等待新记录的最长时间；关闭时最多延迟这么久才开始排空 (不使用 interrupt，见 shutdown)
+    private static final long POLL_TIMEOUT_MS = 200;
+
+    public enum OverflowPolicy {
+        DROP, SPOOL
+    }
+
+    private record TranscriptRecord(String sessionId, long timestamp, List<LlmMessage> messages) {}
+
+    private final Path transcriptDir;
+    private final Path spoolDir;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final long segmentMaxBytes;
+    private final long segmentMaxAgeMs;
+    private final OverflowPolicy overflowPolicy;
+    private final BlockingQueue<TranscriptRecord> queue;
+    // 主队列满时交给写线程写入溢出文件的记录 (与主队列同容量，再满则丢弃)
+    private final BlockingQueue<TranscriptRecord> overflow;
+    private final long pid = ProcessHandle.current().pid();
+    // 容器内进程号常常相同 (如 1)，溢出文件名再加一段随机数区分共用 spool-dir 的实例
+    private final String instanceId = pid + "_" + Long.toHexString(ThreadLocalRandom.current().nextLong() & 0xffffffffL);
+
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong spooledCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+
+    private Thread writerThread;
+    private volatile boolean running = true;
+
+    // --- 以下状态仅由写线程访问 ---
+    private FileChannel segment;
+    private Path segmentPath;
+    private long segmentBytes;
+    private long segmentOpenedAt;
+    private long lastForceAt;
+    private int segmentSeq;
+    private boolean dirty;
+    private FileChannel spool;
+    private Path spoolPath;
+
+    public HistoryService(@Value("${history.transcript.dir:log}") String transcriptDir,
+                          @Value("${history.transcript.spool-dir:log/spool}") String spoolDir,
+                          @Value("${history.transcript.queue-capacity:2048}") int queueCapacity,
+                          @Value("${history.transcript.batch-size:64}") int batchSize,
+                          @Value("${history.transcript.flush-interval-ms:1000}") long flushIntervalMs,
+                          @Value("${history.transcript.segment-max-bytes:16777216}") long segmentMaxBytes,
+                          @Value("${history.transcript.segment-max-age-minutes:60}") long segmentMaxAgeMinutes,
+                          @Value("${history.transcript.overflow-policy:DROP}") OverflowPolicy overflowPolicy) {
+        this.transcriptDir = Paths.get(transcriptDir);
+        this.spoolDir = Paths.get(spoolDir);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = flushIntervalMs;
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.segmentMaxAgeMs = TimeUnit.MINUTES.toMillis(segmentMaxAgeMinutes);
+        this.overflowPolicy = overflowPolicy;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.overflow = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    @PostConstruct
+    public void start() {
+        writerThread = new Thread(this::writeLoop, "transcript-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * 异步保存一段对话。只做入队，不做任何 IO。
+     *
+     * @param sessionId    会话ID
+     * @param conversation 对话消息列表
+     */
+    public void saveConversationToFile(String sessionId, List<LlmMessage> conversation) {
         if (conversation == null || conversation.isEmpty()) {
             return;
         }
+        if (!running) {
+            log.warn("Transcript 写入器已关闭，丢弃会话 {} 的记录。", sessionId);
+            droppedCount.incrementAndGet();
+            return;
+        }
+        TranscriptRecord record = new TranscriptRecord(sessionId, System.currentTimeMillis(), List.copyOf(conversation));
+        if (queue.offer(record)) {
+            enqueuedCount.incrementAndGet();
+            return;
+        }
+
+        if (overflowPolicy == OverflowPolicy.SPOOL && overflow.offer(record)) {
+            return;
+        }
+        long dropped = droppedCount.incrementAndGet();
+        if (dropped == 1 || dropped % 100 == 0) {
+            log.warn("Transcript 队列已满，磁盘写入跟不上，已累计丢弃 {} 条记录。", dropped);
+        }
+    }
+
+    public long getDroppedCount() { return droppedCount.get(); }
+    public long getSpooledCount() { return spooledCount.get(); }
+    public long getWrittenCount() { return writtenCount.get(); }
+    public int getQueueSize() { return queue.size() + overflow.size(); }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (writerThread == null) {
+            return;
+        }
+        // 不能 interrupt 写线程：FileChannel 是可中断通道，正在进行的写入会因 ClosedByInterruptException 丢掉整批，
+        // 之后的排空也会失败。写线程在 POLL_TIMEOUT_MS 内看到 running=false 后自行排空队列并退出。
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Transcript 写入器已关闭: 写入 {} 条, 溢出 {} 条, 丢弃 {} 条, 队列剩余 {} 条。",
+                writtenCount.get(), spooledCount.get(), droppedCount.get(), getQueueSize());
+    }
+
+    // ------------------------------------------------------------------
+    // 写线程
+    // ------------------------------------------------------------------
+
+    private void writeLoop() {
         try {
-            Path directoryPath = Paths.get(HISTORY_SAVE_PATH);
-            if (!Files.exists(directoryPath)) {
-                Files.createDirectories(directoryPath);
+            Files.createDirectories(transcriptDir);
+            replaySpoolFiles();
+        } catch (IOException e) {
+            log.error("❌ 初始化 Transcript 目录失败: {}", transcriptDir.toAbsolutePath(), e);
+        }
+
+        List<TranscriptRecord> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                spoolOverflow();
+                TranscriptRecord first = queue.poll(Math.min(flushIntervalMs, POLL_TIMEOUT_MS), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    writeBatch(batch);
+                    batch.clear();
+                } else if (overflowPolicy == OverflowPolicy.SPOOL) {
+                    // 空闲时把溢出的记录并回分段文件
+                    replaySpoolFiles();
+                }
+                forceIfDue(false);
+            } catch (InterruptedException e) {
+                // 非预期的中断 (shutdown 不再中断写线程)，清除标志后继续，由 running 决定何时退出
+                Thread.interrupted();
+            } catch (Exception e) {
+                log.error("❌ 写入 Transcript 失败，丢弃本批 {} 条记录。", batch.size(), e);
+                droppedCount.addAndGet(batch.size());
+                batch.clear();
+                closeSegment();
             }
+        }
 
-            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"));
-            String fileName = timestamp + ".md";
-            Path filePath = directoryPath.resolve(fileName);
+        // 关闭前排空队列并 fsync (先清除可能残留的中断标志，否则第一次通道操作就会失败)
+        Thread.interrupted();
+        try {
+            // 溢出记录直接写入分段 (排在主队列之后，与运行时先溢出后回放的顺序一致)
+            while (queue.drainTo(batch, batchSize) > 0 || overflow.drainTo(batch, batchSize) > 0) {
+                writeBatch(batch);
+                batch.clear();
+            }
+            forceIfDue(true);
+        } catch (IOException e) {
+            log.error("❌ 关闭时写入剩余 Transcript 失败。", e);
+        } finally {
+            closeSegment();
+            closeSpool();
+        }
+    }
 
-            StringBuilder content = new StringBuilder();
-            content.append("# Conversation Log - ").append(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).append("\n\n");
-            for (Message message : conversation) {
-                String role = message.getRole();
-                content.append("## 👤 ").append(role.toUpperCase()).append("\n");
-                content.append(message.getContent()).append("\n\n");
+    private void writeBatch(List<TranscriptRecord> batch) throws IOException {
+        StringBuilder content = new StringBuilder(batch.size() * 1024);
+        for (TranscriptRecord record : batch) {
+            render(record, content);
+        }
+        appendToSegment(content.toString().getBytes(StandardCharsets.UTF_8));
+        writtenCount.addAndGet(batch.size());
+    }
+
+    private void appendToSegment(byte[] bytes) throws IOException {
+        ensureSegment(bytes.length);
+        writeToSegment(bytes);
+    }
+
+    /**
+     * 按大小和时间判断是否需要滚动到新分段，保证当前分段放得下 length 字节。
+     */
+    private void ensureSegment(int length) throws IOException {
+        long now = System.currentTimeMillis();
+        if (segment == null
+                || segmentBytes + length > segmentMaxBytes && segmentBytes > 0
+                || now - segmentOpenedAt > segmentMaxAgeMs) {
+            rollSegment(now);
+        }
+    }
+
+    private void writeToSegment(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        segmentBytes += bytes.length;
+        dirty = true;
+    }
+
+    private void rollSegment(long now) throws IOException {
+        closeSegment();
+        String timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(now), ZoneId.systemDefault()).format(SEGMENT_TS);
+        segmentPath = transcriptDir.resolve(String.format("transcript_%s_%d_%03d.md", timestamp, pid, segmentSeq++));
+        segment = FileChannel.open(segmentPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentBytes = segment.size();
+        segmentOpenedAt = now;
+        log.info("✅ Transcript 切换到新分段文件: {}", segmentPath.toAbsolutePath());
+    }
+
+    private void forceIfDue(boolean always) throws IOException {
+        long now = System.currentTimeMillis();
+        if (segment != null && dirty && (always || now - lastForceAt >= flushIntervalMs)) {
+            segment.force(false);
+            lastForceAt = now;
+            dirty = false;
+        }
+    }
+
+    private void closeSegment() {
+        if (segment == null) {
+            return;
+        }
+        try {
+            if (dirty) {
+                segment.force(false);
+                dirty = false;
             }
+            segment.close();
+        } catch (IOException e) {
+            log.error("❌ 关闭 Transcript 分段文件失败: {}", segmentPath, e);
+        } finally {
+            segment = null;
+        }
+    }
 
-            Files.write(filePath, content.toString().getBytes(), StandardOpenOption.CREATE_NEW);
-            log.info("✅ 对话历史已成功保存至: {}", filePath.toAbsolutePath());
+    // ------------------------------------------------------------------
+    // 溢出 (SPOOL)
+    // ------------------------------------------------------------------
 
+    /**
+     * 把调用线程交来的溢出记录追加到本实例的溢出文件 (写线程调用)。spool-dir 建议放在与 transcript-dir 不同的磁盘上。
+     */
+    private void spoolOverflow() {
+        List<TranscriptRecord> records = new ArrayList<>();
+        if (overflow.drainTo(records) == 0) {
+            return;
+        }
+        StringBuilder content = new StringBuilder(records.size() * 1024);
+        for (TranscriptRecord record : records) {
+            render(record, content);
+        }
+        try {
+            if (spool == null) {
+                openSpool();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                spool.write(buffer);
+            }
+            spool.force(false);
+            spooledCount.addAndGet(records.size());
         } catch (IOException e) {
-            log.error("❌ 保存对话历史失败。", e);
+            droppedCount.addAndGet(records.size());
+            log.error("❌ Transcript 溢出写入失败，丢弃 {} 条记录。", records.size(), e);
+            closeSpool();
+        }
+    }
+
+    /**
+     * 打开本实例的溢出文件并持有文件锁，直到进程退出 (锁由操作系统随进程释放，其他实例据此判断文件是否已无人使用)。
+     */
+    private void openSpool() throws IOException {
+        Files.createDirectories(spoolDir);
+        spoolPath = spoolDir.resolve("transcript_" + instanceId + SPOOL_SUFFIX);
+        // 新建文件与加锁之间，其他实例可能把它当作遗留的空文件接管并删除，这时重新创建
+        for (int attempt = 0; attempt < 3; attempt++) {
+            spool = FileChannel.open(spoolPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (spool.tryLock() != null && Files.exists(spoolPath)) {
+                // 只有写线程写这个文件：从末尾追加，回放后截断为 0 时位置随之回到开头
+                spool.position(spool.size());
+                return;
+            }
+            closeSpool();
+        }
+        throw new IOException("无法独占溢出文件: " + spoolPath);
+    }
+
+    private void closeSpool() {
+        if (spool == null) {
+            return;
+        }
+        try {
+            spool.close();
+        } catch (IOException e) {
+            log.error("❌ 关闭 Transcript 溢出文件失败: {}", spoolPath, e);
+        } finally {
+            spool = null;
+        }
+    }
+
+    /**
+     * 回放本实例的溢出文件 (回放后清空)，以及已退出实例遗留的溢出文件 (能拿到文件锁的，回放后删除)。
+     */
+    private void replaySpoolFiles() throws IOException {
+        if (spool != null && spool.size() > 0) {
+            replay(spoolPath, spool, true);
+        }
+        if (!Files.isDirectory(spoolDir)) {
+            return;
+        }
+        try (DirectoryStream<Path> spoolFiles = Files.newDirectoryStream(spoolDir, "*" + SPOOL_SUFFIX)) {
+            for (Path spoolFile : spoolFiles) {
+                if (spoolFile.equals(spoolPath)) {
+                    continue;
+                }
+                try (FileChannel channel = FileChannel.open(spoolFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    FileLock lock = channel.tryLock();
+                    // 拿不到锁说明所属实例仍在运行；拿到锁后文件已不存在说明刚被其他实例接管并回放完
+                    if (lock == null || !Files.exists(spoolFile)) {
+                        continue;
+                    }
+                    replay(spoolFile, channel, false);
+                } catch (NoSuchFileException e) {
+                    // 列目录之后被其他实例接管并删除
+                }
+            }
+        }
+        // 溢出文件已删除、标记却没来得及删除 (回放已完成)
+        try (DirectoryStream<Path> markers = Files.newDirectoryStream(spoolDir, "*" + SPOOL_SUFFIX + REPLAYING_SUFFIX)) {
+            for (Path marker : markers) {
+                String name = marker.getFileName().toString();
+                if (!Files.exists(marker.resolveSibling(name.substring(0, name.length() - REPLAYING_SUFFIX.length())))) {
+                    Files.deleteIfExists(marker);
+                }
+            }
+        }
+    }
+
+    /**
+     * 把一个溢出文件追加到当前分段：先写回放标记 (目标分段 + 原长度) 再追加，完成后清空 / 删除溢出文件，最后删除标记。
+     * 上次回放到一半就崩溃时 (标记仍在)，先把标记中的分段截回原长度，再整体重放，保证每条记录只出现一次。
+     */
+    private void replay(Path spoolFile, FileChannel channel, boolean own) throws IOException {
+        Path marker = spoolFile.resolveSibling(spoolFile.getFileName() + REPLAYING_SUFFIX);
+        long size = channel.size();
+        // 溢出文件已清空说明上次回放已经完成，只差删除标记
+        if (size > 0 && Files.exists(marker)) {
+            rollbackInterruptedReplay(marker);
+        }
+        if (size > 0) {
+            ByteBuffer content = ByteBuffer.allocate(Math.toIntExact(size));
+            while (content.hasRemaining() && channel.read(content, content.position()) >= 0) {
+                // 读满为止
+            }
+            byte[] bytes = content.array();
+            ensureSegment(bytes.length);
+            writeMarker(marker, segmentPath, segmentBytes);
+            writeToSegment(bytes);
+            forceIfDue(true);
+        }
+        if (own) {
+            channel.truncate(0);
+            channel.force(false);
+        } else {
+            Files.delete(spoolFile);
+        }
+        Files.deleteIfExists(marker);
+        log.info("✅ 已回放 Transcript 溢出文件: {} ({} 字节)", spoolFile.getFileName(), size);
+    }
+
+    private void rollbackInterruptedReplay(Path marker) throws IOException {
+        List<String> lines = Files.readAllLines(marker, StandardCharsets.UTF_8);
+        if (lines.size() < 2) {
+            // 标记本身没写完，说明分段还没开始追加
+            return;
+        }
+        Path target = Paths.get(lines.get(0));
+        long originalSize = Long.parseLong(lines.get(1).trim());
+        if (segmentPath != null && target.equals(segmentPath.toAbsolutePath())) {
+            closeSegment();
+        }
+        if (Files.exists(target) && Files.size(target) > originalSize) {
+            try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE)) {
+                channel.truncate(originalSize);
+                channel.force(false);
+            }
+            log.warn("上次回放 {} 时中断，已把 {} 截回 {} 字节后重放", marker.getFileName(), target.getFileName(), originalSize);
+        }
+    }
+
+    /**
+     * 先写临时文件再原子改名，标记要么完整存在，要么不存在。
+     */
+    private static void writeMarker(Path marker, Path target, long originalSize) throws IOException {
+        Path tmp = marker.resolveSibling(marker.getFileName() + ".tmp");
+        byte[] content = (target.toAbsolutePath() + "\n" + originalSize + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(tmp, marker, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void render(TranscriptRecord record, StringBuilder content) {
+        String time = LocalDateTime.ofInstant(Instant.ofEpochMilli(record.timestamp()), ZoneId.systemDefault()).format(RECORD_TS);
+        content.append("# Conversation Log - ").append(record.sessionId()).append(" - ").append(time).append("\n\n");
+        for (LlmMessage message : record.messages()) {
+            String role = message.getRole() != null ? message.getRole() : "unknown";
+            content.append("## 👤 ").append(role.toUpperCase()).append("\n");
+            content.append(message.getContent()).append("\n\n");
         }
+        content.append("---\n\n");
     }
-}
\ No newline at end of file
+}
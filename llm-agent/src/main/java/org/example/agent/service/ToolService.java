@@ -8,6 +8,7 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.http.HttpResponse;
 import org.apache.http.util.EntityUtils;
+import org.example.agent.component.ToolGuard;
 import org.example.agent.utils.HttpUtils;
 import org.example.mcp.service.FaqService;
 import org.example.mcp.service.PlanService;
@@ -31,23 +32,41 @@ public class ToolService {
     private static final Logger log = LoggerFactory.getLogger(ToolService.class);
     private final PlanService planService;
     private final FaqService faqService;
+    // 【新增】外部工具的熔断 / 配额 / 最近可用结果兜底
+    private final ToolGuard toolGuard;
     private final ObjectMapper mapper = new ObjectMapper();
     private final WebClient webClient;
     private final String dashscopeApiKeyWithBearer;
 
     private final String alApiCode;
 
-    public ToolService(PlanService planService, FaqService faqService,
+    // 【新增】DashScope MCP 接口与云市场接口地址可配置，压测时指向本地 mock-provider
+    private final String dashscopeBaseUrl;
+    private final String marketHostOverride;
+
+    public ToolService(PlanService planService, FaqService faqService, ToolGuard toolGuard,
                        WebClient.Builder webClientBuilder,
                        @Value("${alibaba.api.key}") String dashscopeApiKey,
-                       @Value("${al.api.appcode}") String alApiCode
+                       @Value("${al.api.appcode}") String alApiCode,
+                       @Value("${llm.qwen.base-url:https://dashscope.aliyuncs.com/api/v1}") String dashscopeBaseUrl,
+                       @Value("${tool.market.host-override:}") String marketHostOverride
     ) {
         this.planService = planService;
         this.faqService = faqService;
+        this.toolGuard = toolGuard;
         this.webClient = webClientBuilder.build();
         // 使用 Bearer 鉴权方式
         this.dashscopeApiKeyWithBearer = "Bearer " + dashscopeApiKey;
         this.alApiCode = alApiCode;
+        this.dashscopeBaseUrl = dashscopeBaseUrl;
+        this.marketHostOverride = marketHostOverride;
+    }
+
+    /**
+     * 【新增】配置了 tool.market.host-override 时，所有云市场接口都发往该地址 (path 不变)。
+     */
+    private String marketHost(String defaultHost) {
+        return (marketHostOverride == null || marketHostOverride.isEmpty()) ? defaultHost : marketHostOverride;
     }
 
     public String compareTwoPlans(String planName1, String planName2) {
@@ -60,6 +79,19 @@ public class ToolService {
         }
     }
 
+    /**
+     * 【新增】多套餐对比，只返回差异字段
+     */
+    public String comparePlans(List<String> planNames) {
+        log.info("ToolService: 正在直接调用 PlanService 对比套餐: {}", planNames);
+        try {
+            return mapper.writeValueAsString(planService.comparePlans(planNames));
+        } catch (Exception e) {
+            log.error("调用 PlanService comparePlans 失败", e);
+            return "{\"error\": \"无法比较套餐\"}";
+        }
+    }
+
     public String queryMcpFaq(String intent) {
         log.info("ToolService: 正在调用 FaqService 查询FAQ, 意图: {}", intent);
         try {
@@ -77,7 +109,7 @@ public class ToolService {
         log.info("ToolService: 正在调用 WebClient (SSE) 查询天气 (amap-maps)");
         log.info("ToolService: 城市: {}, 日期: {}", city, date);
 
-        String sseUrl = "https://dashscope.aliyuncs.com/api/v1/mcps/amap-maps/sse";
+        String sseUrl = dashscopeBaseUrl + "/mcps/amap-maps/sse";
 
         // 构建请求参数
         Map<String, Object> parameters = new HashMap<>();
@@ -94,68 +126,70 @@ public class ToolService {
                 "stream", true
         );
 
-        try {
-            String fullResponse = webClient.post()
-                    .uri(sseUrl)
-                    // 使用 Authorization: Bearer ...
-                    .header("Authorization", this.dashscopeApiKeyWithBearer)
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToFlux(String.class)
-                    .filter(sseLine -> sseLine.startsWith("data:"))
-                    .map(sseLine -> sseLine.substring(5).trim())
-                    .filter(data -> !data.isEmpty() && !data.equalsIgnoreCase("[DONE]"))
-                    .collectList()
-                    .map(dataBlocks -> {
-                        StringBuilder textContent = new StringBuilder();
-                        String error = null;
-
-                        for (String data : dataBlocks) {
-                            try {
-                                JsonNode root = mapper.readTree(data);
-                                if (root.has("code") || root.has("message")) {
-                                    error = data;
-                                    log.error("Dashscope SSE 流返回错误: {}", error);
-                                    break;
-                                }
-                                if (root.has("output") && root.get("output").has("text")) {
-                                    textContent.append(root.get("output").get("text").asText());
+        return toolGuard.call("getWeatherMcp", city + "|" + date, () -> {
+            try {
+                String fullResponse = webClient.post()
+                        .uri(sseUrl)
+                        // 使用 Authorization: Bearer ...
+                        .header("Authorization", this.dashscopeApiKeyWithBearer)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(requestBody)
+                        .retrieve()
+                        .bodyToFlux(String.class)
+                        .filter(sseLine -> sseLine.startsWith("data:"))
+                        .map(sseLine -> sseLine.substring(5).trim())
+                        .filter(data -> !data.isEmpty() && !data.equalsIgnoreCase("[DONE]"))
+                        .collectList()
+                        .map(dataBlocks -> {
+                            StringBuilder textContent = new StringBuilder();
+                            String error = null;
+
+                            for (String data : dataBlocks) {
+                                try {
+                                    JsonNode root = mapper.readTree(data);
+                                    if (root.has("code") || root.has("message")) {
+                                        error = data;
+                                        log.error("Dashscope SSE 流返回错误: {}", error);
+                                        break;
+                                    }
+                                    if (root.has("output") && root.get("output").has("text")) {
+                                        textContent.append(root.get("output").get("text").asText());
+                                    }
+                                } catch (Exception e) {
+                                    log.warn("解析 SSE data 块失败: {}", data, e);
                                 }
-                            } catch (Exception e) {
-                                log.warn("解析 SSE data 块失败: {}", data, e);
                             }
-                        }
 
-                        if (error != null) {
-                            return "{\"error\": \"查询天气API返回错误\", \"details\": " + error + "}";
-                        }
+                            if (error != null) {
+                                return "{\"error\": \"查询天气API返回错误\", \"details\": " + error + "}";
+                            }
 
-                        String result = textContent.toString();
+                            String result = textContent.toString();
 
-                        if (result.isEmpty()) {
-                            log.warn("ToolService: SSE 流处理完成，但未提取到任何 'output.text' 内容。API 可能未返回数据。");
-                            return "{\"error\": \"工具未返回任何内容\", \"details\": \"API stream was empty.\"}";
-                        }
+                            if (result.isEmpty()) {
+                                log.warn("ToolService: SSE 流处理完成，但未提取到任何 'output.text' 内容。API 可能未返回数据。");
+                                return "{\"error\": \"工具未返回任何内容\", \"details\": \"API stream was empty.\"}";
+                            }
 
-                        return result;
-                    })
-                    .block();
+                            return result;
+                        })
+                        .block(toolGuard.callTimeout());
 
-            log.info("WebClient (SSE) 完整天气响应 (amap-maps): {}", fullResponse);
-            return fullResponse;
+                log.info("WebClient (SSE) 完整天气响应 (amap-maps): {}", fullResponse);
+                return fullResponse;
 
-        } catch (Exception e) {
-            log.error("调用 WebClient getWeather (amap-maps) 失败", e);
-            return "{\"error\": \"调用 WebClient getWeather 失败\", \"details\": \"" + e.getMessage() + "\"}";
-        }
+            } catch (Exception e) {
+                log.error("调用 WebClient getWeather (amap-maps) 失败", e);
+                return "{\"error\": \"调用 WebClient getWeather 失败\", \"details\": \"" + e.getMessage() + "\"}";
+            }
+        });
     }
-    @Cacheable(value = "weatherCache", key = "#city", unless = "#result.contains('\"error\"')")
+    @Cacheable(value = "weatherCache", key = "#city", unless = "T(org.example.agent.component.ToolGuard).isError(#result) || #result.contains('\"stale\"')")
     public String getWeather(String city) {
         log.info("ToolService: 正在调用 getWeather 查询天气");
         log.info("ToolService: 城市: {}", city);
         // 阿里云
-        String host = "https://ali-weather.showapi.com";
+        String host = marketHost("https://ali-weather.showapi.com");
         String path = "/day15";
         String method = "GET";
         Map<String, String> headers = new HashMap<>();
@@ -163,15 +197,17 @@ public class ToolService {
         Map<String, String> query = new HashMap<>();
         query.put("area", city);
 //        query.put("areaCode", "530700");
-        try {
-            HttpResponse response = HttpUtils.doGet(host, path, method, headers, query);
-            String entity = EntityUtils.toString(response.getEntity());
-            log.info("getWeather 获取到的结果： {}", entity);
-            return JsonUtils.parse(entity).get("showapi_res_body").toString();
-        } catch (Exception e) {
-            log.info("ToolService:  getWeather  error", e);
-            return "{\"error\": \"调用 getWeather 失败\", \"details\": \"" + e.getMessage() + "\"}";
-        }
+        return toolGuard.call("getWeather", city, () -> {
+            try {
+                HttpResponse response = HttpUtils.doGet(host, path, method, headers, query, toolGuard.httpTimeouts());
+                String entity = EntityUtils.toString(response.getEntity());
+                log.info("getWeather 获取到的结果： {}", entity);
+                return JsonUtils.parse(entity).get("showapi_res_body").toString();
+            } catch (Exception e) {
+                log.info("ToolService:  getWeather  error", e);
+                return "{\"error\": \"调用 getWeather 失败\", \"details\": \"" + e.getMessage() + "\"}";
+            }
+        });
 
         // 高德
 //        try {
@@ -192,9 +228,9 @@ public class ToolService {
 //            return "{\"error\": \"调用 WebClient getWeather 失败\", \"details\": \"" + e.getMessage() + "\"}";
 //        }
     }
-    @Cacheable(value = "oilPriceCache", key = "#province", unless = "#result.contains('\"error\"')")
+    @Cacheable(value = "oilPriceCache", key = "#province", unless = "T(org.example.agent.component.ToolGuard).isError(#result) || #result.contains('\"stale\"')")
     public String getOilPrice(String province){
-        String host = "https://smjryjcx.market.alicloudapi.com";
+        String host = marketHost("https://smjryjcx.market.alicloudapi.com");
         String path = "/oil/price";
         String method = "GET";
 
@@ -204,39 +240,43 @@ public class ToolService {
         Map<String, String> querys = new HashMap<String, String>();
         querys.put("prov", province);
 
-        try {
-            HttpResponse response = HttpUtils.doGet(host, path, method, headers, querys);
-            // 返回结果格式为Json字符串
-            String responseBody = EntityUtils.toString(response.getEntity());
-            log.info(responseBody);
-            return JsonUtils.parse(responseBody).getAsJsonObject("data").getAsJsonArray("list").get(0).toString();
-        } catch (Exception e) {
-            log.info("getOilPrice api服务调用失败", e);
-            return "{\"error\": \"调用 WebClient getOilPrice 失败\", \"details\": \"" + e.getMessage() + "\"}";
-        }
+        return toolGuard.call("getOilPrice", province, () -> {
+            try {
+                HttpResponse response = HttpUtils.doGet(host, path, method, headers, querys, toolGuard.httpTimeouts());
+                // 返回结果格式为Json字符串
+                String responseBody = EntityUtils.toString(response.getEntity());
+                log.info(responseBody);
+                return JsonUtils.parse(responseBody).getAsJsonObject("data").getAsJsonArray("list").get(0).toString();
+            } catch (Exception e) {
+                log.info("getOilPrice api服务调用失败", e);
+                return "{\"error\": \"调用 WebClient getOilPrice 失败\", \"details\": \"" + e.getMessage() + "\"}";
+            }
+        });
     }
-    @Cacheable(value = "goldPriceCache", key = "'latest'", unless = "#result.contains('\"error\"')")
+    @Cacheable(value = "goldPriceCache", key = "'latest'", unless = "T(org.example.agent.component.ToolGuard).isError(#result) || #result.contains('\"stale\"')")
     public String getGoldPrice(){
-        String host = "https://tsgold2.market.alicloudapi.com";
+        String host = marketHost("https://tsgold2.market.alicloudapi.com");
         String path = "/shgold";
         Map<String, String> headers = new HashMap<>();
         headers.put("Authorization", "APPCODE " + alApiCode);
         Map<String, String> query = new HashMap<>();
 
-        try {
-            HttpResponse response = HttpUtils.doGet(host, path, "GET", headers, query);
-            // 返回结果格式为Json字符串
-            String responseBody = EntityUtils.toString(response.getEntity());
-            log.info("getGoldPrice 获取到的数据为：{}",responseBody);
-            return JsonUtils.parse(responseBody).getAsJsonObject("data").get("list").toString();
-        } catch (Exception e) {
-            log.info("getGoldPrice api服务调用失败", e);
-            return "{\"error\": \"调用 WebClient getGoldPrice 失败\", \"details\": \"" + e.getMessage() + "\"}";
-        }
+        return toolGuard.call("getGoldPrice", "latest", () -> {
+            try {
+                HttpResponse response = HttpUtils.doGet(host, path, "GET", headers, query, toolGuard.httpTimeouts());
+                // 返回结果格式为Json字符串
+                String responseBody = EntityUtils.toString(response.getEntity());
+                log.info("getGoldPrice 获取到的数据为：{}",responseBody);
+                return JsonUtils.parse(responseBody).getAsJsonObject("data").get("list").toString();
+            } catch (Exception e) {
+                log.info("getGoldPrice api服务调用失败", e);
+                return "{\"error\": \"调用 WebClient getGoldPrice 失败\", \"details\": \"" + e.getMessage() + "\"}";
+            }
+        });
     }
 
     public String getNews(String areaName,String title){
-        String host = "https://areanews1.market.alicloudapi.com";
+        String host = marketHost("https://areanews1.market.alicloudapi.com");
         String path = "/localnews/query";
         Map<String, String> headers = new HashMap<String, String>();
         headers.put("Authorization", "APPCODE " + alApiCode);
@@ -250,20 +290,22 @@ public class ToolService {
         }
         query.put("page", "1");
 
-        try {
-            HttpResponse response = HttpUtils.doGet(host, path, "GET", headers, query);
-            // 返回结果格式为Json字符串
-            String responseBody = EntityUtils.toString(response.getEntity());
-            log.info("getNews 获取到的数据为：{}",responseBody);
-            return JsonUtils.parse(responseBody).getAsJsonObject("showapi_res_body").toString();
-        } catch (Exception e) {
-            log.info("getNews api服务调用失败", e);
-            return "{\"error\": \"调用 WebClient getNews 失败\", \"details\": \"" + e.getMessage() + "\"}";
-        }
+        return toolGuard.call("getNews", areaName + "|" + title, () -> {
+            try {
+                HttpResponse response = HttpUtils.doGet(host, path, "GET", headers, query, toolGuard.httpTimeouts());
+                // 返回结果格式为Json字符串
+                String responseBody = EntityUtils.toString(response.getEntity());
+                log.info("getNews 获取到的数据为：{}",responseBody);
+                return JsonUtils.parse(responseBody).getAsJsonObject("showapi_res_body").toString();
+            } catch (Exception e) {
+                log.info("getNews api服务调用失败", e);
+                return "{\"error\": \"调用 WebClient getNews 失败\", \"details\": \"" + e.getMessage() + "\"}";
+            }
+        });
     }
-    @Cacheable(value = "exchangeRateCache", key = "#currency", unless = "#result.contains('\"error\"')")
+    @Cacheable(value = "exchangeRateCache", key = "#currency", unless = "T(org.example.agent.component.ToolGuard).isError(#result) || #result.contains('\"stale\"')")
     public String getExchangeRate(String currency){
-        String host = "https://tsexchange.market.alicloudapi.com";
+        String host = marketHost("https://tsexchange.market.alicloudapi.com");
         String path = "/single";
         Map<String, String> headers = new HashMap<String, String>();
         //最后在header中的格式(中间是英文空格)为Authorization:APPCODE 83359fd73fe94948385f570e3c139105
@@ -274,20 +316,22 @@ public class ToolService {
             query.put("from", currency);
         }
 
-        try {
-            HttpResponse response = HttpUtils.doGet(host, path, "GET", headers, query);
-            // 返回结果格式为Json字符串
-            String responseBody = EntityUtils.toString(response.getEntity());
-            log.info("getExchangeRate 获取到的数据为：{}",responseBody);
-            return JsonUtils.parse(responseBody).getAsJsonObject("data").toString();
-        } catch (Exception e) {
-            log.info("getExchangeRate api服务调用失败", e);
-            return "{\"error\": \"调用 WebClient getExchangeRate 失败\", \"details\": \"" + e.getMessage() + "\"}";
-        }
+        return toolGuard.call("getExchangeRate", currency, () -> {
+            try {
+                HttpResponse response = HttpUtils.doGet(host, path, "GET", headers, query, toolGuard.httpTimeouts());
+                // 返回结果格式为Json字符串
+                String responseBody = EntityUtils.toString(response.getEntity());
+                log.info("getExchangeRate 获取到的数据为：{}",responseBody);
+                return JsonUtils.parse(responseBody).getAsJsonObject("data").toString();
+            } catch (Exception e) {
+                log.info("getExchangeRate api服务调用失败", e);
+                return "{\"error\": \"调用 WebClient getExchangeRate 失败\", \"details\": \"" + e.getMessage() + "\"}";
+            }
+        });
     }
-    @Cacheable(value = "fundInfoCache", key = "#fundCode", unless = "#result.contains('\"error\"')")
+    @Cacheable(value = "fundInfoCache", key = "#fundCode", unless = "T(org.example.agent.component.ToolGuard).isError(#result) || #result.contains('\"stale\"')")
     public String getFundInfo(String fundCode){
-        String host = "https://jmjjhqcx.market.alicloudapi.com";
+        String host = marketHost("https://jmjjhqcx.market.alicloudapi.com");
         String path = "/fund/detail";
         Map<String, String> headers = new HashMap<>();
         headers.put("Authorization", "APPCODE " + alApiCode);
@@ -297,19 +341,21 @@ public class ToolService {
         Map<String, String> body = new HashMap<>();
         body.put("fundCode", fundCode);
 
-        try {
-            HttpResponse response = HttpUtils.doPost(host, path, "POST", headers, query,body);
-            // 返回结果格式为Json字符串
-            String responseBody = EntityUtils.toString(response.getEntity(),"UTF-8");
-            log.info("getFundInfo 获取到的数据为：{}",responseBody);
-            return JsonUtils.parse(responseBody).getAsJsonObject("data").toString();
-        } catch (Exception e) {
-            log.info("getFundInfo api服务调用失败", e);
-            return "{\"error\": \"调用 WebClient getFundInfo 失败\", \"details\": \"" + e.getMessage() + "\"}";
-        }
+        return toolGuard.call("getFundInfo", fundCode, () -> {
+            try {
+                HttpResponse response = HttpUtils.doPost(host, path, "POST", headers, query,body, toolGuard.httpTimeouts());
+                // 返回结果格式为Json字符串
+                String responseBody = EntityUtils.toString(response.getEntity(),"UTF-8");
+                log.info("getFundInfo 获取到的数据为：{}",responseBody);
+                return JsonUtils.parse(responseBody).getAsJsonObject("data").toString();
+            } catch (Exception e) {
+                log.info("getFundInfo api服务调用失败", e);
+                return "{\"error\": \"调用 WebClient getFundInfo 失败\", \"details\": \"" + e.getMessage() + "\"}";
+            }
+        });
     }
     public String getCurrentTimeByCity(String city){
-        String host = "https://timezone.market.alicloudapi.com";
+        String host = marketHost("https://timezone.market.alicloudapi.com");
         String path = "/timezone";
         Map<String, String> headers = new HashMap<>();
         headers.put("Authorization", "APPCODE " + alApiCode);
@@ -319,20 +365,22 @@ public class ToolService {
             query.put("city", city);
         }
 
-        try {
-            HttpResponse response = HttpUtils.doGet(host, path, "GET", headers, query);
-            // 返回结果格式为Json字符串
-            String responseBody = EntityUtils.toString(response.getEntity(),"UTF-8");
-            log.info("getCurrentTimeByCity 获取到的数据为：{}",responseBody);
-            return responseBody;
-        } catch (Exception e) {
-            log.info("getCurrentTimeByCity api服务调用失败", e);
-            return "{\"error\": \"调用 WebClient getCurrentTimeByCity 失败\", \"details\": \"" + e.getMessage() + "\"}";
-        }
+        return toolGuard.call("getCurrentTimeByCity", city, () -> {
+            try {
+                HttpResponse response = HttpUtils.doGet(host, path, "GET", headers, query, toolGuard.httpTimeouts());
+                // 返回结果格式为Json字符串
+                String responseBody = EntityUtils.toString(response.getEntity(),"UTF-8");
+                log.info("getCurrentTimeByCity 获取到的数据为：{}",responseBody);
+                return responseBody;
+            } catch (Exception e) {
+                log.info("getCurrentTimeByCity api服务调用失败", e);
+                return "{\"error\": \"调用 WebClient getCurrentTimeByCity 失败\", \"details\": \"" + e.getMessage() + "\"}";
+            }
+        });
     }
 
     public String getStockInfo(String symbol){
-        String host = "https://jmgphqcxhs.market.alicloudapi.com";
+        String host = marketHost("https://jmgphqcxhs.market.alicloudapi.com");
         String path = "/stock/a/price";
         Map<String, String> headers = new HashMap<>();
         headers.put("Authorization", "APPCODE " + alApiCode);
@@ -343,16 +391,18 @@ public class ToolService {
         body.put("symbol", symbol);
 
 
-        try {
-            HttpResponse response = HttpUtils.doPost(host, path, "GET", headers, query,body);
-            // 返回结果格式为Json字符串
-            String responseBody = EntityUtils.toString(response.getEntity(),"UTF-8");
-            log.info("getStockInfo 获取到的数据为：{}",responseBody);
-            return JsonUtils.parse(responseBody).getAsJsonObject("data").toString();
-        } catch (Exception e) {
-            log.info("getCurrentTimeByCity api服务调用失败", e);
-            return "{\"error\": \"调用 WebClient getCurrentTimeByCity 失败\", \"details\": \"" + e.getMessage() + "\"}";
-        }
+        return toolGuard.call("getStockInfo", symbol, () -> {
+            try {
+                HttpResponse response = HttpUtils.doPost(host, path, "GET", headers, query,body, toolGuard.httpTimeouts());
+                // 返回结果格式为Json字符串
+                String responseBody = EntityUtils.toString(response.getEntity(),"UTF-8");
+                log.info("getStockInfo 获取到的数据为：{}",responseBody);
+                return JsonUtils.parse(responseBody).getAsJsonObject("data").toString();
+            } catch (Exception e) {
+                log.info("getCurrentTimeByCity api服务调用失败", e);
+                return "{\"error\": \"调用 WebClient getCurrentTimeByCity 失败\", \"details\": \"" + e.getMessage() + "\"}";
+            }
+        });
     }
 
     /**
@@ -362,7 +412,7 @@ public class ToolService {
         log.info("ToolService: 正在调用 WebClient (SSE) 联网搜索");
         log.info("ToolService: 搜索词: {}, 数量: {}", query, count);
 
-        String sseUrl = "https://dashscope.aliyuncs.com/api/v1/mcps/webSearch/sse";
+        String sseUrl = dashscopeBaseUrl + "/mcps/webSearch/sse";
 
         // 构建请求参数
         Map<String, Object> parameters = new HashMap<>();
@@ -379,60 +429,62 @@ public class ToolService {
                 "stream", true
         );
 
-        try {
-            String fullResponse = webClient.post()
-                    .uri(sseUrl)
-                    // 使用 Authorization: Bearer ...
-                    .header("Authorization", this.dashscopeApiKeyWithBearer)
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .bodyValue(requestBody)
-                    .retrieve()
-                    .bodyToFlux(String.class)
-                    .filter(sseLine -> sseLine.startsWith("data:"))
-                    .map(sseLine -> sseLine.substring(5).trim())
-                    .filter(data -> !data.isEmpty() && !data.equalsIgnoreCase("[DONE]"))
-                    .collectList()
-                    .map(dataBlocks -> {
-                        StringBuilder textContent = new StringBuilder();
-                        String error = null;
-
-                        for (String data : dataBlocks) {
-                            try {
-                                JsonNode root = mapper.readTree(data);
-                                if (root.has("code") || root.has("message")) {
-                                    error = data;
-                                    log.error("Dashscope SSE (webSearch) 流返回错误: {}", error);
-                                    break;
-                                }
-                                if (root.has("output") && root.get("output").has("text")) {
-                                    textContent.append(root.get("output").get("text").asText());
+        return toolGuard.call("webSearch", query + "|" + count, () -> {
+            try {
+                String fullResponse = webClient.post()
+                        .uri(sseUrl)
+                        // 使用 Authorization: Bearer ...
+                        .header("Authorization", this.dashscopeApiKeyWithBearer)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(requestBody)
+                        .retrieve()
+                        .bodyToFlux(String.class)
+                        .filter(sseLine -> sseLine.startsWith("data:"))
+                        .map(sseLine -> sseLine.substring(5).trim())
+                        .filter(data -> !data.isEmpty() && !data.equalsIgnoreCase("[DONE]"))
+                        .collectList()
+                        .map(dataBlocks -> {
+                            StringBuilder textContent = new StringBuilder();
+                            String error = null;
+
+                            for (String data : dataBlocks) {
+                                try {
+                                    JsonNode root = mapper.readTree(data);
+                                    if (root.has("code") || root.has("message")) {
+                                        error = data;
+                                        log.error("Dashscope SSE (webSearch) 流返回错误: {}", error);
+                                        break;
+                                    }
+                                    if (root.has("output") && root.get("output").has("text")) {
+                                        textContent.append(root.get("output").get("text").asText());
+                                    }
+                                } catch (Exception e) {
+                                    log.warn("解析 SSE (webSearch) data 块失败: {}", data, e);
                                 }
-                            } catch (Exception e) {
-                                log.warn("解析 SSE (webSearch) data 块失败: {}", data, e);
                             }
-                        }
 
-                        if (error != null) {
-                            return "{\"error\": \"联网搜索API返回错误\", \"details\": " + error + "}";
-                        }
+                            if (error != null) {
+                                return "{\"error\": \"联网搜索API返回错误\", \"details\": " + error + "}";
+                            }
 
-                        String result = textContent.toString();
+                            String result = textContent.toString();
 
-                        if (result.isEmpty()) {
-                            log.warn("ToolService (webSearch): SSE 流处理完成，但未提取到任何 'output.text' 内容。");
-                            return "{\"error\": \"工具未返回任何内容\", \"details\": \"API stream was empty.\"}";
-                        }
+                            if (result.isEmpty()) {
+                                log.warn("ToolService (webSearch): SSE 流处理完成，但未提取到任何 'output.text' 内容。");
+                                return "{\"error\": \"工具未返回任何内容\", \"details\": \"API stream was empty.\"}";
+                            }
 
-                        return result;
-                    })
-                    .block();
+                            return result;
+                        })
+                        .block(toolGuard.callTimeout());
 
-            log.info("WebClient (SSE) 完整搜索响应: {}", fullResponse);
-            return fullResponse;
+                log.info("WebClient (SSE) 完整搜索响应: {}", fullResponse);
+                return fullResponse;
 
-        } catch (Exception e) {
-            log.error("调用 WebClient webSearch 失败", e);
-            return "{\"error\": \"调用 WebClient webSearch 失败\", \"details\": \"" + e.getMessage() + "\"}";
-        }
+            } catch (Exception e) {
+                log.error("调用 WebClient webSearch 失败", e);
+                return "{\"error\": \"调用 WebClient webSearch 失败\", \"details\": \"" + e.getMessage() + "\"}";
+            }
+        });
     }
 }
@@ -16,6 +16,8 @@ import javax.net.ssl.X509TrustManager;
 
 
 import io.micrometer.common.util.StringUtils;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
@@ -24,6 +26,7 @@ import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
@@ -32,6 +35,7 @@ import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.HttpConnectionParams;
 
 
 /**
@@ -41,6 +45,27 @@ import org.apache.http.message.BasicNameValuePair;
 
 public class HttpUtils {
 
+    /**
+     * 【新增】工具类是静态调用，由 TracingConfig 在启动时注入 ObservationRegistry；未注入时不产生 Span。
+     */
+    private static volatile ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+
+    public static void setObservationRegistry(ObservationRegistry registry) {
+        observationRegistry = registry == null ? ObservationRegistry.NOOP : registry;
+    }
+
+    /**
+     * 【新增】单次请求的连接 / 读取超时 (毫秒)，0 表示不超时。不带该参数的方法保持原行为 ({@link #NO_TIMEOUT})。
+     */
+    public record Timeouts(int connectMs, int socketMs) {
+        public Timeouts {
+            connectMs = Math.max(0, connectMs);
+            socketMs = Math.max(0, socketMs);
+        }
+    }
+
+    public static final Timeouts NO_TIMEOUT = new Timeouts(0, 0);
+
     /**
      * get
      *
@@ -56,14 +81,25 @@ public class HttpUtils {
                                      Map<String, String> headers,
                                      Map<String, String> querys)
             throws Exception {
-        HttpClient httpClient = wrapClient(host);
+        return doGet(host, path, method, headers, querys, NO_TIMEOUT);
+    }
+
+    /**
+     * 【新增】get，带超时
+     */
+    public static HttpResponse doGet(String host, String path, String method,
+                                     Map<String, String> headers,
+                                     Map<String, String> querys,
+                                     Timeouts timeouts)
+            throws Exception {
+        HttpClient httpClient = wrapClient(host, timeouts);
 
         HttpGet request = new HttpGet(buildUrl(host, path, querys));
         for (Map.Entry<String, String> e : headers.entrySet()) {
             request.addHeader(e.getKey(), e.getValue());
         }
 
-        return httpClient.execute(request);
+        return execute(httpClient, request, host, path);
     }
 
     /**
@@ -83,7 +119,19 @@ public class HttpUtils {
                                       Map<String, String> querys,
                                       Map<String, String> bodys)
             throws Exception {
-        HttpClient httpClient = wrapClient(host);
+        return doPost(host, path, method, headers, querys, bodys, NO_TIMEOUT);
+    }
+
+    /**
+     * 【新增】post form，带超时
+     */
+    public static HttpResponse doPost(String host, String path, String method,
+                                      Map<String, String> headers,
+                                      Map<String, String> querys,
+                                      Map<String, String> bodys,
+                                      Timeouts timeouts)
+            throws Exception {
+        HttpClient httpClient = wrapClient(host, timeouts);
 
         HttpPost request = new HttpPost(buildUrl(host, path, querys));
         for (Map.Entry<String, String> e : headers.entrySet()) {
@@ -101,7 +149,7 @@ public class HttpUtils {
             request.setEntity(formEntity);
         }
 
-        return httpClient.execute(request);
+        return execute(httpClient, request, host, path);
     }
 
     /**
@@ -121,7 +169,7 @@ public class HttpUtils {
                                       Map<String, String> querys,
                                       String body)
             throws Exception {
-        HttpClient httpClient = wrapClient(host);
+        HttpClient httpClient = wrapClient(host, NO_TIMEOUT);
 
         HttpPost request = new HttpPost(buildUrl(host, path, querys));
         for (Map.Entry<String, String> e : headers.entrySet()) {
@@ -132,7 +180,7 @@ public class HttpUtils {
             request.setEntity(new StringEntity(body, "utf-8"));
         }
 
-        return httpClient.execute(request);
+        return execute(httpClient, request, host, path);
     }
 
     /**
@@ -152,7 +200,7 @@ public class HttpUtils {
                                       Map<String, String> querys,
                                       byte[] body)
             throws Exception {
-        HttpClient httpClient = wrapClient(host);
+        HttpClient httpClient = wrapClient(host, NO_TIMEOUT);
 
         HttpPost request = new HttpPost(buildUrl(host, path, querys));
         for (Map.Entry<String, String> e : headers.entrySet()) {
@@ -163,7 +211,7 @@ public class HttpUtils {
             request.setEntity(new ByteArrayEntity(body));
         }
 
-        return httpClient.execute(request);
+        return execute(httpClient, request, host, path);
     }
 
     /**
@@ -182,7 +230,7 @@ public class HttpUtils {
                                      Map<String, String> querys,
                                      String body)
             throws Exception {
-        HttpClient httpClient = wrapClient(host);
+        HttpClient httpClient = wrapClient(host, NO_TIMEOUT);
 
         HttpPut request = new HttpPut(buildUrl(host, path, querys));
         for (Map.Entry<String, String> e : headers.entrySet()) {
@@ -193,7 +241,7 @@ public class HttpUtils {
             request.setEntity(new StringEntity(body, "utf-8"));
         }
 
-        return httpClient.execute(request);
+        return execute(httpClient, request, host, path);
     }
 
     /**
@@ -212,7 +260,7 @@ public class HttpUtils {
                                      Map<String, String> querys,
                                      byte[] body)
             throws Exception {
-        HttpClient httpClient = wrapClient(host);
+        HttpClient httpClient = wrapClient(host, NO_TIMEOUT);
 
         HttpPut request = new HttpPut(buildUrl(host, path, querys));
         for (Map.Entry<String, String> e : headers.entrySet()) {
@@ -223,7 +271,7 @@ public class HttpUtils {
             request.setEntity(new ByteArrayEntity(body));
         }
 
-        return httpClient.execute(request);
+        return execute(httpClient, request, host, path);
     }
 
     /**
@@ -241,14 +289,37 @@ public class HttpUtils {
                                         Map<String, String> headers,
                                         Map<String, String> querys)
             throws Exception {
-        HttpClient httpClient = wrapClient(host);
+        HttpClient httpClient = wrapClient(host, NO_TIMEOUT);
 
         HttpDelete request = new HttpDelete(buildUrl(host, path, querys));
         for (Map.Entry<String, String> e : headers.entrySet()) {
             request.addHeader(e.getKey(), e.getValue());
         }
 
-        return httpClient.execute(request);
+        return execute(httpClient, request, host, path);
+    }
+
+    /**
+     * 【新增】执行请求并记录为一个客户端 Span (http.tool.request)，挂在当前工具阶段下。
+     */
+    private static HttpResponse execute(HttpClient httpClient, HttpRequestBase request, String host, String path) throws Exception {
+        Observation observation = Observation.createNotStarted("http.tool.request", observationRegistry)
+                .contextualName(request.getMethod() + " " + host.replaceFirst("^https?://", ""))
+                .lowCardinalityKeyValue("method", request.getMethod())
+                .lowCardinalityKeyValue("host", host.replaceFirst("^https?://", ""))
+                .highCardinalityKeyValue("path", path == null ? "" : path)
+                .start();
+        try (Observation.Scope scope = observation.openScope()) {
+            HttpResponse response = httpClient.execute(request);
+            observation.lowCardinalityKeyValue("status", String.valueOf(response.getStatusLine().getStatusCode()));
+            return response;
+        } catch (Exception e) {
+            observation.lowCardinalityKeyValue("status", "IO_ERROR");
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
     }
 
     private static String buildUrl(String host, String path, Map<String, String> querys) throws UnsupportedEncodingException {
@@ -282,8 +353,10 @@ public class HttpUtils {
         return sbUrl.toString();
     }
 
-    private static HttpClient wrapClient(String host) {
+    private static HttpClient wrapClient(String host, Timeouts timeouts) {
         HttpClient httpClient = new DefaultHttpClient();
+        HttpConnectionParams.setConnectionTimeout(httpClient.getParams(), timeouts.connectMs());
+        HttpConnectionParams.setSoTimeout(httpClient.getParams(), timeouts.socketMs());
         if (host.startsWith("https://")) {
             sslClient(httpClient);
         }
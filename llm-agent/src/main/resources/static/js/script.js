@@ -36,7 +36,12 @@ document.addEventListener('DOMContentLoaded', () => {
         put: async (url, data) => {
             console.log(`📡 PUT ${url}`, data);
             const res = await fetch(url, { method: 'PUT', headers: { 'Content-Type': 'application/json' }, body: JSON.stringify(data) });
-            if (!res.ok) throw new Error(`HTTP ${res.status}`);
+            if (!res.ok) {
+                // 【新增】后端校验失败时返回 {error, details}，直接展示给用户
+                const body = await res.json().catch(() => null);
+                if (body && body.error) throw new Error([body.error].concat(body.details || []).join('\n'));
+                throw new Error(`HTTP ${res.status}`);
+            }
             // 处理 void 返回
             const text = await res.text();
             return text ? JSON.parse(text) : {};
@@ -243,6 +248,19 @@ document.addEventListener('DOMContentLoaded', () => {
                 return;
             }
 
+            // 外部工具的熔断 / 配额状态 (本地工具 guard 为 null)
+            const renderToolGuard = (guard) => {
+                if (!guard) return '';
+                const colors = { CLOSED: '#4CAF50', HALF_OPEN: '#FF9800', OPEN: '#F44336' };
+                const limit = (used, max) => max > 0 ? `${used}/${max}` : `${used}`;
+                const open = guard.circuitState === 'OPEN' ? ` (${Math.ceil(guard.openRemainingMs / 1000)}s)` : '';
+                return `<span style="font-size: 11px; color: #666; display: block; margin-top: 2px;">`
+                    + `<b style="color:${colors[guard.circuitState] || '#666'}">熔断: ${guard.circuitState}${open}</b>`
+                    + ` | 失败率 ${(guard.failureRate * 100).toFixed(0)}%`
+                    + ` | 本分钟 ${limit(guard.minuteCalls, guard.minuteLimit)} | 今日 ${limit(guard.dayCalls, guard.dayLimit)}`
+                    + ` | 兜底 ${guard.fallbacksServed} 次</span>`;
+            };
+
             tools.forEach(tool => {
                 const div = document.createElement('div');
                 const isChecked = tool.isActive;
@@ -255,6 +273,7 @@ document.addEventListener('DOMContentLoaded', () => {
                         <div class="tool-info">
                             <strong>${tool.chineseName} (${tool.name})</strong> 
                             <span style="font-size: 11px; color: #007AFF; display: block; margin-top: 2px;">[参数: ${tool.parameters}]</span> 
+                            ${renderToolGuard(tool.guard)}
                         </div>
                         <label class="toggle-switch">
                             <input type="checkbox" id="toggle-${tool.name}" ${isChecked ? 'checked' : ''}>
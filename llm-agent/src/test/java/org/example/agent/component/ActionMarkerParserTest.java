@@ -0,0 +1,71 @@
+package org.example.agent.component;
+
+import org.example.agent.dto.ActionMarker;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ActionMarkerParserTest {
+
+    @Test
+    void parsesWorkflowAndDeviceMarkers() {
+        List<ActionMarker> markers = ActionMarkerParser.parseAll(
+                "好的。我已完成流程[身份核验 → 选择套餐]接下来（我已完成打开空调，26度，10分钟）");
+        assertEquals(2, markers.size());
+        assertEquals(ActionMarker.Type.WORKFLOW, markers.get(0).type());
+        assertEquals("选择套餐", markers.get(0).name());
+        assertEquals(ActionMarker.Type.DEVICE, markers.get(1).type());
+        assertEquals("打开空调", markers.get(1).name());
+        assertEquals(List.of("26度", "10分钟"), markers.get(1).args());
+        assertEquals("（我已完成打开空调，26度，10分钟）", markers.get(1).raw());
+    }
+
+    @Test
+    void markerSplitAcrossTokensIsStrippedFromOutput() {
+        List<ActionMarker> markers = new ArrayList<>();
+        ActionMarkerParser parser = new ActionMarkerParser(true, markers::add);
+        StringBuilder out = new StringBuilder();
+        for (String token : List.of("办理成功", "。我已", "完成流", "程[确认", "办理]", "再见")) {
+            out.append(parser.onToken(token));
+        }
+        out.append(parser.finish());
+        assertEquals("办理成功。再见", out.toString());
+        assertEquals(1, markers.size());
+        assertEquals("确认办理", markers.get(0).name());
+    }
+
+    @Test
+    void textThatOnlyLooksLikeAMarkerIsKept() {
+        List<ActionMarker> markers = new ArrayList<>();
+        ActionMarkerParser parser = new ActionMarkerParser(true, markers::add);
+        String text = "我已经帮您查过了（月费 128 元）我已完成";
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            out.append(parser.onToken(String.valueOf(text.charAt(i))));
+        }
+        out.append(parser.finish());
+        assertEquals(text, out.toString());
+        assertTrue(markers.isEmpty());
+    }
+
+    @Test
+    void keepsMarkerTextWhenNotStripping() {
+        List<ActionMarker> markers = new ArrayList<>();
+        ActionMarkerParser parser = new ActionMarkerParser(false, markers::add);
+        String out = parser.onToken("(我已完成关灯)") + parser.finish();
+        assertEquals("(我已完成关灯)", out);
+        assertEquals("关灯", markers.get(0).name());
+    }
+
+    @Test
+    void listenerFailureDoesNotBreakTheStream() {
+        ActionMarkerParser parser = new ActionMarkerParser(true, marker -> {
+            throw new IllegalStateException("boom");
+        });
+        assertEquals("前后", parser.onToken("前（我已完成关灯）后") + parser.finish());
+    }
+}
@@ -0,0 +1,79 @@
+package org.example.agent.component;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WorkflowGraphTest {
+
+    private static final List<String> PROCESSES = List.of("1. 身份核验", "2. 选择套餐", "3. 确认办理*");
+
+    private static BitSet bits(int... indexes) {
+        BitSet bits = new BitSet();
+        for (int i : indexes) {
+            bits.set(i);
+        }
+        return bits;
+    }
+
+    @Test
+    void resolvesNamesIdsAndDisplayNames() {
+        WorkflowGraph graph = WorkflowGraph.compile(PROCESSES, "2 -> 1\n确认办理 -> 2. 选择套餐");
+        assertTrue(graph.getErrors().isEmpty(), graph.getErrors().toString());
+        assertEquals(List.of("身份核验", "选择套餐", "确认办理"), graph.getDisplayNames());
+        assertEquals(2, graph.indexOfDisplayName("确认办理"));
+        assertEquals(1, graph.indexOf("2. 选择套餐"));
+        assertEquals(-1, graph.indexOf("选择套餐"));
+    }
+
+    @Test
+    void availableFollowsPrerequisitesAndRepeatable() {
+        WorkflowGraph graph = WorkflowGraph.compile(PROCESSES, "2 -> 1\n3 -> 1, 2");
+        assertEquals(bits(0), graph.available(bits()));
+        assertEquals(bits(1), graph.available(bits(0)));
+        assertEquals(bits(2), graph.available(bits(0, 1)));
+        // 以 * 结尾的流程完成后仍可办理
+        assertEquals(bits(2), graph.available(bits(0, 1, 2)));
+    }
+
+    @Test
+    void reportsBadLinesWithoutThrowing() {
+        WorkflowGraph graph = WorkflowGraph.compile(PROCESSES, "2 -> 1\n没有箭头\n4 -> 1\n2 -> 9\n1 -> 1");
+        List<String> errors = graph.getErrors();
+        assertEquals(4, errors.size(), errors.toString());
+        assertTrue(errors.get(0).startsWith("第 2 行格式"));
+        assertTrue(errors.get(1).contains("未知流程 '4'"));
+        assertTrue(errors.get(2).contains("未知前置流程 '9'"));
+        assertTrue(errors.get(3).contains("不能依赖自身"));
+        // 出错的行被跳过，其余依赖照常生效 (流程 3 没有有效的前置)
+        assertEquals(bits(0, 2), graph.available(bits()));
+    }
+
+    @Test
+    void detectsCycles() {
+        WorkflowGraph graph = WorkflowGraph.compile(PROCESSES, "1 -> 3\n2 -> 1\n3 -> 2");
+        assertEquals(1, graph.getErrors().size());
+        assertTrue(graph.getErrors().get(0).startsWith("依赖存在环"));
+    }
+
+    @Test
+    void dropsBlankAndDuplicateProcesses() {
+        WorkflowGraph graph = WorkflowGraph.compile(List.of("A", " ", "B", "A"), "");
+        assertEquals(List.of("A", "B"), graph.getProcesses());
+    }
+
+    @Test
+    void fingerprintDependsOnProcessListOnly() {
+        long base = WorkflowGraph.compile(PROCESSES, "").fingerprint();
+        assertEquals(base, WorkflowGraph.compile(PROCESSES, "2 -> 1").fingerprint());
+        assertNotEquals(base, WorkflowGraph.compile(List.of("1. 身份核验", "2. 选择套餐"), "").fingerprint());
+        // 长度前缀保证拼接边界不同的列表指纹不同
+        assertNotEquals(WorkflowGraph.compile(List.of("ab", "c"), "").fingerprint(),
+                WorkflowGraph.compile(List.of("a", "bc"), "").fingerprint());
+    }
+}
@@ -0,0 +1,11 @@
+package org.example.llm.client;
+
+/**
+ * 【新增】排队等待并发许可超时。不会触发本厂商内的重试，ResilientLlmService 会直接尝试切换到等价模型。
+ */
+public class ConcurrencyLimitExceededException extends RuntimeException {
+
+    public ConcurrencyLimitExceededException(String message) {
+        super(message);
+    }
+}
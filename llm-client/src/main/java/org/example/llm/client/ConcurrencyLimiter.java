@@ -0,0 +1,303 @@
+package org.example.llm.client;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.example.llm.service.LlmCallPriority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * 【新增】单个 厂商/模型 的自适应并发上限 (AIMD)，由 {@link ConcurrencyLimiterRegistry} 创建。
+ * <p>
+ * <ul>
+ *     <li>加性增：请求成功、在途数接近上限、且耗时不高于长期 EWMA × latency-tolerance 时，上限 +1/limit (约每轮 +1)；
+ *     耗时明显变长说明上游已在排队，上限保持不变；</li>
+ *     <li>乘性减：429、5xx、网络超时时上限 × backoff-ratio，cooldown 内只减一次，避免同一波 429 把上限压到底；</li>
+ *     <li>排队：超过上限的调用按优先级排队 (INTERACTIVE 先于 BACKGROUND)，各自有最长等待时间，超时抛出
+ *     {@link ConcurrencyLimitExceededException}。</li>
+ * </ul>
+ */
+public class ConcurrencyLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(ConcurrencyLimiter.class);
+
+    private final String name;
+    private final ConcurrencyLimiterRegistry.Settings settings;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<LlmCallPriority, ArrayDeque<Waiter>> queues = new EnumMap<>(LlmCallPriority.class);
+    private final Map<LlmCallPriority, Timer> acquiredTimers = new EnumMap<>(LlmCallPriority.class);
+    private final Map<LlmCallPriority, Timer> rejectedTimers = new EnumMap<>(LlmCallPriority.class);
+
+    private double limit;
+    private int inFlight;
+    private double latencyEwmaMs;
+    private long lastDecreaseNanos;
+
+    ConcurrencyLimiter(String provider, String model, ConcurrencyLimiterRegistry.Settings settings, MeterRegistry meterRegistry) {
+        this.name = provider + "/" + model;
+        this.settings = settings;
+        this.limit = settings.initialLimit;
+        this.lastDecreaseNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(settings.decreaseCooldownMs);
+        for (LlmCallPriority priority : LlmCallPriority.values()) {
+            queues.put(priority, new ArrayDeque<>());
+        }
+        if (meterRegistry != null) {
+            Tags tags = Tags.of("provider", provider, "model", model);
+            Gauge.builder("llm.limiter.limit", this, ConcurrencyLimiter::getLimit)
+                    .description("LLM 客户端自适应并发上限").tags(tags).register(meterRegistry);
+            Gauge.builder("llm.limiter.inflight", this, ConcurrencyLimiter::getInFlight)
+                    .description("LLM 客户端在途请求数").tags(tags).register(meterRegistry);
+            for (LlmCallPriority priority : LlmCallPriority.values()) {
+                String p = priority.name().toLowerCase();
+                Gauge.builder("llm.limiter.queued", this, l -> l.getQueued(priority))
+                        .description("等待并发许可的调用数").tags(tags).tag("priority", p).register(meterRegistry);
+                acquiredTimers.put(priority, waitTimer(tags, p, "acquired", meterRegistry));
+                rejectedTimers.put(priority, waitTimer(tags, p, "rejected", meterRegistry));
+            }
+        }
+    }
+
+    private static Timer waitTimer(Tags tags, String priority, String outcome, MeterRegistry meterRegistry) {
+        return Timer.builder("llm.limiter.wait")
+                .description("等待并发许可的耗时")
+                .tags(tags).tag("priority", priority).tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    /**
+     * 获取许可后执行同步调用，并按结果调整上限。
+     */
+    public <T> T call(Supplier<T> call) {
+        Permit permit = acquire();
+        try {
+            T result = call.get();
+            permit.success();
+            return result;
+        } catch (RuntimeException e) {
+            permit.failure(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 以当前线程的 {@link LlmCallPriority} 获取许可，必要时排队；调用方必须以 success / failure 结束许可。
+     */
+    public Permit acquire() {
+        LlmCallPriority priority = LlmCallPriority.current();
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            if (inFlight < (int) limit && !hasWaitersAhead(priority)) {
+                inFlight++;
+                record(acquiredTimers, priority, start);
+                return new Permit();
+            }
+            Waiter waiter = new Waiter(lock.newCondition());
+            queues.get(priority).addLast(waiter);
+            long remaining = TimeUnit.MILLISECONDS.toNanos(priority == LlmCallPriority.INTERACTIVE
+                    ? settings.interactiveMaxWaitMs : settings.backgroundMaxWaitMs);
+            try {
+                while (!waiter.granted && remaining > 0) {
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (waiter.granted) {
+                record(acquiredTimers, priority, start);
+                return new Permit();
+            }
+            queues.get(priority).remove(waiter);
+            record(rejectedTimers, priority, start);
+            throw new ConcurrencyLimitExceededException(String.format("%s 并发已达上限 %d，排队 %dms 未获得许可 (%s)",
+                    name, (int) limit, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), priority));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean hasWaitersAhead(LlmCallPriority priority) {
+        for (LlmCallPriority p : LlmCallPriority.values()) {
+            if (!queues.get(p).isEmpty()) {
+                return true;
+            }
+            if (p == priority) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private static void record(Map<LlmCallPriority, Timer> timers, LlmCallPriority priority, long start) {
+        Timer timer = timers.get(priority);
+        if (timer != null) {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 持锁调用：在上限允许的范围内按优先级依次唤醒排队者。
+     */
+    private void grantWaiters() {
+        for (LlmCallPriority priority : LlmCallPriority.values()) {
+            ArrayDeque<Waiter> queue = queues.get(priority);
+            while (inFlight < (int) limit && !queue.isEmpty()) {
+                Waiter waiter = queue.pollFirst();
+                waiter.granted = true;
+                inFlight++;
+                waiter.condition.signal();
+            }
+        }
+    }
+
+    private void onSuccess(long latencyMs) {
+        lock.lock();
+        try {
+            inFlight--;
+            boolean fastEnough = latencyEwmaMs == 0 || latencyMs <= latencyEwmaMs * settings.latencyTolerance;
+            latencyEwmaMs = latencyEwmaMs == 0 ? latencyMs : latencyEwmaMs + settings.latencyEwmaAlpha * (latencyMs - latencyEwmaMs);
+            // 只有真正用满时才加：空闲时的成功不能说明上游能承受更高并发
+            if (fastEnough && (inFlight + 1) * 2 >= (int) limit) {
+                limit = Math.min(settings.maxLimit, limit + 1.0 / limit);
+            }
+            grantWaiters();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onDrop(Throwable error) {
+        lock.lock();
+        try {
+            inFlight--;
+            long now = System.nanoTime();
+            if (now - lastDecreaseNanos >= TimeUnit.MILLISECONDS.toNanos(settings.decreaseCooldownMs)) {
+                double previous = limit;
+                limit = Math.max(settings.minLimit, limit * settings.backoffRatio);
+                lastDecreaseNanos = now;
+                log.warn("{} 上游过载 ({})，并发上限 {} → {}", name, error.toString(), (int) previous, (int) limit);
+            }
+            grantWaiters();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onIgnore() {
+        lock.lock();
+        try {
+            inFlight--;
+            grantWaiters();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 429、5xx、网络异常与超时视为过载信号；其余错误 (如 400、响应解析失败) 与并发无关。
+     */
+    static boolean isOverloadSignal(Throwable error) {
+        int status = EndpointPool.statusOf(error);
+        if (status == 429 || status >= 500) {
+            return true;
+        }
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof feign.RetryableException || t instanceof IOException || t instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public double getLimit() {
+        lock.lock();
+        try {
+            return limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued(LlmCallPriority priority) {
+        lock.lock();
+        try {
+            return queues.get(priority).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Waiter {
+        private final Condition condition;
+        private boolean granted;
+
+        private Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    /**
+     * 一次并发许可。success / failure 只生效一次。
+     */
+    public final class Permit {
+
+        private final long startNanos = System.nanoTime();
+        private long latencyNanos = -1;
+        private boolean released;
+
+        private Permit() {
+        }
+
+        /**
+         * 记录延迟的时间点 (流式调用在首个分片到达时调用)，不调用则以结束时间为准。
+         */
+        public synchronized void markLatency() {
+            if (latencyNanos < 0) {
+                latencyNanos = System.nanoTime() - startNanos;
+            }
+        }
+
+        public synchronized void success() {
+            if (released) {
+                return;
+            }
+            released = true;
+            markLatency();
+            onSuccess(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+        }
+
+        public synchronized void failure(Throwable error) {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (isOverloadSignal(error)) {
+                onDrop(error);
+            } else {
+                onIgnore();
+            }
+        }
+    }
+}
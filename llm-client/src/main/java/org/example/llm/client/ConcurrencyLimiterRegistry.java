@@ -0,0 +1,68 @@
+package org.example.llm.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 【新增】按 厂商/模型 维护 {@link ConcurrencyLimiter}，参数统一来自 llm.limiter.*。
+ * 关闭 (llm.limiter.enabled=false) 时 get 返回 null，调用方直接放行。
+ */
+@Component
+public class ConcurrencyLimiterRegistry {
+
+    private final boolean enabled;
+    private final Settings settings = new Settings();
+    private final MeterRegistry meterRegistry;
+    private final Map<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    public ConcurrencyLimiterRegistry(ObjectProvider<MeterRegistry> meterRegistry,
+                                      @Value("${llm.limiter.enabled:true}") boolean enabled,
+                                      @Value("${llm.limiter.initial-limit:20}") int initialLimit,
+                                      @Value("${llm.limiter.min-limit:2}") int minLimit,
+                                      @Value("${llm.limiter.max-limit:200}") int maxLimit,
+                                      @Value("${llm.limiter.backoff-ratio:0.7}") double backoffRatio,
+                                      @Value("${llm.limiter.decrease-cooldown-ms:1000}") long decreaseCooldownMs,
+                                      @Value("${llm.limiter.latency-tolerance:2.0}") double latencyTolerance,
+                                      @Value("${llm.limiter.latency-ewma-alpha:0.05}") double latencyEwmaAlpha,
+                                      @Value("${llm.limiter.interactive-max-wait-ms:3000}") long interactiveMaxWaitMs,
+                                      @Value("${llm.limiter.background-max-wait-ms:1500}") long backgroundMaxWaitMs) {
+        this.meterRegistry = meterRegistry.getIfAvailable();
+        this.enabled = enabled;
+        settings.minLimit = Math.max(1, minLimit);
+        settings.maxLimit = Math.max(settings.minLimit, maxLimit);
+        settings.initialLimit = Math.min(settings.maxLimit, Math.max(settings.minLimit, initialLimit));
+        settings.backoffRatio = backoffRatio;
+        settings.decreaseCooldownMs = decreaseCooldownMs;
+        settings.latencyTolerance = latencyTolerance;
+        settings.latencyEwmaAlpha = latencyEwmaAlpha;
+        settings.interactiveMaxWaitMs = interactiveMaxWaitMs;
+        settings.backgroundMaxWaitMs = backgroundMaxWaitMs;
+    }
+
+    public ConcurrencyLimiter get(String provider, String model) {
+        if (!enabled) {
+            return null;
+        }
+        String key = provider + "/" + model;
+        ConcurrencyLimiter limiter = limiters.get(key);
+        return limiter != null ? limiter
+                : limiters.computeIfAbsent(key, k -> new ConcurrencyLimiter(provider, model, settings, meterRegistry));
+    }
+
+    static final class Settings {
+        int initialLimit;
+        int minLimit;
+        int maxLimit;
+        double backoffRatio;
+        long decreaseCooldownMs;
+        double latencyTolerance;
+        double latencyEwmaAlpha;
+        long interactiveMaxWaitMs;
+        long backgroundMaxWaitMs;
+    }
+}
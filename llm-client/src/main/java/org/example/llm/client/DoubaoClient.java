@@ -7,15 +7,22 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 
+import java.net.URI;
+
 /**
  * 这是一个 Feign 客户端接口，用于声明式地调用豆包（火山方舟）的 API。
  * Spring Cloud OpenFeign 会在运行时自动为这个接口创建一个实现类。
  */
-@FeignClient(name = "doubaoClient", url = "https://ark.cn-beijing.volces.com/api/v3")
+// 【修改】base-url 可配置，压测时指向本地 mock-provider
+@FeignClient(name = "doubaoClient", url = "${llm.doubao.base-url:https://ark.cn-beijing.volces.com/api/v3}")
 public interface DoubaoClient {
 
+    /**
+     * 【修改】baseUri 由 EndpointPool 选出 (Feign 以 URI 参数覆盖注解中的默认 url)。
+     */
     @PostMapping(path = "/chat/completions")
     DoubaoApiResp chatCompletions(
+            URI baseUri,
             @RequestHeader("Authorization") String authorization,
             @RequestBody DoubaoApiReq req
     );
@@ -0,0 +1,342 @@
+package org.example.llm.client;
+
+import feign.FeignException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 【新增】一个厂商的 (API Key × Base URL) 池，由 {@link EndpointPoolFactory} 创建。
+ * <p>
+ * 选择策略：随机取两个可用端点 (power of two choices)，选 EWMA 延迟 × (在途请求数 + 1) 较小者；
+ * 失败按 failure-penalty-ms 计入 EWMA，慢或出错的端点自然少分流量。
+ * 某个 Key 被限流 (429) 后进入隔离期 (优先使用 Retry-After，连续限流时指数加长)，
+ * 期间该 Key 的所有端点都不参与选择；全部隔离时退而选择最早解除隔离的端点，不直接失败。
+ */
+public class EndpointPool {
+
+    private static final Logger log = LoggerFactory.getLogger(EndpointPool.class);
+
+    static final String OUTCOME_SUCCESS = "success";
+    static final String OUTCOME_ERROR = "error";
+    static final String OUTCOME_RATE_LIMITED = "rate_limited";
+
+    private final String provider;
+    private final List<Endpoint> endpoints;
+    private final EndpointPoolFactory.Settings settings;
+    private final MeterRegistry meterRegistry;
+
+    EndpointPool(String provider, List<String> apiKeys, List<String> baseUrls,
+                 EndpointPoolFactory.Settings settings, MeterRegistry meterRegistry) {
+        if (baseUrls.isEmpty()) {
+            throw new IllegalArgumentException(provider + " 至少需要配置一个 Base URL");
+        }
+        if (apiKeys.isEmpty()) {
+            // 与原先 "${doubao.api.key:}" 的行为一致：未配置 Key 不影响启动，调用时由厂商返回鉴权错误
+            log.warn("{} 未配置 API Key", provider);
+            apiKeys = List.of("");
+        }
+        this.provider = provider;
+        this.settings = settings;
+        this.meterRegistry = meterRegistry;
+        List<Endpoint> list = new ArrayList<>();
+        for (int k = 0; k < apiKeys.size(); k++) {
+            KeyState key = new KeyState(apiKeys.get(k), maskKey(k, apiKeys.get(k)));
+            for (String baseUrl : baseUrls) {
+                list.add(new Endpoint(key, baseUrl));
+            }
+        }
+        this.endpoints = List.copyOf(list);
+        log.info("{} 端点池: {} 个 Key × {} 个地址", provider, apiKeys.size(), baseUrls.size());
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * 同步调用：选择端点并记录结果，异常原样抛出 (由上层决定重试)。
+     */
+    public <T> T call(Function<Endpoint, T> call) {
+        Lease lease = acquire();
+        try {
+            T result = call.apply(lease.endpoint());
+            lease.success();
+            return result;
+        } catch (RuntimeException e) {
+            lease.failure(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 选择一个端点并占用，调用方必须以 success / failure 结束租约 (流式调用使用)。
+     */
+    public Lease acquire() {
+        Endpoint chosen = choose();
+        chosen.outstanding.incrementAndGet();
+        return new Lease(chosen);
+    }
+
+    Endpoint choose() {
+        long now = System.nanoTime();
+        List<Endpoint> available = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            if (!endpoint.key.isQuarantined(now)) {
+                available.add(endpoint);
+            }
+        }
+        if (available.isEmpty()) {
+            Endpoint soonest = endpoints.get(0);
+            for (Endpoint endpoint : endpoints) {
+                if (endpoint.key.quarantinedUntil - soonest.key.quarantinedUntil < 0) {
+                    soonest = endpoint;
+                }
+            }
+            return soonest;
+        }
+        if (available.size() == 1) {
+            return available.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(available.size());
+        int j = random.nextInt(available.size() - 1);
+        if (j >= i) {
+            j++;
+        }
+        Endpoint a = available.get(i);
+        Endpoint b = available.get(j);
+        return a.score() <= b.score() ? a : b;
+    }
+
+    private void onRateLimited(Endpoint endpoint, Throwable error) {
+        KeyState key = endpoint.key;
+        long retryAfterMs = retryAfterMs(error);
+        long quarantineMs;
+        synchronized (key) {
+            int strikes = ++key.consecutiveRateLimits;
+            long backoff = settings.quarantineMs << Math.min(strikes - 1, 10);
+            quarantineMs = Math.min(settings.maxQuarantineMs, Math.max(retryAfterMs, backoff));
+            key.quarantinedUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(quarantineMs);
+        }
+        log.warn("{} Key {} 被限流，隔离 {}ms", provider, key.alias, quarantineMs);
+    }
+
+    static int statusOf(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof FeignException fe) {
+                return fe.status();
+            }
+            if (t instanceof WebClientResponseException we) {
+                return we.getStatusCode().value();
+            }
+        }
+        return -1;
+    }
+
+    private static long retryAfterMs(Throwable error) {
+        String value = null;
+        for (Throwable t = error; t != null && value == null; t = t.getCause()) {
+            if (t instanceof FeignException fe) {
+                Map<String, Collection<String>> headers = fe.responseHeaders();
+                Collection<String> retryAfter = headers == null ? null : headers.get("retry-after");
+                if (retryAfter != null && !retryAfter.isEmpty()) {
+                    value = retryAfter.iterator().next();
+                }
+            } else if (t instanceof WebClientResponseException we) {
+                value = we.getHeaders().getFirst("Retry-After");
+            }
+        }
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String maskKey(int index, String apiKey) {
+        String tail = apiKey.length() > 4 ? apiKey.substring(apiKey.length() - 4) : "****";
+        return "k" + index + "-" + tail;
+    }
+
+    private static String hostOf(String baseUrl) {
+        URI uri = URI.create(baseUrl);
+        return uri.getPort() > 0 ? uri.getHost() + ":" + uri.getPort() : uri.getHost();
+    }
+
+    /**
+     * 一个 API Key 的共享状态：限流隔离以 Key 为单位 (同一 Key 在不同地址上共用配额)。
+     */
+    private static final class KeyState {
+        private final String apiKey;
+        private final String alias;
+        private volatile long quarantinedUntil = Long.MIN_VALUE;
+        private int consecutiveRateLimits;
+
+        private KeyState(String apiKey, String alias) {
+            this.apiKey = apiKey;
+            this.alias = alias;
+        }
+
+        private boolean isQuarantined(long now) {
+            return quarantinedUntil != Long.MIN_VALUE && now - quarantinedUntil < 0;
+        }
+    }
+
+    /**
+     * 池中的一个 (Key, 地址) 组合。
+     */
+    public final class Endpoint {
+
+        private final KeyState key;
+        private final String baseUrl;
+        private final URI baseUri;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile double ewmaMs;
+        private final Counter successCounter;
+        private final Counter errorCounter;
+        private final Counter rateLimitedCounter;
+
+        private Endpoint(KeyState key, String baseUrl) {
+            this.key = key;
+            this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+            this.baseUri = URI.create(this.baseUrl);
+            Tags tags = Tags.of("provider", provider, "key", key.alias, "endpoint", hostOf(this.baseUrl));
+            if (meterRegistry != null) {
+                this.successCounter = requestCounter(tags, OUTCOME_SUCCESS);
+                this.errorCounter = requestCounter(tags, OUTCOME_ERROR);
+                this.rateLimitedCounter = requestCounter(tags, OUTCOME_RATE_LIMITED);
+                Gauge.builder("llm.provider.outstanding", outstanding, AtomicInteger::get)
+                        .description("LLM 端点在途请求数").tags(tags).register(meterRegistry);
+                Gauge.builder("llm.provider.latency.ewma", this, e -> e.ewmaMs)
+                        .description("LLM 端点 EWMA 延迟 (毫秒)").baseUnit("milliseconds").tags(tags).register(meterRegistry);
+                Gauge.builder("llm.provider.quarantined", this, e -> e.key.isQuarantined(System.nanoTime()) ? 1 : 0)
+                        .description("LLM 端点所属 Key 是否处于限流隔离期").tags(tags).register(meterRegistry);
+            } else {
+                this.successCounter = null;
+                this.errorCounter = null;
+                this.rateLimitedCounter = null;
+            }
+        }
+
+        private Counter requestCounter(Tags tags, String outcome) {
+            return Counter.builder("llm.provider.requests")
+                    .description("按 Key / 地址统计的 LLM 请求数")
+                    .tags(tags).tag("outcome", outcome)
+                    .register(meterRegistry);
+        }
+
+        public String getApiKey() {
+            return key.apiKey;
+        }
+
+        public String getAuthorization() {
+            return "Bearer " + key.apiKey;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        public URI getBaseUri() {
+            return baseUri;
+        }
+
+        public String getAlias() {
+            return key.alias;
+        }
+
+        double score() {
+            return ewmaMs * (outstanding.get() + 1);
+        }
+
+        private synchronized void recordLatency(double millis) {
+            ewmaMs = ewmaMs == 0 ? millis : ewmaMs + settings.ewmaAlpha * (millis - ewmaMs);
+        }
+
+        private void increment(Counter counter) {
+            if (counter != null) {
+                counter.increment();
+            }
+        }
+    }
+
+    /**
+     * 一次端点占用。success / failure 只生效一次。
+     */
+    public final class Lease {
+
+        private final Endpoint endpoint;
+        private final long startNanos = System.nanoTime();
+        private long latencyNanos = -1;
+        private boolean released;
+
+        private Lease(Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public Endpoint endpoint() {
+            return endpoint;
+        }
+
+        /**
+         * 记录延迟的时间点 (流式调用在首个分片到达时调用)，不调用则以结束时间为准。
+         */
+        public synchronized void markLatency() {
+            if (latencyNanos < 0) {
+                latencyNanos = System.nanoTime() - startNanos;
+            }
+        }
+
+        public synchronized void success() {
+            if (released) {
+                return;
+            }
+            released = true;
+            markLatency();
+            endpoint.outstanding.decrementAndGet();
+            endpoint.recordLatency(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+            synchronized (endpoint.key) {
+                endpoint.key.consecutiveRateLimits = 0;
+            }
+            endpoint.increment(endpoint.successCounter);
+        }
+
+        public synchronized void failure(Throwable error) {
+            if (released) {
+                return;
+            }
+            released = true;
+            endpoint.outstanding.decrementAndGet();
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            endpoint.recordLatency(Math.max(elapsedMs, settings.failurePenaltyMs));
+            if (statusOf(error) == 429) {
+                onRateLimited(endpoint, error);
+                endpoint.increment(endpoint.rateLimitedCounter);
+            } else {
+                endpoint.increment(endpoint.errorCounter);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.example.llm.client;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 【新增】按统一的选择 / 隔离参数为各厂商创建 {@link EndpointPool}。
+ * MeterRegistry 可选：llm-agent 引入 actuator 后自动注册按 Key 统计的指标。
+ */
+@Component
+public class EndpointPoolFactory {
+
+    private final Settings settings = new Settings();
+    private final MeterRegistry meterRegistry;
+    // 【新增】已创建的端点池，供启动预热建立连接
+    private final List<EndpointPool> pools = new CopyOnWriteArrayList<>();
+
+    public EndpointPoolFactory(ObjectProvider<MeterRegistry> meterRegistry,
+                               @Value("${llm.endpoint-pool.ewma-alpha:0.3}") double ewmaAlpha,
+                               @Value("${llm.endpoint-pool.failure-penalty-ms:5000}") long failurePenaltyMs,
+                               @Value("${llm.endpoint-pool.quarantine-ms:30000}") long quarantineMs,
+                               @Value("${llm.endpoint-pool.max-quarantine-ms:300000}") long maxQuarantineMs) {
+        this.meterRegistry = meterRegistry.getIfAvailable();
+        settings.ewmaAlpha = ewmaAlpha;
+        settings.failurePenaltyMs = failurePenaltyMs;
+        settings.quarantineMs = quarantineMs;
+        settings.maxQuarantineMs = maxQuarantineMs;
+    }
+
+    /**
+     * @param apiKeys  逗号分隔的多个 Key；为空时使用 fallbackKey
+     * @param baseUrls 逗号分隔的多个地址；为空时使用 fallbackUrl
+     */
+    public EndpointPool create(String provider, String apiKeys, String fallbackKey, String baseUrls, String fallbackUrl) {
+        EndpointPool pool = new EndpointPool(provider, split(apiKeys, fallbackKey), split(baseUrls, fallbackUrl), settings, meterRegistry);
+        pools.add(pool);
+        return pool;
+    }
+
+    public List<EndpointPool> getPools() {
+        return List.copyOf(pools);
+    }
+
+    private static List<String> split(String spec, String fallback) {
+        String value = (spec == null || spec.isBlank()) ? fallback : spec;
+        if (value == null || value.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .distinct()
+                .toList();
+    }
+
+    static final class Settings {
+        double ewmaAlpha;
+        long failurePenaltyMs;
+        long quarantineMs;
+        long maxQuarantineMs;
+    }
+}
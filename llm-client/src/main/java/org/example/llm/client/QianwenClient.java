@@ -7,11 +7,18 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 
-@FeignClient(name = "qianwenClient", url = "https://dashscope.aliyuncs.com/api/v1")
+import java.net.URI;
+
+// 【修改】base-url 可配置，压测时指向本地 mock-provider
+@FeignClient(name = "qianwenClient", url = "${llm.qwen.base-url:https://dashscope.aliyuncs.com/api/v1}")
 public interface QianwenClient {
 
+    /**
+     * 【修改】baseUri 由 EndpointPool 选出 (Feign 以 URI 参数覆盖注解中的默认 url)。
+     */
     @PostMapping(path = "/services/aigc/text-generation/generation")
     QwenApiResp chatCompletions(
+            URI baseUri,
             @RequestHeader("Authorization") String authorization,
             @RequestBody QwenApiReq req
     );
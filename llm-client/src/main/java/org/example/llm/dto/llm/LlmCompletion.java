@@ -0,0 +1,15 @@
+package org.example.llm.dto.llm;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * 【新增】LlmService.complete 的返回对象：一次无状态调用的结果。
+ * response 交给调用方，assistantMessage 是应写入会话历史的助手消息 (tool_calls 已序列化为 content)。
+ */
+@Data
+@Builder
+public class LlmCompletion {
+    private LlmResponse response;
+    private LlmMessage assistantMessage;
+}
@@ -13,6 +13,8 @@ import java.util.List;
 public class LlmResponse {
     private String content;
     private List<LlmToolCall> toolCalls;
+    // 【新增】本次调用的 Token 用量，厂商未返回时为 null
+    private LlmUsage usage;
 
     public boolean hasToolCalls() {
         return toolCalls != null && !toolCalls.isEmpty();
@@ -0,0 +1,36 @@
+package org.example.llm.dto.llm;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 【新增】内部统一的、与厂商无关的 Token 用量 (来自厂商响应中的 usage 字段)。
+ * 通义千问的 input_tokens / output_tokens 与豆包的 prompt_tokens / completion_tokens 分别映射到 prompt / completion。
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LlmUsage {
+    private int promptTokens;
+    private int completionTokens;
+    private int totalTokens;
+
+    public static LlmUsage of(int promptTokens, int completionTokens, int totalTokens) {
+        // 部分模型不返回 total_tokens
+        int total = totalTokens > 0 ? totalTokens : promptTokens + completionTokens;
+        return new LlmUsage(promptTokens, completionTokens, total);
+    }
+
+    /**
+     * 累加两次调用的用量，任一为 null 时返回另一个。
+     */
+    public static LlmUsage plus(LlmUsage a, LlmUsage b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return new LlmUsage(a.promptTokens + b.promptTokens, a.completionTokens + b.completionTokens,
+                a.totalTokens + b.totalTokens);
+    }
+}
@@ -29,4 +29,9 @@ public class ParameterProperty {
      * 对这个参数的描述，告诉大模型这个参数是用来做什么的。
      */
     private String description;
+
+    /**
+     * 【新增】type 为 "array" 时数组元素的定义。
+     */
+    private ParameterProperty items;
 }
\ No newline at end of file
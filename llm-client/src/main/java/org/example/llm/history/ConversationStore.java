@@ -0,0 +1,59 @@
+package org.example.llm.history;
+
+import org.example.llm.dto.llm.LlmMessage;
+
+import java.util.List;
+
+/**
+ * 【新增】会话历史存储 SPI，所有厂商实现 (以及 ResilientLlmService) 通过它读写上下文，不再各自持有私有 Map。
+ * <p>
+ * 约定：
+ * <ul>
+ *     <li>每次调用成功后，本轮新增的消息通过一次 {@link #append} 写入 (原子追加，不读-改-写)；</li>
+ *     <li>请求模型时使用 {@link #window} (最近若干条)，导出 / 落库使用 {@link #snapshot} (完整历史)；</li>
+ *     <li>conversationId 由调用方决定命名空间 (厂商实现使用 "厂商:会话 ID")。</li>
+ * </ul>
+ * 实现：{@link InMemoryConversationStore} (单节点 / 基准测试)、{@link RedisConversationStore} (多节点共享)。
+ */
+public interface ConversationStore {
+
+    /**
+     * 原子追加：messages 要么全部写入，要么都不写入，并与其他追加保持各自的先后顺序。
+     */
+    void append(String conversationId, List<LlmMessage> messages);
+
+    /**
+     * 用于请求模型的上下文窗口 (最近 N 条，N 由实现配置，0 为不限)。
+     * 窗口开头不会是 tool 消息 (与之配对的 tool_calls 已在窗口之外，会被 API 拒绝)。
+     */
+    List<LlmMessage> window(String conversationId);
+
+    /**
+     * 完整历史的副本，会话不存在时返回空列表。
+     */
+    List<LlmMessage> snapshot(String conversationId);
+
+    /**
+     * 删除并返回完整历史，会话不存在时返回 null。
+     */
+    List<LlmMessage> remove(String conversationId);
+
+    /**
+     * 用 messages 整体替换历史 (压缩历史时使用)，messages 为空时等同于删除。
+     */
+    void replace(String conversationId, List<LlmMessage> messages);
+
+    /**
+     * 截取最近 windowMessages 条，并去掉开头失去配对的 tool 消息。
+     */
+    static List<LlmMessage> trimWindow(List<LlmMessage> history, int windowMessages) {
+        int from = windowMessages > 0 ? Math.max(0, history.size() - windowMessages) : 0;
+        if (from == 0) {
+            return history;
+        }
+        while (from < history.size() && LlmMessage.Role.TOOL.equals(history.get(from).getRole())) {
+            from++;
+        }
+        return history.subList(from, history.size());
+    }
+}
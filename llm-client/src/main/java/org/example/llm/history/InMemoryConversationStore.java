@@ -0,0 +1,65 @@
+package org.example.llm.history;
+
+import org.example.llm.dto.llm.LlmMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 【新增】进程内的会话历史 (原各厂商实现中的 ConcurrentHashMap)。
+ * 只适用于单节点部署和基准测试；多节点部署请使用 {@link RedisConversationStore}。
+ */
+public class InMemoryConversationStore implements ConversationStore {
+
+    private final Map<String, List<LlmMessage>> conversations = new ConcurrentHashMap<>();
+    private final int windowMessages;
+
+    public InMemoryConversationStore(int windowMessages) {
+        this.windowMessages = windowMessages;
+    }
+
+    @Override
+    public void append(String conversationId, List<LlmMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        // compute 对同一个键串行执行，追加对读取方不可见的中间状态
+        conversations.compute(conversationId, (id, history) -> {
+            List<LlmMessage> updated = history == null ? new ArrayList<>() : history;
+            updated.addAll(messages);
+            return updated;
+        });
+    }
+
+    @Override
+    public List<LlmMessage> window(String conversationId) {
+        return ConversationStore.trimWindow(snapshot(conversationId), windowMessages);
+    }
+
+    @Override
+    public List<LlmMessage> snapshot(String conversationId) {
+        List<LlmMessage> copy = new ArrayList<>();
+        conversations.computeIfPresent(conversationId, (id, history) -> {
+            copy.addAll(history);
+            return history;
+        });
+        return copy.isEmpty() ? Collections.emptyList() : copy;
+    }
+
+    @Override
+    public List<LlmMessage> remove(String conversationId) {
+        return conversations.remove(conversationId);
+    }
+
+    @Override
+    public void replace(String conversationId, List<LlmMessage> messages) {
+        if (messages == null || messages.isEmpty()) {
+            conversations.remove(conversationId);
+        } else {
+            conversations.put(conversationId, new ArrayList<>(messages));
+        }
+    }
+}
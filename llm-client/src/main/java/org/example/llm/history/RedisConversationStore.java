@@ -0,0 +1,108 @@
+package org.example.llm.history;
+
+import org.example.llm.dto.llm.LlmMessage;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 【新增】Redis 上的会话历史，多个节点共享同一份上下文。
+ * <p>
+ * 每个会话是一个 Redis List (键 keyPrefix + conversationId)，每个元素是一条消息：
+ * 追加是 RPUSH (一次写入本轮的全部消息) + EXPIRE，放在同一个 MULTI/EXEC 中；
+ * 窗口读取是 LRANGE -N -1，只传输需要的部分。TTL 随每次追加顺延。
+ * 值的编码由传入的 RedisTemplate 决定 (应用中使用与其他缓存相同的紧凑编码)。
+ */
+public class RedisConversationStore implements ConversationStore {
+
+    private final RedisTemplate<String, LlmMessage> redisTemplate;
+    private final String keyPrefix;
+    private final Duration ttl;
+    private final int windowMessages;
+
+    public RedisConversationStore(RedisTemplate<String, LlmMessage> redisTemplate, String keyPrefix,
+                                  Duration ttl, int windowMessages) {
+        this.redisTemplate = redisTemplate;
+        this.keyPrefix = keyPrefix;
+        this.ttl = ttl;
+        this.windowMessages = windowMessages;
+    }
+
+    @Override
+    public void append(String conversationId, List<LlmMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        String key = keyPrefix + conversationId;
+        transaction(ops -> {
+            ops.opsForList().rightPushAll(key, messages);
+            ops.expire(key, ttl);
+        });
+    }
+
+    @Override
+    public List<LlmMessage> window(String conversationId) {
+        List<LlmMessage> messages = redisTemplate.opsForList()
+                .range(keyPrefix + conversationId, windowMessages > 0 ? -windowMessages : 0, -1);
+        if (messages == null || messages.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // LRANGE 已按窗口截取；被截断时去掉开头失去配对的 tool 消息
+        boolean truncated = windowMessages > 0 && messages.size() >= windowMessages;
+        int from = 0;
+        while (truncated && from < messages.size() && LlmMessage.Role.TOOL.equals(messages.get(from).getRole())) {
+            from++;
+        }
+        return from == 0 ? messages : new ArrayList<>(messages.subList(from, messages.size()));
+    }
+
+    @Override
+    public List<LlmMessage> snapshot(String conversationId) {
+        List<LlmMessage> messages = redisTemplate.opsForList().range(keyPrefix + conversationId, 0, -1);
+        return messages == null || messages.isEmpty() ? Collections.emptyList() : messages;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<LlmMessage> remove(String conversationId) {
+        String key = keyPrefix + conversationId;
+        List<Object> results = transaction(ops -> {
+            ops.opsForList().range(key, 0, -1);
+            ops.delete(key);
+        });
+        List<LlmMessage> messages = results == null || results.isEmpty() ? null : (List<LlmMessage>) results.get(0);
+        return messages == null || messages.isEmpty() ? null : messages;
+    }
+
+    @Override
+    public void replace(String conversationId, List<LlmMessage> messages) {
+        String key = keyPrefix + conversationId;
+        transaction(ops -> {
+            ops.delete(key);
+            if (messages != null && !messages.isEmpty()) {
+                ops.opsForList().rightPushAll(key, messages);
+                ops.expire(key, ttl);
+            }
+        });
+    }
+
+    private List<Object> transaction(Consumer<RedisOperations<String, LlmMessage>> commands) {
+        return redisTemplate.execute(new SessionCallback<>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> List<Object> execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, LlmMessage> ops = (RedisOperations<String, LlmMessage>) operations;
+                ops.multi();
+                commands.accept(ops);
+                return ops.exec();
+            }
+        });
+    }
+}
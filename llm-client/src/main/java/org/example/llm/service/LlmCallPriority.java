@@ -0,0 +1,41 @@
+package org.example.llm.service;
+
+import java.util.function.Supplier;
+
+/**
+ * 【新增】LLM 调用优先级，供客户端并发限流排队时使用：INTERACTIVE 总是先于 BACKGROUND 获得许可。
+ * <p>
+ * 以线程上下文传递，避免给 LlmService 的每个方法都加参数；未显式设置时为 INTERACTIVE。
+ * 在其他线程上发起调用 (如对冲请求) 时需自行捕获并恢复，见 {@link #current()} / {@link #callWith}。
+ */
+public enum LlmCallPriority {
+
+    /** 用户正在等待的对话轮次 (WebSocket / 主模型回复) */
+    INTERACTIVE,
+    /** 预处理类调用 (策略分析、工具路由等)，排队时让位于交互请求 */
+    BACKGROUND;
+
+    private static final ThreadLocal<LlmCallPriority> CURRENT = new ThreadLocal<>();
+
+    public static LlmCallPriority current() {
+        LlmCallPriority priority = CURRENT.get();
+        return priority == null ? INTERACTIVE : priority;
+    }
+
+    /**
+     * 以指定优先级执行调用，结束后恢复原值。
+     */
+    public static <T> T callWith(LlmCallPriority priority, Supplier<T> call) {
+        LlmCallPriority previous = CURRENT.get();
+        CURRENT.set(priority);
+        try {
+            return call.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
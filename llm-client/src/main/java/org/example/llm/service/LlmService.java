@@ -1,5 +1,7 @@
 package org.example.llm.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.llm.dto.llm.LlmCompletion;
 import org.example.llm.dto.llm.LlmMessage;
 import org.example.llm.dto.llm.LlmResponse;
 import org.example.llm.dto.tool.ToolDefinition;
@@ -19,8 +21,35 @@ public interface LlmService {
                      String openingMonologue, Map<String, Object> parameters, List<ToolDefinition> tools);
     LlmResponse chatWithToolResult(String sessionId, String modelName, Map<String, Object> parameters,
                                    List<ToolDefinition> tools, LlmMessage toolResultMessage);
+
+    /**
+     * 【新增】无状态调用：按给定的完整消息列表请求一次模型，不读写任何会话历史。
+     * 可安全地重试、对冲或切换到其他厂商，由调用方决定把哪一次的结果写入历史。
+     * 失败时直接抛出底层异常 (如 FeignException)，便于调用方判断是否可重试。
+     */
+    LlmCompletion complete(String modelName, List<LlmMessage> messages, Map<String, Object> parameters,
+                           List<ToolDefinition> tools);
+
+    /**
+     * 【修改】历史保存在 {@link org.example.llm.history.ConversationStore} 中，这里返回完整历史的副本。
+     */
     List<LlmMessage> getConversationHistory(String sessionId);
+
+    /**
+     * 【新增】请求模型时使用的上下文窗口 (最近若干条，见 llm.history.window-messages)。
+     */
+    List<LlmMessage> getConversationWindow(String sessionId);
     List<LlmMessage> popConversationHistory(String sessionId);
+
+    /**
+     * 【新增】一次原子追加本轮产生的全部消息 (ResilientLlmService 在胜出的结果确定后调用)。
+     */
+    void appendToHistory(String sessionId, List<LlmMessage> messages);
+
+    /**
+     * 【新增】整体替换会话历史 (压缩历史时使用)。
+     */
+    void replaceConversationHistory(String sessionId, List<LlmMessage> messages);
     /**
      * 【新增】允许 ChatService 手动将消息对添加到会话历史中，
      * 用于处理不经过LLM调用的情况（例如 "空格" 导致的沉默回复）。
@@ -35,12 +64,24 @@ public interface LlmService {
      * @param sender 接收并发送流式文本块（完整句子）的函数。
      * @param isToolCallResultStream 是否是工具调用后的第二步流式调用。
      * @param toolResultMessage 工具调用结果（仅在第二步调用时使用）。
+     * @param finalPersister 【修改】历史已由实现类写入 ConversationStore；非 null 时在写入后收到本轮追加的消息。
+     * @param streamContext 【新增】取消令牌与投递统计。取消后实现类必须终止上游订阅、不再调用 sender，
+     *                      且历史中只记录已投递给客户端的内容。
      */
     void chatStream(String sessionId, String userContent, String modelName, String persona,
                     String openingMonologue, Map<String, Object> parameters, List<ToolDefinition> tools,
                     Consumer<String> sender,
                     boolean isToolCallResultStream,
                     LlmMessage toolResultMessage,
-                    Consumer<List<LlmMessage>> finalPersister
+                    Consumer<List<LlmMessage>> finalPersister,
+                    StreamContext streamContext
     );
+
+    /**
+     * 【新增】启动预热：用合成数据走一遍请求构建、序列化与响应 / SSE 解析，不发出任何模型调用。
+     * @param wireMapper Feign / WebClient 编解码使用的 ObjectMapper (Spring 容器中的实例)
+     * @param tools      实际挂载的工具定义，使合成请求的体积与结构接近真实请求
+     */
+    default void warmUp(ObjectMapper wireMapper, List<ToolDefinition> tools) {
+    }
 }
\ No newline at end of file
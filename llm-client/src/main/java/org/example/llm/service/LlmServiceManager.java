@@ -1,21 +1,174 @@
 package org.example.llm.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.example.llm.dto.tool.ToolDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.support.ContextPropagatingTaskDecorator;
 import org.springframework.stereotype.Service;
+import org.springframework.util.ClassUtils;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class LlmServiceManager {
 
+    private static final Logger log = LoggerFactory.getLogger(LlmServiceManager.class);
+
     private final List<LlmService> llmServices;
 
-    public LlmServiceManager(List<LlmService> llmServices) {
+    // 【新增】模型名 → 实现的缓存，首次解析后 O(1) 查找 (模型名来自配置，集合很小)
+    private final Map<String, LlmService> providersByModel = new ConcurrentHashMap<>();
+    private final Map<String, LlmService> servicesByModel = new ConcurrentHashMap<>();
+
+    // 【新增】每个厂商实现对应一个 ResilientLlmService (对冲/重试/切换)，关闭时为空
+    private final Map<LlmService, LlmService> resilientServices = new IdentityHashMap<>();
+    private final ExecutorService hedgeExecutor;
+
+    public LlmServiceManager(List<LlmService> llmServices,
+                             @Value("${llm.resilience.enabled:true}") boolean resilienceEnabled,
+                             @Value("${llm.resilience.hedge.enabled:true}") boolean hedgeEnabled,
+                             @Value("${llm.resilience.hedge.percentile:0.95}") double hedgePercentile,
+                             @Value("${llm.resilience.hedge.min-delay-ms:800}") long hedgeMinDelayMs,
+                             @Value("${llm.resilience.hedge.initial-delay-ms:3000}") long hedgeInitialDelayMs,
+                             @Value("${llm.resilience.hedge.max-in-flight:8}") int maxHedgesInFlight,
+                             @Value("${llm.resilience.hedge.pool-size:64}") int hedgePoolSize,
+                             @Value("${llm.resilience.hedge.min-samples:20}") int minSamples,
+                             @Value("${llm.resilience.hedge.window-size:200}") int latencyWindowSize,
+                             @Value("${llm.resilience.retry.max-attempts:2}") int maxAttempts,
+                             @Value("${llm.resilience.retry.base-backoff-ms:200}") long baseBackoffMs,
+                             @Value("${llm.resilience.retry.max-backoff-ms:2000}") long maxBackoffMs,
+                             @Value("${llm.resilience.deadline-ms:25000}") long deadlineMs,
+                             @Value("${llm.resilience.failover-models:}") String failoverModels) {
         this.llmServices = llmServices;
+        if (!resilienceEnabled) {
+            this.hedgeExecutor = null;
+            return;
+        }
+
+        ResilientLlmService.Settings settings = new ResilientLlmService.Settings();
+        settings.hedgeEnabled = hedgeEnabled;
+        settings.hedgePercentile = hedgePercentile;
+        settings.hedgeMinDelayMs = hedgeMinDelayMs;
+        settings.hedgeInitialDelayMs = hedgeInitialDelayMs;
+        settings.maxHedgesInFlight = maxHedgesInFlight;
+        settings.minSamples = minSamples;
+        settings.latencyWindowSize = Math.max(1, latencyWindowSize);
+        settings.maxAttempts = Math.max(1, maxAttempts);
+        settings.baseBackoffMs = baseBackoffMs;
+        settings.maxBackoffMs = maxBackoffMs;
+        settings.deadlineMs = deadlineMs;
+        settings.failoverModels = parseFailoverModels(failoverModels);
+
+        // 【修改】有上限的线程池 (不排队，满了直接拒绝，由 ResilientLlmService 退回到调用线程执行、不对冲)
+        AtomicInteger threadIndex = new AtomicInteger();
+        int poolSize = Math.max(1, hedgePoolSize);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+            Thread t = new Thread(r, "llm-hedge-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.allowCoreThreadTimeOut(true);
+        this.hedgeExecutor = pool;
+        Executor executor = hedgeExecutor;
+        // 有 context-propagation 时 (llm-agent 引入了 micrometer-tracing) 把 Span / MDC 带到对冲线程上
+        if (ClassUtils.isPresent("io.micrometer.context.ContextSnapshotFactory", getClass().getClassLoader())) {
+            ContextPropagatingTaskDecorator decorator = new ContextPropagatingTaskDecorator();
+            executor = task -> hedgeExecutor.execute(decorator.decorate(task));
+        }
+
+        AtomicInteger hedgesInFlight = new AtomicInteger();
+        for (LlmService service : llmServices) {
+            resilientServices.put(service,
+                    new ResilientLlmService(service, this::getProvider, settings, executor, hedgesInFlight));
+        }
+        log.info("LLM 调用容错已启用: hedge={} (P{}), maxAttempts={}, deadline={}ms, failover={}",
+                hedgeEnabled, hedgePercentile, settings.maxAttempts, deadlineMs, settings.failoverModels);
     }
 
     public LlmService getService(String modelName) {
-        return llmServices.stream()
+        return servicesByModel.computeIfAbsent(modelName, model -> {
+            LlmService provider = getProvider(model);
+            return resilientServices.getOrDefault(provider, provider);
+        });
+    }
+
+    /**
+     * 【新增】返回直接对应厂商的实现 (不含对冲/重试包装)。
+     */
+    public LlmService getProvider(String modelName) {
+        LlmService cached = providersByModel.get(modelName);
+        if (cached != null) {
+            return cached;
+        }
+        LlmService provider = llmServices.stream()
                 .filter(service -> service.supports(modelName))
                 .findFirst()
                 .orElseThrow(() -> new IllegalArgumentException("不支持的大模型: " + modelName));
+        providersByModel.putIfAbsent(modelName, provider);
+        return provider;
+    }
+
+    /**
+     * 格式: qwen-plus=qwen-turbo,qwen-max=qwen-plus
+     * <p>
+     * 只接受同一厂商实现的模型：切换后的回复仍写入原厂商的会话历史，跨厂商的 assistant / tool_calls 消息格式不通用。
+     */
+    private Map<String, String> parseFailoverModels(String spec) {
+        Map<String, String> result = new LinkedHashMap<>();
+        if (spec == null || spec.isBlank()) {
+            return result;
+        }
+        for (String pair : spec.split(",")) {
+            String[] parts = pair.split("=", 2);
+            if (parts.length != 2 || parts[0].isBlank() || parts[1].isBlank()) {
+                log.warn("忽略无法解析的 llm.resilience.failover-models 项: '{}'", pair);
+                continue;
+            }
+            String from = parts[0].trim();
+            String to = parts[1].trim();
+            // 启动时校验目标模型有厂商实现，避免故障时才发现配置错误
+            LlmService target = getProvider(to);
+            if (!llmServices.stream().filter(service -> service.supports(from)).findFirst()
+                    .map(source -> source == target).orElse(false)) {
+                log.warn("忽略跨厂商的 llm.resilience.failover-models 项: '{}' (只支持同一厂商的等价模型)", pair);
+                continue;
+            }
+            result.put(from, to);
+        }
+        return result;
+    }
+
+    /**
+     * 【新增】依次预热各厂商实现 (见 {@link LlmService#warmUp})，单个实现失败只记录日志。
+     */
+    public void warmUp(ObjectMapper wireMapper, List<ToolDefinition> tools) {
+        for (LlmService service : llmServices) {
+            try {
+                service.warmUp(wireMapper, tools);
+            } catch (RuntimeException e) {
+                log.warn("{} 预热失败: {}", ClassUtils.getUserClass(service).getSimpleName(), e.toString());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,447 @@
+package org.example.llm.service;
+
+import feign.FeignException;
+import feign.RetryableException;
+import org.example.llm.dto.llm.LlmCompletion;
+import org.example.llm.dto.llm.LlmMessage;
+import org.example.llm.dto.llm.LlmResponse;
+import org.example.llm.dto.tool.ToolDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 【新增】带对冲请求、等价模型切换与抖动退避重试的 LlmService 包装。
+ * <p>
+ * 会话历史仍由被包装的厂商实现 (primary) 的 ConversationStore 保存：每次调用先在调用线程上读取一次上下文窗口，
+ * 各路请求都走无状态的 {@link LlmService#complete}，只有最终胜出的那一个结果会被写回 primary 的历史，
+ * 因此无论是原请求、对冲请求还是切换后的等价模型胜出，历史都只追加一次。
+ * <ul>
+ *     <li>对冲：请求在"该模型近期耗时的 P{percentile}"内未返回时，再发一份相同请求，取先成功者；</li>
+ *     <li>重试：网络异常、429 与 5xx 视为可重试，按指数退避 + 全抖动 (full jitter) 重试；</li>
+ *     <li>切换：重试耗尽 (或本地并发排队超时) 后，若配置了同一厂商的等价模型 (如 qwen-max → qwen-plus) 则再请求一次；
+ *         跨厂商的配置在 LlmServiceManager 中被忽略，回复要写入 primary 的历史，两家的消息格式不通用。</li>
+ * </ul>
+ * 流式调用 (chatStream) 直接委托给 primary：流一旦开始向客户端投递就无法再换路。
+ * <p>
+ * 【修改】只有可能发出对冲的请求才提交到对冲线程池 (有上限，llm.resilience.hedge.pool-size)；对冲关闭、
+ * 对冲阈值晚于截止时间、对冲预算已满或线程池已满时，请求直接在调用线程上执行。
+ * 败者与超时的请求会被取消：尚未开始的直接跳过，仍在排队等待并发许可的被中断后放弃；
+ * 已经发出的 HTTP 请求无法中途中止 (Feign 不暴露底层请求，阻塞读取不响应中断)，会在响应读完或读超时后被丢弃。
+ */
+public class ResilientLlmService implements LlmService {
+
+    private static final Logger log = LoggerFactory.getLogger(ResilientLlmService.class);
+
+    private final LlmService primary;
+    private final Function<String, LlmService> providerLookup;
+    private final Settings settings;
+    private final Executor executor;
+    private final AtomicInteger hedgesInFlight;
+    private final Map<String, LatencyWindow> latencyWindows = new ConcurrentHashMap<>();
+
+    ResilientLlmService(LlmService primary, Function<String, LlmService> providerLookup, Settings settings,
+                        Executor executor, AtomicInteger hedgesInFlight) {
+        this.primary = primary;
+        this.providerLookup = providerLookup;
+        this.settings = settings;
+        this.executor = executor;
+        this.hedgesInFlight = hedgesInFlight;
+    }
+
+    /**
+     * 被包装的厂商实现，供需要直接访问底层实现的场景使用。
+     */
+    public LlmService getPrimary() {
+        return primary;
+    }
+
+    @Override
+    public boolean supports(String modelName) {
+        return primary.supports(modelName);
+    }
+
+    @Override
+    public LlmResponse chat(String sessionId, String userContent, String modelName, String persona,
+                            String openingMonologue, Map<String, Object> parameters, List<ToolDefinition> tools) {
+        List<LlmMessage> history = primary.getConversationWindow(sessionId);
+        List<LlmMessage> messages = new ArrayList<>();
+        if (persona != null && !persona.isEmpty()) {
+            messages.add(LlmMessage.builder().role(LlmMessage.Role.SYSTEM).content(persona).build());
+        }
+        messages.addAll(history);
+        // 与厂商实现保持一致：首轮的开场白与本轮消息一起写入历史
+        List<LlmMessage> turnMessages = new ArrayList<>(3);
+        if (history.isEmpty() && openingMonologue != null && !openingMonologue.isEmpty()) {
+            LlmMessage opening = LlmMessage.builder().role(LlmMessage.Role.ASSISTANT).content(openingMonologue).build();
+            messages.add(opening);
+            turnMessages.add(opening);
+        }
+        LlmMessage userMessage = LlmMessage.builder().role(LlmMessage.Role.USER).content(userContent).build();
+        messages.add(userMessage);
+
+        LlmCompletion completion;
+        try {
+            completion = complete(modelName, messages, parameters, tools);
+        } catch (Exception e) {
+            log.error("调用大模型 {} 失败 (已尝试重试/对冲/切换)", modelName, e);
+            throw new RuntimeException("调用大模型时发生错误", e);
+        }
+        turnMessages.add(userMessage);
+        turnMessages.add(completion.getAssistantMessage());
+        primary.appendToHistory(sessionId, turnMessages);
+        return completion.getResponse();
+    }
+
+    @Override
+    public LlmResponse chatWithToolResult(String sessionId, String modelName, Map<String, Object> parameters,
+                                          List<ToolDefinition> tools, LlmMessage toolResultMessage) {
+        List<LlmMessage> messages = new ArrayList<>(primary.getConversationWindow(sessionId));
+        messages.add(toolResultMessage);
+
+        LlmCompletion completion;
+        try {
+            completion = complete(modelName, messages, parameters, tools);
+        } catch (Exception e) {
+            // 与厂商实现一致：失败时仍写入工具结果，避免历史里留下没有对应结果的 tool_calls
+            primary.appendToHistory(sessionId, List.of(toolResultMessage));
+            log.error("携带工具结果调用大模型 {} 失败 (已尝试重试/对冲/切换)", modelName, e);
+            throw new RuntimeException("携带工具结果调用大模型时发生错误", e);
+        }
+        primary.appendToHistory(sessionId, List.of(toolResultMessage, completion.getAssistantMessage()));
+        return completion.getResponse();
+    }
+
+    /**
+     * 重试 → 切换等价模型。整个过程受 deadline-ms 约束。
+     */
+    @Override
+    public LlmCompletion complete(String modelName, List<LlmMessage> messages, Map<String, Object> parameters,
+                                  List<ToolDefinition> tools) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.deadlineMs);
+        List<LlmMessage> snapshot = List.copyOf(messages);
+
+        RuntimeException lastError = null;
+        for (int attempt = 1; attempt <= settings.maxAttempts; attempt++) {
+            try {
+                return hedged(primary, modelName, snapshot, parameters, tools, deadline);
+            } catch (RuntimeException e) {
+                lastError = e;
+                if (attempt == settings.maxAttempts || !isRetryable(e)) {
+                    break;
+                }
+                long backoffMs = backoffMs(attempt);
+                if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs) >= deadline) {
+                    break;
+                }
+                log.warn("调用模型 {} 失败 (第 {} 次)，{}ms 后重试: {}", modelName, attempt, backoffMs, e.toString());
+                if (!sleep(backoffMs)) {
+                    break;
+                }
+            }
+        }
+
+        String failoverModel = settings.failoverModels.get(modelName);
+        if (failoverModel != null && System.nanoTime() < deadline) {
+            LlmService failoverService = providerLookup.apply(failoverModel);
+            log.warn("模型 {} 不可用，切换到等价模型 {} ({})", modelName, failoverModel,
+                    failoverService.getClass().getSimpleName());
+            try {
+                return hedged(failoverService, failoverModel, snapshot, parameters, tools, deadline);
+            } catch (RuntimeException e) {
+                lastError.addSuppressed(e);
+            }
+        }
+        throw lastError;
+    }
+
+    /**
+     * 发起一次调用；超过对冲阈值仍未返回时再发一份，取先成功的结果，两路都失败才算失败。
+     */
+    private LlmCompletion hedged(LlmService service, String modelName, List<LlmMessage> messages,
+                                 Map<String, Object> parameters, List<ToolDefinition> tools, long deadline) {
+        long hedgeDelayMs = hedgeDelayMs(modelName);
+        if (!settings.hedgeEnabled || hedgeDelayMs >= remainingMs(deadline)
+                || hedgesInFlight.get() >= settings.maxHedgesInFlight) {
+            // 本次不会发出对冲，不必换到对冲线程上
+            return timed(service, modelName, messages, parameters, tools);
+        }
+        // 对冲线程上恢复调用方的优先级，排队时与原请求同等对待
+        LlmCallPriority priority = LlmCallPriority.current();
+        Supplier<LlmCompletion> call = () -> LlmCallPriority.callWith(priority,
+                () -> timed(service, modelName, messages, parameters, tools));
+        CompletableFuture<LlmCompletion> first;
+        try {
+            first = submit(call);
+        } catch (RejectedExecutionException e) {
+            log.warn("对冲线程池已满，模型 {} 本次不对冲", modelName);
+            return timed(service, modelName, messages, parameters, tools);
+        }
+        CompletableFuture<LlmCompletion> second = null;
+        try {
+            long remainingMs = remainingMs(deadline);
+            try {
+                return first.get(Math.min(hedgeDelayMs, remainingMs), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (hedgeDelayMs >= remainingMs) {
+                    throw e;
+                }
+            }
+
+            if (hedgesInFlight.incrementAndGet() > settings.maxHedgesInFlight) {
+                // 对冲预算耗尽 (上游整体变慢时不再成倍放大流量)，只等原请求
+                hedgesInFlight.decrementAndGet();
+                return first.get(remainingMs(deadline), TimeUnit.MILLISECONDS);
+            }
+            log.info("模型 {} 超过 {}ms 未返回，发出对冲请求", modelName, hedgeDelayMs);
+            try {
+                try {
+                    second = submit(call);
+                } catch (RejectedExecutionException e) {
+                    log.warn("对冲线程池已满，模型 {} 只等原请求", modelName);
+                    return first.get(remainingMs(deadline), TimeUnit.MILLISECONDS);
+                }
+                return firstSuccess(first, second).get(remainingMs(deadline), TimeUnit.MILLISECONDS);
+            } finally {
+                hedgesInFlight.decrementAndGet();
+            }
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (TimeoutException e) {
+            throw new RuntimeException("调用模型 " + modelName + " 超过截止时间 " + settings.deadlineMs + "ms", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("调用模型 " + modelName + " 时被中断", e);
+        } finally {
+            // 败者的结果直接丢弃 (complete 无状态，不会污染历史)；取消会跳过未开始的请求、中断仍在排队的请求
+            first.cancel(true);
+            if (second != null) {
+                second.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 【新增】在对冲线程池上执行 call。CompletableFuture.cancel 不会中断 supplyAsync 的任务，
+     * 这里自行传播取消：任务开始前 future 已结束则跳过，执行中被取消则中断执行线程
+     * (只对等待并发许可、退避等可中断的阻塞有效，已发出的 HTTP 读取不受影响)。
+     *
+     * @throws RejectedExecutionException 线程池已满
+     */
+    private CompletableFuture<LlmCompletion> submit(Supplier<LlmCompletion> call) {
+        CompletableFuture<LlmCompletion> future = new CompletableFuture<>();
+        Object runnerLock = new Object();
+        Thread[] runner = new Thread[1];
+        executor.execute(() -> {
+            synchronized (runnerLock) {
+                if (future.isDone()) {
+                    return;
+                }
+                runner[0] = Thread.currentThread();
+            }
+            try {
+                future.complete(call.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                synchronized (runnerLock) {
+                    runner[0] = null;
+                    // 清除取消留下的中断标记，线程归还线程池时保持干净
+                    Thread.interrupted();
+                }
+            }
+        });
+        future.whenComplete((value, error) -> {
+            if (future.isCancelled()) {
+                synchronized (runnerLock) {
+                    if (runner[0] != null) {
+                        runner[0].interrupt();
+                    }
+                }
+            }
+        });
+        return future;
+    }
+
+    private LlmCompletion timed(LlmService service, String modelName, List<LlmMessage> messages,
+                                Map<String, Object> parameters, List<ToolDefinition> tools) {
+        long start = System.nanoTime();
+        LlmCompletion completion = service.complete(modelName, messages, parameters, tools);
+        latencyWindows.computeIfAbsent(modelName, k -> new LatencyWindow(settings.latencyWindowSize))
+                .record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return completion;
+    }
+
+    private static <T> CompletableFuture<T> firstSuccess(CompletableFuture<T> a, CompletableFuture<T> b) {
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<T> f : Arrays.asList(a, b)) {
+            f.whenComplete((value, error) -> {
+                if (error == null) {
+                    winner.complete(value);
+                } else if (failures.incrementAndGet() == 2) {
+                    winner.completeExceptionally(error);
+                }
+            });
+        }
+        return winner;
+    }
+
+    /**
+     * 对冲阈值：样本足够时取近期耗时的 P{percentile} (不低于 min-delay)，否则用 initial-delay。
+     */
+    long hedgeDelayMs(String modelName) {
+        LatencyWindow window = latencyWindows.get(modelName);
+        long percentile = window == null ? -1 : window.percentile(settings.hedgePercentile, settings.minSamples);
+        return percentile < 0 ? settings.hedgeInitialDelayMs : Math.max(settings.hedgeMinDelayMs, percentile);
+    }
+
+    private long backoffMs(int attempt) {
+        long cap = Math.min(settings.maxBackoffMs, settings.baseBackoffMs << Math.min(attempt - 1, 16));
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
+
+    private static long remainingMs(long deadline) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 网络层异常、超时、429 与 5xx 可重试；4xx 与响应格式错误重试也无济于事。
+     */
+    static boolean isRetryable(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof RetryableException || t instanceof IOException || t instanceof TimeoutException) {
+                return true;
+            }
+            if (t instanceof FeignException fe) {
+                return fe.status() == 429 || fe.status() >= 500 || fe.status() < 0;
+            }
+        }
+        return false;
+    }
+
+    private static RuntimeException unwrap(Throwable cause) {
+        return cause instanceof RuntimeException re ? re : new RuntimeException(cause);
+    }
+
+    // --- 以下直接委托给 primary ---
+
+    @Override
+    public List<LlmMessage> getConversationHistory(String sessionId) {
+        return primary.getConversationHistory(sessionId);
+    }
+
+    @Override
+    public List<LlmMessage> getConversationWindow(String sessionId) {
+        return primary.getConversationWindow(sessionId);
+    }
+
+    @Override
+    public List<LlmMessage> popConversationHistory(String sessionId) {
+        return primary.popConversationHistory(sessionId);
+    }
+
+    @Override
+    public void appendToHistory(String sessionId, List<LlmMessage> messages) {
+        primary.appendToHistory(sessionId, messages);
+    }
+
+    @Override
+    public void replaceConversationHistory(String sessionId, List<LlmMessage> messages) {
+        primary.replaceConversationHistory(sessionId, messages);
+    }
+
+    @Override
+    public void addMessagesToHistory(String sessionId, LlmMessage userMessage, LlmMessage assistantMessage) {
+        primary.addMessagesToHistory(sessionId, userMessage, assistantMessage);
+    }
+
+    @Override
+    public void chatStream(String sessionId, String userContent, String modelName, String persona,
+                           String openingMonologue, Map<String, Object> parameters, List<ToolDefinition> tools,
+                           Consumer<String> sender, boolean isToolCallResultStream, LlmMessage toolResultMessage,
+                           Consumer<List<LlmMessage>> finalPersister, StreamContext streamContext) {
+        primary.chatStream(sessionId, userContent, modelName, persona, openingMonologue, parameters, tools,
+                sender, isToolCallResultStream, toolResultMessage, finalPersister, streamContext);
+    }
+
+    /**
+     * 每个模型最近 N 次成功调用的耗时 (毫秒)，环形缓冲。
+     */
+    static final class LatencyWindow {
+
+        private final long[] samples;
+        private int size;
+        private int next;
+
+        LatencyWindow(int capacity) {
+            this.samples = new long[capacity];
+        }
+
+        synchronized void record(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % samples.length;
+            if (size < samples.length) {
+                size++;
+            }
+        }
+
+        /**
+         * @return 分位数耗时；样本数不足 minSamples 时返回 -1
+         */
+        synchronized long percentile(double quantile, int minSamples) {
+            if (size == 0 || size < minSamples) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(quantile * size) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, index))];
+        }
+    }
+
+    /**
+     * 对冲 / 重试 / 切换参数，由 LlmServiceManager 从配置构建。
+     */
+    static final class Settings {
+        boolean hedgeEnabled;
+        double hedgePercentile;
+        long hedgeMinDelayMs;
+        long hedgeInitialDelayMs;
+        int maxHedgesInFlight;
+        int minSamples;
+        int latencyWindowSize;
+        int maxAttempts;
+        long baseBackoffMs;
+        long maxBackoffMs;
+        long deadlineMs;
+        Map<String, String> failoverModels = Map.of();
+    }
+}
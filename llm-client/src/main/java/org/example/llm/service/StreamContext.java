@@ -0,0 +1,160 @@
+package org.example.llm.service;
+
+import org.example.llm.dto.llm.LlmUsage;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单次流式调用的上下文 (由调用方创建，传给 {@link LlmService#chatStream})。
+ * <p>
+ * 1. 取消令牌：调用方 (如 WebSocket 断开、用户"打断") 调用 {@link #cancel(String)}，
+ *    实现类需订阅 {@link #cancelSignal()} 以终止上游 HTTP 订阅，并停止向 sender 输出；
+ * 2. 投递统计：实现类上报已接收 / 已投递字符数及服务端 output_tokens / input_tokens，
+ *    调用方据此估算取消时浪费的 Token，并在流结束后通过 {@link #getUsage()} 取得本次用量；
+ * 3. 【新增】文本过滤：调用方可挂一个 {@link StreamTokenFilter} (如动作标记解析)，实现类在分句前逐片过滤。
+ */
+public class StreamContext {
+
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final Sinks.Empty<Void> cancelSink = Sinks.empty();
+    private volatile String cancelReason;
+
+    private final AtomicInteger receivedChars = new AtomicInteger();
+    private final AtomicInteger deliveredChars = new AtomicInteger();
+    private final AtomicInteger outputTokens = new AtomicInteger(-1);
+    private final AtomicInteger inputTokens = new AtomicInteger(-1);
+
+    private volatile StreamTokenFilter tokenFilter;
+
+    /**
+     * 不需要取消能力的调用方使用 (如 HTTP 同步接口、测试代码)。
+     */
+    public static StreamContext none() {
+        return new StreamContext();
+    }
+
+    /**
+     * 取消本次流式调用。重复调用只有第一次生效。
+     *
+     * @param reason 取消原因 (用于日志与指标标签)
+     * @return 是否是本次调用触发的取消
+     */
+    public boolean cancel(String reason) {
+        if (!cancelled.compareAndSet(false, true)) {
+            return false;
+        }
+        this.cancelReason = reason;
+        cancelSink.tryEmitEmpty();
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    public String getCancelReason() {
+        return cancelReason;
+    }
+
+    /**
+     * 取消信号，供 Reactor 链 takeUntilOther 使用。
+     */
+    public Mono<Void> cancelSignal() {
+        return cancelSink.asMono();
+    }
+
+    /**
+     * 【新增】设置增量文本过滤器，须在 chatStream 开始前调用。
+     */
+    public StreamContext withTokenFilter(StreamTokenFilter filter) {
+        this.tokenFilter = filter;
+        return this;
+    }
+
+    // --- 以下由 LlmService 实现类调用 ---
+
+    /**
+     * 【新增】过滤一段模型输出，未设置过滤器时原样返回。
+     */
+    public String filterToken(String token) {
+        StreamTokenFilter filter = tokenFilter;
+        return filter == null ? token : filter.onToken(token);
+    }
+
+    /**
+     * 【新增】流正常结束时取回过滤器扣留的文本，未设置过滤器时为空串。
+     */
+    public String finishTokens() {
+        StreamTokenFilter filter = tokenFilter;
+        return filter == null ? "" : filter.finish();
+    }
+
+
+    public void onReceived(int chars) {
+        receivedChars.addAndGet(chars);
+    }
+
+    public void onDelivered(int chars) {
+        deliveredChars.addAndGet(chars);
+    }
+
+    /**
+     * 服务端在流式帧中返回的累计 output_tokens。
+     */
+    public void onOutputTokens(int tokens) {
+        outputTokens.set(tokens);
+    }
+
+    /**
+     * 【新增】服务端在流式帧中返回的 input_tokens (提示词用量)。
+     */
+    public void onInputTokens(int tokens) {
+        inputTokens.set(tokens);
+    }
+
+    public int getReceivedChars() {
+        return receivedChars.get();
+    }
+
+    public int getDeliveredChars() {
+        return deliveredChars.get();
+    }
+
+    /**
+     * @return 服务端上报的累计输出 Token 数，未上报时为 -1
+     */
+    public int getOutputTokens() {
+        return outputTokens.get();
+    }
+
+    /**
+     * 【新增】服务端上报的本次流式调用用量，未上报 output_tokens 时返回 null。
+     */
+    public LlmUsage getUsage() {
+        int output = outputTokens.get();
+        if (output < 0) {
+            return null;
+        }
+        return LlmUsage.of(Math.max(0, inputTokens.get()), output, 0);
+    }
+
+    /**
+     * 估算已生成 (已计费) 但未投递给客户端的 Token 数。
+     * 有服务端 output_tokens 时按未投递字符占比折算，否则按 1 字符 ≈ 1 Token 粗略估算。
+     */
+    public int estimateWastedTokens() {
+        int received = receivedChars.get();
+        int undelivered = Math.max(0, received - deliveredChars.get());
+        if (undelivered == 0) {
+            return 0;
+        }
+        int tokens = outputTokens.get();
+        if (tokens > 0 && received > 0) {
+            return (int) Math.round((double) tokens * undelivered / received);
+        }
+        return undelivered;
+    }
+}
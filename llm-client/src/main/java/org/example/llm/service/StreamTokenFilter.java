@@ -0,0 +1,21 @@
+package org.example.llm.service;
+
+/**
+ * 【新增】流式输出的增量文本过滤器，挂在 {@link StreamContext} 上，由 LlmService 实现类在分句之前逐片调用。
+ * <p>
+ * 过滤器可以扣留一部分文本 (如尚未闭合的标记)，在后续分片或 {@link #finish()} 时再吐出；
+ * 实现类只把过滤后的文本发给客户端，写入上下文历史的仍是模型的原始输出。
+ */
+public interface StreamTokenFilter {
+
+    /**
+     * @param token 模型新输出的一段文本
+     * @return 可以立即投递的文本，没有时返回空串
+     */
+    String onToken(String token);
+
+    /**
+     * 流正常结束时调用，返回仍被扣留的文本。
+     */
+    String finish();
+}
@@ -3,21 +3,30 @@ package org.example.llm.service.impl;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.example.llm.client.ConcurrencyLimiter;
+import org.example.llm.client.ConcurrencyLimiterRegistry;
 import org.example.llm.client.DoubaoClient;
+import org.example.llm.client.EndpointPool;
+import org.example.llm.client.EndpointPoolFactory;
 import org.example.llm.dto.api.doubao.DoubaoApiReq;
 import org.example.llm.dto.api.doubao.DoubaoApiResp;
 import org.example.llm.dto.api.doubao.DoubaoMessage;
+import org.example.llm.dto.llm.LlmCompletion;
 import org.example.llm.dto.llm.LlmMessage;
 import org.example.llm.dto.llm.LlmResponse;
 import org.example.llm.dto.llm.LlmToolCall;
+import org.example.llm.dto.llm.LlmUsage;
 import org.example.llm.dto.tool.ToolDefinition;
+import org.example.llm.history.ConversationStore;
 import org.example.llm.service.LlmService;
+import org.example.llm.service.StreamContext;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -26,13 +35,36 @@ import java.util.stream.Collectors;
 public class DoubaoLlmServiceImpl implements LlmService {
 
     private final DoubaoClient doubaoClient;
-    private final String apiKey;
-    private final Map<String, List<LlmMessage>> conversationHistory = new ConcurrentHashMap<>();
+    // 【修改】多 Key / 多地址端点池，取代单一的 doubao.api.key
+    private final EndpointPool endpointPool;
+    // 【新增】按模型的自适应并发上限
+    private final ConcurrencyLimiterRegistry limiterRegistry;
+    // 【修改】会话历史改由 ConversationStore 保存 (键 doubao:{会话 ID})，多个节点共享
+    private static final String HISTORY_NAMESPACE = "doubao:";
+    private final ConversationStore conversationStore;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
-    public DoubaoLlmServiceImpl(DoubaoClient doubaoClient, @Value("${doubao.api.key:}") String apiKey) {
+    // 【新增】预热用的合成响应 (结构与方舟 Chat Completions 实际返回一致)
+    private static final String WARM_UP_MODEL = "doubao-seed-1-6-flash";
+    private static final String WARM_UP_RESPONSE = "{\"id\":\"warm-up\",\"object\":\"chat.completion\",\"created\":0,\"model\":\"" + WARM_UP_MODEL + "\","
+            + "\"choices\":[{\"index\":0,\"finish_reason\":\"tool_calls\",\"message\":{\"role\":\"assistant\",\"content\":\"\","
+            + "\"tool_calls\":[{\"id\":\"call_0\",\"type\":\"function\",\"function\":{\"name\":\"queryMcpFaq\",\"arguments\":\"{\\\"intent\\\":\\\"月租\\\"}\"}}]}}],"
+            + "\"usage\":{\"prompt_tokens\":120,\"completion_tokens\":16,\"total_tokens\":136}}";
+
+    public DoubaoLlmServiceImpl(DoubaoClient doubaoClient, EndpointPoolFactory endpointPoolFactory,
+                                ConcurrencyLimiterRegistry limiterRegistry, ConversationStore conversationStore,
+                                @Value("${doubao.api.keys:}") String apiKeys,
+                                @Value("${doubao.api.key:}") String apiKey,
+                                @Value("${llm.doubao.base-urls:}") String baseUrls,
+                                @Value("${llm.doubao.base-url:https://ark.cn-beijing.volces.com/api/v3}") String baseUrl) {
         this.doubaoClient = doubaoClient;
-        this.apiKey = "Bearer " + apiKey;
+        this.endpointPool = endpointPoolFactory.create("doubao", apiKeys, apiKey, baseUrls, baseUrl);
+        this.limiterRegistry = limiterRegistry;
+        this.conversationStore = conversationStore;
+    }
+
+    private static String conversationId(String sessionId) {
+        return HISTORY_NAMESPACE + sessionId;
     }
 
     @Override
@@ -44,71 +76,113 @@ public class DoubaoLlmServiceImpl implements LlmService {
     public LlmResponse chat(String sessionId, String userContent, String modelName, String persona,
                             String openingMonologue, Map<String, Object> parameters, List<ToolDefinition> tools) {
 
-        List<LlmMessage> history = conversationHistory.computeIfAbsent(sessionId, k -> new ArrayList<>());
-        List<LlmMessage> messagesForApiCall = buildApiMessages(history, persona, openingMonologue);
+        List<LlmMessage> turnMessages = new ArrayList<>();
+        List<LlmMessage> messagesForApiCall = buildApiMessages(conversationStore.window(conversationId(sessionId)),
+                persona, openingMonologue, turnMessages);
 
         LlmMessage userMessage = LlmMessage.builder().role(LlmMessage.Role.USER).content(userContent).build();
         messagesForApiCall.add(userMessage);
 
-        DoubaoApiReq request = buildDoubaoRequest(modelName, parameters, messagesForApiCall, tools);
-
+        LlmCompletion completion;
         try {
-            DoubaoApiResp response = doubaoClient.chatCompletions(this.apiKey, request);
-            if (response == null || response.getChoices() == null || response.getChoices().isEmpty()) {
-                throw new RuntimeException("豆包API返回结果格式不正确。");
-            }
-
-            DoubaoMessage assistantDoubaoMessage = response.getChoices().get(0).getMessage();
-            LlmMessage assistantLlmMessage = convertDoubaoMessageToLlmMessage(assistantDoubaoMessage);
-
-            history.add(userMessage);
-            history.add(assistantLlmMessage);
-
-            return parseDoubaoResponse(assistantDoubaoMessage);
-
+            completion = complete(modelName, messagesForApiCall, parameters, tools);
         } catch (Exception e) {
             log.error("调用豆包大模型时发生错误", e);
             throw new RuntimeException("调用大模型时发生错误", e);
         }
+        // 【修改】调用成功后一次写入本轮的全部消息
+        turnMessages.add(userMessage);
+        turnMessages.add(completion.getAssistantMessage());
+        conversationStore.append(conversationId(sessionId), turnMessages);
+        return completion.getResponse();
     }
 
     @Override
     public LlmResponse chatWithToolResult(String sessionId, String modelName, Map<String, Object> parameters,
                                           List<ToolDefinition> tools, LlmMessage toolResultMessage) {
-        List<LlmMessage> history = conversationHistory.computeIfAbsent(sessionId, k -> new ArrayList<>());
-        history.add(toolResultMessage); // 将包含 toolCallId 的工具结果添加到历史记录
-
-        DoubaoApiReq request = buildDoubaoRequest(modelName, parameters, history, tools);
+        List<LlmMessage> messagesForApiCall = new ArrayList<>(conversationStore.window(conversationId(sessionId)));
+        messagesForApiCall.add(toolResultMessage); // 包含 toolCallId 的工具结果
 
+        LlmCompletion completion;
         try {
-            DoubaoApiResp response = doubaoClient.chatCompletions(this.apiKey, request);
-            log.info("携带工具结果成功调用豆包模型, RequestId: {}", response.getId());
-            if (response.getChoices() == null || response.getChoices().isEmpty()) {
-                throw new RuntimeException("模型API返回结果格式不正确。");
-            }
-
-            DoubaoMessage finalAssistantDoubaoMessage = response.getChoices().get(0).getMessage();
-            LlmMessage finalAssistantLlmMessage = convertDoubaoMessageToLlmMessage(finalAssistantDoubaoMessage);
-
-            history.add(finalAssistantLlmMessage);
-
-            return parseDoubaoResponse(finalAssistantDoubaoMessage);
-
+            completion = complete(modelName, messagesForApiCall, parameters, tools);
         } catch (Exception e) {
+            // 失败时仍写入工具结果，避免历史里留下没有对应结果的 tool_calls
+            conversationStore.append(conversationId(sessionId), List.of(toolResultMessage));
             log.error("携带工具结果调用豆包模型失败", e);
             throw new RuntimeException("携带工具结果调用大模型时发生错误", e);
         }
+        conversationStore.append(conversationId(sessionId), List.of(toolResultMessage, completion.getAssistantMessage()));
+        return completion.getResponse();
     }
 
-    private List<LlmMessage> buildApiMessages(List<LlmMessage> history, String persona, String openingMonologue) {
+    /**
+     * 【新增】无状态调用，chat / chatWithToolResult 与 ResilientLlmService 共用。
+     */
+    @Override
+    public LlmCompletion complete(String modelName, List<LlmMessage> messages, Map<String, Object> parameters,
+                                  List<ToolDefinition> tools) {
+        DoubaoApiReq request = buildDoubaoRequest(modelName, parameters, messages, tools);
+        ConcurrencyLimiter limiter = limiterRegistry.get("doubao", modelName);
+        DoubaoApiResp response = limiter == null ? send(request) : limiter.call(() -> send(request));
+        if (response == null || response.getChoices() == null || response.getChoices().isEmpty()) {
+            throw new RuntimeException("豆包API返回结果格式不正确。");
+        }
+        log.info("成功调用豆包模型 {}, RequestId: {}", modelName, response.getId());
+
+        DoubaoMessage assistantDoubaoMessage = response.getChoices().get(0).getMessage();
+        LlmResponse llmResponse = parseDoubaoResponse(assistantDoubaoMessage);
+        llmResponse.setUsage(toUsage(response.getUsage()));
+        return LlmCompletion.builder()
+                .response(llmResponse)
+                .assistantMessage(convertDoubaoMessageToLlmMessage(assistantDoubaoMessage))
+                .build();
+    }
+
+    /**
+     * 【新增】构建 / 序列化合成请求并解析合成响应 (豆包暂无流式实现)。
+     */
+    @Override
+    public void warmUp(ObjectMapper wireMapper, List<ToolDefinition> tools) {
+        List<LlmMessage> messages = List.of(
+                LlmMessage.builder().role(LlmMessage.Role.SYSTEM).content("你是一个专业的业务办理专员。").build(),
+                LlmMessage.builder().role(LlmMessage.Role.USER).content("我的套餐月租是多少？").build());
+        DoubaoApiReq request = buildDoubaoRequest(WARM_UP_MODEL, Map.of("temperature", 0.7, "top_p", 0.8, "max_tokens", 512), messages, tools);
+        try {
+            wireMapper.writeValueAsBytes(request);
+            DoubaoApiResp response = wireMapper.readValue(WARM_UP_RESPONSE, DoubaoApiResp.class);
+            DoubaoMessage message = response.getChoices().get(0).getMessage();
+            parseDoubaoResponse(message);
+            convertLlmMessageToDoubaoMessage(convertDoubaoMessageToLlmMessage(message));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static LlmUsage toUsage(DoubaoApiResp.Usage usage) {
+        return usage == null ? null : LlmUsage.of(usage.getPromptTokens(), usage.getCompletionTokens(), usage.getTotalTokens());
+    }
+
+    private DoubaoApiResp send(DoubaoApiReq request) {
+        return endpointPool.call(endpoint ->
+                doubaoClient.chatCompletions(endpoint.getBaseUri(), endpoint.getAuthorization(), request));
+    }
+
+    /**
+     * 【修改】首轮的开场白不再提前写入历史，而是放进 turnMessages，调用成功后与本轮其他消息一起追加。
+     */
+    private List<LlmMessage> buildApiMessages(List<LlmMessage> history, String persona, String openingMonologue,
+                                              List<LlmMessage> turnMessages) {
         List<LlmMessage> messagesForApiCall = new ArrayList<>();
         if (persona != null && !persona.isEmpty()) {
             messagesForApiCall.add(LlmMessage.builder().role(LlmMessage.Role.SYSTEM).content(persona).build());
         }
+        messagesForApiCall.addAll(history);
         if (history.isEmpty() && openingMonologue != null && !openingMonologue.isEmpty()) {
-            history.add(LlmMessage.builder().role(LlmMessage.Role.ASSISTANT).content(openingMonologue).build());
+            LlmMessage opening = LlmMessage.builder().role(LlmMessage.Role.ASSISTANT).content(openingMonologue).build();
+            messagesForApiCall.add(opening);
+            turnMessages.add(opening);
         }
-        messagesForApiCall.addAll(history);
         return messagesForApiCall;
     }
 
@@ -193,25 +267,40 @@ public class DoubaoLlmServiceImpl implements LlmService {
 
     @Override
     public List<LlmMessage> getConversationHistory(String sessionId) {
-        return conversationHistory.getOrDefault(sessionId, Collections.emptyList());
+        return conversationStore.snapshot(conversationId(sessionId));
+    }
+
+    @Override
+    public List<LlmMessage> getConversationWindow(String sessionId) {
+        return conversationStore.window(conversationId(sessionId));
     }
 
     @Override
     public List<LlmMessage> popConversationHistory(String sessionId) {
-        return conversationHistory.remove(sessionId);
+        return conversationStore.remove(conversationId(sessionId));
     }
 
     // 【新增】
     @Override
     public void addMessagesToHistory(String sessionId, LlmMessage userMessage, LlmMessage assistantMessage) {
-        // 使用 computeIfAbsent 确保 history 列表存在且可变
-        List<LlmMessage> history = conversationHistory.computeIfAbsent(sessionId, k -> new java.util.ArrayList<>());
+        List<LlmMessage> messages = new ArrayList<>(2);
         if (userMessage != null) {
-            history.add(userMessage);
+            messages.add(userMessage);
         }
         if (assistantMessage != null) {
-            history.add(assistantMessage);
+            messages.add(assistantMessage);
         }
+        conversationStore.append(conversationId(sessionId), messages);
+    }
+
+    @Override
+    public void appendToHistory(String sessionId, List<LlmMessage> messages) {
+        conversationStore.append(conversationId(sessionId), messages);
+    }
+
+    @Override
+    public void replaceConversationHistory(String sessionId, List<LlmMessage> messages) {
+        conversationStore.replace(conversationId(sessionId), messages);
     }
 
     /**
@@ -228,9 +317,10 @@ public class DoubaoLlmServiceImpl implements LlmService {
      * @param isToolCallResultStream 是否是工具调用后的第二步流式调用。
      * @param toolResultMessage      工具调用结果（仅在第二步调用时使用）。
      * @param finalPersister
+     * @param streamContext
      */
     @Override
-    public void chatStream(String sessionId, String userContent, String modelName, String persona, String openingMonologue, Map<String, Object> parameters, List<ToolDefinition> tools, Consumer<String> sender, boolean isToolCallResultStream, LlmMessage toolResultMessage, Consumer<List<LlmMessage>> finalPersister) {
+    public void chatStream(String sessionId, String userContent, String modelName, String persona, String openingMonologue, Map<String, Object> parameters, List<ToolDefinition> tools, Consumer<String> sender, boolean isToolCallResultStream, LlmMessage toolResultMessage, Consumer<List<LlmMessage>> finalPersister, StreamContext streamContext) {
 
     }
 
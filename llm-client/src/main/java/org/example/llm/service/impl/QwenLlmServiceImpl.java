@@ -6,15 +6,23 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.example.llm.client.ConcurrencyLimiter;
+import org.example.llm.client.ConcurrencyLimiterRegistry;
+import org.example.llm.client.EndpointPool;
+import org.example.llm.client.EndpointPoolFactory;
 import org.example.llm.client.QianwenClient;
 import org.example.llm.dto.api.qwen.QwenApiReq;
 import org.example.llm.dto.api.qwen.QwenApiResp;
 import org.example.llm.dto.api.qwen.QwenMessage;
+import org.example.llm.dto.llm.LlmCompletion;
 import org.example.llm.dto.llm.LlmMessage;
 import org.example.llm.dto.llm.LlmResponse;
 import org.example.llm.dto.llm.LlmToolCall;
+import org.example.llm.dto.llm.LlmUsage;
 import org.example.llm.dto.tool.ToolDefinition;
+import org.example.llm.history.ConversationStore;
 import org.example.llm.service.LlmService;
+import org.example.llm.service.StreamContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -24,35 +32,64 @@ import org.springframework.util.CollectionUtils;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 @Service
 public class QwenLlmServiceImpl implements LlmService {
 
     private static final Logger log = LoggerFactory.getLogger(QwenLlmServiceImpl.class);
-    private final Map<String, List<LlmMessage>> conversationHistory = new ConcurrentHashMap<>();
+    // 【修改】会话历史改由 ConversationStore 保存 (键 qwen:{会话 ID})，多个节点共享
+    private static final String HISTORY_NAMESPACE = "qwen:";
+    private final ConversationStore conversationStore;
     private final QianwenClient qianwenClient;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     private final WebClient webClient;
 
-    @Value("${alibaba.api.key}")
-    private String apiKey;
+    // 【修改】多 Key / 多地址端点池，取代单一的 alibaba.api.key 与 base-url
+    private final EndpointPool endpointPool;
+    // 【新增】按模型的自适应并发上限
+    private final ConcurrencyLimiterRegistry limiterRegistry;
 
     private static final String STREAM_DELIMITER = "[SEP]";
     private static final String STREAM_END_SENTINEL = "__END_OF_STREAM__";
 
-    // 【修改】构造函数注入 WebClient.Builder
-    public QwenLlmServiceImpl(QianwenClient qianwenClient, WebClient.Builder webClientBuilder) {
+    // 【新增】预热用的合成数据 (结构与 DashScope 实际返回一致)
+    private static final String WARM_UP_MODEL = "qwen-turbo";
+    private static final String WARM_UP_RESPONSE = "{\"output\":{\"choices\":[{\"message\":{\"role\":\"assistant\",\"content\":\"\","
+            + "\"tool_calls\":[{\"id\":\"call_0\",\"type\":\"function\",\"function\":{\"name\":\"queryMcpFaq\",\"arguments\":\"{\\\"intent\\\":\\\"月租\\\"}\"}}]}}]},"
+            + "\"usage\":{\"input_tokens\":120,\"output_tokens\":16,\"total_tokens\":136},\"request_id\":\"warm-up\"}";
+    private static final String WARM_UP_STREAM_LINE = "data:{\"output\":{\"choices\":[{\"message\":{\"content\":\"您好，请问有什么可以帮您？\",\"role\":\"assistant\"},"
+            + "\"finish_reason\":\"null\"}]},\"usage\":{\"input_tokens\":120,\"output_tokens\":8,\"total_tokens\":128},\"request_id\":\"warm-up\"}";
+
+    // 【修改】构造函数注入 WebClient.Builder 与端点池配置
+    public QwenLlmServiceImpl(QianwenClient qianwenClient, WebClient.Builder webClientBuilder,
+                              EndpointPoolFactory endpointPoolFactory, ConcurrencyLimiterRegistry limiterRegistry,
+                              ConversationStore conversationStore,
+                              @Value("${alibaba.api.keys:}") String apiKeys,
+                              @Value("${alibaba.api.key:}") String apiKey,
+                              @Value("${llm.qwen.base-urls:}") String baseUrls,
+                              @Value("${llm.qwen.base-url:https://dashscope.aliyuncs.com/api/v1}") String baseUrl) {
         this.qianwenClient = qianwenClient;
         // 构建 WebClient 实例
         this.webClient = webClientBuilder.build();
+        // benchmarks 模块只测请求构建与 SSE 解析，不创建端点池
+        this.endpointPool = endpointPoolFactory == null ? null
+                : endpointPoolFactory.create("qwen", apiKeys, apiKey, baseUrls, baseUrl);
+        this.limiterRegistry = limiterRegistry;
+        this.conversationStore = conversationStore;
+    }
+
+    private static String conversationId(String sessionId) {
+        return HISTORY_NAMESPACE + sessionId;
     }
 
     @Override
@@ -64,80 +101,176 @@ public class QwenLlmServiceImpl implements LlmService {
     @Override
     public LlmResponse chat(String sessionId, String userContent, String modelName, String persona,
                             String openingMonologue, Map<String, Object> parameters, List<ToolDefinition> tools) {
-        List<LlmMessage> history = conversationHistory.computeIfAbsent(sessionId, k -> new java.util.ArrayList<>());
-        List<LlmMessage> messagesForApiCall = buildApiMessages(history, persona, openingMonologue);
+        List<LlmMessage> turnMessages = new ArrayList<>();
+        List<LlmMessage> messagesForApiCall = buildApiMessages(conversationStore.window(conversationId(sessionId)),
+                persona, openingMonologue, turnMessages);
 
         LlmMessage userMessage = LlmMessage.builder().role(LlmMessage.Role.USER).content(userContent).build();
         messagesForApiCall.add(userMessage);
 
-        QwenApiReq request = buildQwenRequest(modelName, parameters, messagesForApiCall, tools);
-
+        LlmCompletion completion;
         try {
-            log.info("【发送给大模型的完整请求】\n{}", objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(request));
-            QwenApiResp response = qianwenClient.chatCompletions("Bearer " + apiKey, request);
-            log.info("【通义千问 API 完整原始响应】\n{}", objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(response));
-            log.info("成功调用通义千问模型, RequestId: {}", response.getRequestId());
-
-            if (response.getOutput() == null || response.getOutput().getChoices() == null || response.getOutput().getChoices().isEmpty()) {
-                throw new RuntimeException("模型API返回结果格式不正确。");
-            }
-
-            QwenMessage assistantQwenMessage = response.getOutput().getChoices().get(0).getMessage();
-            LlmMessage assistantLlmMessage = convertQwenMessageToLlmMessage(assistantQwenMessage);
-
-            history.add(userMessage);
-            history.add(assistantLlmMessage);
-
-            return parseQwenResponse(assistantQwenMessage);
-
+            completion = complete(modelName, messagesForApiCall, parameters, tools);
         } catch (Exception e) {
             log.error("调用通义千问模型失败", e);
             throw new RuntimeException("调用大模型时发生错误", e);
         }
+        // 【修改】调用成功后一次写入本轮的全部消息
+        turnMessages.add(userMessage);
+        turnMessages.add(completion.getAssistantMessage());
+        conversationStore.append(conversationId(sessionId), turnMessages);
+        return completion.getResponse();
     }
 
     @Override
     public LlmResponse chatWithToolResult(String sessionId, String modelName, Map<String, Object> parameters,
                                           List<ToolDefinition> tools, LlmMessage toolResultMessage) {
-        List<LlmMessage> history = conversationHistory.computeIfAbsent(sessionId, k -> new java.util.ArrayList<>());
-        history.add(toolResultMessage);
-
-        QwenApiReq request = buildQwenRequest(modelName, parameters, history, tools);
+        List<LlmMessage> messagesForApiCall = new ArrayList<>(conversationStore.window(conversationId(sessionId)));
+        messagesForApiCall.add(toolResultMessage);
 
+        LlmCompletion completion;
         try {
-            QwenApiResp response = qianwenClient.chatCompletions("Bearer " + apiKey, request);
-            log.info("【通义千问工具调用后 API 完整原始响应】\n{}", objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(response));
-            log.info("携带工具结果成功调用通义千问模型, RequestId: {}", response.getRequestId());
-            if (response.getOutput() == null || response.getOutput().getChoices() == null || response.getOutput().getChoices().isEmpty()) {
-                throw new RuntimeException("模型API返回结果格式不正确。");
-            }
+            completion = complete(modelName, messagesForApiCall, parameters, tools);
+        } catch (Exception e) {
+            // 失败时仍写入工具结果，避免历史里留下没有对应结果的 tool_calls
+            conversationStore.append(conversationId(sessionId), List.of(toolResultMessage));
+            log.error("携带工具结果调用通义千问模型失败", e);
+            throw new RuntimeException("携带工具结果调用大模型时发生错误", e);
+        }
+        conversationStore.append(conversationId(sessionId), List.of(toolResultMessage, completion.getAssistantMessage()));
+        return completion.getResponse();
+    }
 
-            QwenMessage finalAssistantQwenMessage = response.getOutput().getChoices().get(0).getMessage();
-            LlmMessage finalAssistantLlmMessage = convertQwenMessageToLlmMessage(finalAssistantQwenMessage);
+    /**
+     * 【新增】无状态调用，chat / chatWithToolResult 与 ResilientLlmService 共用。
+     */
+    @Override
+    public LlmCompletion complete(String modelName, List<LlmMessage> messages, Map<String, Object> parameters,
+                                  List<ToolDefinition> tools) {
+        QwenApiReq request = buildQwenRequest(modelName, parameters, messages, tools);
+        if (log.isDebugEnabled()) {
+            log.debug("【发送给大模型的完整请求】\n{}", toPrettyJson(request));
+        }
+        ConcurrencyLimiter limiter = limiterRegistry.get("qwen", modelName);
+        QwenApiResp response = limiter == null ? send(request) : limiter.call(() -> send(request));
+        if (log.isDebugEnabled()) {
+            log.debug("【通义千问 API 完整原始响应】\n{}", toPrettyJson(response));
+        }
+        log.info("成功调用通义千问模型 {}, RequestId: {}", modelName, response.getRequestId());
 
-            history.add(finalAssistantLlmMessage);
+        if (response.getOutput() == null || response.getOutput().getChoices() == null || response.getOutput().getChoices().isEmpty()) {
+            throw new RuntimeException("模型API返回结果格式不正确。");
+        }
 
-            return parseQwenResponse(finalAssistantQwenMessage);
+        QwenMessage assistantQwenMessage = response.getOutput().getChoices().get(0).getMessage();
+        LlmResponse llmResponse = parseQwenResponse(assistantQwenMessage);
+        llmResponse.setUsage(toUsage(response.getUsage()));
+        return LlmCompletion.builder()
+                .response(llmResponse)
+                .assistantMessage(convertQwenMessageToLlmMessage(assistantQwenMessage))
+                .build();
+    }
 
-        } catch (Exception e) {
-            log.error("携带工具结果调用通义千问模型失败", e);
-            throw new RuntimeException("携带工具结果调用大模型时发生错误", e);
+    /**
+     * 【新增】构建 / 序列化合成请求 (Feign 与流式两种编码路径)，解析合成响应与一行 SSE。
+     */
+    @Override
+    public void warmUp(ObjectMapper wireMapper, List<ToolDefinition> tools) {
+        List<LlmMessage> messages = List.of(
+                LlmMessage.builder().role(LlmMessage.Role.SYSTEM).content("你是一个专业的业务办理专员。").build(),
+                LlmMessage.builder().role(LlmMessage.Role.USER).content("我的套餐月租是多少？").build());
+        QwenApiReq request = buildQwenRequest(WARM_UP_MODEL, Map.of("temperature", 0.7, "top_p", 0.8, "max_tokens", 512), messages, tools);
+        try {
+            wireMapper.writeValueAsBytes(request);
+            wireMapper.writeValueAsBytes(objectMapper.valueToTree(request));
+            QwenApiResp response = wireMapper.readValue(WARM_UP_RESPONSE, QwenApiResp.class);
+            QwenMessage message = response.getOutput().getChoices().get(0).getMessage();
+            parseQwenResponse(message);
+            convertLlmMessageToQwenMessage(convertQwenMessageToLlmMessage(message));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        extractStreamText(WARM_UP_STREAM_LINE, StreamContext.none(), new AtomicInteger());
     }
 
-    private List<LlmMessage> buildApiMessages(List<LlmMessage> history, String persona, String openingMonologue) {
-        List<LlmMessage> messagesForApiCall = new java.util.ArrayList<>();
+    private static LlmUsage toUsage(QwenApiResp.Usage usage) {
+        return usage == null ? null : LlmUsage.of(usage.getInputTokens(), usage.getOutputTokens(), usage.getTotalTokens());
+    }
+
+    private QwenApiResp send(QwenApiReq request) {
+        return endpointPool.call(endpoint ->
+                qianwenClient.chatCompletions(endpoint.getBaseUri(), endpoint.getAuthorization(), request));
+    }
+
+    private String toPrettyJson(Object value) {
+        try {
+            return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            return String.valueOf(value);
+        }
+    }
+
+    /**
+     * 【修改】首轮的开场白不再提前写入历史，而是放进 turnMessages，调用成功后与本轮其他消息一起追加。
+     */
+    private List<LlmMessage> buildApiMessages(List<LlmMessage> history, String persona, String openingMonologue,
+                                              List<LlmMessage> turnMessages) {
+        List<LlmMessage> messagesForApiCall = new ArrayList<>();
         if (persona != null && !persona.isEmpty()) {
             messagesForApiCall.add(LlmMessage.builder().role(LlmMessage.Role.SYSTEM).content(persona).build());
         }
+        messagesForApiCall.addAll(history);
         if (history.isEmpty() && openingMonologue != null && !openingMonologue.isEmpty()) {
-            history.add(LlmMessage.builder().role(LlmMessage.Role.ASSISTANT).content(openingMonologue).build());
+            LlmMessage opening = LlmMessage.builder().role(LlmMessage.Role.ASSISTANT).content(openingMonologue).build();
+            messagesForApiCall.add(opening);
+            turnMessages.add(opening);
         }
-        messagesForApiCall.addAll(history);
         return messagesForApiCall;
     }
 
-    private QwenApiReq buildQwenRequest(String modelName, Map<String, Object> parameters, List<LlmMessage> messages, List<ToolDefinition> tools) {
+    /**
+     * 【修改】解析一行 SSE 数据 (原 chatStream 内的 map lambda)，返回本行携带的增量文本，无内容时返回空串。
+     * 包级可见，供 benchmarks 模块的 JMH 基准直接调用。
+     */
+    String extractStreamText(String line, StreamContext ctx, AtomicInteger tokenCount) {
+        String jsonStr = line;
+        if (line.startsWith("data:")) {
+            jsonStr = line.substring(5).trim();
+        }
+        if ("[DONE]".equals(jsonStr)) return "";
+
+        if (jsonStr.startsWith("{")) {
+            try {
+                MappingIterator<JsonNode> it = objectMapper.readerFor(JsonNode.class).readValues(jsonStr);
+                StringBuilder combinedContent = new StringBuilder();
+                while (it.hasNext()) {
+                    JsonNode root = it.next();
+                    // 每一帧都带累计用量，最后一帧即整次调用的用量
+                    JsonNode usage = root.path("usage");
+                    if (usage.has("output_tokens")) {
+                        ctx.onOutputTokens(usage.path("output_tokens").asInt());
+                    }
+                    if (usage.has("input_tokens")) {
+                        ctx.onInputTokens(usage.path("input_tokens").asInt());
+                    }
+                    if (root.has("output") && root.get("output").has("choices")) {
+                        JsonNode choices = root.get("output").get("choices");
+                        if (choices.size() > 0 && choices.get(0).has("message")) {
+                            tokenCount.incrementAndGet();
+                            combinedContent.append(choices.get(0).get("message").path("content").asText(""));
+                        }
+                    } else if (root.has("code") && root.has("message")) {
+                        log.error("Qwen API 返回错误: {}", root.toPrettyString());
+                    }
+                }
+                return combinedContent.toString();
+            } catch (Exception e) { }
+        }
+        return "";
+    }
+
+    // 包级可见：供 benchmarks 模块的 JMH 基准调用
+    QwenApiReq buildQwenRequest(String modelName, Map<String, Object> parameters, List<LlmMessage> messages, List<ToolDefinition> tools) {
         List<QwenMessage> qwenMessages = messages.stream()
                 .map(this::convertLlmMessageToQwenMessage)
                 .collect(Collectors.toList());
@@ -156,9 +289,9 @@ public class QwenLlmServiceImpl implements LlmService {
 
         if (isSpecialModel(modelName)) {
             qwenParamsBuilder.enableThinking(false);
-            log.info("检测到特定模型 '{}'，已添加 'enable_thinking: false' 参数。", modelName);
+            log.debug("检测到特定模型 '{}'，已添加 'enable_thinking: false' 参数。", modelName);
         } else {
-            log.info("检测到标准模型 '{}'，不添加 'enable_thinking' 参数。", modelName);
+            log.debug("检测到标准模型 '{}'，不添加 'enable_thinking' 参数。", modelName);
         }
 
         if (!CollectionUtils.isEmpty(tools)) {
@@ -211,7 +344,8 @@ public class QwenLlmServiceImpl implements LlmService {
         return LlmMessage.builder().role(qwenMessage.getRole()).content(content).build();
     }
 
-    private QwenMessage convertLlmMessageToQwenMessage(LlmMessage llmMessage) {
+    // 包级可见：供 benchmarks 模块的 JMH 基准调用
+    QwenMessage convertLlmMessageToQwenMessage(LlmMessage llmMessage) {
         if (LlmMessage.Role.ASSISTANT.equals(llmMessage.getRole()) && llmMessage.getContent().contains("function")) {
             try {
                 List<QwenApiResp.ToolCall> toolCalls = objectMapper.readValue(llmMessage.getContent(), new TypeReference<>() {});
@@ -229,19 +363,35 @@ public class QwenLlmServiceImpl implements LlmService {
 
     @Override
     public List<LlmMessage> getConversationHistory(String sessionId) {
-        return conversationHistory.getOrDefault(sessionId, Collections.emptyList());
+        return conversationStore.snapshot(conversationId(sessionId));
+    }
+
+    @Override
+    public List<LlmMessage> getConversationWindow(String sessionId) {
+        return conversationStore.window(conversationId(sessionId));
     }
 
     @Override
     public List<LlmMessage> popConversationHistory(String sessionId) {
-        return conversationHistory.remove(sessionId);
+        return conversationStore.remove(conversationId(sessionId));
     }
 
     @Override
     public void addMessagesToHistory(String sessionId, LlmMessage userMessage, LlmMessage assistantMessage) {
-        List<LlmMessage> history = conversationHistory.computeIfAbsent(sessionId, k -> new java.util.ArrayList<>());
-        if (userMessage != null) history.add(userMessage);
-        if (assistantMessage != null) history.add(assistantMessage);
+        List<LlmMessage> messages = new ArrayList<>(2);
+        if (userMessage != null) messages.add(userMessage);
+        if (assistantMessage != null) messages.add(assistantMessage);
+        conversationStore.append(conversationId(sessionId), messages);
+    }
+
+    @Override
+    public void appendToHistory(String sessionId, List<LlmMessage> messages) {
+        conversationStore.append(conversationId(sessionId), messages);
+    }
+
+    @Override
+    public void replaceConversationHistory(String sessionId, List<LlmMessage> messages) {
+        conversationStore.replace(conversationId(sessionId), messages);
     }
 
     /**
@@ -251,10 +401,24 @@ public class QwenLlmServiceImpl implements LlmService {
     public void chatStream(String sessionId, String userContent, String modelName, String persona,
                            String openingMonologue, Map<String, Object> parameters, List<ToolDefinition> tools,
                            Consumer<String> sender, boolean isToolCallResultStream, LlmMessage toolResultMessage,
-                           Consumer<List<LlmMessage>> finalPersister) {
+                           Consumer<List<LlmMessage>> finalPersister, StreamContext streamContext) {
+
+        final StreamContext ctx = (streamContext != null) ? streamContext : StreamContext.none();
+        String conversationId = conversationId(sessionId);
+        if (ctx.isCancelled()) {
+            log.info("流式请求开始前已被取消 ({})，会话: {}", ctx.getCancelReason(), sessionId);
+            if (isToolCallResultStream) {
+                // 路由阶段已写入 tool_calls (例如在执行工具期间被打断)，仍要补上工具结果
+                persistPartialTurn(conversationId, new ArrayList<>(), userContent, true, toolResultMessage, "", finalPersister);
+            }
+            return;
+        }
 
-        List<LlmMessage> history = conversationHistory.computeIfAbsent(sessionId, k -> new ArrayList<>());
-        List<LlmMessage> messagesForApiCall = isToolCallResultStream ? new ArrayList<>(history) : buildApiMessages(history, persona, openingMonologue);
+        List<LlmMessage> history = conversationStore.window(conversationId);
+        // 本轮要追加到历史的消息 (开场白 / 用户或工具结果 / 回复)，流结束后一次写入
+        List<LlmMessage> turnMessages = new ArrayList<>();
+        List<LlmMessage> messagesForApiCall = isToolCallResultStream ? new ArrayList<>(history)
+                : buildApiMessages(history, persona, openingMonologue, turnMessages);
 
         if (isToolCallResultStream) {
             messagesForApiCall.add(toolResultMessage);
@@ -265,29 +429,47 @@ public class QwenLlmServiceImpl implements LlmService {
         QwenApiReq request = buildQwenRequest(modelName, parameters, messagesForApiCall, tools);
         StringBuilder sentenceBuffer = new StringBuilder();
         StringBuilder fullLlmResponse = new StringBuilder();
+        // 【新增】模型原始输出 (未经 StreamTokenFilter 过滤)，用于写入上下文历史
+        StringBuilder rawLlmResponse = new StringBuilder();
 
         AtomicReference<String> errorBuffer = new AtomicReference<>("");
         AtomicInteger tokenCount = new AtomicInteger(0);
+        // 已处理完的分句数 (按 [SEP] 计，含过滤后为空、未投递的分句)，取消 / 失败时据此从原始输出中截取已说出的部分
+        int completedSegments = 0;
+        boolean persisted = false;
 
+        ConcurrencyLimiter.Permit permit = null;
+        EndpointPool.Lease lease = null;
         try {
             ObjectNode requestJson = objectMapper.valueToTree(request);
             if (requestJson.has("parameters")) {
                 ((ObjectNode) requestJson.get("parameters")).put("incremental_output", true);
             }
 
-            String url = "https://dashscope.aliyuncs.com/api/v1/services/aigc/text-generation/generation";
-            log.info(">>> 开始流式请求 Qwen: {}", url);
+            ConcurrencyLimiter limiter = limiterRegistry.get("qwen", modelName);
+            permit = limiter == null ? null : limiter.acquire();
+            ConcurrencyLimiter.Permit streamPermit = permit;
+            lease = endpointPool.acquire();
+            EndpointPool.Endpoint endpoint = lease.endpoint();
+            EndpointPool.Lease streamLease = lease;
+            String url = endpoint.getBaseUrl() + "/services/aigc/text-generation/generation";
+            log.info(">>> 开始流式请求 Qwen: {} (key {})", url, endpoint.getAlias());
             long startTime = System.currentTimeMillis();
 
             Iterable<String> qwenTokenStream = webClient.post()
                     .uri(url)
-                    .header("Authorization", "Bearer " + apiKey)
+                    .header("Authorization", endpoint.getAuthorization())
                     .header("X-DashScope-SSE", "enable")
                     .contentType(MediaType.APPLICATION_JSON)
                     .bodyValue(requestJson)
                     .retrieve()
                     .bodyToFlux(String.class)
                     .doOnNext(chunk -> {
+                        // 端点池的 EWMA 以首包延迟计，与非流式调用可比
+                        streamLease.markLatency();
+                        if (streamPermit != null) {
+                            streamPermit.markLatency();
+                        }
                         if (tokenCount.get() == 0 && !chunk.trim().startsWith("data:") && !chunk.trim().startsWith("{")) {
                             errorBuffer.accumulateAndGet(chunk, (acc, val) -> acc + val);
                         }
@@ -295,97 +477,167 @@ public class QwenLlmServiceImpl implements LlmService {
                     .flatMap(chunk -> Flux.fromArray(chunk.split("\\r?\\n")))
                     .map(String::trim)
                     .filter(line -> !line.isEmpty())
-                    .map(line -> {
-                        String jsonStr = line;
-                        if (line.startsWith("data:")) {
-                            jsonStr = line.substring(5).trim();
-                        }
-                        if ("[DONE]".equals(jsonStr)) return "";
-
-                        if (jsonStr.startsWith("{")) {
-                            try {
-                                MappingIterator<JsonNode> it = objectMapper.readerFor(JsonNode.class).readValues(jsonStr);
-                                StringBuilder combinedContent = new StringBuilder();
-                                while (it.hasNext()) {
-                                    JsonNode root = it.next();
-                                    if (root.has("output") && root.get("output").has("choices")) {
-                                        JsonNode choices = root.get("output").get("choices");
-                                        if (choices.size() > 0 && choices.get(0).has("message")) {
-                                            tokenCount.incrementAndGet();
-                                            combinedContent.append(choices.get(0).get("message").path("content").asText(""));
-                                        }
-                                    } else if (root.has("code") && root.has("message")) {
-                                        log.error("Qwen API 返回错误: {}", root.toPrettyString());
-                                    }
-                                }
-                                return combinedContent.toString();
-                            } catch (Exception e) { }
-                        }
-                        return "";
-                    })
+                    .map(line -> extractStreamText(line, ctx, tokenCount))
                     .filter(text -> !text.isEmpty())
+                    .doOnNext(text -> ctx.onReceived(text.length()))
+                    // 【新增】收到取消信号后立即完成，并向上游传播 cancel，断开与 DashScope 的连接
+                    .takeUntilOther(ctx.cancelSignal())
+                    // 【新增】把调用线程上的 Observation 带进订阅上下文，WebClient 的 Span 挂在当前阶段下
+                    .contextCapture()
                     .toIterable();
 
             for (String token : qwenTokenStream) {
+                if (ctx.isCancelled()) break;
                 if (token == null) continue;
 
-                sentenceBuffer.append(token);
+                rawLlmResponse.append(token);
+                sentenceBuffer.append(ctx.filterToken(token));
 
                 int sepIndex;
                 while ((sepIndex = sentenceBuffer.indexOf(STREAM_DELIMITER)) != -1) {
                     String completeSentence = sentenceBuffer.substring(0, sepIndex).trim();
                     sentenceBuffer.delete(0, sepIndex + STREAM_DELIMITER.length());
 
+                    if (ctx.isCancelled()) {
+                        break;
+                    }
                     if (!completeSentence.isEmpty()) {
                         sender.accept(completeSentence);
+                        ctx.onDelivered(completeSentence.length() + STREAM_DELIMITER.length());
                         fullLlmResponse.append(completeSentence); // 不加 SEP
                         log.info(">>> [{}ms] 流式输出句子: {}", (System.currentTimeMillis() - startTime), completeSentence);
                     }
+                    completedSegments++;
                 }
             }
 
+            if (ctx.isCancelled()) {
+                log.info("<<< [{}ms] 流式请求已取消 ({})，已投递 {}/{} 字符，会话: {}", (System.currentTimeMillis() - startTime),
+                        ctx.getCancelReason(), ctx.getDeliveredChars(), ctx.getReceivedChars(), sessionId);
+                persistPartialTurn(conversationId, turnMessages, userContent, isToolCallResultStream, toolResultMessage,
+                        joinSentences(rawLlmResponse, completedSegments), finalPersister);
+                persisted = true;
+                return;
+            }
+
             log.info("<<< [{}ms] 流式请求处理完成，共接收 {} 个Token片段。", (System.currentTimeMillis() - startTime), tokenCount.get());
 
             if (tokenCount.get() == 0) {
                 String rawError = errorBuffer.get();
                 if (rawError != null && !rawError.isEmpty()) {
                     log.error("API调用严重错误: {}", rawError);
+                    // 200 状态码但返回的是错误体：按失败释放端点和并发许可，否则 finally 会记为一次成功
+                    IllegalStateException error = new IllegalStateException("API 返回错误响应: " + rawError);
+                    if (lease != null) {
+                        lease.failure(error);
+                    }
+                    if (permit != null) {
+                        permit.failure(error);
+                    }
                     sender.accept("{\"error\": \"API调用错误\", \"details\": " + objectMapper.writeValueAsString(rawError) + "}");
                     return;
                 }
             }
 
+            sentenceBuffer.append(ctx.finishTokens());
             if (sentenceBuffer.length() > 0) {
                 String remaining = sentenceBuffer.toString().trim();
                 if (!remaining.isEmpty()) {
                     sender.accept(remaining);
+                    ctx.onDelivered(sentenceBuffer.length());
                     fullLlmResponse.append(remaining);
                     log.info(">>> [{}ms] 流式输出剩余: {}", (System.currentTimeMillis() - startTime), remaining);
                 }
             }
 
             // 【关键修复】保存历史逻辑
-            String finalResponseContent = fullLlmResponse.toString();
+            String finalResponseContent = joinSentences(rawLlmResponse, Integer.MAX_VALUE);
             if (tokenCount.get() > 0) {
                 if (isToolCallResultStream) {
                     // 1. 如果是工具调用的第二步，User消息早已在第一步(Router)时加入历史了。
                     //    此时需要补上 Tool Result 消息，和 Assistant 最终回复。
-                    history.add(toolResultMessage);
+                    turnMessages.add(toolResultMessage);
                 } else {
                     // 2. 如果是普通对话，正常添加 User 消息。
-                    history.add(LlmMessage.builder().role(LlmMessage.Role.USER).content(userContent).build());
+                    turnMessages.add(LlmMessage.builder().role(LlmMessage.Role.USER).content(userContent).build());
                 }
                 // 3. 添加 Assistant 最终回复
-                history.add(LlmMessage.builder().role(LlmMessage.Role.ASSISTANT).content(finalResponseContent).build());
+                turnMessages.add(LlmMessage.builder().role(LlmMessage.Role.ASSISTANT).content(finalResponseContent).build());
 
-                finalPersister.accept(history);
+                persistTurn(conversationId, turnMessages, finalPersister);
+                persisted = true;
             }
 
             sender.accept(STREAM_END_SENTINEL);
 
         } catch (Exception e) {
+            if (lease != null) {
+                lease.failure(e);
+            }
+            if (permit != null) {
+                permit.failure(e);
+            }
             log.error("Qwen LLM 流式调用异常", e);
             sender.accept("{\"error\": \"LLM 流式调用失败\", \"details\": \"" + e.getMessage().replace("\"", "\\\"") + "\"}");
+        } finally {
+            if (isToolCallResultStream && !persisted) {
+                // 错误响应、异常或空回复：路由阶段已写入 tool_calls，必须补上工具结果 (及已说出的部分)，否则下一轮会被 API 拒绝
+                try {
+                    persistPartialTurn(conversationId, turnMessages, userContent, true, toolResultMessage,
+                            joinSentences(rawLlmResponse, completedSegments), finalPersister);
+                } catch (RuntimeException e) {
+                    log.error("补写工具结果到会话历史失败，会话: {}", sessionId, e);
+                }
+            }
+            // 正常结束、取消或提前返回都释放端点 (failure 已调用时为空操作)
+            if (lease != null) {
+                lease.success();
+            }
+            if (permit != null) {
+                permit.success();
+            }
+        }
+    }
+
+    /**
+     * 【新增】与投递时的分句规则一致：按 [SEP] 切分、去掉首尾空白后拼接 (不含 [SEP])。
+     * 写入历史的始终是模型原始输出 (含动作标记)；maxSegments 限制只取前几个分句 (取消 / 失败时为已处理完的分句)。
+     */
+    private static String joinSentences(CharSequence raw, int maxSegments) {
+        StringBuilder joined = new StringBuilder(raw.length());
+        String[] sentences = raw.toString().split(Pattern.quote(STREAM_DELIMITER), -1);
+        for (int i = 0; i < sentences.length && i < maxSegments; i++) {
+            joined.append(sentences[i].trim());
+        }
+        return joined.toString();
+    }
+
+    /**
+     * 【修改】取消或失败时只记录已投递给客户端的内容 (原始输出中对应的分句)，未说出口的部分不进入上下文。
+     */
+    private void persistPartialTurn(String conversationId, List<LlmMessage> turnMessages, String userContent,
+                                    boolean isToolCallResultStream, LlmMessage toolResultMessage,
+                                    String deliveredContent, Consumer<List<LlmMessage>> finalPersister) {
+        if (isToolCallResultStream) {
+            // 路由阶段已写入 tool_calls，必须补上对应的 Tool 消息，否则下一轮请求会被 API 拒绝
+            turnMessages.add(toolResultMessage);
+        } else {
+            turnMessages.add(LlmMessage.builder().role(LlmMessage.Role.USER).content(userContent).build());
+        }
+        if (!deliveredContent.isEmpty()) {
+            turnMessages.add(LlmMessage.builder().role(LlmMessage.Role.ASSISTANT).content(deliveredContent).build());
+        }
+        persistTurn(conversationId, turnMessages, finalPersister);
+    }
+
+    /**
+     * 【新增】一次追加本轮消息；finalPersister 为可选的回调 (历史本身已写入 ConversationStore)。
+     */
+    private void persistTurn(String conversationId, List<LlmMessage> turnMessages,
+                             Consumer<List<LlmMessage>> finalPersister) {
+        conversationStore.append(conversationId, turnMessages);
+        if (finalPersister != null) {
+            finalPersister.accept(turnMessages);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,276 @@
+package org.example.llm.tokenizer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 【新增】纯 Java 的字节级 BPE 分词器 (只计数，不输出 Token id)。
+ * <p>
+ * 算法与 tiktoken 相同：先用预分词正则把文本切成片段，每个片段按 UTF-8 字节反复合并 rank 最小的相邻对，
+ * 直到没有可合并的对，剩余的段数即该片段的 Token 数。支持两种词表格式：
+ * <ul>
+ *     <li>tiktoken (通义千问 qwen.tiktoken)：每行 "base64(Token 字节) rank"；</li>
+ *     <li>GPT-2 风格 merges.txt：每行 "a b"，合并后的 Token rank = 256 + 行号 (单字节为 0~255)。</li>
+ * </ul>
+ * 热路径不产生对象：正则 Matcher、UTF-8 缓冲区与合并用的数组都放在线程本地的 Scratch 中复用，
+ * 词表查询使用 {@link ByteRankTable} 直接比较缓冲区中的字节。
+ * 超过 {@link #MAX_PIECE_BYTES} 字节的片段 (如无空格的超长串) 按字符边界分段计数，结果可能略多于真实值。
+ */
+public final class BpeTokenizer implements TokenCounter {
+
+    /**
+     * 通义千问 (Qwen2 / Qwen3) 的预分词正则。
+     * 编译时带 {@link Pattern#UNICODE_CHARACTER_CLASS}，\s 与 tiktoken 一样匹配全部 Unicode 空白 (如 U+3000、U+00A0)。
+     */
+    public static final String QWEN_PATTERN = "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}"
+            + "| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+";
+
+    static final int MAX_PIECE_BYTES = 256;
+
+    private final ByteRankTable table;
+    private final Pattern pattern;
+    private final ThreadLocal<Scratch> scratch;
+
+    private BpeTokenizer(ByteRankTable table, String pattern) {
+        this.table = table;
+        // 不带 UNICODE_CHARACTER_CLASS 时 \s 只匹配 ASCII 空白，全角空格等会被当作标点切分
+        this.pattern = Pattern.compile(pattern, Pattern.UNICODE_CHARACTER_CLASS);
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(this.pattern));
+    }
+
+    /**
+     * 按 rank 顺序给出的 Token 字节 (下标即 rank)。
+     */
+    public static BpeTokenizer fromRanks(List<byte[]> tokens, String pattern) {
+        int[] ranks = new int[tokens.size()];
+        for (int i = 0; i < ranks.length; i++) {
+            ranks[i] = i;
+        }
+        return new BpeTokenizer(new ByteRankTable(tokens, ranks), pattern);
+    }
+
+    /**
+     * 读取 tiktoken 格式的词表 (读取后不关闭输入流)。
+     */
+    public static BpeTokenizer fromTiktoken(InputStream in, String pattern) throws IOException {
+        List<byte[]> tokens = new ArrayList<>(160_000);
+        List<Integer> ranks = new ArrayList<>(160_000);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+        Base64.Decoder decoder = Base64.getDecoder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int space = line.indexOf(' ');
+            if (space <= 0) {
+                continue;
+            }
+            tokens.add(decoder.decode(line.substring(0, space)));
+            ranks.add(Integer.parseInt(line.substring(space + 1).trim()));
+        }
+        return new BpeTokenizer(new ByteRankTable(tokens, ranks.stream().mapToInt(Integer::intValue).toArray()), pattern);
+    }
+
+    /**
+     * 读取 GPT-2 风格 (字节映射为可见字符) 的 merges.txt (读取后不关闭输入流)。
+     */
+    public static BpeTokenizer fromMerges(InputStream in, String pattern) throws IOException {
+        int[] byteDecoder = byteDecoder();
+        List<byte[]> tokens = new ArrayList<>(160_000);
+        for (int b = 0; b < 256; b++) {
+            tokens.add(new byte[]{(byte) b});
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#version")) {
+                continue;
+            }
+            int space = line.indexOf(' ');
+            if (space <= 0) {
+                continue;
+            }
+            byte[] left = decodeSymbol(line.substring(0, space), byteDecoder);
+            byte[] right = decodeSymbol(line.substring(space + 1), byteDecoder);
+            byte[] merged = new byte[left.length + right.length];
+            System.arraycopy(left, 0, merged, 0, left.length);
+            System.arraycopy(right, 0, merged, left.length, right.length);
+            tokens.add(merged);
+        }
+        // 下标即 rank；同一字节串第二次出现时保留较小的 rank (ByteRankTable 只收第一个)
+        return fromRanks(tokens, pattern);
+    }
+
+    public int vocabularySize() {
+        return table.size();
+    }
+
+    @Override
+    public int count(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return 0;
+        }
+        Scratch s = scratch.get();
+        Matcher matcher = s.matcher.reset(text);
+        int tokens = 0;
+        while (matcher.find()) {
+            tokens += countRange(text, matcher.start(), matcher.end(), s);
+        }
+        matcher.reset("");
+        return tokens;
+    }
+
+    private int countRange(CharSequence text, int start, int end, Scratch s) {
+        int tokens = 0;
+        int pos = start;
+        while (pos < end) {
+            // 按 UTF-8 字节数截取，每段不超过 MAX_PIECE_BYTES 字节且不拆开代理对
+            int limit = pos;
+            int bytes = 0;
+            while (limit < end) {
+                char c = text.charAt(limit);
+                boolean pair = Character.isHighSurrogate(c) && limit + 1 < end && Character.isLowSurrogate(text.charAt(limit + 1));
+                int size = pair ? 4 : c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+                if (bytes + size > MAX_PIECE_BYTES) {
+                    break;
+                }
+                bytes += size;
+                limit += pair ? 2 : 1;
+            }
+            int length = encodeUtf8(text, pos, limit, s.bytes);
+            tokens += countPiece(s.bytes, length, s);
+            pos = limit;
+        }
+        return tokens;
+    }
+
+    /**
+     * 对 buf[0, length) 做 BPE 合并，返回最终段数。
+     */
+    private int countPiece(byte[] buf, int length, Scratch s) {
+        if (length <= 1 || table.rank(buf, 0, length) >= 0) {
+            return length == 0 ? 0 : 1;
+        }
+        int[] starts = s.starts;
+        int[] ranks = s.ranks;
+        int parts = length;
+        for (int i = 0; i <= length; i++) {
+            starts[i] = i;
+        }
+        for (int i = 0; i < parts - 1; i++) {
+            ranks[i] = table.rank(buf, starts[i], starts[i + 2]);
+        }
+        while (parts > 1) {
+            int best = -1;
+            int bestRank = Integer.MAX_VALUE;
+            for (int i = 0; i < parts - 1; i++) {
+                int rank = ranks[i];
+                if (rank >= 0 && rank < bestRank) {
+                    bestRank = rank;
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            // 合并 best 与 best + 1：删除边界 starts[best + 1] 与相邻对 ranks[best + 1]
+            System.arraycopy(starts, best + 2, starts, best + 1, parts - best - 1);
+            if (parts - best - 3 > 0) {
+                System.arraycopy(ranks, best + 2, ranks, best + 1, parts - best - 3);
+            }
+            parts--;
+            if (best < parts - 1) {
+                ranks[best] = table.rank(buf, starts[best], starts[best + 2]);
+            }
+            if (best > 0) {
+                ranks[best - 1] = table.rank(buf, starts[best - 1], starts[best + 1]);
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * 把 text[from, to) 编码为 UTF-8 写入 out，返回字节数 (孤立的代理字符按 U+FFFD 编码)。
+     */
+    static int encodeUtf8(CharSequence text, int from, int to, byte[] out) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out[n++] = (byte) c;
+            } else if (c < 0x800) {
+                out[n++] = (byte) (0xC0 | (c >> 6));
+                out[n++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                out[n++] = (byte) (0xF0 | (cp >> 18));
+                out[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                out[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                out[n++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                if (Character.isSurrogate(c)) {
+                    c = '\uFFFD';
+                }
+                out[n++] = (byte) (0xE0 | (c >> 12));
+                out[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[n++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return n;
+    }
+
+    /**
+     * GPT-2 bytes_to_unicode 的逆映射：可见字符 → 原始字节。
+     */
+    private static int[] byteDecoder() {
+        int[] decoder = new int[512];
+        Arrays.fill(decoder, -1);
+        int extra = 0;
+        for (int b = 0; b < 256; b++) {
+            boolean printable = (b >= '!' && b <= '~') || (b >= 0xA1 && b <= 0xAC) || (b >= 0xAE && b <= 0xFF);
+            int ch = printable ? b : 256 + extra++;
+            decoder[ch] = b;
+        }
+        return decoder;
+    }
+
+    private static byte[] decodeSymbol(String symbol, int[] byteDecoder) {
+        byte[] bytes = new byte[symbol.length()];
+        int n = 0;
+        for (int i = 0; i < symbol.length(); i++) {
+            char c = symbol.charAt(i);
+            int b = c < byteDecoder.length ? byteDecoder[c] : -1;
+            if (b < 0) {
+                // 不在映射表中的字符 (非标准 merges) 按 UTF-8 原样处理
+                byte[] raw = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                bytes = Arrays.copyOf(bytes, bytes.length + raw.length);
+                System.arraycopy(raw, 0, bytes, n, raw.length);
+                n += raw.length;
+            } else {
+                bytes[n++] = (byte) b;
+            }
+        }
+        return n == bytes.length ? bytes : Arrays.copyOf(bytes, n);
+    }
+
+    /**
+     * 线程本地的复用缓冲区。
+     */
+    private static final class Scratch {
+        final Matcher matcher;
+        final byte[] bytes = new byte[MAX_PIECE_BYTES];
+        final int[] starts = new int[MAX_PIECE_BYTES + 1];
+        final int[] ranks = new int[MAX_PIECE_BYTES];
+
+        Scratch(Pattern pattern) {
+            this.matcher = pattern.matcher("");
+        }
+    }
+}
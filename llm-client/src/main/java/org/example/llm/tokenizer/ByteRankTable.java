@@ -0,0 +1,98 @@
+package org.example.llm.tokenizer;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 【新增】字节串 → rank 的开放寻址哈希表。
+ * 所有 Token 的字节连续存放在一个数组中，查询直接比较调用方缓冲区中的一段字节，不产生任何对象。
+ */
+final class ByteRankTable {
+
+    private static final int EMPTY = -1;
+
+    private final byte[] pool;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int[] ranks;
+    // 槽位 → Token 下标，空槽为 EMPTY
+    private final int[] slots;
+    private final int mask;
+
+    /**
+     * @param tokens 各 Token 的字节，rank 取 ranks 中对应位置；重复的字节串只保留第一个
+     */
+    ByteRankTable(List<byte[]> tokens, int[] tokenRanks) {
+        int total = 0;
+        for (byte[] token : tokens) {
+            total += token.length;
+        }
+        this.pool = new byte[total];
+        this.offsets = new int[tokens.size()];
+        this.lengths = new int[tokens.size()];
+        this.ranks = new int[tokens.size()];
+        int capacity = Integer.highestOneBit(Math.max(16, tokens.size() * 2 - 1)) << 1;
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(slots, EMPTY);
+
+        int offset = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            byte[] token = tokens.get(i);
+            System.arraycopy(token, 0, pool, offset, token.length);
+            offsets[i] = offset;
+            lengths[i] = token.length;
+            ranks[i] = tokenRanks[i];
+            offset += token.length;
+            int slot = hash(pool, offsets[i], offsets[i] + token.length) & mask;
+            while (slots[slot] != EMPTY && !equalsAt(slots[slot], pool, offsets[i], offsets[i] + token.length)) {
+                slot = (slot + 1) & mask;
+            }
+            if (slots[slot] == EMPTY) {
+                slots[slot] = i;
+            }
+        }
+    }
+
+    int size() {
+        return offsets.length;
+    }
+
+    /**
+     * @return buf[from, to) 对应 Token 的 rank，不在词表中时返回 -1
+     */
+    int rank(byte[] buf, int from, int to) {
+        int slot = hash(buf, from, to) & mask;
+        int index;
+        while ((index = slots[slot]) != EMPTY) {
+            if (equalsAt(index, buf, from, to)) {
+                return ranks[index];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean equalsAt(int index, byte[] buf, int from, int to) {
+        int length = to - from;
+        if (lengths[index] != length) {
+            return false;
+        }
+        int offset = offsets[index];
+        for (int i = 0; i < length; i++) {
+            if (pool[offset + i] != buf[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // FNV-1a，最后再混合一次高位，避免只取低位时分布不均
+    private static int hash(byte[] buf, int from, int to) {
+        int h = 0x811C9DC5;
+        for (int i = from; i < to; i++) {
+            h = (h ^ (buf[i] & 0xFF)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,36 @@
+package org.example.llm.tokenizer;
+
+/**
+ * 【新增】没有词表文件时的估算：连续的 ASCII 字母 / 数字按 4 字符一个 Token，
+ * 其他非空白字符 (汉字、标点等) 每个码点计一个 Token。对中文偏高，用于预算时宁可多算。
+ */
+public final class HeuristicTokenCounter implements TokenCounter {
+
+    public static final HeuristicTokenCounter INSTANCE = new HeuristicTokenCounter();
+
+    private HeuristicTokenCounter() {
+    }
+
+    @Override
+    public int count(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int tokens = 0;
+        int asciiRun = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80 && Character.isLetterOrDigit(c)) {
+                asciiRun++;
+                continue;
+            }
+            tokens += (asciiRun + 3) / 4;
+            asciiRun = 0;
+            if (Character.isLowSurrogate(c) || Character.isWhitespace(c)) {
+                continue;
+            }
+            tokens++;
+        }
+        return tokens + (asciiRun + 3) / 4;
+    }
+}
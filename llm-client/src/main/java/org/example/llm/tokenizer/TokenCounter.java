@@ -0,0 +1,38 @@
+package org.example.llm.tokenizer;
+
+import org.example.llm.dto.llm.LlmMessage;
+
+import java.util.List;
+
+/**
+ * 【新增】发送前的本地 Token 计数 (与厂商计费口径尽量一致，用于预算、历史窗口与截断)。
+ */
+public interface TokenCounter {
+
+    /**
+     * ChatML 每条消息的固定开销：&lt;|im_start|&gt; + 角色 + 换行 + &lt;|im_end|&gt; + 换行。
+     */
+    int TOKENS_PER_MESSAGE = 5;
+
+    /**
+     * 请求末尾为助手回复预置的 &lt;|im_start|&gt;assistant\n。
+     */
+    int REPLY_PRIMING_TOKENS = 3;
+
+    int count(CharSequence text);
+
+    /**
+     * 一组消息作为请求发送时的 Token 数 (含每条消息的模板开销与回复前缀)。
+     */
+    default int countMessages(List<LlmMessage> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return 0;
+        }
+        int tokens = REPLY_PRIMING_TOKENS;
+        for (int i = 0; i < messages.size(); i++) {
+            String content = messages.get(i).getContent();
+            tokens += TOKENS_PER_MESSAGE + (content == null ? 0 : count(content));
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,150 @@
+package org.example.llm.tokenizer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 【新增】按模型名选择本地分词器。
+ * <ul>
+ *     <li>qwen*：llm.tokenizer.qwen.path 指向的 tiktoken 词表；</li>
+ *     <li>doubao* / ep-* (火山方舟接入点)：llm.tokenizer.doubao.path 指向的 merges.txt 或 tiktoken 词表；</li>
+ *     <li>其他模型或词表文件不存在 / 无法解析时使用 {@link HeuristicTokenCounter}，并按 ERROR 级别记录一次。</li>
+ * </ul>
+ * Qwen 默认使用 dashscope-sdk-java 自带的 classpath:qwen.tiktoken (与官方 QwenTokenizer 同一份词表)；
+ * 豆包没有可随包发布的词表，需从厂商开源的分词器中取出后放到 classpath 或文件系统 (file: 前缀)。
+ * 首次使用时加载 (十几万条，约百毫秒)，启动预热会提前触发。格式按扩展名判断：.tiktoken 为 tiktoken，其余按 merges.txt 解析。
+ * llm.tokenizer.required 中的厂商没有可用词表时，{@link #missingRequired()} 会列出它们 (用于就绪检查)。
+ * 预分词正则按厂商配置 (llm.tokenizer.{厂商}.pattern)，留空时使用 {@link BpeTokenizer#QWEN_PATTERN}。
+ */
+@Component
+public class TokenizerRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenizerRegistry.class);
+
+    private final ResourceLoader resourceLoader = new DefaultResourceLoader();
+    private final String qwenPath;
+    private final String doubaoPath;
+    private final String qwenPattern;
+    private final String doubaoPattern;
+    private final Set<String> required;
+
+    private volatile TokenCounter qwen;
+    private volatile TokenCounter doubao;
+
+    public TokenizerRegistry(@Value("${llm.tokenizer.qwen.path:classpath:qwen.tiktoken}") String qwenPath,
+                             @Value("${llm.tokenizer.doubao.path:}") String doubaoPath,
+                             @Value("${llm.tokenizer.qwen.pattern:}") String qwenPattern,
+                             @Value("${llm.tokenizer.doubao.pattern:}") String doubaoPattern,
+                             @Value("${llm.tokenizer.required:qwen}") String required) {
+        this.qwenPath = qwenPath;
+        this.doubaoPath = doubaoPath;
+        this.qwenPattern = patternOrDefault(qwenPattern);
+        this.doubaoPattern = patternOrDefault(doubaoPattern);
+        this.required = Arrays.stream(required == null ? new String[0] : required.split(","))
+                .map(p -> p.trim().toLowerCase(Locale.ROOT))
+                .filter(p -> !p.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    public TokenCounter forModel(String modelName) {
+        String model = modelName == null ? "" : modelName.toLowerCase(Locale.ROOT);
+        if (model.startsWith("qwen")) {
+            return qwen();
+        }
+        if (model.startsWith("doubao") || model.startsWith("ep-")) {
+            return doubao();
+        }
+        return HeuristicTokenCounter.INSTANCE;
+    }
+
+    /**
+     * 提前加载全部词表 (启动预热调用)。
+     */
+    public void preload() {
+        qwen();
+        doubao();
+    }
+
+    /**
+     * llm.tokenizer.required 中仍在使用估算计数的厂商 (未配置词表、文件不存在或解析失败)，为空表示全部可用。
+     * 首次调用会触发词表加载。
+     */
+    public List<String> missingRequired() {
+        List<String> missing = new ArrayList<>();
+        if (required.contains("qwen") && qwen() == HeuristicTokenCounter.INSTANCE) {
+            missing.add("qwen");
+        }
+        if (required.contains("doubao") && doubao() == HeuristicTokenCounter.INSTANCE) {
+            missing.add("doubao");
+        }
+        return missing;
+    }
+
+    private TokenCounter qwen() {
+        TokenCounter counter = qwen;
+        if (counter == null) {
+            synchronized (this) {
+                if (qwen == null) {
+                    qwen = load("qwen", qwenPath, qwenPattern);
+                }
+                counter = qwen;
+            }
+        }
+        return counter;
+    }
+
+    private TokenCounter doubao() {
+        TokenCounter counter = doubao;
+        if (counter == null) {
+            synchronized (this) {
+                if (doubao == null) {
+                    doubao = load("doubao", doubaoPath, doubaoPattern);
+                }
+                counter = doubao;
+            }
+        }
+        return counter;
+    }
+
+    private TokenCounter load(String provider, String path, String pattern) {
+        if (path == null || path.isBlank()) {
+            log.error("未配置 {} 分词器词表，该厂商的 Token 预算与 llm.prompt.segment 指标均为估算值", provider);
+            return HeuristicTokenCounter.INSTANCE;
+        }
+        Resource resource = resourceLoader.getResource(path.trim());
+        if (!resource.exists()) {
+            log.error("{} 分词器词表不存在: {}，该厂商的 Token 预算与 llm.prompt.segment 指标均为估算值", provider, path);
+            return HeuristicTokenCounter.INSTANCE;
+        }
+        long start = System.currentTimeMillis();
+        try (InputStream in = resource.getInputStream()) {
+            BpeTokenizer tokenizer = path.trim().endsWith(".tiktoken")
+                    ? BpeTokenizer.fromTiktoken(in, pattern)
+                    : BpeTokenizer.fromMerges(in, pattern);
+            log.info("已加载 {} 分词器词表: {} ({} 条, {} ms)", provider, path,
+                    tokenizer.vocabularySize(), System.currentTimeMillis() - start);
+            return tokenizer;
+        } catch (IOException | RuntimeException e) {
+            log.error("{} 分词器词表加载失败: {} ({})，该厂商的 Token 预算与 llm.prompt.segment 指标均为估算值", provider, path, e.toString());
+            return HeuristicTokenCounter.INSTANCE;
+        }
+    }
+
+    private static String patternOrDefault(String pattern) {
+        return pattern == null || pattern.isBlank() ? BpeTokenizer.QWEN_PATTERN : pattern;
+    }
+}
@@ -0,0 +1,126 @@
+package org.example.llm.client;
+
+import org.example.llm.service.LlmCallPriority;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConcurrencyLimiterTest {
+
+    private static ConcurrencyLimiterRegistry.Settings settings(int initialLimit, long cooldownMs) {
+        ConcurrencyLimiterRegistry.Settings settings = new ConcurrencyLimiterRegistry.Settings();
+        settings.initialLimit = initialLimit;
+        settings.minLimit = 1;
+        settings.maxLimit = 100;
+        settings.backoffRatio = 0.5;
+        settings.decreaseCooldownMs = cooldownMs;
+        settings.latencyTolerance = 2.0;
+        settings.latencyEwmaAlpha = 0.05;
+        settings.interactiveMaxWaitMs = 2000;
+        settings.backgroundMaxWaitMs = 2000;
+        return settings;
+    }
+
+    private static ConcurrencyLimiter limiter(ConcurrencyLimiterRegistry.Settings settings) {
+        return new ConcurrencyLimiter("test", "model", settings, null);
+    }
+
+    @Test
+    void rejectsAfterMaxWaitWhenSaturated() {
+        ConcurrencyLimiterRegistry.Settings settings = settings(2, 0);
+        settings.interactiveMaxWaitMs = 20;
+        ConcurrencyLimiter limiter = limiter(settings);
+        limiter.acquire();
+        limiter.acquire();
+        assertEquals(2, limiter.getInFlight());
+        assertThrows(ConcurrencyLimitExceededException.class, limiter::acquire);
+        assertEquals(0, limiter.getQueued(LlmCallPriority.INTERACTIVE));
+    }
+
+    @Test
+    void overloadHalvesLimitOncePerCooldown() {
+        ConcurrencyLimiter limiter = limiter(settings(20, 60_000));
+        RuntimeException overload = new RuntimeException(new IOException("connection reset"));
+        limiter.acquire().failure(overload);
+        assertEquals(10, limiter.getLimit(), 1e-9);
+        // 同一波过载信号在冷却期内只减一次
+        limiter.acquire().failure(overload);
+        assertEquals(10, limiter.getLimit(), 1e-9);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void unrelatedFailureKeepsLimit() {
+        ConcurrencyLimiter limiter = limiter(settings(20, 0));
+        limiter.acquire().failure(new IllegalArgumentException("bad request"));
+        assertEquals(20, limiter.getLimit(), 1e-9);
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void successIncreasesLimitOnlyWhenSaturated() {
+        ConcurrencyLimiter limiter = limiter(settings(4, 0));
+        // 空闲时成功不加
+        limiter.acquire().success();
+        assertEquals(4, limiter.getLimit(), 1e-9);
+
+        ConcurrencyLimiter.Permit first = limiter.acquire();
+        limiter.acquire();
+        limiter.acquire();
+        first.success();
+        assertEquals(4.25, limiter.getLimit(), 1e-9);
+        // 重复结束同一个许可不再生效
+        first.success();
+        assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    void interactiveWaitersAreGrantedBeforeBackground() throws Exception {
+        ConcurrencyLimiterRegistry.Settings settings = settings(1, 0);
+        // 上限固定为 1，释放一个许可只能唤醒一个排队者
+        settings.maxLimit = 1;
+        ConcurrencyLimiter limiter = limiter(settings);
+        ConcurrencyLimiter.Permit held = limiter.acquire();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CompletableFuture<ConcurrencyLimiter.Permit> background = CompletableFuture.supplyAsync(
+                    () -> LlmCallPriority.callWith(LlmCallPriority.BACKGROUND, limiter::acquire), executor);
+            awaitQueued(limiter, LlmCallPriority.BACKGROUND);
+            CompletableFuture<ConcurrencyLimiter.Permit> interactive = CompletableFuture.supplyAsync(limiter::acquire, executor);
+            awaitQueued(limiter, LlmCallPriority.INTERACTIVE);
+
+            held.success();
+            ConcurrencyLimiter.Permit granted = interactive.get(1, TimeUnit.SECONDS);
+            assertFalse(background.isDone());
+            assertEquals(1, limiter.getQueued(LlmCallPriority.BACKGROUND));
+            granted.success();
+            background.get(1, TimeUnit.SECONDS).success();
+            assertEquals(0, limiter.getInFlight());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void classifiesOverloadSignals() {
+        assertTrue(ConcurrencyLimiter.isOverloadSignal(new RuntimeException(new IOException())));
+        assertFalse(ConcurrencyLimiter.isOverloadSignal(new IllegalStateException("parse error")));
+    }
+
+    private static void awaitQueued(ConcurrencyLimiter limiter, LlmCallPriority priority) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (limiter.getQueued(priority) == 0) {
+            assertTrue(System.nanoTime() < deadline, priority + " 未进入等待队列");
+            Thread.sleep(5);
+        }
+    }
+}
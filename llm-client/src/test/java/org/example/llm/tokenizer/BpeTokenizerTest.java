@@ -0,0 +1,85 @@
+package org.example.llm.tokenizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 使用 src/test/resources/tokenizer 下的小词表 (256 个单字节 + 11 条合并，两种格式内容相同) 校验计数。
+ * 预期值按 tiktoken 的合并顺序手算：每个片段反复合并 rank 最小的相邻对。
+ */
+class BpeTokenizerTest {
+
+    private static BpeTokenizer tiktoken(String pattern) throws IOException {
+        try (InputStream in = BpeTokenizerTest.class.getResourceAsStream("/tokenizer/mini.tiktoken")) {
+            return BpeTokenizer.fromTiktoken(in, pattern);
+        }
+    }
+
+    private static BpeTokenizer merges(String pattern) throws IOException {
+        try (InputStream in = BpeTokenizerTest.class.getResourceAsStream("/tokenizer/mini-merges.txt")) {
+            return BpeTokenizer.fromMerges(in, pattern);
+        }
+    }
+
+    @Test
+    void loadsBothVocabularyFormats() throws IOException {
+        assertEquals(267, tiktoken(BpeTokenizer.QWEN_PATTERN).vocabularySize());
+        assertEquals(267, merges(BpeTokenizer.QWEN_PATTERN).vocabularySize());
+    }
+
+    @Test
+    void countsMatchReference() throws IOException {
+        for (BpeTokenizer tokenizer : new BpeTokenizer[]{tiktoken(BpeTokenizer.QWEN_PATTERN), merges(BpeTokenizer.QWEN_PATTERN)}) {
+            assertEquals(0, tokenizer.count(""));
+            // "hello" 整词命中；" world" → " w" + "or" + "ld"
+            assertEquals(1, tokenizer.count("hello"));
+            assertEquals(4, tokenizer.count("hello world"));
+            // "你" 由两次合并得到，"好" 没有合并，按 3 个字节计
+            assertEquals(4, tokenizer.count("你好"));
+            // 数字逐个切分
+            assertEquals(3, tokenizer.count("123"));
+        }
+    }
+
+    @Test
+    void unicodeWhitespaceIsSplitLikeTiktoken() throws IOException {
+        BpeTokenizer tokenizer = tiktoken(BpeTokenizer.QWEN_PATTERN);
+        // \s 匹配 U+00A0：\s+(?!\S) 把两个不换行空格拆成两段，各自合并为 1 个 Token；
+        // 若 \s 只匹配 ASCII，两个空格会作为一段标点合并成 1 个 Token，总数为 3
+        assertEquals(4, tokenizer.count("\u00A0\u00A012"));
+    }
+
+    @Test
+    void patternIsConfigurable() throws IOException {
+        // 按空白整段切分时 " world" 前的空格单独成段，"world" 只能合并出 "or" 与 "ld"
+        BpeTokenizer tokenizer = merges("\\S+|\\s+");
+        assertEquals(1 + 1 + 3, tokenizer.count("hello world"));
+    }
+
+    @Test
+    void longPiecesAreCountedInChunks() throws IOException {
+        BpeTokenizer tokenizer = tiktoken(BpeTokenizer.QWEN_PATTERN);
+        String text = "hello".repeat(200);
+        int count = tokenizer.count(text);
+        // 超过 MAX_PIECE_BYTES 的片段分段计数，只会在分段边界上多算
+        int chunks = (text.length() + BpeTokenizer.MAX_PIECE_BYTES / 4 - 1) / (BpeTokenizer.MAX_PIECE_BYTES / 4);
+        assertTrue(count >= 200 && count <= 200 + chunks * 4, "count=" + count);
+    }
+
+    @Test
+    void registryUsesConfiguredPatternAndFallsBack() {
+        TokenizerRegistry registry = new TokenizerRegistry("classpath:tokenizer/mini.tiktoken",
+                "classpath:tokenizer/missing/merges.txt", "", "\\S+|\\s+", "qwen, doubao");
+        assertEquals(4, registry.forModel("qwen-max").count("hello world"));
+        assertSame(HeuristicTokenCounter.INSTANCE, registry.forModel("doubao-pro-32k"));
+        assertSame(HeuristicTokenCounter.INSTANCE, registry.forModel("gpt-4o"));
+        assertEquals(List.of("doubao"), registry.missingRequired());
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.llm.tokenizer;
+
+import com.alibaba.dashscope.tokenizers.Tokenizer;
+import com.alibaba.dashscope.tokenizers.TokenizerFactory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 与官方 Qwen 分词器 (DashScope SDK 的 QwenTokenizer，词表为 SDK 自带的 qwen.tiktoken) 逐条对比 Token 数。
+ * 样本见 src/test/resources/tokenizer/parity-samples.txt，覆盖中英文、代码、全角字符、emoji 与各类空白。
+ */
+class QwenTokenizerParityTest {
+
+    private static final Pattern UNICODE_ESCAPE = Pattern.compile("\\\\u([0-9a-fA-F]{4})");
+
+    private static BpeTokenizer local;
+    private static Tokenizer official;
+
+    @BeforeAll
+    static void load() throws IOException {
+        try (InputStream in = QwenTokenizerParityTest.class.getResourceAsStream("/qwen.tiktoken")) {
+            local = BpeTokenizer.fromTiktoken(in, BpeTokenizer.QWEN_PATTERN);
+        }
+        official = TokenizerFactory.qwen();
+    }
+
+    @Test
+    void countsMatchOfficialTokenizer() throws IOException {
+        List<String> samples = samples();
+        assertTrue(samples.size() >= 20);
+        List<String> mismatches = new ArrayList<>();
+        for (String sample : samples) {
+            int expected = official.encodeOrdinary(sample).size();
+            int actual = local.count(sample);
+            if (expected != actual) {
+                mismatches.add(String.format("%s: 官方 %d, 本地 %d", sample, expected, actual));
+            }
+        }
+        assertEquals(List.of(), mismatches);
+    }
+
+    @Test
+    void unicodeWhitespaceFollowsTiktoken() {
+        // tiktoken (Rust regex) 的 \s 匹配 Unicode 空白，SDK 的 Java 正则只匹配 ASCII 空白，两者在这里不一致 (SDK 计 9)。
+        // 11 是按 Unicode 语义切分后用同一词表合并得到的结果：nbsp | U+00A0 | U+00A0space | and | ideographic | U+3000 | U+3000space | U+3000
+        assertEquals(11, local.count("nbsp\u00A0\u00A0space and ideographic\u3000\u3000space\u3000"));
+    }
+
+    @Test
+    void longRepetitiveTextStaysClose() {
+        // 超过 MAX_PIECE_BYTES 的片段按字符边界分段计数，只允许在分段边界上多算
+        String text = "畅享套餐".repeat(500) + " " + "abcdefgh".repeat(200);
+        int expected = official.encodeOrdinary(text).size();
+        int actual = local.count(text);
+        assertTrue(actual >= expected && actual <= expected * 1.05, "官方 " + expected + ", 本地 " + actual);
+    }
+
+    @Test
+    void registryLoadsBundledVocabulary() {
+        TokenizerRegistry registry = new TokenizerRegistry("classpath:qwen.tiktoken", "", "", "", "qwen");
+        TokenCounter counter = registry.forModel("qwen-plus");
+        assertTrue(counter instanceof BpeTokenizer);
+        assertEquals(official.encodeOrdinary("您当前的套餐包含国内通用流量30GB").size(), counter.count("您当前的套餐包含国内通用流量30GB"));
+        assertEquals(List.of(), registry.missingRequired());
+    }
+
+    private static List<String> samples() throws IOException {
+        List<String> samples = new ArrayList<>();
+        try (InputStream in = QwenTokenizerParityTest.class.getResourceAsStream("/tokenizer/parity-samples.txt");
+             BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    samples.add(unescape(line));
+                }
+            }
+        }
+        return samples;
+    }
+
+    private static String unescape(String line) {
+        Matcher m = UNICODE_ESCAPE.matcher(line);
+        StringBuilder sb = new StringBuilder();
+        while (m.find()) {
+            m.appendReplacement(sb, Matcher.quoteReplacement(String.valueOf((char) Integer.parseInt(m.group(1), 16))));
+        }
+        m.appendTail(sb);
+        return sb.toString().translateEscapes();
+    }
+}
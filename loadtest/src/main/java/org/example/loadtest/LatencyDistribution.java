@@ -0,0 +1,72 @@
+package org.example.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * mock-provider 使用的延迟分布，配置格式:
+ * <ul>
+ *     <li>{@code fixed:200} 固定 200ms</li>
+ *     <li>{@code uniform:100:500} 100~500ms 均匀分布</li>
+ *     <li>{@code lognormal:400:1500} 对数正态分布，中位数 400ms、p99 1500ms (贴近真实模型首包延迟的长尾)</li>
+ * </ul>
+ */
+public final class LatencyDistribution {
+
+    /**
+     * 标准正态分布 99 分位对应的 z 值。
+     */
+    private static final double Z_99 = 2.3263;
+
+    private final String spec;
+    private final String type;
+    private final double a;
+    private final double b;
+
+    private LatencyDistribution(String spec, String type, double a, double b) {
+        this.spec = spec;
+        this.type = type;
+        this.a = a;
+        this.b = b;
+    }
+
+    public static LatencyDistribution parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        switch (parts[0]) {
+            case "fixed":
+                return new LatencyDistribution(spec, "fixed", Double.parseDouble(parts[1]), 0);
+            case "uniform":
+                return new LatencyDistribution(spec, "uniform", Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+            case "lognormal": {
+                double median = Double.parseDouble(parts[1]);
+                double p99 = Double.parseDouble(parts[2]);
+                if (median <= 0 || p99 < median) {
+                    throw new IllegalArgumentException("lognormal 需要 0 < median <= p99: " + spec);
+                }
+                // mu = ln(median), sigma 由 p99 反推
+                return new LatencyDistribution(spec, "lognormal", Math.log(median), (Math.log(p99) - Math.log(median)) / Z_99);
+            }
+            default:
+                throw new IllegalArgumentException("未知的延迟分布: " + spec);
+        }
+    }
+
+    /**
+     * @return 一次采样 (毫秒)
+     */
+    public long sampleMillis() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (type) {
+            case "fixed":
+                return (long) a;
+            case "uniform":
+                return (long) (a + random.nextDouble() * (b - a));
+            default:
+                return (long) Math.exp(a + b * random.nextGaussian());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,40 @@
+package org.example.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * 线程安全的延迟样本收集器 (微秒)，压测结束后一次性排序求分位数。
+ */
+final class LatencyRecorder {
+
+    private long[] samples = new long[4096];
+    private int size;
+
+    synchronized void record(long micros) {
+        if (size == samples.length) {
+            samples = Arrays.copyOf(samples, size * 2);
+        }
+        samples[size++] = micros;
+    }
+
+    synchronized int count() {
+        return size;
+    }
+
+    /**
+     * @return 各分位数 (毫秒)，顺序与 quantiles 一致；无样本时全为 0
+     */
+    synchronized double[] percentilesMillis(double... quantiles) {
+        double[] result = new double[quantiles.length];
+        if (size == 0) {
+            return result;
+        }
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        for (int i = 0; i < quantiles.length; i++) {
+            int index = (int) Math.ceil(quantiles[i] * size) - 1;
+            result[i] = sorted[Math.max(0, Math.min(size - 1, index))] / 1000.0;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,349 @@
+package org.example.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 端到端压测驱动：固定并发的虚拟用户循环发起对话，统计吞吐、首句延迟 (time to first sentence) 与整轮延迟分位数。
+ * <ul>
+ *     <li>{@code --mode=ws}     /ws/directChat 流式，首句 = 第一个带 reply 的帧，整轮 = 收到 END</li>
+ *     <li>{@code --mode=direct} POST /api/directChat (同步)</li>
+ *     <li>{@code --mode=chat}   POST /api/chat (同步，每个虚拟用户持有自己的 Cookie 会话)</li>
+ * </ul>
+ * 运行: java -cp loadtest/target/loadtest.jar org.example.loadtest.LoadDriver
+ *       --target=http://localhost:8080 --mode=ws --concurrency=20 --duration=60 --warmup=10 [--report=target/ws.json]
+ */
+public final class LoadDriver {
+
+    private static final List<String> DEFAULT_MESSAGES = List.of(
+            "帮我查一下广州今天的天气",
+            "今天金价多少",
+            "你好呀，你是谁",
+            "美元兑人民币汇率是多少",
+            "我的套餐还剩多少流量",
+            "给我讲个简短的笑话");
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String target;
+    private final String mode;
+    private final int concurrency;
+    private final long durationMs;
+    private final long warmupMs;
+    private final long thinkTimeMs;
+    private final long turnTimeoutMs;
+    private final List<String> messages;
+
+    private final LatencyRecorder firstSentence = new LatencyRecorder();
+    private final LatencyRecorder turnLatency = new LatencyRecorder();
+    private final AtomicLong turns = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+
+    private LoadDriver(Map<String, String> options) throws IOException {
+        this.target = stripTrailingSlash(options.getOrDefault("target", "http://localhost:8080"));
+        this.mode = options.getOrDefault("mode", "ws");
+        this.concurrency = Integer.parseInt(options.getOrDefault("concurrency", "10"));
+        this.durationMs = TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("duration", "60")));
+        this.warmupMs = TimeUnit.SECONDS.toMillis(Long.parseLong(options.getOrDefault("warmup", "10")));
+        this.thinkTimeMs = Long.parseLong(options.getOrDefault("think-time-ms", "0"));
+        this.turnTimeoutMs = Long.parseLong(options.getOrDefault("turn-timeout-ms", "60000"));
+        this.messages = options.containsKey("messages")
+                ? Files.readAllLines(Paths.get(options.get("messages")), StandardCharsets.UTF_8).stream()
+                        .filter(line -> !line.isBlank()).toList()
+                : DEFAULT_MESSAGES;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=")) {
+                int eq = arg.indexOf('=');
+                options.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        LoadDriver driver = new LoadDriver(options);
+        driver.run();
+        Map<String, Object> report = driver.report();
+        System.out.println(driver.format(report));
+        if (options.containsKey("report")) {
+            OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(Paths.get(options.get("report")).toFile(), report);
+        }
+    }
+
+    private void run() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long measureFrom = start + warmupMs;
+        long deadline = measureFrom + durationMs;
+        CountDownLatch done = new CountDownLatch(concurrency);
+        System.out.printf("压测开始: mode=%s target=%s concurrency=%d warmup=%ds duration=%ds%n",
+                mode, target, concurrency, warmupMs / 1000, durationMs / 1000);
+
+        for (int i = 0; i < concurrency; i++) {
+            Thread vu = new Thread(() -> {
+                try (ChatSession session = openSession()) {
+                    while (System.currentTimeMillis() < deadline) {
+                        String message = messages.get(ThreadLocalRandom.current().nextInt(messages.size()));
+                        TurnResult result = session.turn(message);
+                        if (System.currentTimeMillis() >= measureFrom) {
+                            record(result);
+                        }
+                        if (thinkTimeMs > 0) {
+                            Thread.sleep(thinkTimeMs);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    System.err.println("虚拟用户异常退出: " + e);
+                    errors.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            }, "vu-" + i);
+            vu.setDaemon(true);
+            vu.start();
+        }
+        // 留出最后一轮的超时时间
+        if (!done.await(deadline - System.currentTimeMillis() + turnTimeoutMs + 5000, TimeUnit.MILLISECONDS)) {
+            System.err.println("部分虚拟用户未在超时内结束，结果只统计已完成的轮次");
+        }
+    }
+
+    private void record(TurnResult result) {
+        turns.incrementAndGet();
+        if (!result.ok()) {
+            errors.incrementAndGet();
+            return;
+        }
+        turnLatency.record(TimeUnit.NANOSECONDS.toMicros(result.totalNanos()));
+        if (result.firstSentenceNanos() >= 0) {
+            firstSentence.record(TimeUnit.NANOSECONDS.toMicros(result.firstSentenceNanos()));
+        }
+    }
+
+    private Map<String, Object> report() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("mode", mode);
+        report.put("target", target);
+        report.put("concurrency", concurrency);
+        report.put("durationSeconds", durationMs / 1000);
+        report.put("turns", turns.get());
+        report.put("errors", errors.get());
+        report.put("throughputPerSecond", turns.get() * 1000.0 / durationMs);
+        report.put("firstSentenceMs", percentiles(firstSentence));
+        report.put("turnLatencyMs", percentiles(turnLatency));
+        return report;
+    }
+
+    private static Map<String, Double> percentiles(LatencyRecorder recorder) {
+        double[] values = recorder.percentilesMillis(0.5, 0.9, 0.99, 1.0);
+        Map<String, Double> map = new LinkedHashMap<>();
+        map.put("p50", values[0]);
+        map.put("p90", values[1]);
+        map.put("p99", values[2]);
+        map.put("max", values[3]);
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private String format(Map<String, Object> report) {
+        long total = turns.get();
+        Map<String, Double> ttfs = (Map<String, Double>) report.get("firstSentenceMs");
+        Map<String, Double> turn = (Map<String, Double>) report.get("turnLatencyMs");
+        return String.format("%n==== 压测结果 (%s, 并发 %d, %ds) ====%n", mode, concurrency, durationMs / 1000)
+                + String.format("轮次: %d  失败: %d (%.2f%%)  吞吐: %.2f 轮/秒%n", total, errors.get(),
+                total == 0 ? 0 : errors.get() * 100.0 / total, report.get("throughputPerSecond"))
+                + String.format("首句延迟 (ms): p50=%.1f p90=%.1f p99=%.1f max=%.1f%n",
+                ttfs.get("p50"), ttfs.get("p90"), ttfs.get("p99"), ttfs.get("max"))
+                + String.format("整轮延迟 (ms): p50=%.1f p90=%.1f p99=%.1f max=%.1f%n",
+                turn.get("p50"), turn.get("p90"), turn.get("p99"), turn.get("max"));
+    }
+
+    private ChatSession openSession() throws Exception {
+        switch (mode) {
+            case "ws":
+                return new WebSocketSession();
+            case "direct":
+                return new HttpSession("/api/directChat");
+            case "chat":
+                return new HttpSession("/api/chat");
+            default:
+                throw new IllegalArgumentException("未知的 mode: " + mode + " (ws / direct / chat)");
+        }
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /**
+     * 一轮对话的结果；同步接口没有首句时间，firstSentenceNanos 取整轮时间。
+     */
+    private record TurnResult(boolean ok, long firstSentenceNanos, long totalNanos) {}
+
+    private interface ChatSession extends AutoCloseable {
+        TurnResult turn(String message) throws Exception;
+
+        @Override
+        void close();
+    }
+
+    /**
+     * /api/chat 与 /api/directChat：每个虚拟用户一个 HttpClient (独立 Cookie，对应独立的 HttpSession)。
+     */
+    private final class HttpSession implements ChatSession {
+
+        private final String path;
+        private final String sessionId = UUID.randomUUID().toString();
+        private final HttpClient client = HttpClient.newBuilder()
+                .cookieHandler(new CookieManager())
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        private HttpSession(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public TurnResult turn(String message) throws Exception {
+            ObjectNode body = OBJECT_MAPPER.createObjectNode().put("message", message).put("sessionId", sessionId);
+            HttpRequest request = HttpRequest.newBuilder(URI.create(target + path))
+                    .timeout(Duration.ofMillis(turnTimeoutMs))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+                    .build();
+            long start = System.nanoTime();
+            try {
+                HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+                long elapsed = System.nanoTime() - start;
+                return new TurnResult(response.statusCode() == 200, elapsed, elapsed);
+            } catch (IOException e) {
+                return new TurnResult(false, -1, System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void close() {
+            // HttpClient 无需显式关闭 (JDK 17)
+        }
+    }
+
+    /**
+     * /ws/directChat：每个虚拟用户一条长连接，同一 sessionId 连续多轮。
+     */
+    private final class WebSocketSession implements ChatSession, WebSocket.Listener {
+
+        private final String sessionId = UUID.randomUUID().toString();
+        private final WebSocket webSocket;
+        private final StringBuilder partial = new StringBuilder();
+        private volatile CompletableFuture<Boolean> currentTurn;
+        private volatile long turnStart;
+        private volatile long firstSentenceAt;
+
+        private WebSocketSession() throws Exception {
+            String wsUrl = target.replaceFirst("^http", "ws") + "/ws/directChat";
+            this.webSocket = HttpClient.newHttpClient().newWebSocketBuilder()
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .buildAsync(URI.create(wsUrl), this)
+                    .get(10, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public TurnResult turn(String message) throws Exception {
+            CompletableFuture<Boolean> turn = new CompletableFuture<>();
+            firstSentenceAt = -1;
+            currentTurn = turn;
+            turnStart = System.nanoTime();
+            ObjectNode body = OBJECT_MAPPER.createObjectNode().put("message", message).put("sessionId", sessionId);
+            webSocket.sendText(body.toString(), true).get(5, TimeUnit.SECONDS);
+            boolean ok;
+            try {
+                ok = turn.get(turnTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                ok = false;
+            }
+            long total = System.nanoTime() - turnStart;
+            long first = firstSentenceAt;
+            return new TurnResult(ok, first < 0 ? -1 : first - turnStart, total);
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            if (last) {
+                String frame = partial.toString();
+                partial.setLength(0);
+                onFrame(frame);
+            }
+            webSocket.request(1);
+            return null;
+        }
+
+        private void onFrame(String frame) {
+            CompletableFuture<Boolean> turn = currentTurn;
+            if (turn == null) {
+                return;
+            }
+            try {
+                JsonNode node = OBJECT_MAPPER.readTree(frame);
+                String status = node.path("streamStatus").asText("");
+                if ("END".equals(status)) {
+                    turn.complete(true);
+                } else if ("ERROR".equals(status)) {
+                    turn.complete(false);
+                } else if (!node.path("reply").isNull() && !node.path("reply").asText("").isEmpty() && firstSentenceAt < 0) {
+                    firstSentenceAt = System.nanoTime();
+                }
+            } catch (IOException e) {
+                turn.complete(false);
+            }
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            CompletableFuture<Boolean> turn = currentTurn;
+            if (turn != null) {
+                turn.complete(false);
+            }
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            CompletableFuture<Boolean> turn = currentTurn;
+            if (turn != null) {
+                turn.complete(false);
+            }
+        }
+
+        @Override
+        public void close() {
+            webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "done");
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.example.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * mock-provider 的行为配置。优先级: 命令行 --key=value > --config 指定的文件 > 内置 mock-provider.properties。
+ */
+public final class MockProfile {
+
+    private final Properties props;
+
+    private MockProfile(Properties props) {
+        this.props = props;
+    }
+
+    public static MockProfile load(String[] args) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = MockProfile.class.getResourceAsStream("/mock-provider.properties")) {
+            if (in != null) {
+                props.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+            }
+        }
+        for (String arg : args) {
+            if (arg.startsWith("--config=")) {
+                try (Reader reader = Files.newBufferedReader(Paths.get(arg.substring("--config=".length())), StandardCharsets.UTF_8)) {
+                    props.load(reader);
+                }
+            }
+        }
+        for (String arg : args) {
+            if (arg.startsWith("--") && arg.contains("=") && !arg.startsWith("--config=")) {
+                int eq = arg.indexOf('=');
+                props.setProperty(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return new MockProfile(props);
+    }
+
+    public int port() {
+        return Integer.parseInt(props.getProperty("mock.port", "18080"));
+    }
+
+    public int workerThreads() {
+        return Integer.parseInt(props.getProperty("mock.worker-threads", "256"));
+    }
+
+    // --- 大模型 (DashScope / 方舟) ---
+
+    /**
+     * 同步接口的整体响应时间；流式接口的首包时间。
+     */
+    public LatencyDistribution llmLatency() {
+        return LatencyDistribution.parse(props.getProperty("mock.llm.latency", "lognormal:400:1500"));
+    }
+
+    public double llmTokensPerSecond() {
+        return Double.parseDouble(props.getProperty("mock.llm.tokens-per-second", "40"));
+    }
+
+    /**
+     * 每个流式帧携带的字符数 (近似 1 字符 = 1 Token)。
+     */
+    public int llmChunkChars() {
+        return Integer.parseInt(props.getProperty("mock.llm.chunk-chars", "4"));
+    }
+
+    public int llmReplyChars() {
+        return Integer.parseInt(props.getProperty("mock.llm.reply-chars", "120"));
+    }
+
+    /**
+     * 请求携带 tools 且最后一条是用户消息时，返回 tool_calls 的概率。
+     */
+    public double llmToolCallRatio() {
+        return Double.parseDouble(props.getProperty("mock.llm.tool-call-ratio", "0.5"));
+    }
+
+    /**
+     * 允许 mock 发起调用的工具 (逗号分隔)，只会从请求里实际提供的工具中挑选。
+     */
+    public String llmToolNames() {
+        return props.getProperty("mock.llm.tool-names", "getWeather,getOilPrice,getGoldPrice,getExchangeRate,getCurrentTimeByCity");
+    }
+
+    public double llmErrorRate() {
+        return Double.parseDouble(props.getProperty("mock.llm.error-rate", "0"));
+    }
+
+    public int llmErrorStatus() {
+        return Integer.parseInt(props.getProperty("mock.llm.error-status", "500"));
+    }
+
+    /**
+     * 流式输出中途被截断 (缺少结束帧) 的概率。
+     */
+    public double llmStreamAbortRate() {
+        return Double.parseDouble(props.getProperty("mock.llm.stream-abort-rate", "0"));
+    }
+
+    // --- 工具 (云市场 / DashScope MCP) ---
+
+    public LatencyDistribution toolLatency() {
+        return LatencyDistribution.parse(props.getProperty("mock.tool.latency", "lognormal:80:400"));
+    }
+
+    public double toolErrorRate() {
+        return Double.parseDouble(props.getProperty("mock.tool.error-rate", "0"));
+    }
+
+    public int toolErrorStatus() {
+        return Integer.parseInt(props.getProperty("mock.tool.error-status", "502"));
+    }
+
+    @Override
+    public String toString() {
+        return "port=" + port() + ", llm.latency=" + llmLatency() + ", llm.tokens-per-second=" + llmTokensPerSecond()
+                + ", llm.tool-call-ratio=" + llmToolCallRatio() + ", llm.error-rate=" + llmErrorRate()
+                + ", llm.stream-abort-rate=" + llmStreamAbortRate()
+                + ", tool.latency=" + toolLatency() + ", tool.error-rate=" + toolErrorRate();
+    }
+}
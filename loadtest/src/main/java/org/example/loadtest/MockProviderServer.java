@@ -0,0 +1,414 @@
+package org.example.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地 mock-provider：在一个端口上模拟 llm-agent 依赖的全部外部接口，压测时不消耗任何真实额度。
+ * <ul>
+ *     <li>{@code POST /api/v1/services/aigc/text-generation/generation} DashScope 文本生成，
+ *         同步 JSON 与 {@code X-DashScope-SSE: enable} 流式 (支持 incremental_output)</li>
+ *     <li>{@code POST /api/v1/mcps/{server}/sse} DashScope MCP (天气 / 联网搜索)</li>
+ *     <li>{@code POST /api/v3/chat/completions} 火山方舟 (同步与 stream=true)</li>
+ *     <li>其余路径: 云市场工具接口，返回同时满足 ToolService 各解析分支的通用 JSON</li>
+ * </ul>
+ * 延迟分布、输出速率、工具调用比例、错误注入见 {@link MockProfile}。
+ * <p>
+ * 运行: java -cp loadtest/target/loadtest.jar org.example.loadtest.MockProviderServer [--mock.llm.error-rate=0.05 ...]
+ * llm-agent 以 loadtest profile 启动即指向本服务: --spring.profiles.active=loadtest
+ */
+public final class MockProviderServer {
+
+    private static final List<String> REPLY_SENTENCES = List.of(
+            "广州今天晴转多云，气温二十二到二十九度。",
+            "东南风二到三级，空气质量良。",
+            "适合出门走走，记得带把伞以防午后阵雨。",
+            "如果还有别的问题，随时问我哦！",
+            "您当前的套餐每月包含三十G流量和五百分钟通话。",
+            "需要的话我可以帮您对比一下其他套餐。");
+
+    private static final Map<String, String> SAMPLE_ARGS = Map.of(
+            "city", "广州",
+            "date", LocalDate.now().toString(),
+            "currency", "USD",
+            "code", "600519",
+            "query", "今日新闻",
+            "planName1", "畅享套餐",
+            "planName2", "5G尊享套餐");
+
+    private final MockProfile profile;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, LongAdder> requestCounts = new ConcurrentHashMap<>();
+    private final LongAdder injectedErrors = new LongAdder();
+    private HttpServer server;
+
+    public MockProviderServer(MockProfile profile) {
+        this.profile = profile;
+    }
+
+    public static void main(String[] args) throws IOException {
+        // 关闭 Nagle：响应头与响应体分两次写出时，否则会叠加约 40ms 的延迟确认，污染延迟分布
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        MockProfile profile = MockProfile.load(args);
+        MockProviderServer mock = new MockProviderServer(profile);
+        mock.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(mock::stop));
+        System.out.println("mock-provider 已启动: " + profile);
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(profile.port()), 1024);
+        server.createContext("/api/v1/services/aigc/text-generation/generation", exchange -> handle(exchange, "dashscope", this::dashscopeGeneration));
+        server.createContext("/api/v1/mcps/", exchange -> handle(exchange, "dashscope-mcp", this::dashscopeMcp));
+        server.createContext("/api/v3/chat/completions", exchange -> handle(exchange, "ark", this::arkChatCompletions));
+        server.createContext("/", exchange -> handle(exchange, "market", this::marketApi));
+        ExecutorService executor = Executors.newFixedThreadPool(profile.workerThreads());
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            System.out.println("mock-provider 请求统计: " + requestCounts + ", 注入错误: " + injectedErrors.sum());
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange) throws Exception;
+    }
+
+    private void handle(HttpExchange exchange, String endpoint, Handler handler) {
+        requestCounts.computeIfAbsent(endpoint, k -> new LongAdder()).increment();
+        try {
+            handler.handle(exchange);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // 客户端提前断开 (取消 / 超时) 属于正常情况
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // DashScope 文本生成
+    // ------------------------------------------------------------------
+
+    private void dashscopeGeneration(HttpExchange exchange) throws Exception {
+        JsonNode request = readJson(exchange);
+        String requestId = UUID.randomUUID().toString();
+        if (injectError(profile.llmErrorRate(), profile.llmErrorStatus(), exchange,
+                "{\"code\":\"InternalError\",\"message\":\"mock injected error\",\"request_id\":\"" + requestId + "\"}")) {
+            return;
+        }
+        JsonNode messages = request.path("input").path("messages");
+        JsonNode parameters = request.path("parameters");
+        int inputTokens = estimateInputTokens(messages);
+        boolean sse = "enable".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("X-DashScope-SSE"));
+
+        if (!sse) {
+            Thread.sleep(profile.llmLatency().sampleMillis());
+            ObjectNode message = objectMapper.createObjectNode().put("role", "assistant");
+            ObjectNode toolCall = pickToolCall(messages, parameters.path("tools"));
+            String content = toolCall == null ? replyText(profile.llmReplyChars()) : "";
+            message.put("content", content);
+            if (toolCall != null) {
+                message.set("tool_calls", objectMapper.createArrayNode().add(toolCall));
+            }
+            ObjectNode body = objectMapper.createObjectNode();
+            body.putObject("output").putArray("choices").addObject()
+                    .put("finish_reason", toolCall == null ? "stop" : "tool_calls")
+                    .set("message", message);
+            body.set("usage", qwenUsage(inputTokens, content.length()));
+            body.put("request_id", requestId);
+            sendJson(exchange, 200, body.toString());
+            return;
+        }
+
+        boolean incremental = parameters.path("incremental_output").asBoolean(false);
+        String reply = replyText(profile.llmReplyChars());
+        List<String> chunks = split(reply, profile.llmChunkChars());
+        int abortAt = abortFrame(chunks.size());
+        OutputStream out = startSse(exchange);
+        Thread.sleep(profile.llmLatency().sampleMillis());
+
+        StringBuilder cumulative = new StringBuilder();
+        for (int i = 0; i < chunks.size(); i++) {
+            if (i > 0) {
+                Thread.sleep(frameIntervalMillis());
+            }
+            if (i == abortAt) {
+                // 模拟上游中途截断：没有 finish_reason=stop 的结束帧就结束响应
+                injectedErrors.increment();
+                return;
+            }
+            cumulative.append(chunks.get(i));
+            ObjectNode frame = objectMapper.createObjectNode();
+            frame.putObject("output").putArray("choices").addObject()
+                    .put("finish_reason", i == chunks.size() - 1 ? "stop" : "null")
+                    .putObject("message")
+                    .put("role", "assistant")
+                    .put("content", incremental ? chunks.get(i) : cumulative.toString());
+            frame.set("usage", qwenUsage(inputTokens, cumulative.length()));
+            frame.put("request_id", requestId);
+            writeSse(out, "id:" + (i + 1) + "\nevent:result\n:HTTP_STATUS/200\ndata:" + frame + "\n\n");
+        }
+    }
+
+    /**
+     * DashScope MCP (amap-maps / webSearch)：SSE 输出若干 output.text 块。
+     */
+    private void dashscopeMcp(HttpExchange exchange) throws Exception {
+        readJson(exchange);
+        if (injectError(profile.toolErrorRate(), profile.toolErrorStatus(), exchange,
+                "{\"code\":\"InternalError\",\"message\":\"mock injected error\"}")) {
+            return;
+        }
+        Thread.sleep(profile.toolLatency().sampleMillis());
+        OutputStream out = startSse(exchange);
+        for (String sentence : REPLY_SENTENCES.subList(0, 3)) {
+            ObjectNode frame = objectMapper.createObjectNode();
+            frame.putObject("output").put("text", sentence);
+            writeSse(out, "data:" + frame + "\n\n");
+        }
+        writeSse(out, "data:[DONE]\n\n");
+    }
+
+    // ------------------------------------------------------------------
+    // 火山方舟 chat/completions (OpenAI 兼容)
+    // ------------------------------------------------------------------
+
+    private void arkChatCompletions(HttpExchange exchange) throws Exception {
+        JsonNode request = readJson(exchange);
+        String id = "mock-" + UUID.randomUUID();
+        if (injectError(profile.llmErrorRate(), profile.llmErrorStatus(), exchange,
+                "{\"error\":{\"code\":\"InternalServiceError\",\"message\":\"mock injected error\"}}")) {
+            return;
+        }
+        JsonNode messages = request.path("messages");
+        String model = request.path("model").asText("mock-model");
+        int inputTokens = estimateInputTokens(messages);
+
+        if (!request.path("stream").asBoolean(false)) {
+            Thread.sleep(profile.llmLatency().sampleMillis());
+            ObjectNode toolCall = pickToolCall(messages, request.path("tools"));
+            String content = toolCall == null ? replyText(profile.llmReplyChars()) : "";
+            ObjectNode body = objectMapper.createObjectNode()
+                    .put("id", id)
+                    .put("object", "chat.completion")
+                    .put("created", System.currentTimeMillis() / 1000)
+                    .put("model", model);
+            ObjectNode choice = body.putArray("choices").addObject()
+                    .put("index", 0)
+                    .put("finish_reason", toolCall == null ? "stop" : "tool_calls");
+            ObjectNode message = choice.putObject("message").put("role", "assistant").put("content", content);
+            if (toolCall != null) {
+                message.set("tool_calls", objectMapper.createArrayNode().add(toolCall));
+            }
+            body.putObject("usage")
+                    .put("prompt_tokens", inputTokens)
+                    .put("completion_tokens", content.length())
+                    .put("total_tokens", inputTokens + content.length());
+            sendJson(exchange, 200, body.toString());
+            return;
+        }
+
+        List<String> chunks = split(replyText(profile.llmReplyChars()), profile.llmChunkChars());
+        int abortAt = abortFrame(chunks.size());
+        OutputStream out = startSse(exchange);
+        Thread.sleep(profile.llmLatency().sampleMillis());
+        for (int i = 0; i < chunks.size(); i++) {
+            if (i > 0) {
+                Thread.sleep(frameIntervalMillis());
+            }
+            if (i == abortAt) {
+                injectedErrors.increment();
+                return;
+            }
+            ObjectNode frame = objectMapper.createObjectNode()
+                    .put("id", id)
+                    .put("object", "chat.completion.chunk")
+                    .put("model", model);
+            ObjectNode choice = frame.putArray("choices").addObject().put("index", 0);
+            choice.putObject("delta").put("content", chunks.get(i));
+            if (i == chunks.size() - 1) {
+                choice.put("finish_reason", "stop");
+            }
+            writeSse(out, "data: " + frame + "\n\n");
+        }
+        writeSse(out, "data: [DONE]\n\n");
+    }
+
+    // ------------------------------------------------------------------
+    // 云市场工具接口
+    // ------------------------------------------------------------------
+
+    private void marketApi(HttpExchange exchange) throws Exception {
+        exchange.getRequestBody().readAllBytes();
+        if (injectError(profile.toolErrorRate(), profile.toolErrorStatus(), exchange,
+                "{\"code\":" + profile.toolErrorStatus() + ",\"msg\":\"mock injected error\"}")) {
+            return;
+        }
+        Thread.sleep(profile.toolLatency().sampleMillis());
+        // ToolService 各方法分别读取 showapi_res_body / data / data.list[0]，这里一次性都给
+        ObjectNode item = objectMapper.createObjectNode()
+                .put("name", "mock")
+                .put("value", "42.00")
+                .put("updateTime", LocalDate.now().toString())
+                .put("path", exchange.getRequestURI().getPath());
+        ObjectNode body = objectMapper.createObjectNode().put("code", 200).put("msg", "success");
+        body.put("showapi_res_code", 0);
+        body.putObject("showapi_res_body").put("ret_code", 0).put("remark", "mock").set("f1", item.deepCopy());
+        ObjectNode data = body.putObject("data");
+        data.setAll(item.deepCopy());
+        data.putArray("list").add(item);
+        sendJson(exchange, 200, body.toString());
+    }
+
+    // ------------------------------------------------------------------
+    // 工具方法
+    // ------------------------------------------------------------------
+
+    /**
+     * 最后一条是用户消息且请求携带 tools 时，按比例挑选一个允许的工具生成 tool_call；工具结果回传后一律返回文本。
+     */
+    private ObjectNode pickToolCall(JsonNode messages, JsonNode tools) {
+        if (!tools.isArray() || tools.isEmpty() || !messages.isArray() || messages.isEmpty()) {
+            return null;
+        }
+        if (!"user".equals(messages.get(messages.size() - 1).path("role").asText())) {
+            return null;
+        }
+        if (ThreadLocalRandom.current().nextDouble() >= profile.llmToolCallRatio()) {
+            return null;
+        }
+        List<String> allowed = Arrays.asList(profile.llmToolNames().split("\\s*,\\s*"));
+        List<JsonNode> candidates = new ArrayList<>();
+        for (JsonNode tool : tools) {
+            if (allowed.contains(tool.path("function").path("name").asText())) {
+                candidates.add(tool.path("function"));
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        JsonNode function = candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+        ObjectNode arguments = objectMapper.createObjectNode();
+        for (JsonNode required : function.path("parameters").path("required")) {
+            arguments.put(required.asText(), SAMPLE_ARGS.getOrDefault(required.asText(), "广州"));
+        }
+        ObjectNode toolCall = objectMapper.createObjectNode()
+                .put("id", "call_" + UUID.randomUUID().toString().replace("-", "").substring(0, 16))
+                .put("type", "function");
+        toolCall.putObject("function")
+                .put("name", function.path("name").asText())
+                .put("arguments", arguments.toString());
+        return toolCall;
+    }
+
+    private boolean injectError(double rate, int status, HttpExchange exchange, String body) throws IOException {
+        if (rate <= 0 || ThreadLocalRandom.current().nextDouble() >= rate) {
+            return false;
+        }
+        injectedErrors.increment();
+        exchange.getRequestBody().readAllBytes();
+        sendJson(exchange, status, body);
+        return true;
+    }
+
+    /**
+     * @return 需要中途断流的帧序号，不断流时返回 -1
+     */
+    private int abortFrame(int frames) {
+        if (frames < 2 || ThreadLocalRandom.current().nextDouble() >= profile.llmStreamAbortRate()) {
+            return -1;
+        }
+        return 1 + ThreadLocalRandom.current().nextInt(frames - 1);
+    }
+
+    private long frameIntervalMillis() {
+        return (long) (profile.llmChunkChars() * 1000.0 / profile.llmTokensPerSecond());
+    }
+
+    private static String replyText(int chars) {
+        StringBuilder sb = new StringBuilder();
+        int start = ThreadLocalRandom.current().nextInt(REPLY_SENTENCES.size());
+        for (int i = start; sb.length() < chars; i++) {
+            sb.append(REPLY_SENTENCES.get(i % REPLY_SENTENCES.size()));
+        }
+        return sb.toString();
+    }
+
+    private static List<String> split(String text, int size) {
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < text.length(); i += size) {
+            chunks.add(text.substring(i, Math.min(text.length(), i + size)));
+        }
+        return chunks;
+    }
+
+    private static int estimateInputTokens(JsonNode messages) {
+        int chars = 0;
+        for (JsonNode message : messages) {
+            chars += message.path("content").asText("").length();
+        }
+        return chars;
+    }
+
+    private ObjectNode qwenUsage(int inputTokens, int outputTokens) {
+        return objectMapper.createObjectNode()
+                .put("input_tokens", inputTokens)
+                .put("output_tokens", outputTokens)
+                .put("total_tokens", inputTokens + outputTokens);
+    }
+
+    private JsonNode readJson(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readAllBytes();
+            return bytes.length == 0 ? objectMapper.createObjectNode() : objectMapper.readTree(bytes);
+        }
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static OutputStream startSse(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+        return exchange.getResponseBody();
+    }
+
+    private static void writeSse(OutputStream out, String event) throws IOException {
+        out.write(event.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
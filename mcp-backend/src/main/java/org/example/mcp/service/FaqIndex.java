@@ -0,0 +1,260 @@
+package org.example.mcp.service;
+
+import org.example.mcp.db.entity.FaqKb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 【新增】faq_kb 的内存倒排索引 (不可变，刷新时整体替换)。
+ * <p>
+ * <ul>
+ *     <li>分词：中文按单字 + 相邻二字切分，连续的字母 / 数字作为一个词并转小写，全角字符先转半角；</li>
+ *     <li>打分：BM25，intent_key 中的词按 {@link #KEY_WEIGHT} 倍计入词频与文档长度 (简化的 BM25F)；</li>
+ *     <li>同义词：查询中出现的同义词会替换出其他写法一并检索 (如 "合约期" 同时检索 "优惠期")；</li>
+ *     <li>覆盖率：命中的查询词 IDF 之和 / 全部查询词 IDF 之和 (取各写法中最高者)，用于过滤只沾了一两个字的结果。</li>
+ * </ul>
+ * 文档量在数百条量级，查询为一次倒排遍历 + 小数组累加，耗时在微秒级。
+ */
+public final class FaqIndex {
+
+    public static final FaqIndex EMPTY = new FaqIndex(List.of(), Map.of());
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final int KEY_WEIGHT = 3;
+    private static final int MAX_VARIANTS = 16;
+
+    /**
+     * 单条检索结果。
+     *
+     * @param coverage 查询词 (按 IDF 加权) 被该条 FAQ 覆盖的比例，0~1
+     */
+    public record Hit(String intent, String answer, double score, double coverage) {}
+
+    private final List<FaqKb> docs;
+    private final Map<String, FaqKb> byIntent;
+    private final Map<String, int[]> postingDocs;
+    private final Map<String, int[]> postingFreqs;
+    private final int[] docLengths;
+    private final double avgDocLength;
+    private final Map<String, List<String>> synonyms;
+
+    private FaqIndex(List<FaqKb> faqs, Map<String, List<String>> synonyms) {
+        this.docs = List.copyOf(faqs);
+        this.synonyms = synonyms;
+        this.docLengths = new int[docs.size()];
+        Map<String, FaqKb> intents = new HashMap<>();
+        Map<String, List<int[]>> postings = new HashMap<>();
+        long totalLength = 0;
+        for (int doc = 0; doc < docs.size(); doc++) {
+            FaqKb faq = docs.get(doc);
+            intents.putIfAbsent(faq.getIntentKey(), faq);
+            Map<String, Integer> tf = new HashMap<>();
+            for (String term : tokenize(faq.getIntentKey())) {
+                tf.merge(term, KEY_WEIGHT, Integer::sum);
+            }
+            for (String term : tokenize(faq.getAnswerText())) {
+                tf.merge(term, 1, Integer::sum);
+            }
+            int length = 0;
+            for (Map.Entry<String, Integer> e : tf.entrySet()) {
+                postings.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(new int[]{doc, e.getValue()});
+                length += e.getValue();
+            }
+            docLengths[doc] = length;
+            totalLength += length;
+        }
+        this.byIntent = intents;
+        this.avgDocLength = docs.isEmpty() ? 1 : Math.max(1.0, (double) totalLength / docs.size());
+        this.postingDocs = new HashMap<>(postings.size() * 2);
+        this.postingFreqs = new HashMap<>(postings.size() * 2);
+        postings.forEach((term, list) -> {
+            int[] ids = new int[list.size()];
+            int[] freqs = new int[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                ids[i] = list.get(i)[0];
+                freqs[i] = list.get(i)[1];
+            }
+            postingDocs.put(term, ids);
+            postingFreqs.put(term, freqs);
+        });
+    }
+
+    /**
+     * @param synonymSpec 同义词组，组之间用 ";" 分隔，组内用 "," 分隔，如 "合约期,优惠期;违约金,解约费"
+     */
+    public static FaqIndex build(List<FaqKb> faqs, String synonymSpec) {
+        List<FaqKb> valid = faqs.stream()
+                .filter(f -> f.getIntentKey() != null && !f.getIntentKey().isBlank() && f.getAnswerText() != null)
+                .toList();
+        return new FaqIndex(valid, parseSynonyms(synonymSpec));
+    }
+
+    public int size() {
+        return docs.size();
+    }
+
+    /**
+     * intent_key 完全一致的条目 (与旧版数据库查询语义相同)。
+     */
+    public FaqKb exact(String intent) {
+        return byIntent.get(intent);
+    }
+
+    /**
+     * BM25 检索，返回覆盖率不低于 minCoverage 的前 k 条，按分数降序。
+     */
+    public List<Hit> search(String query, int k, double minCoverage) {
+        if (docs.isEmpty() || query == null || query.isBlank() || k <= 0) {
+            return List.of();
+        }
+        // 原查询 + 每个同义词替换后的写法；打分用所有写法的词并集，覆盖率取各写法中最高的一个
+        List<String> variants = variants(normalize(query));
+        Map<String, Integer> termVariants = new LinkedHashMap<>();
+        for (int v = 0; v < variants.size(); v++) {
+            for (String term : tokenize(variants.get(v))) {
+                termVariants.merge(term, 1 << v, (a, b) -> a | b);
+            }
+        }
+        int n = docs.size();
+        double[] scores = new double[n];
+        double[][] covered = new double[variants.size()][n];
+        double[] totalIdf = new double[variants.size()];
+        for (Map.Entry<String, Integer> entry : termVariants.entrySet()) {
+            int[] ids = postingDocs.get(entry.getKey());
+            double idf = idf(ids == null ? 0 : ids.length, n);
+            int mask = entry.getValue();
+            for (int v = 0; v < variants.size(); v++) {
+                if ((mask & (1 << v)) != 0) totalIdf[v] += idf;
+            }
+            if (ids == null) {
+                continue;
+            }
+            int[] freqs = postingFreqs.get(entry.getKey());
+            for (int i = 0; i < ids.length; i++) {
+                int doc = ids[i];
+                double tf = freqs[i];
+                scores[doc] += idf * tf * (K1 + 1) / (tf + K1 * (1 - B + B * docLengths[doc] / avgDocLength));
+                for (int v = 0; v < variants.size(); v++) {
+                    if ((mask & (1 << v)) != 0) covered[v][doc] += idf;
+                }
+            }
+        }
+        List<Hit> hits = new ArrayList<>();
+        for (int doc = 0; doc < n; doc++) {
+            if (scores[doc] <= 0) {
+                continue;
+            }
+            double coverage = 0;
+            for (int v = 0; v < variants.size(); v++) {
+                if (totalIdf[v] > 0) coverage = Math.max(coverage, covered[v][doc] / totalIdf[v]);
+            }
+            if (coverage < minCoverage) {
+                continue;
+            }
+            FaqKb faq = docs.get(doc);
+            hits.add(new Hit(faq.getIntentKey(), faq.getAnswerText(), scores[doc], Math.min(1.0, coverage)));
+        }
+        hits.sort((a, b) -> Double.compare(b.score(), a.score()));
+        return hits.size() > k ? new ArrayList<>(hits.subList(0, k)) : hits;
+    }
+
+    private List<String> variants(String normalizedQuery) {
+        List<String> variants = new ArrayList<>();
+        variants.add(normalizedQuery);
+        for (Map.Entry<String, List<String>> e : synonyms.entrySet()) {
+            if (!normalizedQuery.contains(e.getKey())) {
+                continue;
+            }
+            for (String alternative : e.getValue()) {
+                if (variants.size() >= MAX_VARIANTS) {
+                    return variants;
+                }
+                variants.add(normalizedQuery.replace(e.getKey(), alternative));
+            }
+        }
+        return variants;
+    }
+
+    private static double idf(int docFreq, int n) {
+        return Math.log(1 + (n - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    private static Map<String, List<String>> parseSynonyms(String spec) {
+        if (spec == null || spec.isBlank()) {
+            return Map.of();
+        }
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        for (String group : spec.split(";")) {
+            List<String> words = Arrays.stream(group.split(","))
+                    .map(FaqIndex::normalize).map(String::trim).filter(w -> !w.isEmpty()).distinct().toList();
+            for (String word : words) {
+                List<String> others = new ArrayList<>(words);
+                others.remove(word);
+                if (!others.isEmpty()) {
+                    result.computeIfAbsent(word, w -> new ArrayList<>()).addAll(others);
+                }
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * 全角转半角并转小写。
+     */
+    static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '　') {
+                c = ' ';
+            } else if (c >= '！' && c <= '～') {
+                c = (char) (c - 0xFEE0);
+            }
+            sb.append(Character.toLowerCase(c));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 中文单字 + 二字组，字母数字串整体作为一个词；标点与空白只作为分隔。
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String s = normalize(text);
+        int i = 0;
+        char previousHan = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (Character.isLetterOrDigit(c) && c < 0x80) {
+                int start = i;
+                while (i < s.length() && s.charAt(i) < 0x80 && Character.isLetterOrDigit(s.charAt(i))) {
+                    i++;
+                }
+                tokens.add(s.substring(start, i));
+                previousHan = 0;
+                continue;
+            }
+            if (Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN) {
+                tokens.add(String.valueOf(c));
+                if (previousHan != 0) {
+                    tokens.add(new String(new char[]{previousHan, c}));
+                }
+                previousHan = c;
+            } else {
+                previousHan = 0;
+            }
+            i++;
+        }
+        return tokens;
+    }
+}
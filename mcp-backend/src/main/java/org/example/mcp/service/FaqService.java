@@ -2,21 +2,30 @@ package org.example.mcp.service;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.example.mcp.db.entity.FaqKb;
 import org.example.mcp.db.mapper.FaqMapper; // <-- 【修改】
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.InputStream;
-import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 【重构】
  * 此服务现在从数据库 (faq_kb) 读取数据，
  * 不再依赖于类路径下的 faq.json 文件。
+ * 【新增】faq_kb 整表加载为内存 BM25 索引 ({@link FaqIndex})，按 intent_key 精确命中优先，否则返回最相近的 top-k；
+ * 后台按 行数 / 最大 id / 最大 updated_at 指纹轮询，表有变化时重建索引。索引不可用时退回原来的数据库精确查询。
  */
 @Service
 public class FaqService {
@@ -26,32 +35,153 @@ public class FaqService {
     // ObjectMapper 仍然保留，因为我们返回的是一个 JSON 字符串
     private final ObjectMapper mapper = new ObjectMapper();
 
-    public FaqService(FaqMapper faqMapper) { // <-- 【修改】
+    // 【新增】默认同义词组 (套餐常见的不同说法)，可用 faq.index.synonyms 覆盖
+    private static final String DEFAULT_SYNONYMS = "合约期,优惠期,协议期;违约金,解约费,违约费;月租,月费,套餐费;升档,升级,换高档套餐;降档,降级";
+
+    private final boolean indexEnabled;
+    private final long refreshIntervalMs;
+    private final int topK;
+    private final double minCoverage;
+    private final String synonyms;
+
+    private volatile FaqIndex index = FaqIndex.EMPTY;
+    private volatile String indexFingerprint;
+    private ScheduledExecutorService refresher;
+
+    public FaqService(FaqMapper faqMapper, // <-- 【修改】
+                      @Value("${faq.index.enabled:true}") boolean indexEnabled,
+                      @Value("${faq.index.refresh-interval-ms:60000}") long refreshIntervalMs,
+                      @Value("${faq.index.top-k:3}") int topK,
+                      @Value("${faq.index.min-coverage:0.35}") double minCoverage,
+                      @Value("${faq.index.synonyms:" + DEFAULT_SYNONYMS + "}") String synonyms) {
         this.faqMapper = faqMapper;
+        this.indexEnabled = indexEnabled;
+        this.refreshIntervalMs = refreshIntervalMs;
+        this.topK = Math.max(1, topK);
+        this.minCoverage = minCoverage;
+        this.synonyms = synonyms;
+    }
+
+    /**
+     * 【修改】启动时构建索引 (数据库不可用时不阻止启动，之后由后台刷新补上)，并启动变更轮询。
+     */
+    @PostConstruct
+    public void init() {
+        if (!indexEnabled) {
+            return;
+        }
+        refreshIndex();
+        if (refreshIntervalMs > 0) {
+            refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "faq-index-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+            refresher.scheduleWithFixedDelay(this::refreshIndex, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    /**
+     * 【新增】表指纹变化时重建索引；指纹查询本身只是一条聚合 SQL。
+     */
+    public void refreshIndex() {
+        try {
+            String fingerprint = fingerprint();
+            if (index.size() > 0 && Objects.equals(fingerprint, indexFingerprint)) {
+                return;
+            }
+            long start = System.nanoTime();
+            List<FaqKb> faqs = faqMapper.selectList(null);
+            index = FaqIndex.build(faqs, synonyms);
+            indexFingerprint = fingerprint;
+            log.info("FaqService: FAQ 索引已重建，共 {} 条，耗时 {} ms", index.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Exception e) {
+            log.warn("FaqService: 刷新 FAQ 索引失败，继续使用现有索引 ({} 条): {}", index.size(), e.getMessage());
+        }
+    }
+
+    private String fingerprint() {
+        QueryWrapper<FaqKb> query = new QueryWrapper<>();
+        query.select("COUNT(*) AS cnt", "MAX(id) AS max_id", "MAX(updated_at) AS latest");
+        List<Map<String, Object>> rows = faqMapper.selectMaps(query);
+        return rows.isEmpty() || rows.get(0) == null ? "" : rows.get(0).toString();
     }
 
     /**
-     * 【删除】
-     * init() 方法不再需要，数据已在数据库中。
+     * 【新增】BM25 检索 top-k (覆盖率低于 faq.index.min-coverage 的结果不返回)。
      */
-    // @PostConstruct
-    // public void init() { ... }
+    public List<FaqIndex.Hit> search(String query, int k) {
+        return index.search(query, k, minCoverage);
+    }
 
     /**
-     * 【重构】根据意图（问题）从数据库获取标准答案
-     * @param intent 用户的核心问题，与faq_kb表中的key对应
+     * 【重构】根据意图（问题）获取标准答案
+     * @param intent 用户的核心问题，与faq_kb表中的key对应 (【修改】不必逐字一致，按相似度检索)
      * @return 对应的答案，如果找不到则返回提示信息
      */
     public String getAnswerForIntent(String intent) {
-        log.info("FaqService: 正在从数据库查询FAQ, 意图: '{}'", intent);
+        log.info("FaqService: 正在查询FAQ, 意图: '{}'", intent);
 
         if (intent == null || intent.trim().isEmpty()) {
             log.warn("FaqService: 查询意图为空或空白字符串。");
             return "{\"error\": \"查询意图不能为空\"}";
         }
 
-        // 【修改】使用 MyBatis-Plus QueryWrapper 按 intent_key 查询
-        // SELECT * FROM faq_kb WHERE intent_key = ?
+        FaqIndex current = index;
+        if (!indexEnabled || current.size() == 0) {
+            return answerFromDatabase(intent);
+        }
+
+        FaqKb exact = current.exact(intent);
+        if (exact != null) {
+            return answerJson(exact.getIntentKey(), exact.getAnswerText(), null, List.of());
+        }
+
+        List<FaqIndex.Hit> hits = current.search(intent, topK, minCoverage);
+        if (hits.isEmpty()) {
+            log.warn("FaqService: 在FAQ数据中未找到意图 '{}' 对应的答案。", intent);
+            return String.format("{\"error\": \"没有找到关于 '%s' 的标准回答。\"}", intent);
+        }
+        FaqIndex.Hit best = hits.get(0);
+        log.info("FaqService: 意图 '{}' 匹配到 '{}' (score={}, coverage={})", intent, best.intent(),
+                String.format("%.2f", best.score()), String.format("%.2f", best.coverage()));
+        return answerJson(best.intent(), best.answer(), best, hits.subList(1, hits.size()));
+    }
+
+    /**
+     * 保持返回的 JSON 格式与以前一致 (intent / answer)，检索命中时附带分数与其余候选，ToolService 无需改动。
+     */
+    private String answerJson(String intent, String answer, FaqIndex.Hit best, List<FaqIndex.Hit> others) {
+        ObjectNode json = mapper.createObjectNode();
+        json.put("intent", intent);
+        json.put("answer", answer);
+        if (best != null) {
+            json.put("score", Math.round(best.score() * 100) / 100.0);
+        }
+        if (!others.isEmpty()) {
+            ArrayNode candidates = json.putArray("candidates");
+            for (FaqIndex.Hit hit : others) {
+                candidates.addObject()
+                        .put("intent", hit.intent())
+                        .put("answer", hit.answer())
+                        .put("score", Math.round(hit.score() * 100) / 100.0);
+            }
+        }
+        return json.toString();
+    }
+
+    /**
+     * 索引未启用或尚未加载成功时的原有逻辑：SELECT * FROM faq_kb WHERE intent_key = ?
+     */
+    private String answerFromDatabase(String intent) {
         QueryWrapper<FaqKb> queryWrapper = new QueryWrapper<>();
         queryWrapper.eq("intent_key", intent);
         FaqKb faq = faqMapper.selectOne(queryWrapper);
@@ -61,10 +191,7 @@ public class FaqService {
             return String.format("{\"error\": \"没有找到关于 '%s' 的标准回答。\"}", intent);
         }
 
-        String answer = faq.getAnswerText();
         log.info("FaqService: 为意图 '{}' 成功找到答案。", intent);
-
-        // 保持返回的 JSON 格式与以前一致，ToolService 无需改动
-        return String.format("{\"intent\": \"%s\", \"answer\": \"%s\"}", intent, answer);
+        return answerJson(faq.getIntentKey(), faq.getAnswerText(), null, List.of());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,259 @@
+package org.example.mcp.service;
+
+import org.example.mcp.db.entity.Plan;
+import org.example.mcp.db.entity.PlanAlias;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 【新增】plan + plan_alias 的内存目录 (不可变，刷新时整体替换)。
+ * <p>
+ * 名称解析顺序与旧版数据库查询一致 (别名优先，其次主名称)，之后依次放宽：
+ * <ol>
+ *     <li>精确：别名 → 主名称；</li>
+ *     <li>规范化后精确：去掉空白与标点、全角转半角、转小写；</li>
+ *     <li>包含：输入与某个名称互相包含 (不能截断数字或字母，"畅享12" 不包含于 "畅享129")，且只有一个套餐满足；</li>
+ *     <li>编辑距离：Damerau-Levenshtein 距离不超过 max(1, 长度/4)，且最近的只有一个套餐 (如 "升档套餐" → "升档新套餐")。
+ *     数字与字母 (价格、档位、5G/4G) 必须逐段一致，只容忍汉字上的差异，"畅享129" 不会匹配到 "畅享199"。</li>
+ * </ol>
+ * 有歧义时宁可返回 null，由模型追问用户，也不猜错套餐。
+ */
+public final class PlanCatalog {
+
+    public static final PlanCatalog EMPTY = build(List.of(), List.of());
+
+    /**
+     * @param exact 是否为精确命中 (别名或主名称逐字一致)
+     */
+    public record Match(Plan plan, String matchedName, boolean exact) {}
+
+    private final int planCount;
+    private final Map<String, Plan> byAlias;
+    private final Map<String, Plan> byName;
+    // 规范化名称 → 套餐；同一规范化名称对应多个套餐时值为 null (歧义)
+    private final Map<String, Plan> byNormalized;
+
+    private PlanCatalog(int planCount, Map<String, Plan> byAlias, Map<String, Plan> byName, Map<String, Plan> byNormalized) {
+        this.planCount = planCount;
+        this.byAlias = byAlias;
+        this.byName = byName;
+        this.byNormalized = byNormalized;
+    }
+
+    public static PlanCatalog build(List<Plan> plans, List<PlanAlias> aliases) {
+        Map<Integer, Plan> byId = new HashMap<>();
+        Map<String, Plan> byName = new HashMap<>();
+        Map<String, Plan> byNormalized = new HashMap<>();
+        for (Plan plan : plans) {
+            if (plan.getPlanName() == null) {
+                continue;
+            }
+            plan.setAliases(new ArrayList<>());
+            byId.put(plan.getId(), plan);
+            byName.putIfAbsent(plan.getPlanName(), plan);
+            putNormalized(byNormalized, plan.getPlanName(), plan);
+        }
+        Map<String, Plan> byAlias = new HashMap<>();
+        for (PlanAlias alias : aliases) {
+            Plan plan = byId.get(alias.getPlanId());
+            if (plan == null || alias.getAliasName() == null) {
+                continue;
+            }
+            plan.getAliases().add(alias.getAliasName());
+            byAlias.putIfAbsent(alias.getAliasName(), plan);
+            putNormalized(byNormalized, alias.getAliasName(), plan);
+        }
+        return new PlanCatalog(byId.size(), byAlias, byName, byNormalized);
+    }
+
+    private static void putNormalized(Map<String, Plan> byNormalized, String name, Plan plan) {
+        String key = normalize(name);
+        if (key.isEmpty()) {
+            return;
+        }
+        if (byNormalized.containsKey(key) && byNormalized.get(key) != plan) {
+            byNormalized.put(key, null);
+        } else {
+            byNormalized.put(key, plan);
+        }
+    }
+
+    public int size() {
+        return planCount;
+    }
+
+    /**
+     * 按名称或别名解析套餐，找不到或有歧义时返回 null。
+     */
+    public Match find(String name) {
+        if (name == null || name.isBlank()) {
+            return null;
+        }
+        Plan plan = byAlias.get(name);
+        if (plan == null) {
+            plan = byName.get(name);
+        }
+        if (plan != null) {
+            return new Match(plan, name, true);
+        }
+
+        String query = normalize(name);
+        if (query.isEmpty()) {
+            return null;
+        }
+        if (byNormalized.containsKey(query)) {
+            Plan normalized = byNormalized.get(query);
+            return normalized == null ? null : new Match(normalized, query, false);
+        }
+
+        Match contained = uniqueBest(query, true);
+        return contained != null ? contained : uniqueBest(query, false);
+    }
+
+    /**
+     * 在全部规范化名称中找唯一最佳候选：containment 模式下要求所有包含关系都指向同一套餐，否则取编辑距离最小者。
+     */
+    private Match uniqueBest(String query, boolean containment) {
+        int maxDistance = Math.max(1, query.length() / 4);
+        int best = Integer.MAX_VALUE;
+        Plan bestPlan = null;
+        String bestName = null;
+        boolean ambiguous = false;
+        for (Map.Entry<String, Plan> e : byNormalized.entrySet()) {
+            String candidate = e.getKey();
+            int distance;
+            if (containment) {
+                if (!containsWholeTokens(candidate, query) && !containsWholeTokens(query, candidate)) {
+                    continue;
+                }
+                // 太短的名称 (如 "5g") 包含关系没有意义
+                if (Math.min(candidate.length(), query.length()) < 2) {
+                    continue;
+                }
+                // 包含关系不按长度挑选：命中多个套餐即视为歧义 (如只说了 "套餐")
+                distance = 0;
+            } else {
+                if (Math.abs(candidate.length() - query.length()) > maxDistance
+                        || !asciiTokens(candidate).equals(asciiTokens(query))) {
+                    continue;
+                }
+                distance = editDistance(query, candidate, maxDistance);
+                if (distance > maxDistance) {
+                    continue;
+                }
+            }
+            if (distance < best) {
+                best = distance;
+                bestPlan = e.getValue();
+                bestName = candidate;
+                ambiguous = bestPlan == null;
+            } else if (distance == best && e.getValue() != bestPlan) {
+                ambiguous = true;
+            }
+        }
+        return bestPlan == null || ambiguous ? null : new Match(bestPlan, bestName, false);
+    }
+
+    /**
+     * text 中是否有一处包含 part，且该处前后都不会把一段数字或字母截断。
+     */
+    static boolean containsWholeTokens(String text, String part) {
+        if (part.isEmpty()) {
+            return false;
+        }
+        for (int from = text.indexOf(part); from >= 0; from = text.indexOf(part, from + 1)) {
+            int end = from + part.length();
+            boolean cutsBefore = from > 0 && sameAsciiClass(text.charAt(from - 1), part.charAt(0));
+            boolean cutsAfter = end < text.length() && sameAsciiClass(text.charAt(end), part.charAt(part.length() - 1));
+            if (!cutsBefore && !cutsAfter) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 名称中的数字段与字母段 (如 "畅享129元5g" → [129, 5, g])。
+     */
+    static List<String> asciiTokens(String name) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= name.length(); i++) {
+            if (start >= 0 && (i == name.length() || !sameAsciiClass(name.charAt(i), name.charAt(start)))) {
+                tokens.add(name.substring(start, i));
+                start = -1;
+            }
+            if (start < 0 && i < name.length() && asciiClass(name.charAt(i)) != 0) {
+                start = i;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean sameAsciiClass(char a, char b) {
+        int cls = asciiClass(a);
+        return cls != 0 && cls == asciiClass(b);
+    }
+
+    private static int asciiClass(char c) {
+        if (c >= '0' && c <= '9') {
+            return 1;
+        }
+        return c >= 'a' && c <= 'z' ? 2 : 0;
+    }
+
+    /**
+     * 受限的 Damerau-Levenshtein (相邻交换算一次)，超过 limit 时提前返回 limit + 1。
+     */
+    static int editDistance(String a, String b, int limit) {
+        int n = a.length();
+        int m = b.length();
+        int[] prev2 = new int[m + 1];
+        int[] prev = new int[m + 1];
+        int[] cur = new int[m + 1];
+        for (int j = 0; j <= m; j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= n; i++) {
+            cur[0] = i;
+            int rowMin = cur[0];
+            for (int j = 1; j <= m; j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int value = Math.min(Math.min(prev[j] + 1, cur[j - 1] + 1), prev[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    value = Math.min(value, prev2[j - 2] + 1);
+                }
+                cur[j] = value;
+                rowMin = Math.min(rowMin, value);
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] tmp = prev2;
+            prev2 = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        return prev[m];
+    }
+
+    /**
+     * 去掉空白与标点，全角转半角并转小写。
+     */
+    static String normalize(String name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= '！' && c <= '～') {
+                c = (char) (c - 0xFEE0);
+            }
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,196 @@
+package org.example.mcp.service;
+
+import org.example.mcp.db.entity.Plan;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 【新增】多个套餐的字段级差异 (服务端计算，供 comparePlans 工具返回)。
+ * <p>
+ * detailsJson 的嵌套字段展开为 "流量.国内通用" 形式的路径，取值统一规范化后再比较：
+ * <ul>
+ *     <li>流量：30 GB / 30720MB → 30GB，不足 1GB 的以 MB 表示；省略 B 的 30G 只在流量字段 (路径含 "流量" / data / traffic) 中按流量处理，
+ *     其他字段的 "5G" (网络制式)、"100M" (宽带速率) 原样保留；</li>
+ *     <li>金额：¥128 / 128 元 → 128元，"每月" 统一为 "/月"；</li>
+ *     <li>通话：500min / 500 分钟 → 500分钟；</li>
+ *     <li>数字去掉多余的小数位，布尔值为 是 / 否，缺失字段为 "-"。</li>
+ * </ul>
+ * 只输出取值不同的字段 (数组与套餐顺序对齐)，相同字段只列出名称，比原样返回全部 detailsJson 少得多的 token。
+ */
+public final class PlanDiff {
+
+    static final String MISSING = "-";
+
+    private static final Pattern DATA = Pattern.compile("(?i)^(\\d+(?:\\.\\d+)?)\\s*(tb|gb|mb|kb)$");
+    private static final Pattern DATA_SHORTHAND = Pattern.compile("(?i)^(\\d+(?:\\.\\d+)?)\\s*([tgmk])$");
+    private static final Pattern DATA_FIELD = Pattern.compile("(?i)流量|data|traffic");
+    private static final Pattern MONEY = Pattern.compile("^¥?\\s*(\\d+(?:\\.\\d+)?)\\s*元?\\s*(/\\s*月|每月|/\\s*年|每年)?$");
+    private static final Pattern MINUTES = Pattern.compile("(?i)^(\\d+)\\s*(分钟|mins?|minutes)$");
+
+    private PlanDiff() {
+    }
+
+    /**
+     * @param plans 已解析的套餐 (顺序即输出顺序)
+     * @return {"plans": [...], "differences": {字段: [各套餐取值]}, "identical": [字段...]}
+     */
+    public static Map<String, Object> diff(List<Plan> plans) {
+        List<Map<String, String>> flattened = new ArrayList<>(plans.size());
+        Set<String> fields = new LinkedHashSet<>();
+        List<String> names = new ArrayList<>(plans.size());
+        for (Plan plan : plans) {
+            Map<String, String> values = flatten(plan);
+            flattened.add(values);
+            fields.addAll(values.keySet());
+            names.add(plan.getPlanName());
+        }
+
+        Map<String, List<String>> differences = new LinkedHashMap<>();
+        List<String> identical = new ArrayList<>();
+        for (String field : fields) {
+            List<String> row = new ArrayList<>(flattened.size());
+            for (Map<String, String> values : flattened) {
+                row.add(values.getOrDefault(field, MISSING));
+            }
+            if (row.stream().distinct().count() > 1) {
+                differences.put(field, row);
+            } else {
+                identical.add(field);
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("plans", names);
+        result.put("differences", differences);
+        result.put("identical", identical);
+        return result;
+    }
+
+    /**
+     * 单个套餐展开并规范化后的字段 (只找到一个套餐时没有可比较的对象，直接返回这些字段)。
+     */
+    public static Map<String, String> flatten(Plan plan) {
+        Map<String, String> values = new LinkedHashMap<>();
+        if (plan.getDescription() != null && !plan.getDescription().isBlank()) {
+            values.put("description", normalizeValue(plan.getDescription(), false));
+        }
+        if (plan.getDetailsJson() != null) {
+            flatten("", plan.getDetailsJson(), values, false);
+        }
+        return values;
+    }
+
+    private static void flatten(String prefix, Map<?, ?> map, Map<String, String> out, boolean dataField) {
+        for (Map.Entry<?, ?> e : map.entrySet()) {
+            String key = prefix.isEmpty() ? String.valueOf(e.getKey()) : prefix + "." + e.getKey();
+            boolean data = dataField || DATA_FIELD.matcher(key).find();
+            if (e.getValue() instanceof Map<?, ?> nested && !nested.isEmpty()) {
+                flatten(key, nested, out, data);
+            } else {
+                out.put(key, normalizeValue(e.getValue(), data));
+            }
+        }
+    }
+
+    /**
+     * @param dataField 字段路径是否表示流量 (决定省略 B 的 "30G" 是否按流量规范化)
+     */
+    static String normalizeValue(Object value, boolean dataField) {
+        if (value == null) {
+            return MISSING;
+        }
+        if (value instanceof Boolean b) {
+            return b ? "是" : "否";
+        }
+        if (value instanceof Number n) {
+            return plainNumber(n.toString());
+        }
+        if (value instanceof Collection<?> items) {
+            List<String> parts = new ArrayList<>(items.size());
+            for (Object item : items) {
+                parts.add(normalizeValue(item, dataField));
+            }
+            return parts.isEmpty() ? MISSING : String.join("、", parts);
+        }
+        if (value instanceof Map<?, ?> map) {
+            Map<String, String> nested = new LinkedHashMap<>();
+            flatten("", map, nested, dataField);
+            List<String> parts = new ArrayList<>(nested.size());
+            nested.forEach((k, v) -> parts.add(k + "=" + v));
+            return parts.isEmpty() ? MISSING : String.join("，", parts);
+        }
+        return normalizeText(value.toString(), dataField);
+    }
+
+    private static String normalizeText(String raw, boolean dataField) {
+        String s = toHalfWidth(raw).replaceAll("\\s+", " ").trim();
+        if (s.isEmpty()) {
+            return MISSING;
+        }
+        Matcher m = DATA.matcher(s);
+        if (!m.matches() && dataField) {
+            m = DATA_SHORTHAND.matcher(s);
+        }
+        if (m.matches()) {
+            return dataVolume(new BigDecimal(m.group(1)), Character.toLowerCase(m.group(2).charAt(0)));
+        }
+        m = MONEY.matcher(s);
+        if (m.matches() && (s.contains("元") || s.startsWith("¥"))) {
+            String period = m.group(2) == null ? "" : (m.group(2).contains("月") ? "/月" : "/年");
+            return plainNumber(m.group(1)) + "元" + period;
+        }
+        m = MINUTES.matcher(s);
+        if (m.matches()) {
+            return m.group(1) + "分钟";
+        }
+        return s;
+    }
+
+    private static String dataVolume(BigDecimal amount, char unit) {
+        BigDecimal mb = switch (unit) {
+            case 't' -> amount.multiply(BigDecimal.valueOf(1024L * 1024));
+            case 'g' -> amount.multiply(BigDecimal.valueOf(1024));
+            case 'k' -> amount.divide(BigDecimal.valueOf(1024), 3, RoundingMode.HALF_UP);
+            default -> amount;
+        };
+        if (mb.compareTo(BigDecimal.valueOf(1024)) >= 0) {
+            return plainNumber(mb.divide(BigDecimal.valueOf(1024), 3, RoundingMode.HALF_UP).toPlainString()) + "GB";
+        }
+        return plainNumber(mb.toPlainString()) + "MB";
+    }
+
+    private static String plainNumber(String number) {
+        try {
+            BigDecimal d = new BigDecimal(number).stripTrailingZeros();
+            return d.scale() < 0 ? d.setScale(0).toPlainString() : d.toPlainString();
+        } catch (NumberFormatException e) {
+            return number;
+        }
+    }
+
+    private static String toHalfWidth(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '　') {
+                c = ' ';
+            } else if (c == '￥') {
+                c = '¥';
+            } else if (c >= '！' && c <= '～') {
+                c = (char) (c - 0xFEE0);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
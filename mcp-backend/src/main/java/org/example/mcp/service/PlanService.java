@@ -1,57 +1,120 @@
 package org.example.mcp.service;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.example.mcp.db.entity.Plan; // <-- 【修改】
 import org.example.mcp.db.entity.PlanAlias; // <-- 【修改】
 import org.example.mcp.db.mapper.PlanAliasMapper; // <-- 【修改】
 import org.example.mcp.db.mapper.PlanMapper; // <-- 【修改】
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.InputStream;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 【重构】
  * 此服务现在从数据库 (plan, plan_alias) 读取数据，
  * 不再依赖于 mcp_data.json 文件。
+ * 【新增】两张表整体加载为内存目录 ({@link PlanCatalog})，detailsJson 只在加载时解析一次，
+ * compareTwoPlans 不再访问数据库，并支持近似名称 (如 "升档套餐" → "升档新套餐")；
+ * 后台按两张表的 行数 / 最大 id / 最大 updated_at 指纹轮询，有变化时重建。目录不可用时退回原来的逐条查询。
  */
 @Service
 public class PlanService {
 
     private static final Logger log = LoggerFactory.getLogger(PlanService.class);
+    // 【新增】comparePlans 单次最多比较的套餐数
+    private static final int MAX_COMPARED_PLANS = 6;
     private final PlanMapper planMapper; // <-- 【修改】
     private final PlanAliasMapper planAliasMapper; // <-- 【修改】
-    private final ObjectMapper mapper = new ObjectMapper();
 
-    public PlanService(PlanMapper planMapper, PlanAliasMapper planAliasMapper) { // <-- 【修改】
+    private final boolean catalogEnabled;
+    private final long refreshIntervalMs;
+
+    private volatile PlanCatalog catalog = PlanCatalog.EMPTY;
+    private volatile String catalogFingerprint;
+    private ScheduledExecutorService refresher;
+
+    public PlanService(PlanMapper planMapper, PlanAliasMapper planAliasMapper, // <-- 【修改】
+                       @Value("${plan.catalog.enabled:true}") boolean catalogEnabled,
+                       @Value("${plan.catalog.refresh-interval-ms:60000}") long refreshIntervalMs) {
         this.planMapper = planMapper;
         this.planAliasMapper = planAliasMapper;
+        this.catalogEnabled = catalogEnabled;
+        this.refreshIntervalMs = refreshIntervalMs;
     }
 
     /**
-     * 【删除】
-     * init() 方法不再需要，数据已在数据库中。
+     * 【修改】启动时加载套餐目录 (数据库不可用时不阻止启动，之后由后台刷新补上)，并启动变更轮询。
      */
-    // @PostConstruct
-    // public void init() { ... }
+    @PostConstruct
+    public void init() {
+        if (!catalogEnabled) {
+            return;
+        }
+        refreshCatalog();
+        if (refreshIntervalMs > 0) {
+            refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "plan-catalog-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+            refresher.scheduleWithFixedDelay(this::refreshCatalog, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+    }
+
+    /**
+     * 【新增】任一张表的指纹变化时重建目录。
+     */
+    public void refreshCatalog() {
+        try {
+            String fingerprint = fingerprint();
+            if (catalog.size() > 0 && Objects.equals(fingerprint, catalogFingerprint)) {
+                return;
+            }
+            long start = System.nanoTime();
+            List<Plan> plans = planMapper.selectList(null);
+            List<PlanAlias> aliases = planAliasMapper.selectList(null);
+            catalog = PlanCatalog.build(plans, aliases);
+            catalogFingerprint = fingerprint;
+            log.info("PlanService: 套餐目录已重建，共 {} 个套餐、{} 个别名，耗时 {} ms", catalog.size(), aliases.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Exception e) {
+            log.warn("PlanService: 刷新套餐目录失败，继续使用现有目录 ({} 个套餐): {}", catalog.size(), e.getMessage());
+        }
+    }
+
+    private String fingerprint() {
+        QueryWrapper<Plan> planQuery = new QueryWrapper<>();
+        planQuery.select("COUNT(*) AS cnt", "MAX(id) AS max_id", "MAX(updated_at) AS latest");
+        QueryWrapper<PlanAlias> aliasQuery = new QueryWrapper<>();
+        aliasQuery.select("COUNT(*) AS cnt", "MAX(id) AS max_id");
+        return planMapper.selectMaps(planQuery) + "/" + planAliasMapper.selectMaps(aliasQuery);
+    }
 
     /**
-     * 【重构】从数据库比较两个套餐
+     * 【重构】比较两个套餐 (【修改】优先走内存目录)
      * @return 返回 Map<String, Plan>，其中 Plan 是包含 detailsJson 的 POJO/实体
      */
     public Map<String, Plan> compareTwoPlans(String planName1, String planName2) {
-        Map<String, Plan> result = new HashMap<>();
+        Map<String, Plan> result = new LinkedHashMap<>();
 
         Plan p1 = findPlanByNameOrAlias(planName1);
         if (p1 != null) {
@@ -73,9 +136,75 @@ public class PlanService {
     }
 
     /**
-     * 【重构】辅助方法：通过名称或别名查找套餐
+     * 【新增】比较多个套餐，只返回取值不同的字段 (见 {@link PlanDiff})。
+     * 名称经别名 / 近似匹配解析到其他名称时记入 resolved，找不到的记入 unresolved，由模型向用户确认。
+     */
+    public Map<String, Object> comparePlans(List<String> planNames) {
+        List<Plan> plans = new ArrayList<>();
+        Map<String, String> resolved = new LinkedHashMap<>();
+        List<String> unresolved = new ArrayList<>();
+        for (String name : planNames) {
+            if (name == null || name.isBlank()) {
+                continue;
+            }
+            if (plans.size() >= MAX_COMPARED_PLANS) {
+                log.warn("比较套餐数量超过 {} 个，忽略: {}", MAX_COMPARED_PLANS, name);
+                continue;
+            }
+            Plan plan = findPlanByNameOrAlias(name.trim());
+            if (plan == null) {
+                log.warn("比较套餐时未找到: {}", name);
+                unresolved.add(name);
+                continue;
+            }
+            if (!plan.getPlanName().equals(name.trim())) {
+                resolved.put(name, plan.getPlanName());
+            }
+            if (plans.stream().noneMatch(p -> Objects.equals(p.getId(), plan.getId()))) {
+                plans.add(plan);
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (plans.size() >= 2) {
+            result.putAll(PlanDiff.diff(plans));
+        } else if (plans.size() == 1) {
+            result.put("plans", List.of(plans.get(0).getPlanName()));
+            result.put("details", PlanDiff.flatten(plans.get(0)));
+        } else {
+            result.put("error", "未找到任何可比较的套餐");
+        }
+        if (!resolved.isEmpty()) {
+            result.put("resolved", resolved);
+        }
+        if (!unresolved.isEmpty()) {
+            result.put("unresolved", unresolved);
+        }
+        return result;
+    }
+
+    /**
+     * 【修改】辅助方法：通过名称或别名查找套餐；目录已加载时不访问数据库，并允许近似名称
      */
     private Plan findPlanByNameOrAlias(String name) {
+        PlanCatalog current = catalog;
+        if (catalogEnabled && current.size() > 0) {
+            PlanCatalog.Match match = current.find(name);
+            if (match == null) {
+                return null;
+            }
+            if (!match.exact()) {
+                log.info("套餐名称 '{}' 近似匹配到 '{}' ({})", name, match.plan().getPlanName(), match.matchedName());
+            }
+            return match.plan();
+        }
+        return findPlanInDatabase(name);
+    }
+
+    /**
+     * 目录未启用或尚未加载成功时的原有逻辑 (精确匹配)。
+     */
+    private Plan findPlanInDatabase(String name) {
         // 1. 尝试按别名查找
         // SELECT * FROM plan_alias WHERE alias_name = ? LIMIT 1
         QueryWrapper<PlanAlias> aliasQuery = new QueryWrapper<>();
@@ -101,4 +230,4 @@ public class PlanService {
 
         return plan;
     }
-}
\ No newline at end of file
+}
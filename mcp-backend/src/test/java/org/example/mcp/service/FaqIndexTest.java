@@ -0,0 +1,70 @@
+package org.example.mcp.service;
+
+import org.example.mcp.db.entity.FaqKb;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FaqIndexTest {
+
+    private static FaqKb faq(String intent, String answer) {
+        FaqKb faq = new FaqKb();
+        faq.setIntentKey(intent);
+        faq.setAnswerText(answer);
+        return faq;
+    }
+
+    private static FaqIndex index(String synonyms) {
+        return FaqIndex.build(List.of(
+                faq("合约期内能否改套餐", "合约期内只能升档，不能降档。"),
+                faq("违约金怎么算", "提前解约按剩余月数收取违约金。"),
+                faq("5G套餐资费", "5G套餐月费从129元起。"),
+                faq("  ", "无效条目"),
+                faq("流量用完怎么办", null)), synonyms);
+    }
+
+    @Test
+    void skipsInvalidEntriesAndMatchesExactIntent() {
+        FaqIndex index = index("");
+        assertEquals(3, index.size());
+        assertEquals("提前解约按剩余月数收取违约金。", index.exact("违约金怎么算").getAnswerText());
+        assertNull(index.exact("违约金"));
+    }
+
+    @Test
+    void ranksByBm25() {
+        List<FaqIndex.Hit> hits = index("").search("违约金要多少", 3, 0.0);
+        assertEquals("违约金怎么算", hits.get(0).intent());
+        for (int i = 1; i < hits.size(); i++) {
+            assertTrue(hits.get(i - 1).score() >= hits.get(i).score());
+        }
+    }
+
+    @Test
+    void synonymsWidenTheQuery() {
+        assertTrue(index("").search("优惠期内改套餐", 1, 0.6).isEmpty());
+        List<FaqIndex.Hit> hits = index("合约期,优惠期").search("优惠期内改套餐", 1, 0.6);
+        assertEquals(1, hits.size());
+        assertEquals("合约期内能否改套餐", hits.get(0).intent());
+        // "内改" / "改套" 两个二字组不在条目中，覆盖率不到 1
+        assertTrue(hits.get(0).coverage() >= 0.6 && hits.get(0).coverage() < 1.0);
+    }
+
+    @Test
+    void coverageFiltersWeakMatches() {
+        // 只沾了 "套餐" 两个字，覆盖率低于阈值
+        assertTrue(index("").search("宽带套餐怎么装机", 3, 0.6).isEmpty());
+        assertTrue(index("").search("", 3, 0.0).isEmpty());
+        assertTrue(FaqIndex.EMPTY.search("违约金", 3, 0.0).isEmpty());
+    }
+
+    @Test
+    void tokenizesHanBigramsAndAsciiRuns() {
+        assertEquals(List.of("5g", "套", "餐", "套餐"), FaqIndex.tokenize("５G套餐"));
+        assertEquals(List.of("违", "约", "违约", "129"), FaqIndex.tokenize("违约 129"));
+    }
+}
@@ -0,0 +1,96 @@
+package org.example.mcp.service;
+
+import org.example.mcp.db.entity.Plan;
+import org.example.mcp.db.entity.PlanAlias;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlanCatalogTest {
+
+    private static Plan plan(int id, String name) {
+        Plan plan = new Plan();
+        plan.setId(id);
+        plan.setPlanName(name);
+        return plan;
+    }
+
+    private static PlanAlias alias(int planId, String name) {
+        PlanAlias alias = new PlanAlias();
+        alias.setPlanId(planId);
+        alias.setAliasName(name);
+        return alias;
+    }
+
+    private static PlanCatalog catalog() {
+        return PlanCatalog.build(
+                List.of(plan(1, "畅享129元套餐"), plan(2, "畅享199元套餐"), plan(3, "5G升档新套餐"), plan(4, "畅享12")),
+                List.of(alias(1, "129套餐"), alias(3, "升档包")));
+    }
+
+    @Test
+    void exactAliasAndName() {
+        PlanCatalog catalog = catalog();
+        assertEquals(4, catalog.size());
+        PlanCatalog.Match byAlias = catalog.find("129套餐");
+        assertEquals(1, byAlias.plan().getId());
+        assertTrue(byAlias.exact());
+        assertEquals(3, catalog.find("5G升档新套餐").plan().getId());
+        assertEquals(List.of("升档包"), catalog.find("升档包").plan().getAliases());
+    }
+
+    @Test
+    void normalizedMatchIgnoresCasePunctuationAndFullWidth() {
+        PlanCatalog.Match match = catalog().find("５g 升档-新套餐");
+        assertEquals(3, match.plan().getId());
+        assertFalse(match.exact());
+    }
+
+    @Test
+    void containmentNeverCutsDigits() {
+        PlanCatalog catalog = catalog();
+        // "我要畅享129元套餐吧" 中的 "畅享12" 后面还有数字，不算包含
+        assertEquals(1, catalog.find("我要畅享129元套餐吧").plan().getId());
+        // "畅享12" 只是 "畅享129元套餐" 的前缀，不能因此匹配
+        PlanCatalog single = PlanCatalog.build(List.of(plan(1, "畅享129元套餐")), List.of());
+        assertNull(single.find("畅享12"));
+        assertTrue(PlanCatalog.containsWholeTokens("畅享129元", "畅享129"));
+        assertFalse(PlanCatalog.containsWholeTokens("畅享129元", "畅享12"));
+        assertFalse(PlanCatalog.containsWholeTokens("plan5g", "an5g"));
+    }
+
+    @Test
+    void ambiguousContainmentReturnsNull() {
+        assertNull(catalog().find("畅享"));
+        assertNull(catalog().find("套餐"));
+    }
+
+    @Test
+    void editDistanceToleratesHanOnly() {
+        PlanCatalog catalog = catalog();
+        assertEquals(3, catalog.find("5G升档套餐").plan().getId());
+        // 数字不同的名称不做模糊匹配
+        assertNull(catalog.find("畅享139元套餐"));
+        assertEquals(List.of("129", "5", "g"), PlanCatalog.asciiTokens("畅享129元5g"));
+    }
+
+    @Test
+    void editDistanceCountsTranspositionOnce() {
+        assertEquals(1, PlanCatalog.editDistance("升档套餐", "档升套餐", 2));
+        assertEquals(3, PlanCatalog.editDistance("abcdef", "uvwxyz", 2));
+    }
+
+    @Test
+    void blankOrUnknownNamesReturnNull() {
+        PlanCatalog catalog = catalog();
+        assertNull(catalog.find(null));
+        assertNull(catalog.find("  "));
+        assertNull(catalog.find("宽带"));
+        assertNull(PlanCatalog.EMPTY.find("129套餐"));
+    }
+}
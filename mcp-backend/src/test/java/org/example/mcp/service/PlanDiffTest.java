@@ -0,0 +1,77 @@
+package org.example.mcp.service;
+
+import org.example.mcp.db.entity.Plan;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PlanDiffTest {
+
+    private static Plan plan(String name, Map<String, Object> details) {
+        Plan plan = new Plan();
+        plan.setPlanName(name);
+        plan.setDetailsJson(details);
+        return plan;
+    }
+
+    @Test
+    void normalizesDataVolumes() {
+        assertEquals("30GB", PlanDiff.normalizeValue("30 GB", false));
+        assertEquals("30GB", PlanDiff.normalizeValue("30720MB", false));
+        assertEquals("1.5GB", PlanDiff.normalizeValue("1536 mb", false));
+        assertEquals("512MB", PlanDiff.normalizeValue("0.5gb", false));
+        assertEquals("30GB", PlanDiff.normalizeValue("３０Ｇ", true));
+    }
+
+    @Test
+    void shorthandUnitsOutsideDataFieldsAreKept() {
+        assertEquals("5G", PlanDiff.normalizeValue("5G", false));
+        assertEquals("100M", PlanDiff.normalizeValue("100M", false));
+    }
+
+    @Test
+    void normalizesMoneyMinutesAndScalars() {
+        assertEquals("128元", PlanDiff.normalizeValue("¥128", false));
+        assertEquals("99元", PlanDiff.normalizeValue("￥99.00", false));
+        assertEquals("128元/月", PlanDiff.normalizeValue("128 元每月", false));
+        assertEquals("1200元/年", PlanDiff.normalizeValue("1200元 / 年", false));
+        assertEquals("500分钟", PlanDiff.normalizeValue("500 mins", false));
+        assertEquals("是", PlanDiff.normalizeValue(true, false));
+        assertEquals("30", PlanDiff.normalizeValue(30.0, false));
+        assertEquals(PlanDiff.MISSING, PlanDiff.normalizeValue(null, false));
+        assertEquals(PlanDiff.MISSING, PlanDiff.normalizeValue("  ", false));
+        assertEquals("短信、彩信", PlanDiff.normalizeValue(List.of("短信", "彩信"), false));
+    }
+
+    @Test
+    void diffListsOnlyDifferingFields() {
+        Map<String, Object> a = new LinkedHashMap<>();
+        a.put("流量", Map.of("国内通用", "30G"));
+        a.put("网络", "5G");
+        a.put("月费", "¥129");
+        a.put("宽带", "100M");
+        Map<String, Object> b = new LinkedHashMap<>();
+        b.put("流量", Map.of("国内通用", "30720MB"));
+        b.put("网络", "4G");
+        b.put("月费", "129元");
+
+        Map<String, Object> result = PlanDiff.diff(List.of(plan("A", a), plan("B", b)));
+        assertEquals(List.of("A", "B"), result.get("plans"));
+        assertEquals(Map.of("网络", List.of("5G", "4G"), "宽带", List.of("100M", PlanDiff.MISSING)), result.get("differences"));
+        assertEquals(List.of("流量.国内通用", "月费"), result.get("identical"));
+    }
+
+    @Test
+    void dataFieldFlagIsInheritedByNestedFields() {
+        Map<String, Object> details = new LinkedHashMap<>();
+        details.put("data", Map.of("国内", "20G"));
+        details.put("网络", "5G");
+        Plan plan = plan("A", details);
+        plan.setDescription("月费 ¥59");
+        assertEquals(Map.of("description", "月费 ¥59", "data.国内", "20GB", "网络", "5G"), PlanDiff.flatten(plan));
+    }
+}